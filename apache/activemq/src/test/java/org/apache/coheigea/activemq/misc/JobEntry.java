@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.misc;
+
+/**
+ * The in-memory index entry for a scheduled job. The payload is not held on the heap, only its location in
+ * the MappedJournal.
+ */
+final class JobEntry {
+
+    final String jobId;
+    final String cronEntry;
+    final long start;
+    final long delay;
+    final long period;
+    final int repeat;
+
+    long nextTime;
+    int executionCount;
+
+    // The location of the payload in the journal
+    int segment;
+    int payloadOffset;
+    int payloadLength;
+    // The size of the ADD record, including its length
+    int recordLength;
+
+    // TimingWheel state
+    JobEntry prev;
+    JobEntry next;
+    int level = TimingWheel.NOT_SCHEDULED;
+    int slot;
+
+    JobEntry(String jobId, String cronEntry, long start, long delay, long period, int repeat) {
+        this.jobId = jobId;
+        this.cronEntry = cronEntry;
+        this.start = start;
+        this.delay = delay;
+        this.period = period;
+        this.repeat = repeat;
+    }
+
+    boolean isCron() {
+        return cronEntry != null && cronEntry.length() > 0;
+    }
+
+}
@@ -0,0 +1,457 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.misc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.activemq.broker.scheduler.CronParser;
+import org.apache.activemq.broker.scheduler.Job;
+import org.apache.activemq.broker.scheduler.JobListener;
+import org.apache.activemq.broker.scheduler.JobScheduler;
+import org.apache.activemq.broker.scheduler.JobSupport;
+import org.apache.activemq.util.ByteSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A JobScheduler that keeps a hierarchical timing wheel of the scheduled jobs in memory, while the job payloads
+ * are spilled to a memory-mapped append-only journal. A dispatcher thread advances the wheel once per tick
+ * and fires all of the jobs that are due in bulk. On a restart, the jobs are recovered from the journal.
+ */
+public class MappedJobScheduler implements JobScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedJobScheduler.class);
+
+    private final String name;
+    private final long tickMillis;
+    private final boolean syncWrites;
+    private final MappedJournal journal;
+    private final Map<String, JobEntry> jobs = new HashMap<>();
+    private final List<JobListener> listeners = new CopyOnWriteArrayList<>();
+    private TimingWheel wheel;
+    // Jobs that are due but have not been fired yet
+    private final List<JobEntry> due = new ArrayList<>();
+
+    private volatile boolean dispatchEnabled = true;
+    private volatile boolean running;
+    private Thread dispatcher;
+
+    private final AtomicLong firedJobs = new AtomicLong();
+
+    MappedJobScheduler(String name, File directory, int segmentSize, long tickMillis, boolean syncWrites) {
+        this.name = name;
+        this.tickMillis = tickMillis;
+        this.syncWrites = syncWrites;
+        this.journal = new MappedJournal(directory, segmentSize);
+    }
+
+    synchronized void start() throws Exception {
+        wheel = new TimingWheel(tickMillis, System.currentTimeMillis());
+        journal.open(new MappedJournal.RecordVisitor() {
+            @Override
+            public void add(JobEntry entry) {
+                jobs.put(entry.jobId, entry);
+            }
+
+            @Override
+            public void update(String jobId, long nextTime, int executionCount) {
+                JobEntry entry = jobs.get(jobId);
+                if (entry != null) {
+                    entry.nextTime = nextTime;
+                    entry.executionCount = executionCount;
+                }
+            }
+
+            @Override
+            public void remove(String jobId) {
+                jobs.remove(jobId);
+            }
+        });
+
+        // Jobs that were due while the broker was down go into the first batch
+        for (JobEntry entry : jobs.values()) {
+            journal.recovered(entry);
+            wheel.add(entry, due);
+        }
+
+        running = true;
+        dispatcher = new Thread(this::dispatchLoop, "MappedJobScheduler:" + name);
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    void stop() throws Exception {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = dispatcher;
+            dispatcher = null;
+        }
+        if (thread != null) {
+            // Wake the dispatcher up, and wait for any batch of jobs that it is firing, so that no job is
+            // dispatched once the journal is closed. It needs the lock to finish, so it isn't held here.
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+        synchronized (this) {
+            journal.close();
+        }
+    }
+
+    private void dispatchLoop() {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        while (running) {
+            LockSupport.parkNanos(tickNanos);
+            if (!dispatchEnabled) {
+                continue;
+            }
+            try {
+                fireDueJobs(System.currentTimeMillis());
+            } catch (Exception ex) {
+                LOG.error("Error firing the due jobs of the scheduler " + name, ex);
+            }
+        }
+    }
+
+    /**
+     * Fire all of the jobs that are due at the given time, and reschedule the ones that repeat.
+     * @return the number of jobs that were fired
+     */
+    int fireDueJobs(long now) throws Exception {
+        List<String> firedIds;
+        List<byte[]> firedPayloads;
+        synchronized (this) {
+            if (!running) {
+                return 0;
+            }
+            wheel.advance(now, due);
+            if (due.isEmpty()) {
+                return 0;
+            }
+            List<JobEntry> batch = new ArrayList<>(due);
+            due.clear();
+
+            firedIds = new ArrayList<>(batch.size());
+            firedPayloads = new ArrayList<>(batch.size());
+            List<JobEntry> rescheduled = new ArrayList<>();
+            for (JobEntry entry : batch) {
+                if (jobs.get(entry.jobId) != entry) {
+                    // Removed or replaced since it became due
+                    continue;
+                }
+                firedIds.add(entry.jobId);
+                firedPayloads.add(journal.readPayload(entry));
+
+                entry.executionCount++;
+                long nextTime = getNextTime(entry, now);
+                if (nextTime > 0) {
+                    entry.nextTime = nextTime;
+                    journal.update(entry);
+                    rescheduled.add(entry);
+                } else {
+                    jobs.remove(entry.jobId);
+                    journal.remove(entry);
+                }
+            }
+            for (JobEntry entry : rescheduled) {
+                // A job that is due again immediately is fired on the next tick
+                wheel.add(entry, due);
+            }
+            if (syncWrites) {
+                journal.sync();
+            }
+        }
+
+        for (int i = 0; i < firedIds.size(); i++) {
+            ByteSequence payload = new ByteSequence(firedPayloads.get(i));
+            for (JobListener listener : listeners) {
+                listener.scheduledJob(firedIds.get(i), payload);
+            }
+        }
+        firedJobs.addAndGet(firedIds.size());
+        return firedIds.size();
+    }
+
+    /**
+     * @return the next time the job should fire, or 0 if it is finished
+     */
+    private static long getNextTime(JobEntry entry, long now) throws Exception {
+        if (entry.isCron()) {
+            return CronParser.getNextScheduledTime(entry.cronEntry, now);
+        }
+        // A job fires once, and then "repeat" more times
+        if (entry.repeat < 0 || entry.executionCount <= entry.repeat) {
+            return Math.max(entry.nextTime + entry.period, 1);
+        }
+        return 0;
+    }
+
+    @Override
+    public String getName() throws Exception {
+        return name;
+    }
+
+    @Override
+    public void startDispatching() throws Exception {
+        dispatchEnabled = true;
+    }
+
+    @Override
+    public void stopDispatching() throws Exception {
+        dispatchEnabled = false;
+    }
+
+    @Override
+    public void addListener(JobListener listener) throws Exception {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(JobListener listener) throws Exception {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void schedule(String jobId, ByteSequence payload, long delay) throws Exception {
+        schedule(jobId, payload, null, delay, 0, 0);
+    }
+
+    @Override
+    public void schedule(String jobId, ByteSequence payload, String cronEntry) throws Exception {
+        schedule(jobId, payload, cronEntry, 0, 0, 0);
+    }
+
+    @Override
+    public void schedule(String jobId, ByteSequence payload, String cronEntry, long delay, long period, int repeat)
+        throws Exception {
+        long now = System.currentTimeMillis();
+        JobEntry entry = new JobEntry(jobId, cronEntry, now, delay, period, repeat);
+        if (entry.isCron()) {
+            entry.nextTime = CronParser.getNextScheduledTime(cronEntry, now);
+        } else {
+            entry.nextTime = now + delay;
+        }
+
+        byte[] data = payload.getData();
+        if (payload.getOffset() != 0 || payload.getLength() != data.length) {
+            data = Arrays.copyOfRange(data, payload.getOffset(), payload.getOffset() + payload.getLength());
+        }
+
+        synchronized (this) {
+            JobEntry existing = jobs.get(jobId);
+            if (existing != null) {
+                removeEntry(existing);
+            }
+            journal.add(entry, data);
+            if (syncWrites) {
+                journal.sync();
+            }
+            jobs.put(jobId, entry);
+            // A job that is already due fires on the next tick
+            wheel.add(entry, due);
+        }
+    }
+
+    @Override
+    public synchronized void remove(long time) throws Exception {
+        for (JobEntry entry : new ArrayList<>(jobs.values())) {
+            if (entry.nextTime == time) {
+                removeEntry(entry);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(String jobId) throws Exception {
+        JobEntry entry = jobs.get(jobId);
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    private void removeEntry(JobEntry entry) throws Exception {
+        wheel.remove(entry);
+        jobs.remove(entry.jobId);
+        journal.remove(entry);
+    }
+
+    @Override
+    public synchronized void removeAllJobs() throws Exception {
+        wheel.clear();
+        due.clear();
+        jobs.clear();
+        journal.clear();
+    }
+
+    @Override
+    public synchronized void removeAllJobs(long start, long finish) throws Exception {
+        for (JobEntry entry : new ArrayList<>(jobs.values())) {
+            if (entry.nextTime >= start && entry.nextTime <= finish) {
+                removeEntry(entry);
+            }
+        }
+    }
+
+    @Override
+    public synchronized long getNextScheduleTime() throws Exception {
+        long nextTime = -1;
+        for (JobEntry entry : jobs.values()) {
+            if (nextTime == -1 || entry.nextTime < nextTime) {
+                nextTime = entry.nextTime;
+            }
+        }
+        return nextTime;
+    }
+
+    @Override
+    public synchronized List<Job> getNextScheduleJobs() throws Exception {
+        long nextTime = getNextScheduleTime();
+        return getAllJobs(nextTime, nextTime);
+    }
+
+    @Override
+    public synchronized List<Job> getAllJobs() throws Exception {
+        return getAllJobs(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized List<Job> getAllJobs(long start, long finish) throws Exception {
+        List<JobEntry> entries = new ArrayList<>();
+        for (JobEntry entry : jobs.values()) {
+            if (entry.nextTime >= start && entry.nextTime <= finish) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.nextTime));
+
+        List<Job> result = new ArrayList<>(entries.size());
+        for (JobEntry entry : entries) {
+            result.add(new MappedJob(entry, journal.readPayload(entry)));
+        }
+        return result;
+    }
+
+    public boolean isExternal() {
+        return false;
+    }
+
+    public synchronized int getJobCount() {
+        return jobs.size();
+    }
+
+    public long getFiredJobs() {
+        return firedJobs.get();
+    }
+
+    public synchronized long getJournalSize() {
+        return journal.size();
+    }
+
+    public synchronized int getJournalSegmentCount() {
+        return journal.getSegmentCount();
+    }
+
+    /**
+     * A snapshot of a scheduled job
+     */
+    private static final class MappedJob implements Job {
+        private final String jobId;
+        private final String cronEntry;
+        private final long start;
+        private final long delay;
+        private final long period;
+        private final int repeat;
+        private final long nextTime;
+        private final int executionCount;
+        private final byte[] payload;
+
+        MappedJob(JobEntry entry, byte[] payload) {
+            this.jobId = entry.jobId;
+            this.cronEntry = entry.cronEntry;
+            this.start = entry.start;
+            this.delay = entry.delay;
+            this.period = entry.period;
+            this.repeat = entry.repeat;
+            this.nextTime = entry.nextTime;
+            this.executionCount = entry.executionCount;
+            this.payload = payload;
+        }
+
+        @Override
+        public String getJobId() {
+            return jobId;
+        }
+
+        @Override
+        public int getRepeat() {
+            return repeat;
+        }
+
+        @Override
+        public long getStart() {
+            return start;
+        }
+
+        @Override
+        public long getDelay() {
+            return delay;
+        }
+
+        @Override
+        public long getPeriod() {
+            return period;
+        }
+
+        @Override
+        public String getCronEntry() {
+            return cronEntry;
+        }
+
+        @Override
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        @Override
+        public String getStartTime() {
+            return JobSupport.getDateTime(start);
+        }
+
+        @Override
+        public String getNextExecutionTime() {
+            return JobSupport.getDateTime(nextTime);
+        }
+
+        @Override
+        public int getExecutionCount() {
+            return executionCount;
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.misc;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.activemq.broker.scheduler.JobScheduler;
+import org.apache.activemq.broker.scheduler.JobSchedulerStore;
+import org.apache.activemq.util.ServiceStopper;
+import org.apache.activemq.util.ServiceSupport;
+
+/**
+ * A JobSchedulerStore that creates MappedJobSchedulers. Unlike the InMemoryJobSchedulerStore, the job payloads
+ * are not held on the heap, and the jobs survive a restart of the broker.
+ */
+public class MappedJobSchedulerStore extends ServiceSupport implements JobSchedulerStore {
+
+    private File directory = new File("target/activemq-data/scheduler");
+    private int segmentSize = 64 * 1024 * 1024;
+    private long tickMillis = 10L;
+    private boolean syncWrites;
+    private final Map<String, MappedJobScheduler> schedulers = new HashMap<>();
+
+    @Override
+    protected synchronized void doStart() throws Exception {
+        for (MappedJobScheduler scheduler : schedulers.values()) {
+            scheduler.start();
+        }
+    }
+
+    @Override
+    protected synchronized void doStop(ServiceStopper stopper) throws Exception {
+        for (MappedJobScheduler scheduler : schedulers.values()) {
+            try {
+                scheduler.stop();
+            } catch (Exception ex) {
+                stopper.onException(this, ex);
+            }
+        }
+        schedulers.clear();
+    }
+
+    @Override
+    public synchronized JobScheduler getJobScheduler(String name) throws Exception {
+        MappedJobScheduler scheduler = schedulers.get(name);
+        if (scheduler == null) {
+            scheduler = new MappedJobScheduler(name, new File(directory, name), segmentSize, tickMillis, syncWrites);
+            schedulers.put(name, scheduler);
+            if (isStarted()) {
+                scheduler.start();
+            }
+        }
+        return scheduler;
+    }
+
+    @Override
+    public synchronized boolean removeJobScheduler(String name) throws Exception {
+        MappedJobScheduler scheduler = schedulers.remove(name);
+        if (scheduler != null) {
+            scheduler.removeAllJobs();
+            scheduler.stop();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized long size() {
+        long size = 0;
+        for (MappedJobScheduler scheduler : schedulers.values()) {
+            size += scheduler.getJournalSize();
+        }
+        return size;
+    }
+
+    @Override
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * The size of each memory-mapped journal file, 64MB by default
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * The resolution of the timing wheel, 10ms by default
+     */
+    public void setTickMillis(long tickMillis) {
+        this.tickMillis = tickMillis;
+    }
+
+    public boolean isSyncWrites() {
+        return syncWrites;
+    }
+
+    /**
+     * Whether to force the journal to disk after every write, false by default
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.misc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.HdrHistogram.Histogram;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ScheduledMessage;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.scheduler.Job;
+import org.apache.activemq.broker.scheduler.JobScheduler;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Some tests for the MappedJobSchedulerStore, which keeps a timing wheel of the scheduled jobs in memory and
+ * the payloads in a memory-mapped journal.
+ */
+public class MappedJobSchedulerStoreTest {
+
+    @org.junit.Test
+    public void testScheduledDelay() throws Exception {
+        File directory = new File("target/activemq-scheduler-broker");
+        FileUtils.deleteDirectory(directory);
+
+        BrokerService broker = new BrokerService();
+        broker.setPersistenceAdapter(new MemoryPersistenceAdapter());
+        MappedJobSchedulerStore store = new MappedJobSchedulerStore();
+        store.setDirectory(directory);
+        broker.setJobSchedulerStore(store);
+        broker.setDataDirectory("target/activemq-data");
+        broker.setSchedulerSupport(true);
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        int brokerPort = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        String brokerAddress = "tcp://localhost:" + brokerPort;
+        broker.addConnector(brokerAddress);
+        broker.start();
+
+        try {
+            ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+            Connection connection = factory.createConnection();
+            connection.start();
+
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Destination queue = session.createQueue("testqueue");
+            MessageProducer producer = session.createProducer(queue);
+
+            TextMessage message = session.createTextMessage("Some txt");
+            message.setStringProperty("some header", "some value");
+            // Deliver the message after a 3 second delay
+            message.setLongProperty(ScheduledMessage.AMQ_SCHEDULED_DELAY, 3000L);
+
+            MessageConsumer consumer = session.createConsumer(queue);
+
+            producer.send(message);
+
+            // The message won't be received
+            TextMessage receivedMessage = (TextMessage)consumer.receive(1000L);
+            assertNull(receivedMessage);
+
+            // Now wait for a while and the message should be received
+            receivedMessage = (TextMessage)consumer.receive(4000L);
+            assertEquals("Some txt", receivedMessage.getText());
+            assertEquals("some value", receivedMessage.getStringProperty("some header"));
+
+            connection.close();
+        } finally {
+            broker.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void testRepeat() throws Exception {
+        File directory = new File("target/activemq-scheduler-repeat");
+        FileUtils.deleteDirectory(directory);
+
+        MappedJobSchedulerStore store = new MappedJobSchedulerStore();
+        store.setDirectory(directory);
+        store.start();
+
+        try {
+            JobScheduler scheduler = store.getJobScheduler("test");
+            CountDownLatch latch = new CountDownLatch(3);
+            scheduler.addListener((id, job) -> latch.countDown());
+
+            scheduler.schedule("job1", new ByteSequence("payload".getBytes(StandardCharsets.UTF_8)), null, 100L, 100L, 2);
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            // The job is finished after firing 3 times
+            Thread.sleep(500L);
+            assertTrue(scheduler.getAllJobs().isEmpty());
+        } finally {
+            store.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void testRecovery() throws Exception {
+        File directory = new File("target/activemq-scheduler-recovery");
+        FileUtils.deleteDirectory(directory);
+
+        // Use small segments to make sure that jobs are spread across a few files
+        MappedJobSchedulerStore store = new MappedJobSchedulerStore();
+        store.setDirectory(directory);
+        store.setSegmentSize(64 * 1024);
+        store.start();
+
+        JobScheduler scheduler = store.getJobScheduler("test");
+        for (int i = 0; i < 1000; i++) {
+            byte[] payload = ("payload" + i).getBytes(StandardCharsets.UTF_8);
+            scheduler.schedule("job" + i, new ByteSequence(payload), TimeUnit.HOURS.toMillis(1));
+        }
+        for (int i = 0; i < 500; i++) {
+            scheduler.remove("job" + i);
+        }
+        store.stop();
+
+        // Now restart + check the jobs are recovered
+        store = new MappedJobSchedulerStore();
+        store.setDirectory(directory);
+        store.setSegmentSize(64 * 1024);
+        store.start();
+
+        try {
+            scheduler = store.getJobScheduler("test");
+            List<Job> jobs = scheduler.getAllJobs();
+            assertEquals(500, jobs.size());
+            for (Job job : jobs) {
+                String expectedPayload = "payload" + job.getJobId().substring("job".length());
+                assertArrayEquals(expectedPayload.getBytes(StandardCharsets.UTF_8), job.getPayload());
+            }
+
+            // A job that is already due fires on the next tick of the recovered scheduler
+            AtomicInteger fired = new AtomicInteger();
+            scheduler.addListener((id, job) -> fired.incrementAndGet());
+            scheduler.schedule("due", new ByteSequence(new byte[] {1}), 0L);
+            Thread.sleep(500L);
+            assertEquals(1, fired.get());
+        } finally {
+            store.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void testCompaction() throws Exception {
+        File directory = new File("target/activemq-scheduler-compaction");
+        FileUtils.deleteDirectory(directory);
+
+        MappedJobSchedulerStore store = new MappedJobSchedulerStore();
+        store.setDirectory(directory);
+        store.setSegmentSize(64 * 1024);
+        store.start();
+
+        // A long-lived job, followed by lots of short-lived ones, which fill up ~100 segments
+        MappedJobScheduler scheduler = (MappedJobScheduler) store.getJobScheduler("test");
+        byte[] pinnedPayload = "pinned".getBytes(StandardCharsets.UTF_8);
+        scheduler.schedule("pinned", new ByteSequence(pinnedPayload), TimeUnit.DAYS.toMillis(365));
+        for (int i = 0; i < 6000; i++) {
+            scheduler.schedule("job" + i, new ByteSequence(new byte[1024]), TimeUnit.HOURS.toMillis(1));
+            scheduler.remove("job" + i);
+        }
+
+        // The long-lived job doesn't pin the old segments
+        assertTrue(scheduler.getJournalSegmentCount() <= 3);
+        store.stop();
+
+        store = new MappedJobSchedulerStore();
+        store.setDirectory(directory);
+        store.setSegmentSize(64 * 1024);
+        store.start();
+        try {
+            List<Job> jobs = store.getJobScheduler("test").getAllJobs();
+            assertEquals(1, jobs.size());
+            assertEquals("pinned", jobs.get(0).getJobId());
+            assertArrayEquals(pinnedPayload, jobs.get(0).getPayload());
+        } finally {
+            store.stop();
+        }
+    }
+
+    // Schedule 1M jobs with 1KB payloads, and check the heap use + the firing accuracy
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testMillionJobs() throws Exception {
+        File directory = new File("target/activemq-scheduler-million");
+        FileUtils.deleteDirectory(directory);
+
+        MappedJobSchedulerStore store = new MappedJobSchedulerStore();
+        store.setDirectory(directory);
+        store.start();
+
+        try {
+            int jobCount = 1000000;
+            int payloadSize = 1024;
+            long spread = 30000L;
+            long baseDelay = 10000L;
+
+            MappedJobScheduler scheduler = (MappedJobScheduler) store.getJobScheduler("test");
+            Histogram lateness = new Histogram(3);
+            CountDownLatch latch = new CountDownLatch(jobCount);
+            scheduler.addListener((id, job) -> {
+                // The job id holds the expected firing time
+                long fireTime = Long.parseLong(id.substring(id.indexOf(':') + 1));
+                synchronized (lateness) {
+                    lateness.recordValue(Math.max(0, System.currentTimeMillis() - fireTime));
+                }
+                latch.countDown();
+            });
+
+            long heapBefore = usedHeap();
+            byte[] payload = new byte[payloadSize];
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < jobCount; i++) {
+                long delay = baseDelay + (i % spread);
+                scheduler.schedule(i + ":" + (start + delay), new ByteSequence(payload), delay);
+            }
+            long scheduleTime = System.currentTimeMillis() - start;
+            long heapAfter = usedHeap();
+
+            long heapPerJob = (heapAfter - heapBefore) / jobCount;
+            System.out.println("Scheduled " + jobCount + " jobs in " + scheduleTime + " ms, heap per job: "
+                + heapPerJob + " bytes, journal size: " + (store.size() / (1024 * 1024)) + " MB");
+            // The payloads must not be held on the heap
+            assertTrue(heapPerJob < payloadSize / 2);
+
+            assertTrue(latch.await(baseDelay + spread + 60000L, TimeUnit.MILLISECONDS));
+            System.out.println("Firing lateness (ms): p50 " + lateness.getValueAtPercentile(50.0)
+                + ", p99 " + lateness.getValueAtPercentile(99.0) + ", max " + lateness.getMaxValue());
+            assertTrue(lateness.getValueAtPercentile(99.0) < 100L);
+        } finally {
+            store.stop();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100L);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,342 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An append-only journal of scheduled jobs, stored in a number of memory-mapped segment files. Each record is
+ * an int length, followed by a type byte and the record data. A zero length marks the end of the data in a
+ * segment. The payload of a job is only ever written once (as part of the ADD record) and read back from the
+ * mapped file when the job fires.
+ *
+ * Segments are only ever deleted oldest first, so that a REMOVE record is never lost while the ADD record it
+ * refers to is still around. So that a single long-lived job (e.g. a far-future delay or a cron entry) doesn't
+ * pin its segment and all of the later ones, the oldest segment is compacted once it is at most half live, or
+ * once less than half of the whole journal is live: the ADD records of its live jobs are written again (with
+ * their current state) to the head segment, and then it is deleted. A job that was compacted has an ADD record
+ * after its older UPDATE records, which are then ignored on recovery. The journal is so at most about twice the
+ * size of the live jobs, plus a segment or two.
+ * This class is not thread-safe.
+ */
+final class MappedJournal {
+
+    private static final byte ADD = 1;
+    private static final byte UPDATE = 2;
+    private static final byte REMOVE = 3;
+
+    private static final String PREFIX = "jobs-";
+    private static final String SUFFIX = ".log";
+
+    /**
+     * Receives the records of the journal in order on recovery.
+     */
+    interface RecordVisitor {
+        void add(JobEntry entry);
+        void update(String jobId, long nextTime, int executionCount);
+        void remove(String jobId);
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment current;
+    private long liveBytes;
+    private boolean compacting;
+
+    MappedJournal(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Map the existing segments and replay their records.
+     */
+    void open(RecordVisitor visitor) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Can't create the journal directory " + directory);
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                int id = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                segments.put(id, new Segment(id, file, map(file, file.length())));
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            replay(segment, visitor);
+        }
+
+        if (segments.isEmpty()) {
+            newSegment(0, segmentSize);
+        } else {
+            current = segments.lastEntry().getValue();
+        }
+    }
+
+    private void replay(Segment segment, RecordVisitor visitor) {
+        ByteBuffer buffer = segment.buffer;
+        buffer.position(0);
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                // End of the data, or a partially written record
+                buffer.position(start);
+                break;
+            }
+            byte type = buffer.get();
+            String jobId = readString(buffer);
+            if (type == ADD) {
+                JobEntry entry = new JobEntry(jobId, readString(buffer), buffer.getLong(), buffer.getLong(),
+                                              buffer.getLong(), buffer.getInt());
+                entry.nextTime = buffer.getLong();
+                entry.executionCount = buffer.getInt();
+                entry.payloadLength = buffer.getInt();
+                entry.payloadOffset = buffer.position();
+                entry.segment = segment.id;
+                entry.recordLength = 4 + length;
+                buffer.position(entry.payloadOffset + entry.payloadLength);
+                visitor.add(entry);
+            } else if (type == UPDATE) {
+                visitor.update(jobId, buffer.getLong(), buffer.getInt());
+            } else if (type == REMOVE) {
+                visitor.remove(jobId);
+            }
+            buffer.position(start + 4 + length);
+        }
+    }
+
+    /**
+     * Called for every job that was added during recovery and is still live.
+     */
+    void recovered(JobEntry entry) {
+        addLive(segments.get(entry.segment), entry);
+    }
+
+    void add(JobEntry entry, byte[] payload) throws IOException {
+        byte[] jobId = entry.jobId.getBytes(StandardCharsets.UTF_8);
+        byte[] cronEntry = entry.cronEntry == null ? new byte[0] : entry.cronEntry.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + jobId.length + 4 + cronEntry.length + 8 + 8 + 8 + 4 + 8 + 4 + 4 + payload.length;
+
+        ByteBuffer buffer = reserve(length);
+        buffer.putInt(length);
+        buffer.put(ADD);
+        buffer.putInt(jobId.length);
+        buffer.put(jobId);
+        buffer.putInt(cronEntry.length);
+        buffer.put(cronEntry);
+        buffer.putLong(entry.start);
+        buffer.putLong(entry.delay);
+        buffer.putLong(entry.period);
+        buffer.putInt(entry.repeat);
+        buffer.putLong(entry.nextTime);
+        buffer.putInt(entry.executionCount);
+        buffer.putInt(payload.length);
+        entry.segment = current.id;
+        entry.payloadOffset = buffer.position();
+        entry.payloadLength = payload.length;
+        entry.recordLength = 4 + length;
+        buffer.put(payload);
+
+        addLive(current, entry);
+        compact();
+    }
+
+    void update(JobEntry entry) throws IOException {
+        byte[] jobId = entry.jobId.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + jobId.length + 8 + 4;
+
+        ByteBuffer buffer = reserve(length);
+        buffer.putInt(length);
+        buffer.put(UPDATE);
+        buffer.putInt(jobId.length);
+        buffer.put(jobId);
+        buffer.putLong(entry.nextTime);
+        buffer.putInt(entry.executionCount);
+    }
+
+    void remove(JobEntry entry) throws IOException {
+        byte[] jobId = entry.jobId.getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 4 + jobId.length;
+
+        ByteBuffer buffer = reserve(length);
+        buffer.putInt(length);
+        buffer.put(REMOVE);
+        buffer.putInt(jobId.length);
+        buffer.put(jobId);
+
+        Segment segment = segments.get(entry.segment);
+        if (segment != null && segment.liveJobs.remove(entry)) {
+            segment.liveBytes -= entry.recordLength;
+            liveBytes -= entry.recordLength;
+        }
+        compact();
+    }
+
+    byte[] readPayload(JobEntry entry) {
+        ByteBuffer buffer = segments.get(entry.segment).buffer.duplicate();
+        buffer.position(entry.payloadOffset);
+        byte[] payload = new byte[entry.payloadLength];
+        buffer.get(payload);
+        return payload;
+    }
+
+    /**
+     * Delete all of the segments and start again with an empty one.
+     */
+    void clear() throws IOException {
+        int nextId = current.id + 1;
+        for (Segment segment : segments.values()) {
+            delete(segment);
+        }
+        segments.clear();
+        liveBytes = 0;
+        newSegment(nextId, segmentSize);
+    }
+
+    void sync() {
+        current.buffer.force();
+    }
+
+    void close() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+        segments.clear();
+    }
+
+    /**
+     * @return the total size of the segment files
+     */
+    long size() {
+        long size = 0;
+        for (Segment segment : segments.values()) {
+            size += segment.buffer.capacity();
+        }
+        return size;
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    private ByteBuffer reserve(int length) throws IOException {
+        if (current.buffer.remaining() < 4 + length) {
+            newSegment(current.id + 1, Math.max(segmentSize, 4 + length + 4));
+        }
+        return current.buffer;
+    }
+
+    private void addLive(Segment segment, JobEntry entry) {
+        segment.liveJobs.add(entry);
+        segment.liveBytes += entry.recordLength;
+        liveBytes += entry.recordLength;
+    }
+
+    /**
+     * Move the live jobs of the oldest segments to the head segment, and delete them.
+     */
+    private void compact() throws IOException {
+        // Rewriting the jobs calls add, which calls this again
+        if (compacting) {
+            return;
+        }
+        compacting = true;
+        try {
+            while (segments.size() > 1) {
+                Segment oldest = segments.firstEntry().getValue();
+                if (oldest == current
+                    || oldest.liveBytes * 2 > oldest.buffer.capacity() && liveBytes * 2 >= size()) {
+                    return;
+                }
+                for (JobEntry entry : new ArrayList<>(oldest.liveJobs)) {
+                    byte[] payload = readPayload(entry);
+                    oldest.liveJobs.remove(entry);
+                    oldest.liveBytes -= entry.recordLength;
+                    liveBytes -= entry.recordLength;
+                    add(entry, payload);
+                }
+                segments.pollFirstEntry();
+                delete(oldest);
+            }
+        } finally {
+            compacting = false;
+        }
+    }
+
+    private void newSegment(int id, int size) throws IOException {
+        File file = new File(directory, PREFIX + id + SUFFIX);
+        current = new Segment(id, file, map(file, size));
+        segments.put(id, current);
+    }
+
+    private static void delete(Segment segment) {
+        // The mapping is released when the buffer is garbage collected
+        if (!segment.file.delete()) {
+            segment.file.deleteOnExit();
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            FileChannel channel = randomAccessFile.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final Set<JobEntry> liveJobs = Collections.newSetFromMap(new IdentityHashMap<>());
+        private long liveBytes;
+
+        Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.misc;
+
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel of JobEntry objects. Each level has 256 slots, and a slot on level n covers
+ * 256^n ticks. Entries are kept in intrusive doubly-linked lists, so adding or removing an entry does not
+ * allocate. When the wheel advances past the boundary of a slot on a higher level, the entries in that slot
+ * are cascaded down to the lower levels. This class is not thread-safe.
+ */
+final class TimingWheel {
+
+    private static final int LEVELS = 4;
+    private static final int BITS = 8;
+    private static final int WHEEL_SIZE = 1 << BITS;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    static final int NOT_SCHEDULED = -1;
+    private static final int OVERFLOW = LEVELS;
+
+    private final long tickMillis;
+    private final JobEntry[][] slots = new JobEntry[LEVELS + 1][WHEEL_SIZE];
+    private long currentTick;
+    private int size;
+
+    TimingWheel(long tickMillis, long currentTime) {
+        this.tickMillis = tickMillis;
+        this.currentTick = currentTime / tickMillis;
+    }
+
+    /**
+     * Add an entry to the wheel, or to the "due" list if its time has already passed.
+     */
+    void add(JobEntry entry, List<JobEntry> due) {
+        long deadlineTick = entry.nextTime / tickMillis;
+        if (deadlineTick <= currentTick) {
+            entry.level = NOT_SCHEDULED;
+            due.add(entry);
+            return;
+        }
+
+        for (int level = 0; level < LEVELS; level++) {
+            long levelDeadline = deadlineTick >>> (BITS * level);
+            long levelCurrent = currentTick >>> (BITS * level);
+            if (levelDeadline - levelCurrent < WHEEL_SIZE) {
+                link(entry, level, (int) (levelDeadline & MASK));
+                return;
+            }
+        }
+        // Further away than the wheel can hold - this is re-examined when the top level wraps
+        link(entry, OVERFLOW, 0);
+    }
+
+    void remove(JobEntry entry) {
+        if (entry.level == NOT_SCHEDULED) {
+            return;
+        }
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            slots[entry.level][entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.level = NOT_SCHEDULED;
+        size--;
+    }
+
+    /**
+     * Advance the wheel up to the given time, adding all of the entries that have expired to "due".
+     */
+    void advance(long now, List<JobEntry> due) {
+        long targetTick = now / tickMillis;
+        while (currentTick < targetTick) {
+            currentTick++;
+
+            // Cascade the higher levels first, as their entries may fall into the slot that is about to expire
+            if ((currentTick & ((1L << (BITS * LEVELS)) - 1)) == 0) {
+                cascade(OVERFLOW, 0, due);
+            }
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTick >>> (BITS * level)) & MASK), due);
+                }
+            }
+
+            int slot = (int) (currentTick & MASK);
+            JobEntry entry = slots[0][slot];
+            while (entry != null) {
+                JobEntry next = entry.next;
+                remove(entry);
+                due.add(entry);
+                entry = next;
+            }
+        }
+    }
+
+    private void cascade(int level, int slot, List<JobEntry> due) {
+        JobEntry entry = slots[level][slot];
+        while (entry != null) {
+            JobEntry next = entry.next;
+            remove(entry);
+            add(entry, due);
+            entry = next;
+        }
+    }
+
+    private void link(JobEntry entry, int level, int slot) {
+        JobEntry head = slots[level][slot];
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        }
+        slots[level][slot] = entry;
+        entry.level = level;
+        entry.slot = slot;
+        size++;
+    }
+
+    void clear() {
+        for (JobEntry[] level : slots) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = null;
+            }
+        }
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+}
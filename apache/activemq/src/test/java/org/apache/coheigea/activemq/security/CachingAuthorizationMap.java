@@ -0,0 +1,425 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.security;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.security.AuthorizationEntry;
+import org.apache.activemq.security.AuthorizationMap;
+import org.apache.activemq.security.TempDestinationAuthorizationEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An AuthorizationMap that compiles a list of AuthorizationEntry objects into a trie of destination path
+ * segments per destination type, instead of resolving every lookup against the whole map. The ACLs resolved
+ * for a destination are cached. The trie and the cache are swapped together on a reload, so a reload never
+ * serves stale results.
+ *
+ * The entries can be loaded from a properties file of the form "queue.<destination>.<read|write|admin>=groups"
+ * or "topic.<destination>.<read|write|admin>=groups", which can be checked periodically for changes.
+ */
+public class CachingAuthorizationMap implements AuthorizationMap {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingAuthorizationMap.class);
+
+    private static final String ANY_CHILD = "*";
+    private static final String ANY_DESCENDENT = ">";
+
+    private volatile Snapshot snapshot;
+    private TempDestinationAuthorizationEntry tempDestinationAuthorizationEntry;
+    private AuthorizationEntry defaultEntry;
+    private volatile int maxCacheSize = 10000;
+
+    private File policyFile;
+    private volatile long policyFileLastModified;
+    private ScheduledExecutorService reloadExecutor;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+
+    public CachingAuthorizationMap(List<AuthorizationEntry> entries) {
+        snapshot = new Snapshot(entries);
+    }
+
+    public CachingAuthorizationMap(File policyFile) throws Exception {
+        this.policyFile = policyFile;
+        reload();
+    }
+
+    /**
+     * Re-read the policy file and atomically replace the compiled entries and the cache.
+     */
+    public synchronized void reload() throws Exception {
+        if (policyFile == null) {
+            throw new IllegalStateException("No policy file configured");
+        }
+        long lastModified = policyFile.lastModified();
+        snapshot = new Snapshot(loadEntries(policyFile));
+        policyFileLastModified = lastModified;
+        reloads.incrementAndGet();
+    }
+
+    /**
+     * Reload the policy file if it has changed since it was last read.
+     * @return whether the policy file was reloaded
+     */
+    public boolean reloadIfModified() throws Exception {
+        if (policyFile != null && policyFile.lastModified() != policyFileLastModified) {
+            reload();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check the policy file for changes every "period" milliseconds.
+     */
+    public synchronized void start(long period) {
+        if (reloadExecutor != null) {
+            return;
+        }
+        reloadExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CachingAuthorizationMap reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloadExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                reloadIfModified();
+            } catch (Exception ex) {
+                // Keep the previous snapshot if the file can't be parsed
+                LOG.warn("Failed to reload the policy file " + policyFile, ex);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+            reloadExecutor = null;
+        }
+    }
+
+    static List<AuthorizationEntry> loadEntries(File file) throws Exception {
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        }
+
+        // Group the read/write/admin properties by destination
+        Map<String, AuthorizationEntry> entries = new LinkedHashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            int typeIndex = key.indexOf('.');
+            int aclIndex = key.lastIndexOf('.');
+            if (typeIndex < 0 || aclIndex <= typeIndex) {
+                throw new IOException("Invalid authorization policy key: " + key);
+            }
+            String type = key.substring(0, typeIndex);
+            String destination = key.substring(typeIndex + 1, aclIndex);
+            String acl = key.substring(aclIndex + 1);
+
+            AuthorizationEntry entry = entries.get(type + ":" + destination);
+            if (entry == null) {
+                entry = new AuthorizationEntry();
+                if ("queue".equals(type)) {
+                    entry.setQueue(destination);
+                } else if ("topic".equals(type)) {
+                    entry.setTopic(destination);
+                } else {
+                    throw new IOException("Unknown destination type in authorization policy key: " + key);
+                }
+                entries.put(type + ":" + destination, entry);
+            }
+
+            String groups = properties.getProperty(key).trim();
+            if ("read".equals(acl)) {
+                entry.setRead(groups);
+            } else if ("write".equals(acl)) {
+                entry.setWrite(groups);
+            } else if ("admin".equals(acl)) {
+                entry.setAdmin(groups);
+            } else {
+                throw new IOException("Unknown ACL type in authorization policy key: " + key);
+            }
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    @Override
+    public Set<Object> getTempDestinationAdminACLs() {
+        if (tempDestinationAuthorizationEntry != null) {
+            return tempDestinationAuthorizationEntry.getAdminACLs();
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Object> getTempDestinationReadACLs() {
+        if (tempDestinationAuthorizationEntry != null) {
+            return tempDestinationAuthorizationEntry.getReadACLs();
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Object> getTempDestinationWriteACLs() {
+        if (tempDestinationAuthorizationEntry != null) {
+            return tempDestinationAuthorizationEntry.getWriteACLs();
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Object> getAdminACLs(ActiveMQDestination destination) {
+        return getACLs(destination).admin;
+    }
+
+    @Override
+    public Set<Object> getReadACLs(ActiveMQDestination destination) {
+        return getACLs(destination).read;
+    }
+
+    @Override
+    public Set<Object> getWriteACLs(ActiveMQDestination destination) {
+        return getACLs(destination).write;
+    }
+
+    private ACLs getACLs(ActiveMQDestination destination) {
+        Snapshot current = snapshot;
+        ACLs acls = current.cache.get(destination);
+        if (acls != null) {
+            cacheHits.incrementAndGet();
+            return acls;
+        }
+
+        cacheMisses.incrementAndGet();
+        Set<AuthorizationEntry> entries = new HashSet<>();
+        if (destination.isComposite()) {
+            for (ActiveMQDestination child : destination.getCompositeDestinations()) {
+                current.collectEntries(child, entries);
+            }
+        } else {
+            current.collectEntries(destination, entries);
+        }
+        if (defaultEntry != null) {
+            entries.add(defaultEntry);
+        }
+
+        acls = new ACLs(entries);
+        if (current.cache.size() >= maxCacheSize) {
+            // The destination names are chosen by the clients, so don't let the cache grow without bound
+            current.cache.clear();
+        }
+        ACLs existing = current.cache.putIfAbsent(destination, acls);
+        return existing != null ? existing : acls;
+    }
+
+    public TempDestinationAuthorizationEntry getTempDestinationAuthorizationEntry() {
+        return tempDestinationAuthorizationEntry;
+    }
+
+    public void setTempDestinationAuthorizationEntry(TempDestinationAuthorizationEntry tempDestinationAuthorizationEntry) {
+        this.tempDestinationAuthorizationEntry = tempDestinationAuthorizationEntry;
+    }
+
+    public AuthorizationEntry getDefaultEntry() {
+        return defaultEntry;
+    }
+
+    public void setDefaultEntry(AuthorizationEntry defaultEntry) {
+        this.defaultEntry = defaultEntry;
+        // The default entry is part of the cached result, so start again with an empty cache
+        snapshot = new Snapshot(snapshot.entries);
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    public int getEntryCount() {
+        return snapshot.entries.size();
+    }
+
+    public int getCacheSize() {
+        return snapshot.cache.size();
+    }
+
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * The maximum number of cached destinations, 10000 by default. The cache is cleared when it is full.
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        snapshot.cache.clear();
+    }
+
+    /**
+     * The compiled tries for queues and topics, together with the cache of resolved ACLs.
+     */
+    private static final class Snapshot {
+        private final List<AuthorizationEntry> entries;
+        private final Node queues = new Node();
+        private final Node topics = new Node();
+        private final ConcurrentHashMap<ActiveMQDestination, ACLs> cache = new ConcurrentHashMap<>();
+
+        Snapshot(List<AuthorizationEntry> entries) {
+            this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+            for (AuthorizationEntry entry : entries) {
+                ActiveMQDestination destination = entry.getDestination();
+                if (destination.isComposite()) {
+                    for (ActiveMQDestination child : destination.getCompositeDestinations()) {
+                        add(child, entry);
+                    }
+                } else {
+                    add(destination, entry);
+                }
+            }
+        }
+
+        private void add(ActiveMQDestination destination, AuthorizationEntry entry) {
+            Node node = destination.isQueue() ? queues : topics;
+            for (String path : destination.getDestinationPaths()) {
+                if (ANY_DESCENDENT.equals(path)) {
+                    node.anyDescendentEntries.add(entry);
+                    return;
+                }
+                node = node.getOrCreateChild(path);
+            }
+            node.entries.add(entry);
+        }
+
+        void collectEntries(ActiveMQDestination destination, Set<AuthorizationEntry> result) {
+            Node root = destination.isQueue() ? queues : topics;
+            root.match(destination.getDestinationPaths(), 0, result);
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private Node anyChild;
+        private final List<AuthorizationEntry> entries = new ArrayList<>();
+        private final List<AuthorizationEntry> anyDescendentEntries = new ArrayList<>();
+
+        Node getOrCreateChild(String path) {
+            if (ANY_CHILD.equals(path)) {
+                if (anyChild == null) {
+                    anyChild = new Node();
+                }
+                return anyChild;
+            }
+            return children.computeIfAbsent(path, p -> new Node());
+        }
+
+        void match(String[] paths, int index, Set<AuthorizationEntry> result) {
+            // As for the DestinationMap, ">" matches zero or more remaining path segments
+            result.addAll(anyDescendentEntries);
+            if (index == paths.length) {
+                result.addAll(entries);
+                return;
+            }
+
+            String path = paths[index];
+            if (ANY_DESCENDENT.equals(path)) {
+                // A wildcard lookup matches everything below this node
+                collectAll(result);
+                return;
+            }
+
+            if (!ANY_CHILD.equals(path)) {
+                Node child = children.get(path);
+                if (child != null) {
+                    child.match(paths, index + 1, result);
+                }
+            }
+            if (anyChild != null) {
+                anyChild.match(paths, index + 1, result);
+            }
+        }
+
+        void collectAll(Set<AuthorizationEntry> result) {
+            result.addAll(entries);
+            result.addAll(anyDescendentEntries);
+            for (Node child : children.values()) {
+                child.collectAll(result);
+            }
+            if (anyChild != null) {
+                anyChild.collectAll(result);
+            }
+        }
+    }
+
+    private static final class ACLs {
+        private final Set<Object> read;
+        private final Set<Object> write;
+        private final Set<Object> admin;
+
+        ACLs(Collection<AuthorizationEntry> entries) {
+            Set<Object> readACLs = new HashSet<>();
+            Set<Object> writeACLs = new HashSet<>();
+            Set<Object> adminACLs = new HashSet<>();
+            for (AuthorizationEntry entry : entries) {
+                addAll(readACLs, entry.getReadACLs());
+                addAll(writeACLs, entry.getWriteACLs());
+                addAll(adminACLs, entry.getAdminACLs());
+            }
+            read = Collections.unmodifiableSet(readACLs);
+            write = Collections.unmodifiableSet(writeACLs);
+            admin = Collections.unmodifiableSet(adminACLs);
+        }
+
+        private static void addAll(Set<Object> acls, Set<Object> entryACLs) {
+            if (entryACLs != null) {
+                acls.addAll(entryACLs);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,280 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.filter.DestinationMapEntry;
+import org.apache.activemq.jaas.GroupPrincipal;
+import org.apache.activemq.security.AuthenticationUser;
+import org.apache.activemq.security.AuthorizationEntry;
+import org.apache.activemq.security.AuthorizationPlugin;
+import org.apache.activemq.security.DefaultAuthorizationMap;
+import org.apache.activemq.security.SimpleAuthenticationPlugin;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Some tests for the AuthorizationPlugin using the CachingAuthorizationMap, which is loaded from a
+ * properties file.
+ */
+public class CachingAuthorizationMapTest {
+
+    private static BrokerService broker;
+    private static String brokerAddress;
+    private static CachingAuthorizationMap authorizationMap;
+
+    @org.junit.BeforeClass
+    public static void startBroker() throws Exception {
+
+        broker = new BrokerService();
+        broker.setPersistenceAdapter(new MemoryPersistenceAdapter());
+        broker.setDataDirectory("target/activemq-data");
+
+        // Add authentication data
+        AuthenticationUser alice = new AuthenticationUser("alice", "password", "producer,consumer,guest");
+        AuthenticationUser bob = new AuthenticationUser("bob", "security", "consumer,guest");
+        AuthenticationUser dave = new AuthenticationUser("dave", "security", "guest");
+        SimpleAuthenticationPlugin authenticationPlugin = new SimpleAuthenticationPlugin();
+        authenticationPlugin.setUsers(Arrays.asList(alice, bob, dave));
+
+        // Add authorization data
+        File policyFile = new File(CachingAuthorizationMapTest.class.getResource("authorization.properties").toURI());
+        authorizationMap = new CachingAuthorizationMap(policyFile);
+        AuthorizationPlugin authorizationPlugin = new AuthorizationPlugin(authorizationMap);
+
+        broker.setPlugins(new BrokerPlugin[] { authenticationPlugin, authorizationPlugin });
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        int brokerPort = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        brokerAddress = "tcp://localhost:" + brokerPort;
+        broker.addConnector(brokerAddress);
+        broker.start();
+    }
+
+    @org.junit.AfterClass
+    public static void stopBroker() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void testAliceCanProduceAndConsume() throws Exception {
+
+        // Now log on and try to produce + consume
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+        Connection connection = factory.createConnection("alice", "password");
+        connection.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Destination queue = session.createQueue("testqueue");
+        MessageProducer producer = session.createProducer(queue);
+
+        TextMessage message = session.createTextMessage("Some txt");
+        message.setStringProperty("some header", "some value");
+
+        producer.send(message);
+
+        MessageConsumer consumer = session.createConsumer(queue);
+        TextMessage receivedMessage = (TextMessage)consumer.receive(1000L);
+        assertEquals("Some txt", receivedMessage.getText());
+        assertEquals("some value", receivedMessage.getStringProperty("some header"));
+
+        connection.close();
+
+        assertTrue(authorizationMap.getCacheHits() > 0);
+    }
+
+    @org.junit.Test
+    public void testBobCantProduce() throws Exception {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+        Connection connection = factory.createConnection("bob", "security");
+        connection.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Destination queue = session.createQueue("testqueue");
+
+        try {
+            session.createProducer(queue);
+            fail("Expected failure as bob can't produce");
+        } catch (Exception ex) {
+            // expected
+        }
+
+        connection.close();
+    }
+
+    @org.junit.Test
+    public void testDaveCantConsume() throws Exception {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+        Connection connection = factory.createConnection("dave", "security");
+        connection.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Destination queue = session.createQueue("testqueue");
+
+        try {
+            session.createConsumer(queue);
+            fail("Expected failure as dave can't consume");
+        } catch (Exception ex) {
+            // expected
+        }
+
+        connection.close();
+    }
+
+    // The trie should resolve the same ACLs as the DefaultAuthorizationMap
+    @org.junit.Test
+    public void testSameACLsAsDefaultAuthorizationMap() throws Exception {
+        List<AuthorizationEntry> entries = Arrays.asList(
+            createEntry("testqueue.foo", "consumer", "producer", "guest"),
+            createEntry("testqueue.bar", "producer", "producer", "guest"),
+            createEntry("testqueue.*.baz", "guest", "producer", "guest"),
+            createEntry("orders.>", "consumer", "producer", "admin"));
+
+        CachingAuthorizationMap cachingMap = new CachingAuthorizationMap(entries);
+        DefaultAuthorizationMap defaultMap = new DefaultAuthorizationMap(new ArrayList<DestinationMapEntry>(entries));
+
+        List<ActiveMQDestination> destinations = Arrays.asList(
+            new ActiveMQQueue("testqueue.foo"), new ActiveMQQueue("testqueue.bar"),
+            new ActiveMQQueue("testqueue.foo.baz"), new ActiveMQQueue("testqueue.*"),
+            new ActiveMQQueue("orders.eu"), new ActiveMQQueue("orders.eu.fr"),
+            new ActiveMQQueue("unknown"), new ActiveMQQueue("testqueue.foo,orders.us"));
+        for (ActiveMQDestination destination : destinations) {
+            assertEquals(destination.toString(), defaultMap.getReadACLs(destination), cachingMap.getReadACLs(destination));
+            assertEquals(destination.toString(), defaultMap.getWriteACLs(destination), cachingMap.getWriteACLs(destination));
+            assertEquals(destination.toString(), defaultMap.getAdminACLs(destination), cachingMap.getAdminACLs(destination));
+        }
+
+        // Queue entries don't apply to topics
+        assertTrue(cachingMap.getReadACLs(new ActiveMQTopic("testqueue.foo")).isEmpty());
+    }
+
+    @org.junit.Test
+    public void testReload() throws Exception {
+        File policyFile = new File("target/authorization-reload.properties");
+        FileUtils.writeStringToFile(policyFile, "queue.testqueue.read=consumer\n", StandardCharsets.UTF_8);
+
+        CachingAuthorizationMap map = new CachingAuthorizationMap(policyFile);
+        ActiveMQQueue queue = new ActiveMQQueue("testqueue");
+        assertEquals(Collections.singleton(new GroupPrincipal("consumer")), map.getReadACLs(queue));
+        assertFalse(map.reloadIfModified());
+
+        FileUtils.writeStringToFile(policyFile, "queue.testqueue.read=producer\n", StandardCharsets.UTF_8);
+        policyFile.setLastModified(policyFile.lastModified() + 2000L);
+
+        assertTrue(map.reloadIfModified());
+        assertEquals(Collections.singleton(new GroupPrincipal("producer")), map.getReadACLs(queue));
+        assertEquals(2, map.getReloads());
+    }
+
+    @org.junit.Test
+    public void testCacheIsBounded() throws Exception {
+        CachingAuthorizationMap map =
+            new CachingAuthorizationMap(Arrays.asList(createEntry("testqueue.>", "consumer", "producer", "guest")));
+        map.setMaxCacheSize(100);
+
+        for (int i = 0; i < 1000; i++) {
+            ActiveMQQueue queue = new ActiveMQQueue("testqueue." + i);
+            assertEquals(Collections.singleton(new GroupPrincipal("consumer")), map.getReadACLs(queue));
+            assertTrue(map.getCacheSize() <= 100);
+        }
+    }
+
+    // Compare the lookup cost of the DefaultAuthorizationMap and the CachingAuthorizationMap
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testLookupPerformance() throws Exception {
+        int entryCount = 10000;
+        List<AuthorizationEntry> entries = new ArrayList<>();
+        for (int i = 0; i < entryCount; i++) {
+            if (i % 10 == 0) {
+                entries.add(createEntry("region" + (i % 100) + ".*.orders" + i + ".>", "consumer", "producer", "guest"));
+            } else {
+                entries.add(createEntry("region" + (i % 100) + ".branch" + i + ".orders", "consumer", "producer", "guest"));
+            }
+        }
+
+        List<ActiveMQDestination> destinations = new ArrayList<>();
+        for (int i = 0; i < entryCount; i++) {
+            destinations.add(new ActiveMQQueue("region" + (i % 100) + ".branch" + i + ".orders"));
+            destinations.add(new ActiveMQQueue("region" + (i % 100) + ".branch" + i + ".orders" + i + ".eu"));
+        }
+
+        DefaultAuthorizationMap defaultMap = new DefaultAuthorizationMap(new ArrayList<DestinationMapEntry>(entries));
+        CachingAuthorizationMap cachingMap = new CachingAuthorizationMap(entries);
+        cachingMap.setMaxCacheSize(destinations.size());
+
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            for (ActiveMQDestination destination : destinations) {
+                defaultMap.getReadACLs(destination);
+            }
+            long defaultTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (ActiveMQDestination destination : destinations) {
+                cachingMap.getReadACLs(destination);
+            }
+            long cachingTime = System.nanoTime() - start;
+
+            System.out.println("Run " + run + ": DefaultAuthorizationMap " + (defaultTime / destinations.size())
+                + " ns/lookup, CachingAuthorizationMap " + (cachingTime / destinations.size()) + " ns/lookup");
+        }
+        System.out.println("Cache hits: " + cachingMap.getCacheHits() + ", misses: " + cachingMap.getCacheMisses()
+            + ", cached destinations: " + cachingMap.getCacheSize());
+    }
+
+    private static AuthorizationEntry createEntry(String queue, String read, String write, String admin) throws Exception {
+        AuthorizationEntry entry = new AuthorizationEntry();
+        entry.setQueue(queue);
+        entry.setRead(read);
+        entry.setWrite(write);
+        entry.setAdmin(admin);
+        return entry;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.security;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.jaas.GroupPrincipal;
+import org.apache.activemq.security.MessageAuthorizationPolicy;
+import org.apache.activemq.security.SecurityContext;
+
+/**
+ * A MessageAuthorizationPolicy that is compiled once from a set of allowed groups and (optionally)
+ * some required message property values. isAllowedToConsume is called once per message dispatched
+ * to each consumer, so the group check is cached per ConnectionContext. The cached verdict is
+ * discarded if the SecurityContext of the connection changes.
+ */
+public class CachingMessageAuthorizationPolicy implements MessageAuthorizationPolicy {
+
+    private final Set<Principal> allowedPrincipals;
+    private final String[] propertyNames;
+    private final Object[] propertyValues;
+    private final Map<ConnectionContext, Verdict> verdicts =
+        Collections.synchronizedMap(new WeakHashMap<ConnectionContext, Verdict>());
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    public CachingMessageAuthorizationPolicy(Set<String> allowedGroups) {
+        this(allowedGroups, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * @param allowedGroups the groups that are allowed to consume messages
+     * @param requiredProperties message properties that must be present with the given value
+     */
+    public CachingMessageAuthorizationPolicy(Set<String> allowedGroups, Map<String, Object> requiredProperties) {
+        Set<Principal> principals = new HashSet<>();
+        for (String group : allowedGroups) {
+            principals.add(new GroupPrincipal(group));
+        }
+        allowedPrincipals = Collections.unmodifiableSet(principals);
+
+        propertyNames = new String[requiredProperties.size()];
+        propertyValues = new Object[requiredProperties.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : requiredProperties.entrySet()) {
+            propertyNames[i] = entry.getKey();
+            propertyValues[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    @Override
+    public boolean isAllowedToConsume(ConnectionContext context, Message message) {
+        return isPrincipalAllowed(context) && matchesProperties(message);
+    }
+
+    private boolean isPrincipalAllowed(ConnectionContext context) {
+        SecurityContext securityContext = context.getSecurityContext();
+        if (securityContext == null) {
+            return false;
+        }
+
+        Verdict verdict = verdicts.get(context);
+        if (verdict != null && verdict.securityContext == securityContext) {
+            cacheHits.incrementAndGet();
+            return verdict.allowed;
+        }
+
+        cacheMisses.incrementAndGet();
+        boolean allowed = securityContext.isInOneOf(allowedPrincipals);
+        verdicts.put(context, new Verdict(securityContext, allowed));
+        return allowed;
+    }
+
+    private boolean matchesProperties(Message message) {
+        for (int i = 0; i < propertyNames.length; i++) {
+            try {
+                if (!propertyValues[i].equals(message.getProperty(propertyNames[i]))) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    private static final class Verdict {
+        private final SecurityContext securityContext;
+        private final boolean allowed;
+
+        Verdict(SecurityContext securityContext, boolean allowed) {
+            this.securityContext = securityContext;
+            this.allowed = allowed;
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.security.AuthenticationUser;
+import org.apache.activemq.security.SimpleAuthenticationPlugin;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
+
+/**
+ * Some tests for Message Authorization using the CachingMessageAuthorizationPolicy. alice and bob can
+ * read a "public" message, but dave can't. Nobody can read a message that is not "public".
+ */
+public class CachingMessageAuthorizationTest {
+
+    private static BrokerService broker;
+    private static String brokerAddress;
+    private static CachingMessageAuthorizationPolicy authorizationPolicy;
+
+    @org.junit.BeforeClass
+    public static void startBroker() throws Exception {
+
+        broker = new BrokerService();
+        broker.setPersistenceAdapter(new MemoryPersistenceAdapter());
+        broker.setDataDirectory("target/activemq-data");
+
+        // Add authentication data
+        AuthenticationUser alice = new AuthenticationUser("alice", "password", "producer,consumer,guest");
+        AuthenticationUser bob = new AuthenticationUser("bob", "security", "consumer,guest");
+        AuthenticationUser dave = new AuthenticationUser("dave", "security", "guest");
+        SimpleAuthenticationPlugin authenticationPlugin = new SimpleAuthenticationPlugin();
+        authenticationPlugin.setUsers(Arrays.asList(alice, bob, dave));
+
+        broker.setPlugins(new BrokerPlugin[] {authenticationPlugin});
+
+        authorizationPolicy =
+            new CachingMessageAuthorizationPolicy(new HashSet<>(Arrays.asList("producer", "consumer")),
+                                                  Collections.<String, Object>singletonMap("classification", "public"));
+        broker.setMessageAuthorizationPolicy(authorizationPolicy);
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        int brokerPort = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        brokerAddress = "tcp://localhost:" + brokerPort;
+        broker.addConnector(brokerAddress);
+        broker.start();
+    }
+
+    @org.junit.AfterClass
+    public static void stopBroker() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void testAliceCanConsume() throws Exception {
+
+        // Now log on and try to produce + consume
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+        Connection connection = factory.createConnection("alice", "password");
+        connection.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Destination queue = session.createQueue("alicequeue");
+        MessageProducer producer = session.createProducer(queue);
+
+        TextMessage message = session.createTextMessage("Some txt");
+        message.setStringProperty("classification", "public");
+
+        producer.send(message);
+
+        MessageConsumer consumer = session.createConsumer(queue);
+        TextMessage receivedMessage = (TextMessage)consumer.receive(1000L);
+        assertEquals("Some txt", receivedMessage.getText());
+        assertEquals("public", receivedMessage.getStringProperty("classification"));
+
+        connection.close();
+    }
+
+    @org.junit.Test
+    public void testAliceCantConsumeSecretMessage() throws Exception {
+
+        // Now log on and try to produce + consume
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+        Connection connection = factory.createConnection("alice", "password");
+        connection.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Destination queue = session.createQueue("secretqueue");
+        MessageProducer producer = session.createProducer(queue);
+
+        TextMessage message = session.createTextMessage("Some txt");
+        message.setStringProperty("classification", "secret");
+
+        producer.send(message);
+
+        MessageConsumer consumer = session.createConsumer(queue);
+        TextMessage receivedMessage = (TextMessage)consumer.receive(1000L);
+        assertNull(receivedMessage);
+
+        connection.close();
+    }
+
+    @org.junit.Test
+    public void testBobCanConsume() throws Exception {
+
+        // Now log on and try to produce + consume
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+        Connection connection = factory.createConnection("bob", "security");
+        connection.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Destination queue = session.createQueue("bobqueue");
+        MessageProducer producer = session.createProducer(queue);
+
+        MessageConsumer consumer = session.createConsumer(queue);
+
+        // The verdict for bob's connection should be computed once and then re-used
+        long missesBefore = authorizationPolicy.getCacheMisses();
+        for (int i = 0; i < 10; i++) {
+            TextMessage message = session.createTextMessage("Some txt " + i);
+            message.setStringProperty("classification", "public");
+            producer.send(message);
+
+            TextMessage receivedMessage = (TextMessage)consumer.receive(1000L);
+            assertEquals("Some txt " + i, receivedMessage.getText());
+        }
+        assertTrue(authorizationPolicy.getCacheMisses() - missesBefore <= 1);
+        assertTrue(authorizationPolicy.getCacheHits() >= 9);
+
+        connection.close();
+    }
+
+    @org.junit.Test
+    public void testDaveCantConsume() throws Exception {
+
+        // Now log on and try to produce + consume
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+        Connection connection = factory.createConnection("dave", "security");
+        connection.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Destination queue = session.createQueue("davequeue");
+        MessageProducer producer = session.createProducer(queue);
+
+        TextMessage message = session.createTextMessage("Some txt");
+        message.setStringProperty("classification", "public");
+
+        producer.send(message);
+
+        MessageConsumer consumer = session.createConsumer(queue);
+        TextMessage receivedMessage = (TextMessage)consumer.receive(1000L);
+        assertNull(receivedMessage);
+
+        connection.close();
+    }
+
+    // Measure the dispatch rate to an authorized consumer
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testDispatchRate() throws Exception {
+        int messageCount = 100000;
+
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+        Connection connection = factory.createConnection("bob", "security");
+        connection.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Destination queue = session.createQueue("benchmarkqueue");
+        MessageProducer producer = session.createProducer(queue);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+
+        TextMessage message = session.createTextMessage("Some txt");
+        message.setStringProperty("classification", "public");
+        for (int i = 0; i < messageCount; i++) {
+            producer.send(message);
+        }
+
+        MessageConsumer consumer = session.createConsumer(queue);
+        long start = System.nanoTime();
+        for (int i = 0; i < messageCount; i++) {
+            assertNotNull(consumer.receive(5000L));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Dispatched " + messageCount + " messages at "
+            + (messageCount * 1000000000L / elapsed) + " msgs/sec, cache hits: "
+            + authorizationPolicy.getCacheHits() + ", misses: " + authorizationPolicy.getCacheMisses());
+
+        connection.close();
+    }
+
+}
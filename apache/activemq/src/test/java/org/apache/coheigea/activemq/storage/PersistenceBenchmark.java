@@ -0,0 +1,414 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.storage;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.HdrHistogram.Histogram;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.leveldb.LevelDBStore;
+import org.apache.activemq.store.PersistenceAdapter;
+import org.apache.activemq.store.kahadb.KahaDBStore;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
+
+/**
+ * A benchmark harness that drives an embedded BrokerService with a given persistence adapter. A number of
+ * producers send persistent messages of a given size to a queue, and a number of consumers receive them. The
+ * end-to-end latency of every message is recorded in a HdrHistogram.
+ */
+public class PersistenceBenchmark {
+
+    private static final String SEND_TIME = "sendTime";
+
+    public enum StoreType {
+        MEMORY, KAHADB, LEVELDB
+    }
+
+    private StoreType storeType = StoreType.KAHADB;
+    private int messageSize = 1024;
+    private int messageCount = 10000;
+    private int producerCount = 1;
+    private int consumerCount = 1;
+    private int batchSize = 1;
+    private boolean asyncSend;
+
+    // Optional journal + index cache settings, ignored by the memory store. The KahaDB index cache is sized in
+    // pages, and the LevelDB one in bytes.
+    private int indexCacheSize = -1;
+    private long levelDBIndexCacheSize = -1;
+    private int journalMaxFileLength = -1;
+    private boolean journalDiskSyncs = true;
+
+    public Result run() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setUseJmx(false);
+        broker.setDeleteAllMessagesOnStartup(true);
+        broker.setDataDirectory("target/activemq-data");
+        broker.setPersistenceAdapter(createPersistenceAdapter());
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        int brokerPort = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        String brokerAddress = "tcp://localhost:" + brokerPort;
+        broker.addConnector(brokerAddress);
+        broker.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(producerCount + consumerCount);
+        try {
+            ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(brokerAddress);
+            factory.setUseAsyncSend(asyncSend);
+
+            int totalMessages = messageCount * producerCount;
+            AtomicInteger received = new AtomicInteger();
+
+            List<Future<Histogram>> consumers = new ArrayList<>();
+            for (int i = 0; i < consumerCount; i++) {
+                consumers.add(executor.submit(new BenchmarkConsumer(factory, received, totalMessages)));
+            }
+
+            long start = System.nanoTime();
+            List<Future<Void>> producers = new ArrayList<>();
+            for (int i = 0; i < producerCount; i++) {
+                producers.add(executor.submit(new BenchmarkProducer(factory)));
+            }
+            for (Future<Void> producer : producers) {
+                producer.get();
+            }
+
+            Histogram latencies = new Histogram(3);
+            for (Future<Histogram> consumer : consumers) {
+                latencies.add(consumer.get());
+            }
+            long elapsed = System.nanoTime() - start;
+
+            return new Result(this, received.get(), elapsed, latencies);
+        } finally {
+            executor.shutdownNow();
+            broker.stop();
+            broker.waitUntilStopped();
+        }
+    }
+
+    private PersistenceAdapter createPersistenceAdapter() {
+        switch (storeType) {
+        case KAHADB:
+            KahaDBStore kaha = new KahaDBStore();
+            kaha.setDirectory(new File("target/activemq-kahadb-benchmark"));
+            if (indexCacheSize > 0) {
+                kaha.setIndexCacheSize(indexCacheSize);
+            }
+            if (journalMaxFileLength > 0) {
+                kaha.setJournalMaxFileLength(journalMaxFileLength);
+            }
+            kaha.setEnableJournalDiskSyncs(journalDiskSyncs);
+            return kaha;
+        case LEVELDB:
+            LevelDBStore leveldb = new LevelDBStore();
+            leveldb.setDirectory(new File("target/activemq-leveldb-benchmark"));
+            if (levelDBIndexCacheSize > 0) {
+                leveldb.setIndexCacheSize(levelDBIndexCacheSize);
+            }
+            if (journalMaxFileLength > 0) {
+                leveldb.setLogSize(journalMaxFileLength);
+            }
+            leveldb.setSync(journalDiskSyncs);
+            return leveldb;
+        default:
+            return new MemoryPersistenceAdapter();
+        }
+    }
+
+    private Session createSession(Connection connection) throws Exception {
+        if (batchSize > 1) {
+            return connection.createSession(true, Session.SESSION_TRANSACTED);
+        }
+        return connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+    private final class BenchmarkProducer implements Callable<Void> {
+        private final ActiveMQConnectionFactory factory;
+
+        BenchmarkProducer(ActiveMQConnectionFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            Connection connection = factory.createConnection();
+            try {
+                connection.start();
+                Session session = createSession(connection);
+                Destination queue = session.createQueue("benchmarkqueue");
+                MessageProducer producer = session.createProducer(queue);
+                producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+
+                byte[] payload = new byte[messageSize];
+                Arrays.fill(payload, (byte) 'x');
+                for (int i = 1; i <= messageCount; i++) {
+                    BytesMessage message = session.createBytesMessage();
+                    message.writeBytes(payload);
+                    message.setLongProperty(SEND_TIME, System.nanoTime());
+                    producer.send(message);
+                    if (batchSize > 1 && (i % batchSize == 0 || i == messageCount)) {
+                        session.commit();
+                    }
+                }
+            } finally {
+                connection.close();
+            }
+            return null;
+        }
+    }
+
+    private final class BenchmarkConsumer implements Callable<Histogram> {
+        private final ActiveMQConnectionFactory factory;
+        private final AtomicInteger received;
+        private final int totalMessages;
+
+        BenchmarkConsumer(ActiveMQConnectionFactory factory, AtomicInteger received, int totalMessages) {
+            this.factory = factory;
+            this.received = received;
+            this.totalMessages = totalMessages;
+        }
+
+        @Override
+        public Histogram call() throws Exception {
+            Histogram histogram = new Histogram(3);
+            Connection connection = factory.createConnection();
+            try {
+                connection.start();
+                Session session = createSession(connection);
+                Destination queue = session.createQueue("benchmarkqueue");
+                MessageConsumer consumer = session.createConsumer(queue);
+
+                int uncommitted = 0;
+                while (received.get() < totalMessages) {
+                    Message message = consumer.receive(100L);
+                    if (message == null) {
+                        continue;
+                    }
+                    histogram.recordValue(System.nanoTime() - message.getLongProperty(SEND_TIME));
+                    received.incrementAndGet();
+                    if (batchSize > 1 && ++uncommitted == batchSize) {
+                        session.commit();
+                        uncommitted = 0;
+                    }
+                }
+                if (uncommitted > 0) {
+                    session.commit();
+                }
+            } finally {
+                connection.close();
+            }
+            return histogram;
+        }
+    }
+
+    public StoreType getStoreType() {
+        return storeType;
+    }
+
+    public void setStoreType(StoreType storeType) {
+        this.storeType = storeType;
+    }
+
+    public int getMessageSize() {
+        return messageSize;
+    }
+
+    public void setMessageSize(int messageSize) {
+        this.messageSize = messageSize;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * The number of messages sent by each producer
+     */
+    public void setMessageCount(int messageCount) {
+        this.messageCount = messageCount;
+    }
+
+    public int getProducerCount() {
+        return producerCount;
+    }
+
+    public void setProducerCount(int producerCount) {
+        this.producerCount = producerCount;
+    }
+
+    public int getConsumerCount() {
+        return consumerCount;
+    }
+
+    public void setConsumerCount(int consumerCount) {
+        this.consumerCount = consumerCount;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * The number of messages sent or received per transaction. A batch size of 1 uses AUTO_ACKNOWLEDGE
+     * without transactions.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public boolean isAsyncSend() {
+        return asyncSend;
+    }
+
+    public void setAsyncSend(boolean asyncSend) {
+        this.asyncSend = asyncSend;
+    }
+
+    public int getIndexCacheSize() {
+        return indexCacheSize;
+    }
+
+    /**
+     * The number of index pages that KahaDB caches
+     */
+    public void setIndexCacheSize(int indexCacheSize) {
+        this.indexCacheSize = indexCacheSize;
+    }
+
+    public int getJournalMaxFileLength() {
+        return journalMaxFileLength;
+    }
+
+    public void setJournalMaxFileLength(int journalMaxFileLength) {
+        this.journalMaxFileLength = journalMaxFileLength;
+    }
+
+    public boolean isJournalDiskSyncs() {
+        return journalDiskSyncs;
+    }
+
+    public void setJournalDiskSyncs(boolean journalDiskSyncs) {
+        this.journalDiskSyncs = journalDiskSyncs;
+    }
+
+    public long getLevelDBIndexCacheSize() {
+        return levelDBIndexCacheSize;
+    }
+
+    /**
+     * The size of the LevelDB index cache, in bytes
+     */
+    public void setLevelDBIndexCacheSize(long levelDBIndexCacheSize) {
+        this.levelDBIndexCacheSize = levelDBIndexCacheSize;
+    }
+
+    public static class Result {
+        private final String storeType;
+        private final int messageSize;
+        private final int producerCount;
+        private final int consumerCount;
+        private final int batchSize;
+        private final boolean asyncSend;
+        private final int indexCacheSize;
+        private final long levelDBIndexCacheSize;
+        private final int journalMaxFileLength;
+        private final boolean journalDiskSyncs;
+        private final int messages;
+        private final long elapsedNanos;
+        private final Histogram latencies;
+
+        Result(PersistenceBenchmark benchmark, int messages, long elapsedNanos, Histogram latencies) {
+            this.storeType = benchmark.getStoreType().name();
+            this.messageSize = benchmark.getMessageSize();
+            this.producerCount = benchmark.getProducerCount();
+            this.consumerCount = benchmark.getConsumerCount();
+            this.batchSize = benchmark.getBatchSize();
+            this.asyncSend = benchmark.isAsyncSend();
+            this.indexCacheSize = benchmark.getIndexCacheSize();
+            this.levelDBIndexCacheSize = benchmark.getLevelDBIndexCacheSize();
+            this.journalMaxFileLength = benchmark.getJournalMaxFileLength();
+            this.journalDiskSyncs = benchmark.isJournalDiskSyncs();
+            this.messages = messages;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public double getMessagesPerSecond() {
+            return messages / (elapsedNanos / 1e9);
+        }
+
+        public long getLatencyPercentile(double percentile) {
+            return latencies.getValueAtPercentile(percentile);
+        }
+
+        public String toJson() {
+            return "{\"store\":\"" + storeType + "\""
+                + ",\"messageSize\":" + messageSize
+                + ",\"producers\":" + producerCount
+                + ",\"consumers\":" + consumerCount
+                + ",\"batchSize\":" + batchSize
+                + ",\"asyncSend\":" + asyncSend
+                + ",\"indexCacheSize\":" + indexCacheSize
+                + ",\"levelDBIndexCacheSize\":" + levelDBIndexCacheSize
+                + ",\"journalMaxFileLength\":" + journalMaxFileLength
+                + ",\"journalDiskSyncs\":" + journalDiskSyncs
+                + ",\"messages\":" + messages
+                + ",\"msgsPerSec\":" + String.format(Locale.ROOT, "%.1f", getMessagesPerSecond())
+                + ",\"latencyMicros\":{\"p50\":" + TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(50.0))
+                + ",\"p99\":" + TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(99.0))
+                + ",\"p999\":" + TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(99.9))
+                + ",\"max\":" + TimeUnit.NANOSECONDS.toMicros(latencies.getMaxValue()) + "}}";
+        }
+
+        @Override
+        public String toString() {
+            return toJson();
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.coheigea.activemq.storage.PersistenceBenchmark.Result;
+import org.apache.coheigea.activemq.storage.PersistenceBenchmark.StoreType;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Compare the throughput + end-to-end latency of the memory, KahaDB and LevelDB persistence adapters. The
+ * results are written to target/persistence-benchmark.json.
+ */
+public class PersistenceBenchmarkTest {
+
+    @org.junit.Test
+    public void testSmallRun() throws Exception {
+        PersistenceBenchmark benchmark = new PersistenceBenchmark();
+        benchmark.setStoreType(StoreType.KAHADB);
+        benchmark.setMessageCount(100);
+        benchmark.setBatchSize(10);
+
+        Result result = benchmark.run();
+        assertEquals(100, result.getMessages());
+        assertTrue(result.getLatencyPercentile(50.0) > 0);
+    }
+
+    // Run the full matrix of persistence adapters, message sizes, batch sizes and sync vs async send
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testPersistenceMatrix() throws Exception {
+        List<String> results = new ArrayList<>();
+        for (StoreType storeType : StoreType.values()) {
+            for (int messageSize : new int[] {256, 4096, 65536}) {
+                for (int batchSize : new int[] {1, 100}) {
+                    for (boolean asyncSend : new boolean[] {false, true}) {
+                        PersistenceBenchmark benchmark = new PersistenceBenchmark();
+                        benchmark.setStoreType(storeType);
+                        benchmark.setMessageSize(messageSize);
+                        benchmark.setMessageCount(20000);
+                        benchmark.setProducerCount(4);
+                        benchmark.setConsumerCount(4);
+                        benchmark.setBatchSize(batchSize);
+                        benchmark.setAsyncSend(asyncSend);
+
+                        Result result = benchmark.run();
+                        System.out.println(result);
+                        results.add(result.toJson());
+                    }
+                }
+            }
+        }
+
+        FileUtils.writeStringToFile(new File("target/persistence-benchmark.json"),
+                                    "[\n" + String.join(",\n", results) + "\n]\n", StandardCharsets.UTF_8);
+    }
+
+    // See the effect of the journal + index cache settings on KahaDB
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testKahaDBSettings() throws Exception {
+        List<String> results = new ArrayList<>();
+        for (int indexCacheSize : new int[] {1000, 10000, 100000}) {
+            for (boolean journalDiskSyncs : new boolean[] {true, false}) {
+                PersistenceBenchmark benchmark = new PersistenceBenchmark();
+                benchmark.setStoreType(StoreType.KAHADB);
+                benchmark.setMessageCount(20000);
+                benchmark.setProducerCount(4);
+                benchmark.setConsumerCount(4);
+                benchmark.setIndexCacheSize(indexCacheSize);
+                benchmark.setJournalMaxFileLength(32 * 1024 * 1024);
+                benchmark.setJournalDiskSyncs(journalDiskSyncs);
+
+                Result result = benchmark.run();
+                System.out.println("indexCacheSize: " + indexCacheSize + ", journalDiskSyncs: " + journalDiskSyncs
+                    + " " + result);
+                results.add(result.toJson());
+            }
+        }
+
+        FileUtils.writeStringToFile(new File("target/kahadb-settings-benchmark.json"),
+                                    "[\n" + String.join(",\n", results) + "\n]\n", StandardCharsets.UTF_8);
+    }
+
+}
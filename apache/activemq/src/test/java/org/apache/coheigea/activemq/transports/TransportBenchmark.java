@@ -0,0 +1,318 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.transports;
+
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.HdrHistogram.Histogram;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQSslConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.SslContext;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
+
+/**
+ * A load generator that starts a single broker with a TCP, NIO, SSL, NIO+SSL, HTTP and HTTPS connector (set up in
+ * the same way as the tests in this package), and measures the connection setup cost, throughput and latency of
+ * each transport in turn.
+ *
+ * For the TLS transports, the client either uses an ActiveMQSslConnectionFactory configured with a truststore,
+ * which creates a new SSLContext (and so does a full handshake) for each connection, or else a shared SslContext,
+ * which allows the JSSE session cache to resume TLS sessions.
+ */
+public class TransportBenchmark {
+
+    private static final String SEND_TIME = "sendTime";
+
+    public enum Transport {
+        TCP("tcp", "tcp", false),
+        NIO("nio", "tcp", false),
+        SSL("ssl", "ssl", true),
+        NIO_SSL("nio+ssl", "ssl", true),
+        HTTP("http", "http", false),
+        HTTPS("https", "https", true);
+
+        private final String connectorScheme;
+        private final String clientScheme;
+        private final boolean tls;
+
+        Transport(String connectorScheme, String clientScheme, boolean tls) {
+            this.connectorScheme = connectorScheme;
+            this.clientScheme = clientScheme;
+            this.tls = tls;
+        }
+
+        public boolean isTls() {
+            return tls;
+        }
+    }
+
+    private BrokerService broker;
+    private final Map<Transport, Integer> ports = new EnumMap<>(Transport.class);
+    private SslContext clientSslContext;
+
+    public void start() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistenceAdapter(new MemoryPersistenceAdapter());
+        broker.setDataDirectory("target/activemq-data");
+        broker.setUseJmx(false);
+
+        // Configure TLS on the broker
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        InputStream istream = TransportBenchmark.class.getClassLoader().getResourceAsStream("servicestore.jks");
+        keyStore.load(istream, "sspass".toCharArray());
+        keyManagerFactory.init(keyStore, "skpass".toCharArray());
+        KeyManager[] keyManagers = keyManagerFactory.getKeyManagers();
+        SslContext sslContext = new SslContext();
+        sslContext.setKeyManagers(Arrays.asList(keyManagers));
+        broker.setSslContext(sslContext);
+
+        for (Transport transport : Transport.values()) {
+            ServerSocket serverSocket = new ServerSocket(0);
+            int port = serverSocket.getLocalPort();
+            serverSocket.close();
+
+            ports.put(transport, port);
+            broker.addConnector(transport.connectorScheme + "://localhost:" + port);
+        }
+        broker.start();
+
+        // A client SslContext that is shared across connections
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        InputStream trustStream = TransportBenchmark.class.getClassLoader().getResourceAsStream("truststore.jks");
+        trustStore.load(trustStream, "security".toCharArray());
+        trustManagerFactory.init(trustStore);
+        TrustManager[] trustManagers = trustManagerFactory.getTrustManagers();
+        clientSslContext = new SslContext(null, trustManagers, null);
+    }
+
+    public void stop() throws Exception {
+        if (broker != null) {
+            broker.stop();
+            broker.waitUntilStopped();
+        }
+    }
+
+    /**
+     * Create a ConnectionFactory for the given transport.
+     * @param resumeSessions whether to share an SslContext (and so the TLS session cache) across connections
+     */
+    public ConnectionFactory createConnectionFactory(Transport transport, boolean resumeSessions) {
+        String address = transport.clientScheme + "://localhost:" + ports.get(transport);
+        if (!transport.isTls()) {
+            return new ActiveMQConnectionFactory(address);
+        }
+
+        if ("https".equals(transport.clientScheme)) {
+            address += "?transport.verifyHostName=false";
+        } else {
+            address += "?socket.verifyHostName=false";
+        }
+        if (resumeSessions) {
+            return new SharedSslContextConnectionFactory(address, clientSslContext);
+        }
+
+        ActiveMQSslConnectionFactory factory = new ActiveMQSslConnectionFactory(address);
+        factory.setTrustStore("truststore.jks");
+        factory.setTrustStorePassword("security");
+        return factory;
+    }
+
+    /**
+     * Measure the average time taken to create, start and close a connection.
+     */
+    public long measureConnectionSetupMicros(Transport transport, boolean resumeSessions, int connections)
+        throws Exception {
+        ConnectionFactory factory = createConnectionFactory(transport, resumeSessions);
+
+        // Warm up
+        openAndClose(factory);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            openAndClose(factory);
+        }
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / connections;
+    }
+
+    private static void openAndClose(ConnectionFactory factory) throws JMSException {
+        Connection connection = factory.createConnection();
+        connection.start();
+        // Make sure the connection is actually established
+        connection.createSession(false, Session.AUTO_ACKNOWLEDGE).close();
+        connection.close();
+    }
+
+    /**
+     * Send a number of non-persistent messages over a single connection, and measure the throughput and the
+     * end-to-end latency.
+     */
+    public Result measureThroughput(Transport transport, int messageCount, int messageSize) throws Exception {
+        ConnectionFactory factory = createConnectionFactory(transport, true);
+        Connection connection = factory.createConnection();
+        try {
+            connection.start();
+
+            Session consumerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Destination queue = consumerSession.createQueue("benchmarkqueue." + transport.name());
+            MessageConsumer consumer = consumerSession.createConsumer(queue);
+
+            Histogram latencies = new Histogram(3);
+            CountDownLatch latch = new CountDownLatch(messageCount);
+            consumer.setMessageListener(message -> {
+                try {
+                    latencies.recordValue(System.nanoTime() - message.getLongProperty(SEND_TIME));
+                } catch (JMSException ex) {
+                    throw new RuntimeException(ex);
+                }
+                latch.countDown();
+            });
+
+            Session producerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = producerSession.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+
+            byte[] payload = new byte[messageSize];
+            Arrays.fill(payload, (byte) 'x');
+
+            long start = System.nanoTime();
+            for (int i = 0; i < messageCount; i++) {
+                BytesMessage message = producerSession.createBytesMessage();
+                message.writeBytes(payload);
+                message.setLongProperty(SEND_TIME, System.nanoTime());
+                producer.send(message);
+            }
+            if (!latch.await(5, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Only received " + (messageCount - latch.getCount()) + " messages");
+            }
+            long elapsed = System.nanoTime() - start;
+
+            return new Result(transport, messageCount, messageSize, elapsed, latencies);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * The TLS transport factories pick up the SslContext of the current thread. Set it only while the transport of
+     * a connection is created, so that it doesn't leak into anything else that runs on the same thread.
+     */
+    private static final class SharedSslContextConnectionFactory extends ActiveMQConnectionFactory {
+        private final SslContext sslContext;
+
+        SharedSslContextConnectionFactory(String address, SslContext sslContext) {
+            super(address);
+            this.sslContext = sslContext;
+        }
+
+        @Override
+        protected org.apache.activemq.transport.Transport createTransport() throws JMSException {
+            SslContext existing = SslContext.getCurrentSslContext();
+            try {
+                SslContext.setCurrentSslContext(sslContext);
+                return super.createTransport();
+            } finally {
+                SslContext.setCurrentSslContext(existing);
+            }
+        }
+    }
+
+    public static class Result {
+        private final Transport transport;
+        private final int messages;
+        private final int messageSize;
+        private final long elapsedNanos;
+        private final Histogram latencies;
+        private long connectionSetupMicros = -1;
+        private long resumedConnectionSetupMicros = -1;
+
+        Result(Transport transport, int messages, int messageSize, long elapsedNanos, Histogram latencies) {
+            this.transport = transport;
+            this.messages = messages;
+            this.messageSize = messageSize;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+        }
+
+        public int getMessages() {
+            return messages;
+        }
+
+        public double getMessagesPerSecond() {
+            return messages / (elapsedNanos / 1e9);
+        }
+
+        public long getLatencyPercentile(double percentile) {
+            return latencies.getValueAtPercentile(percentile);
+        }
+
+        public void setConnectionSetupMicros(long connectionSetupMicros) {
+            this.connectionSetupMicros = connectionSetupMicros;
+        }
+
+        /**
+         * The connection setup time when TLS sessions can be resumed, only applicable to TLS transports
+         */
+        public void setResumedConnectionSetupMicros(long resumedConnectionSetupMicros) {
+            this.resumedConnectionSetupMicros = resumedConnectionSetupMicros;
+        }
+
+        public String toJson() {
+            return "{\"transport\":\"" + transport.connectorScheme + "\""
+                + ",\"messageSize\":" + messageSize
+                + ",\"messages\":" + messages
+                + ",\"msgsPerSec\":" + String.format(Locale.ROOT, "%.1f", getMessagesPerSecond())
+                + ",\"connectionSetupMicros\":" + connectionSetupMicros
+                + ",\"resumedConnectionSetupMicros\":" + resumedConnectionSetupMicros
+                + ",\"latencyMicros\":{\"p50\":" + TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(50.0))
+                + ",\"p99\":" + TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(99.0))
+                + ",\"p999\":" + TimeUnit.NANOSECONDS.toMicros(getLatencyPercentile(99.9)) + "}}";
+        }
+
+        @Override
+        public String toString() {
+            return toJson();
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.activemq.transports;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.coheigea.activemq.transports.TransportBenchmark.Result;
+import org.apache.coheigea.activemq.transports.TransportBenchmark.Transport;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measure the throughput, connection setup cost and latency of the TCP, NIO, SSL, NIO+SSL, HTTP and HTTPS
+ * transports. The results are written to target/transport-benchmark.json.
+ */
+public class TransportBenchmarkTest {
+
+    private static TransportBenchmark benchmark;
+
+    @org.junit.BeforeClass
+    public static void startBroker() throws Exception {
+        benchmark = new TransportBenchmark();
+        benchmark.start();
+    }
+
+    @org.junit.AfterClass
+    public static void stopBroker() throws Exception {
+        if (benchmark != null) {
+            benchmark.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void testSmallRun() throws Exception {
+        for (Transport transport : new Transport[] {Transport.TCP, Transport.NIO_SSL}) {
+            Result result = benchmark.measureThroughput(transport, 100, 1024);
+            assertEquals(100, result.getMessages());
+        }
+    }
+
+    // Run each transport in turn for a number of message sizes
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testTransportMatrix() throws Exception {
+        List<String> results = new ArrayList<>();
+        for (Transport transport : Transport.values()) {
+            for (int messageSize : new int[] {256, 4096, 65536}) {
+                Result result = benchmark.measureThroughput(transport, 20000, messageSize);
+                result.setConnectionSetupMicros(benchmark.measureConnectionSetupMicros(transport, false, 100));
+                if (transport.isTls()) {
+                    result.setResumedConnectionSetupMicros(benchmark.measureConnectionSetupMicros(transport, true, 100));
+                }
+                System.out.println(result);
+                results.add(result.toJson());
+            }
+        }
+
+        FileUtils.writeStringToFile(new File("target/transport-benchmark.json"),
+                                    "[\n" + String.join(",\n", results) + "\n]\n", StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hbase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A YCSB-style benchmark of a table on a mini-cluster that is started by one of the tests. The records are loaded
+ * with batched puts, and then each of the core YCSB workloads is run by a number of threads, picking the records
+ * with a zipfian distribution:
+ *
+ *  - A: 50% reads, 50% updates
+ *  - B: 95% reads, 5% updates
+ *  - C: 100% reads
+ *
+ * The tests pass in a connection for the user to run the benchmark as, so the same benchmark can be run with and
+ * without authorization. The results are printed, and appended to "target/hbase-benchmark.csv" so that the runs of
+ * the different tests can be compared. The settings can be changed via system properties, e.g.
+ * -Dhbase.benchmark.records=100000 -Dhbase.benchmark.threads=16
+ */
+public final class HBaseBenchmark {
+
+    private static final String RESULTS_FILE = "target/hbase-benchmark.csv";
+    private static final int FIELDS = 10;
+    private static final int FIELD_SIZE = 100;
+
+    private HBaseBenchmark() {
+    }
+
+    public static void run(String label, Connection conn, TableName tableName, byte[] family) throws Exception {
+        int records = Integer.getInteger("hbase.benchmark.records", 10000);
+        int operations = Integer.getInteger("hbase.benchmark.operations", 50000);
+        int threads = Integer.getInteger("hbase.benchmark.threads", 8);
+        int batchSize = Integer.getInteger("hbase.benchmark.batchSize", 100);
+
+        System.out.println(String.format("%-30s %-8s %12s %8s %8s %8s", "Test", "Workload", "ops/s", "p50 ms",
+            "p99 ms", "max ms"));
+
+        // Load the records, "batchSize" rows per call
+        long[] latencies = new long[(records + batchSize - 1) / batchSize];
+        long start = System.nanoTime();
+        try (Table table = conn.getTable(tableName)) {
+            Random random = new Random(42);
+            for (int batch = 0; batch < latencies.length; batch++) {
+                List<Put> puts = new ArrayList<>(batchSize);
+                for (int i = batch * batchSize; i < Math.min(records, (batch + 1) * batchSize); i++) {
+                    puts.add(createPut(i, family, random));
+                }
+                long opStart = System.nanoTime();
+                table.put(puts);
+                latencies[batch] = System.nanoTime() - opStart;
+            }
+        }
+        report(label, "load", records, System.nanoTime() - start, latencies);
+
+        runWorkload(label, "A", 0.5, conn, tableName, family, records, operations, threads);
+        runWorkload(label, "B", 0.95, conn, tableName, family, records, operations, threads);
+        runWorkload(label, "C", 1.0, conn, tableName, family, records, operations, threads);
+    }
+
+    private static void runWorkload(String label, String workload, final double readProportion,
+                                    final Connection conn, final TableName tableName, final byte[] family,
+                                    final int records, int operations, int threads) throws Exception {
+        final int operationsPerThread = operations / threads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                futures.add(executor.submit(new Callable<long[]>() {
+                    public long[] call() throws Exception {
+                        Random random = new Random(seed);
+                        ZipfianGenerator keys = new ZipfianGenerator(records, random);
+                        long[] latencies = new long[operationsPerThread];
+                        try (Table table = conn.getTable(tableName)) {
+                            for (int i = 0; i < operationsPerThread; i++) {
+                                int key = keys.next();
+                                long opStart = System.nanoTime();
+                                if (random.nextDouble() < readProportion) {
+                                    table.get(new Get(rowKey(key)).addFamily(family));
+                                } else {
+                                    table.put(createPut(key, family, random));
+                                }
+                                latencies[i] = System.nanoTime() - opStart;
+                            }
+                        }
+                        return latencies;
+                    }
+                }));
+            }
+            long[] latencies = new long[operationsPerThread * threads];
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(futures.get(t).get(), 0, latencies, t * operationsPerThread, operationsPerThread);
+            }
+            report(label, workload, latencies.length, System.nanoTime() - start, latencies);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Put createPut(int key, byte[] family, Random random) {
+        Put put = new Put(rowKey(key));
+        byte[] value = new byte[FIELD_SIZE];
+        for (int field = 0; field < FIELDS; field++) {
+            for (int i = 0; i < value.length; i++) {
+                value[i] = (byte) ('a' + random.nextInt(26));
+            }
+            put.addColumn(family, Bytes.toBytes("field" + field), value.clone());
+        }
+        return put;
+    }
+
+    private static byte[] rowKey(int key) {
+        // Spread the keys over the key space, as YCSB does
+        return Bytes.toBytes("user" + Long.toHexString(Long.reverse(key)));
+    }
+
+    private static void report(String label, String workload, int operations, long elapsedNanos, long[] latencies)
+        throws Exception {
+        Arrays.sort(latencies);
+        long opsPerSecond = operations * 1000000000L / elapsedNanos;
+        double p50 = percentile(latencies, 50);
+        double p99 = percentile(latencies, 99);
+        double max = percentile(latencies, 100);
+        System.out.println(String.format("%-30s %-8s %12d %8.2f %8.2f %8.2f", label, workload, opsPerSecond,
+            p50, p99, max));
+
+        File file = new File(RESULTS_FILE);
+        boolean exists = file.exists();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (!exists) {
+                writer.println("test,workload,operations,opsPerSecond,p50Ms,p99Ms,maxMs");
+            }
+            writer.println(String.format("%s,%s,%d,%d,%.2f,%.2f,%.2f", label, workload, operations, opsPerSecond,
+                p50, p99, max));
+        }
+    }
+
+    private static double percentile(long[] sortedLatencies, int percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1000000.0;
+    }
+
+    /**
+     * The zipfian distribution of YCSB (Gray et al, "Quickly Generating Billion-Record Synthetic Databases"), so
+     * that a few of the records are very popular.
+     */
+    private static final class ZipfianGenerator {
+        private static final double THETA = 0.99;
+
+        private final int items;
+        private final Random random;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+
+        ZipfianGenerator(int items, Random random) {
+            this.items = items;
+            this.random = random;
+            this.zetan = zeta(items);
+            this.alpha = 1.0 / (1.0 - THETA);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - THETA)) / (1 - zeta(2) / zetan);
+        }
+
+        int next() {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, THETA)) {
+                return 1;
+            }
+            return Math.min(items - 1, (int) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(int n) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, THETA);
+            }
+            return sum;
+        }
+    }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Assert;
+
+/**
+ * Here we plug the PolicyRegionObserver into HBase, which authorizes reads + writes against the policies in a file.
+ * "bob" can read + write "colfam1" of the "temp" table, and only read "colfam2". "eve" can't do anything.
+ */
+public class HBasePolicyAuthorizationTest {
+
+    private static final File policyFile = new File("./target/hbase-policies.txt").getAbsoluteFile();
+    private static final byte[] COLFAM1 = Bytes.toBytes("colfam1");
+    private static final byte[] COLFAM2 = Bytes.toBytes("colfam2");
+    private static final byte[] COL1 = Bytes.toBytes("col1");
+    private static int port;
+    private static HBaseTestingUtility utility;
+    private static Configuration conf;
+
+    @org.junit.BeforeClass
+    public static void setup() throws Exception {
+        writePolicies(policyFile, "bob RW temp colfam1", "bob R temp colfam2", "bob RW usertable");
+
+        port = getFreePort();
+
+        utility = new HBaseTestingUtility();
+        utility.getConfiguration().set("test.hbase.zookeeper.property.clientPort", "" + port);
+        utility.getConfiguration().set("hbase.master.port", "" + getFreePort());
+        utility.getConfiguration().set("hbase.master.info.port", "" + getFreePort());
+        utility.getConfiguration().set("hbase.regionserver.port", "" + getFreePort());
+        utility.getConfiguration().set("hbase.regionserver.info.port", "" + getFreePort());
+        utility.getConfiguration().set("zookeeper.znode.parent", "/hbase-unsecure");
+
+        // Enable authorization
+        utility.getConfiguration().set("hbase.security.authorization", "true");
+        utility.getConfiguration().set("hbase.coprocessor.master.classes",
+                                       "org.apache.coheigea.bigdata.hbase.CustomMasterObserver");
+        utility.getConfiguration().set("hbase.coprocessor.region.classes",
+                                       "org.apache.coheigea.bigdata.hbase.PolicyRegionObserver");
+        utility.getConfiguration().set(PolicyRegionObserver.POLICY_FILE, policyFile.getPath());
+
+        utility.startMiniCluster();
+
+        conf = HBaseConfiguration.create();
+        conf.set("hbase.zookeeper.quorum", "localhost");
+        conf.set("hbase.zookeeper.property.clientPort", "" + port);
+        conf.set("zookeeper.znode.parent", "/hbase-unsecure");
+
+        // Create a table as the logged in user
+        Connection conn = ConnectionFactory.createConnection(conf);
+        Admin admin = conn.getAdmin();
+
+        HTableDescriptor tableDescriptor = new HTableDescriptor(TableName.valueOf("temp"));
+        tableDescriptor.addFamily(new HColumnDescriptor(COLFAM1));
+        tableDescriptor.addFamily(new HColumnDescriptor(COLFAM2));
+        admin.createTable(tableDescriptor);
+
+        // Add a new row
+        Put put = new Put(Bytes.toBytes("row1"));
+        put.addColumn(COLFAM1, COL1, Bytes.toBytes("val1"));
+        put.addColumn(COLFAM2, COL1, Bytes.toBytes("val2"));
+        Table table = conn.getTable(TableName.valueOf("temp"));
+        table.put(put);
+
+        conn.close();
+    }
+
+    @org.junit.AfterClass
+    public static void cleanup() throws Exception {
+        utility.shutdownMiniCluster();
+    }
+
+    @org.junit.Test
+    public void testReadRowAsBob() throws Exception {
+        doAs("bob", new TableAction() {
+            public void run(Table table) throws Exception {
+                // Read a single family
+                Result result = table.get(new Get(Bytes.toBytes("row1")).addFamily(COLFAM1));
+                Assert.assertTrue(Arrays.equals(Bytes.toBytes("val1"), result.getValue(COLFAM1, COL1)));
+
+                // Read the whole row, which needs access to all of the families
+                result = table.get(new Get(Bytes.toBytes("row1")));
+                Assert.assertTrue(Arrays.equals(Bytes.toBytes("val2"), result.getValue(COLFAM2, COL1)));
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testReadRowAsEve() throws Exception {
+        doAs("eve", new TableAction() {
+            public void run(Table table) throws Exception {
+                try {
+                    table.get(new Get(Bytes.toBytes("row1")));
+                    Assert.fail("Failure expected on an unauthorized user");
+                } catch (IOException ex) {
+                    // expected
+                }
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testScan() throws Exception {
+        doAs("bob", new TableAction() {
+            public void run(Table table) throws Exception {
+                try (ResultScanner scanner = table.getScanner(new Scan())) {
+                    Assert.assertNotNull(scanner.next());
+                }
+            }
+        });
+
+        doAs("eve", new TableAction() {
+            public void run(Table table) throws Exception {
+                try (ResultScanner scanner = table.getScanner(new Scan().addFamily(COLFAM1))) {
+                    scanner.next();
+                    Assert.fail("Failure expected on an unauthorized user");
+                } catch (IOException ex) {
+                    // expected
+                }
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testWriteRowAsBob() throws Exception {
+        doAs("bob", new TableAction() {
+            public void run(Table table) throws Exception {
+                Put put = new Put(Bytes.toBytes("row2"));
+                put.addColumn(COLFAM1, COL1, Bytes.toBytes("val2"));
+                table.put(put);
+
+                // "bob" can only read "colfam2"
+                try {
+                    put = new Put(Bytes.toBytes("row2"));
+                    put.addColumn(COLFAM2, COL1, Bytes.toBytes("val2"));
+                    table.put(put);
+                    Assert.fail("Failure expected on an unauthorized family");
+                } catch (IOException ex) {
+                    // expected
+                }
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testBatchWriteAsBob() throws Exception {
+        doAs("bob", new TableAction() {
+            public void run(Table table) throws Exception {
+                List<Put> puts = new ArrayList<>();
+                for (int i = 0; i < 10; i++) {
+                    Put put = new Put(Bytes.toBytes("batch" + i));
+                    put.addColumn(COLFAM1, COL1, Bytes.toBytes("val" + i));
+                    puts.add(put);
+                }
+                table.put(puts);
+
+                // One unauthorized put fails the batch
+                Put put = new Put(Bytes.toBytes("batch10"));
+                put.addColumn(COLFAM2, COL1, Bytes.toBytes("val10"));
+                puts.add(put);
+                try {
+                    table.put(puts);
+                    Assert.fail("Failure expected on an unauthorized family");
+                } catch (IOException ex) {
+                    // expected
+                }
+            }
+        });
+
+        // Check that nothing was written for "batch10"
+        Connection conn = ConnectionFactory.createConnection(conf);
+        Table table = conn.getTable(TableName.valueOf("temp"));
+        Assert.assertTrue(table.get(new Get(Bytes.toBytes("batch10"))).isEmpty());
+        Assert.assertFalse(table.get(new Get(Bytes.toBytes("batch9"))).isEmpty());
+        conn.close();
+    }
+
+    @org.junit.Test
+    public void testDeleteRowAsBob() throws Exception {
+        Connection conn = ConnectionFactory.createConnection(conf);
+        Table table = conn.getTable(TableName.valueOf("temp"));
+
+        // Add a new row (as process owner)
+        Put put = new Put(Bytes.toBytes("row5"));
+        put.addColumn(COLFAM1, COL1, Bytes.toBytes("val2"));
+        put.addColumn(COLFAM2, COL1, Bytes.toBytes("val2"));
+        table.put(put);
+
+        doAs("bob", new TableAction() {
+            public void run(Table table) throws Exception {
+                // Deleting the whole row needs write access to all of the families
+                try {
+                    table.delete(new Delete(Bytes.toBytes("row5")));
+                    Assert.fail("Failure expected on an unauthorized family");
+                } catch (IOException ex) {
+                    // expected
+                }
+
+                table.delete(new Delete(Bytes.toBytes("row5")).addFamily(COLFAM1));
+            }
+        });
+
+        // The delete is checked before it is made, so "colfam2" is still there
+        Result result = table.get(new Get(Bytes.toBytes("row5")));
+        Assert.assertNull(result.getValue(COLFAM1, COL1));
+        Assert.assertTrue(Arrays.equals(Bytes.toBytes("val2"), result.getValue(COLFAM2, COL1)));
+
+        table.delete(new Delete(Bytes.toBytes("row5")));
+        conn.close();
+    }
+
+    @org.junit.Test
+    public void testCheckAndPut() throws Exception {
+        doAs("bob", new TableAction() {
+            public void run(Table table) throws Exception {
+                Put put = new Put(Bytes.toBytes("row1"));
+                put.addColumn(COLFAM1, Bytes.toBytes("col2"), Bytes.toBytes("checked"));
+                Assert.assertTrue(table.checkAndPut(Bytes.toBytes("row1"), COLFAM2, COL1, Bytes.toBytes("val2"), put));
+            }
+        });
+
+        doAs("eve", new TableAction() {
+            public void run(Table table) throws Exception {
+                Put put = new Put(Bytes.toBytes("row1"));
+                put.addColumn(COLFAM1, Bytes.toBytes("col2"), Bytes.toBytes("eve"));
+                try {
+                    table.checkAndPut(Bytes.toBytes("row1"), COLFAM1, COL1, Bytes.toBytes("val1"), put);
+                    Assert.fail("Failure expected on an unauthorized user");
+                } catch (IOException ex) {
+                    // expected
+                }
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testCachedDecisions() throws Exception {
+        final HBasePolicyStore store = HBasePolicyStore.getStore(policyFile.getPath());
+        doAs("bob", new TableAction() {
+            public void run(Table table) throws Exception {
+                table.get(new Get(Bytes.toBytes("row1")).addFamily(COLFAM1));
+                long hits = store.getHits();
+                long misses = store.getMisses();
+
+                table.get(new Get(Bytes.toBytes("row1")).addFamily(COLFAM1));
+                Assert.assertTrue(store.getHits() > hits);
+                Assert.assertEquals(misses, store.getMisses());
+            }
+        });
+    }
+
+    /**
+     * Run the YCSB-style benchmark as "bob", with and without the cache of decisions.
+     */
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testBenchmark() throws Exception {
+        Connection conn = ConnectionFactory.createConnection(conf);
+        Admin admin = conn.getAdmin();
+        HTableDescriptor tableDescriptor = new HTableDescriptor(TableName.valueOf("usertable"));
+        tableDescriptor.addFamily(new HColumnDescriptor("family"));
+        admin.createTable(tableDescriptor);
+        conn.close();
+
+        HBasePolicyStore store = HBasePolicyStore.getStore(policyFile.getPath());
+        for (final int cacheSize : new int[] {0, 100000}) {
+            store.setMaxCacheSize(cacheSize);
+            UserGroupInformation ugi = UserGroupInformation.createUserForTesting("bob", new String[] {"IT"});
+            ugi.doAs(new PrivilegedExceptionAction<Void>() {
+                public Void run() throws Exception {
+                    try (Connection conn = ConnectionFactory.createConnection(conf)) {
+                        HBaseBenchmark.run("policy (cache size " + cacheSize + ")", conn,
+                                           TableName.valueOf("usertable"), Bytes.toBytes("family"));
+                    }
+                    return null;
+                }
+            });
+        }
+        System.out.println("Cache hits: " + store.getHits() + ", misses: " + store.getMisses());
+    }
+
+    private interface TableAction {
+        void run(Table table) throws Exception;
+    }
+
+    private static void doAs(String user, final TableAction action) throws Exception {
+        UserGroupInformation ugi = UserGroupInformation.createUserForTesting(user, new String[] {"IT"});
+        ugi.doAs(new PrivilegedExceptionAction<Void>() {
+            public Void run() throws Exception {
+                Connection conn = ConnectionFactory.createConnection(conf);
+                try {
+                    action.run(conn.getTable(TableName.valueOf("temp")));
+                } finally {
+                    conn.close();
+                }
+                return null;
+            }
+        });
+    }
+
+    private static void writePolicies(File file, String... policies) throws Exception {
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            for (String policy : policies) {
+                writer.println(policy);
+            }
+        }
+    }
+
+    private static int getFreePort() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        return port;
+    }
+
+}
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hbase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.security.access.Permission.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The authorization policies of the PolicyRegionObserver, which are loaded from a file. Each line of the file
+ * grants actions on a table, or on a single column family of a table, of the form:
+ *
+ * <user>|@<group>|* <actions> <table> [<family>]
+ *
+ * where the actions are the codes of the HBase actions, e.g. "bob RW temp colfam1" allows "bob" to read and write
+ * the "colfam1" column family of the "temp" table. A grant on a table applies to all of its column families.
+ *
+ * Decisions are cached per (user, table, family, action), together with the generation of the policies that they
+ * were made against. The generation is incremented when the policy file changes (which is checked at most once
+ * every "checkIntervalMillis"), so that the cached decisions of an older generation are ignored.
+ */
+public class HBasePolicyStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HBasePolicyStore.class);
+    private static final Map<String, HBasePolicyStore> STORES = new ConcurrentHashMap<>();
+
+    private final File policyFile;
+    private final Map<DecisionKey, Decision> cache = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile Snapshot snapshot;
+    private volatile long lastChecked;
+    private volatile long failedLastModified;
+    private volatile long checkIntervalMillis = 1000L;
+    private volatile int maxCacheSize = 100000;
+
+    public HBasePolicyStore(File policyFile) throws IOException {
+        this.policyFile = policyFile;
+        this.snapshot = load(1L);
+    }
+
+    /**
+     * @return the (shared) policies that are loaded from the given file
+     */
+    public static HBasePolicyStore getStore(String policyFile) throws IOException {
+        String path = new File(policyFile).getAbsolutePath();
+        HBasePolicyStore store = STORES.get(path);
+        if (store == null) {
+            synchronized (STORES) {
+                store = STORES.get(path);
+                if (store == null) {
+                    store = new HBasePolicyStore(new File(path));
+                    STORES.put(path, store);
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return the current policies, which the decisions of a single request must all be made against
+     */
+    public Snapshot getSnapshot() {
+        long now = System.currentTimeMillis();
+        if (now - lastChecked >= checkIntervalMillis) {
+            synchronized (this) {
+                if (now - lastChecked >= checkIntervalMillis) {
+                    lastChecked = now;
+                    long lastModified = policyFile.lastModified();
+                    if (lastModified != snapshot.lastModified) {
+                        try {
+                            snapshot = load(snapshot.generation + 1);
+                            // Old decisions are ignored anyway, this just frees up the memory
+                            cache.clear();
+                        } catch (IOException ex) {
+                            // The file is checked again next time, but the error is only logged once per change
+                            if (lastModified != failedLastModified) {
+                                failedLastModified = lastModified;
+                                LOG.error("Can't reload the HBase policies from " + policyFile
+                                    + ", keeping the policies of generation " + snapshot.generation, ex);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return whether the policies grant the action on the column family of the table to the user
+     */
+    public boolean isGranted(Snapshot policies, User user, String table, String family, Action action) {
+        DecisionKey key = null;
+        if (maxCacheSize > 0) {
+            key = new DecisionKey(user.getShortName(), table, family, action);
+            Decision decision = cache.get(key);
+            if (decision != null && decision.generation == policies.generation) {
+                hits.incrementAndGet();
+                return decision.granted;
+            }
+        }
+        misses.incrementAndGet();
+
+        TablePolicies tablePolicies = policies.tables.get(table);
+        boolean granted = tablePolicies != null && tablePolicies.grants(user, family, action);
+        if (key != null) {
+            if (cache.size() >= maxCacheSize) {
+                cache.clear();
+            }
+            cache.put(key, new Decision(policies.generation, granted));
+        }
+        return granted;
+    }
+
+    private Snapshot load(long generation) throws IOException {
+        long lastModified = policyFile.lastModified();
+        Map<String, TablePolicies> tables = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(policyFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                EnumSet<Action> actions = tokens.length < 3 ? null : parseActions(tokens[1]);
+                if (actions == null || tokens.length > 4) {
+                    throw new IOException("Invalid policy on line " + lineNumber + " of " + policyFile + ": " + line);
+                }
+                TablePolicies tablePolicies = tables.get(tokens[2]);
+                if (tablePolicies == null) {
+                    tablePolicies = new TablePolicies();
+                    tables.put(tokens[2], tablePolicies);
+                }
+                tablePolicies.add(tokens[0], tokens.length == 4 ? tokens[3] : null, actions);
+            }
+        }
+        return new Snapshot(generation, lastModified, tables);
+    }
+
+    private static EnumSet<Action> parseActions(String codes) {
+        EnumSet<Action> actions = EnumSet.noneOf(Action.class);
+        for (char code : codes.toCharArray()) {
+            Action found = null;
+            for (Action action : Action.values()) {
+                if (action.code() == code) {
+                    found = action;
+                }
+            }
+            if (found == null) {
+                return null;
+            }
+            actions.add(found);
+        }
+        return actions;
+    }
+
+    public long getGeneration() {
+        return snapshot.generation;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * The maximum number of cached decisions, 100000 by default. The cache is cleared when it is full. 0 disables
+     * the cache.
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        cache.clear();
+    }
+
+    /**
+     * An immutable generation of the policies
+     */
+    public static final class Snapshot {
+        private final long generation;
+        private final long lastModified;
+        private final Map<String, TablePolicies> tables;
+
+        Snapshot(long generation, long lastModified, Map<String, TablePolicies> tables) {
+            this.generation = generation;
+            this.lastModified = lastModified;
+            this.tables = tables;
+        }
+    }
+
+    /**
+     * The grants on a table, and on each of its column families, by principal
+     */
+    private static final class TablePolicies {
+        private final Map<String, EnumSet<Action>> tableGrants = new HashMap<>();
+        private final Map<String, Map<String, EnumSet<Action>>> familyGrants = new HashMap<>();
+        private boolean hasGroups;
+
+        void add(String principal, String family, EnumSet<Action> actions) {
+            Map<String, EnumSet<Action>> grants = tableGrants;
+            if (family != null) {
+                grants = familyGrants.get(family);
+                if (grants == null) {
+                    grants = new HashMap<>();
+                    familyGrants.put(family, grants);
+                }
+            }
+            EnumSet<Action> existing = grants.get(principal);
+            if (existing == null) {
+                grants.put(principal, EnumSet.copyOf(actions));
+            } else {
+                existing.addAll(actions);
+            }
+            hasGroups |= principal.startsWith("@");
+        }
+
+        boolean grants(User user, String family, Action action) {
+            // Only look up the groups of the user if they are needed
+            String[] groups = hasGroups ? user.getGroupNames() : null;
+            return grants(tableGrants, user.getShortName(), groups, action)
+                || family != null && grants(familyGrants.get(family), user.getShortName(), groups, action);
+        }
+
+        private static boolean grants(Map<String, EnumSet<Action>> grants, String user, String[] groups,
+                                      Action action) {
+            if (grants == null || grants.isEmpty()) {
+                return false;
+            }
+            if (contains(grants.get(user), action) || contains(grants.get("*"), action)) {
+                return true;
+            }
+            if (groups != null) {
+                for (String group : groups) {
+                    if (contains(grants.get("@" + group), action)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static boolean contains(EnumSet<Action> actions, Action action) {
+            return actions != null && actions.contains(action);
+        }
+    }
+
+    private static final class DecisionKey {
+        private final String user;
+        private final String table;
+        private final String family;
+        private final Action action;
+        private final int hash;
+
+        DecisionKey(String user, String table, String family, Action action) {
+            this.user = user;
+            this.table = table;
+            this.family = family;
+            this.action = action;
+            this.hash = ((user.hashCode() * 31 + table.hashCode()) * 31
+                + (family == null ? 0 : family.hashCode())) * 31 + action.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return hash == other.hash && action == other.action && user.equals(other.user)
+                && table.equals(other.table)
+                && (family == null ? other.family == null : family.equals(other.family));
+        }
+    }
+
+    private static final class Decision {
+        private final long generation;
+        private final boolean granted;
+
+        Decision(long generation, boolean granted) {
+            this.generation = generation;
+            this.granted = granted;
+        }
+    }
+
+}
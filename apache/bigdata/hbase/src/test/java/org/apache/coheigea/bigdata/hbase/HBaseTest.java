@@ -136,6 +136,32 @@ public class HBaseTest {
         conn.close();
     }
     
+    /**
+     * Run the YCSB-style benchmark without any authorization, as a baseline for HBasePolicyAuthorizationTest.
+     */
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testBenchmark() throws Exception {
+        final Configuration conf = HBaseConfiguration.create();
+        conf.set("hbase.zookeeper.quorum", "localhost");
+        conf.set("hbase.zookeeper.property.clientPort", "" + port);
+        conf.set("zookeeper.znode.parent", "/hbase-unsecure");
+        
+        Connection conn = ConnectionFactory.createConnection(conf);
+        Admin admin = conn.getAdmin();
+        HTableDescriptor tableDescriptor = new HTableDescriptor(TableName.valueOf("usertable"));
+        tableDescriptor.addFamily(new HColumnDescriptor("family"));
+        admin.createTable(tableDescriptor);
+        
+        try {
+            HBaseBenchmark.run("no authorization", conn, TableName.valueOf("usertable"), Bytes.toBytes("family"));
+        } finally {
+            admin.disableTable(TableName.valueOf("usertable"));
+            admin.deleteTable(TableName.valueOf("usertable"));
+            conn.close();
+        }
+    }
+    
     private static int getFreePort() throws IOException {
         ServerSocket serverSocket = new ServerSocket(0);
         int port = serverSocket.getLocalPort();
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hbase;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CoprocessorEnvironment;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.filter.ByteArrayComparable;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.ipc.RpcServer;
+import org.apache.hadoop.hbase.regionserver.MiniBatchOperationInProgress;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.security.AccessDeniedException;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.security.access.Permission.Action;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A HBase RegionObserver which authorizes reads + writes against the policies in a file (see HBasePolicyStore),
+ * which is configured via "custom.hbase.policy.file". The process owner can do anything, and everyone can read the
+ * system tables (so that clients can locate the regions).
+ *
+ * All of the checks are made before the operation. The mutations of a batch are checked in preBatchMutate, once
+ * for each distinct column family in the batch, rather than for each mutation or cell.
+ */
+public class PolicyRegionObserver extends BaseRegionObserver {
+
+    public static final String POLICY_FILE = "custom.hbase.policy.file";
+
+    private HBasePolicyStore store;
+    private String loggedInUser;
+
+    @Override
+    public void start(CoprocessorEnvironment env) throws IOException {
+        String policyFile = env.getConfiguration().get(POLICY_FILE);
+        if (policyFile == null) {
+            throw new IOException("No policy file is configured via " + POLICY_FILE);
+        }
+        store = HBasePolicyStore.getStore(policyFile);
+        loggedInUser = System.getProperty("user.name");
+    }
+
+    @Override
+    public void preGetOp(ObserverContext<RegionCoprocessorEnvironment> ctx, Get get, List<Cell> results)
+        throws IOException {
+        authorize(ctx.getEnvironment(), get.getFamilyMap().keySet(), Action.READ);
+    }
+
+    @Override
+    public boolean preExists(ObserverContext<RegionCoprocessorEnvironment> ctx, Get get, boolean exists)
+        throws IOException {
+        authorize(ctx.getEnvironment(), get.getFamilyMap().keySet(), Action.READ);
+        return exists;
+    }
+
+    @Override
+    public RegionScanner preScannerOpen(ObserverContext<RegionCoprocessorEnvironment> ctx, Scan scan,
+                                        RegionScanner scanner) throws IOException {
+        authorize(ctx.getEnvironment(), scan.getFamilyMap().keySet(), Action.READ);
+        return scanner;
+    }
+
+    @Override
+    public void preBatchMutate(ObserverContext<RegionCoprocessorEnvironment> ctx,
+                               MiniBatchOperationInProgress<Mutation> miniBatchOp) throws IOException {
+        User user = getUser();
+        if (isSuperUser(user)) {
+            return;
+        }
+
+        // Every put + delete goes through here, so collect the distinct families of the batch and check them once
+        Set<byte[]> families = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+        boolean allFamilies = false;
+        for (int i = 0; i < miniBatchOp.size() && !allFamilies; i++) {
+            Mutation mutation = miniBatchOp.getOperation(i);
+            if (mutation.getFamilyCellMap().isEmpty()) {
+                // A delete of the whole row
+                allFamilies = true;
+            } else {
+                families.addAll(mutation.getFamilyCellMap().keySet());
+            }
+        }
+        authorize(ctx.getEnvironment(), user, allFamilies ? null : families, Action.WRITE);
+    }
+
+    @Override
+    public boolean preCheckAndPut(ObserverContext<RegionCoprocessorEnvironment> ctx, byte[] row, byte[] family,
+                                  byte[] qualifier, CompareOp compareOp, ByteArrayComparable comparator, Put put,
+                                  boolean result) throws IOException {
+        // The put itself is checked by preBatchMutate, but fail before the value is read
+        authorizeCheckAndMutate(ctx.getEnvironment(), family, put);
+        return result;
+    }
+
+    @Override
+    public boolean preCheckAndDelete(ObserverContext<RegionCoprocessorEnvironment> ctx, byte[] row, byte[] family,
+                                     byte[] qualifier, CompareOp compareOp, ByteArrayComparable comparator,
+                                     Delete delete, boolean result) throws IOException {
+        authorizeCheckAndMutate(ctx.getEnvironment(), family, delete);
+        return result;
+    }
+
+    @Override
+    public Result preAppend(ObserverContext<RegionCoprocessorEnvironment> ctx, Append append)
+        throws IOException {
+        authorize(ctx.getEnvironment(), append.getFamilyCellMap().keySet(), Action.WRITE);
+        return null;
+    }
+
+    @Override
+    public Result preIncrement(ObserverContext<RegionCoprocessorEnvironment> ctx, Increment increment)
+        throws IOException {
+        authorize(ctx.getEnvironment(), increment.getFamilyCellMap().keySet(), Action.WRITE);
+        return null;
+    }
+
+    private void authorizeCheckAndMutate(RegionCoprocessorEnvironment env, byte[] family, Mutation mutation)
+        throws IOException {
+        User user = getUser();
+        if (isSuperUser(user)) {
+            return;
+        }
+        authorize(env, user, Collections.singleton(family), Action.READ);
+        authorize(env, user, mutation.getFamilyCellMap().isEmpty() ? null : mutation.getFamilyCellMap().keySet(),
+                  Action.WRITE);
+    }
+
+    private void authorize(RegionCoprocessorEnvironment env, Collection<byte[]> families, Action action)
+        throws IOException {
+        User user = getUser();
+        if (isSuperUser(user)) {
+            return;
+        }
+        // No families means all of the families of the table
+        authorize(env, user, families.isEmpty() ? null : families, action);
+    }
+
+    /**
+     * Check the action on each of the given families, or on all of the families of the table if they are null.
+     */
+    private void authorize(RegionCoprocessorEnvironment env, User user, Collection<byte[]> families,
+                           Action action) throws IOException {
+        TableName table = env.getRegionInfo().getTable();
+        if (action == Action.READ && table.isSystemTable()) {
+            return;
+        }
+        if (families == null) {
+            families = env.getRegion().getTableDesc().getFamiliesKeys();
+        }
+
+        HBasePolicyStore.Snapshot policies = store.getSnapshot();
+        String tableName = table.getNameAsString();
+        for (byte[] family : families) {
+            if (!store.isGranted(policies, user, tableName, Bytes.toString(family), action)) {
+                throw new AccessDeniedException("Access is denied for: " + user.getShortName() + " to "
+                    + action + " " + tableName + ":" + Bytes.toString(family));
+            }
+        }
+    }
+
+    private User getUser() throws IOException {
+        User user = RpcServer.getRequestUser();
+        if (user == null) {
+            user = User.getCurrent();
+        }
+        return user;
+    }
+
+    private boolean isSuperUser(User user) {
+        return user.getShortName() != null && user.getShortName().startsWith(loggedInUser);
+    }
+
+}
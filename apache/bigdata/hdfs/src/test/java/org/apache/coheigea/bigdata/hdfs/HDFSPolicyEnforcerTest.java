@@ -0,0 +1,365 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hdfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintWriter;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Assert;
+
+/**
+ * Here we plug the PolicyINodeAttributeProvider into HDFS, which authorizes access using the policies in a file.
+ */
+public class HDFSPolicyEnforcerTest {
+
+    private static final File baseDir = new File("./target/hdfs-policy/").getAbsoluteFile();
+    private static final File policyFile = new File("./target/hdfs-policies.txt").getAbsoluteFile();
+    private static final String[] POLICIES = {"/ * --x", "/ user:bob r-x"};
+    private static final int BENCHMARK_DEPTH = 20;
+    private static final int BENCHMARK_THREADS = 8;
+    private static final int BENCHMARK_FILES = 500;
+    private static MiniDFSCluster hdfsCluster;
+    private static String defaultFs;
+
+    @org.junit.BeforeClass
+    public static void setup() throws Exception {
+        writePolicies(policyFile, POLICIES);
+
+        Configuration conf = new Configuration();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, baseDir.getAbsolutePath());
+        conf.set("dfs.namenode.inode.attributes.provider.class", PolicyINodeAttributeProvider.class.getName());
+        conf.set(PolicyINodeAttributeProvider.POLICY_FILE, policyFile.getPath());
+        // Deny anything that the policies don't grant
+        conf.setBoolean(PolicyINodeAttributeProvider.FALLBACK, false);
+        MiniDFSCluster.Builder builder = new MiniDFSCluster.Builder(conf);
+        hdfsCluster = builder.build();
+        defaultFs = conf.get("fs.defaultFS");
+
+        // Write a file - the AccessControlEnforcer won't be invoked as we are the "superuser"
+        writeFile(hdfsCluster.getFileSystem(), new Path("/tmp/tmpdir/data-file"));
+    }
+
+    @org.junit.AfterClass
+    public static void cleanup() throws Exception {
+        FileUtil.fullyDelete(baseDir);
+        hdfsCluster.shutdown();
+    }
+
+    @org.junit.Test
+    public void testReadAllowed() throws Exception {
+        Assert.assertTrue(read("bob", new Path("/tmp/tmpdir/data-file")).startsWith("data0"));
+    }
+
+    @org.junit.Test
+    public void testReadDenied() throws Exception {
+        try {
+            read("eve", new Path("/tmp/tmpdir/data-file"));
+            Assert.fail("Failure expected on an incorrect permission");
+        } catch (AccessControlException ex) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void testWriteDenied() throws Exception {
+        final Path file = new Path("/tmp/tmpdir/data-file");
+        UserGroupInformation ugi = UserGroupInformation.createRemoteUser("bob");
+        ugi.doAs(new PrivilegedExceptionAction<Void>() {
+
+            public Void run() throws Exception {
+                Configuration conf = new Configuration();
+                conf.set("fs.defaultFS", defaultFs);
+
+                FileSystem fs = FileSystem.newInstance(conf);
+
+                // Write to the file
+                try {
+                    fs.append(file);
+                    Assert.fail("Failure expected on an incorrect permission");
+                } catch (AccessControlException ex) {
+                    // expected
+                }
+
+                fs.close();
+                return null;
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testCachedDecisions() throws Exception {
+        HDFSPolicyStore store = HDFSPolicyStore.getStore(policyFile.getPath());
+        Path file = new Path("/tmp/tmpdir/data-file");
+
+        read("bob", file);
+        long hits = store.getHits();
+        long misses = store.getMisses();
+        long skipped = PolicyINodeAttributeProvider.getSkippedChecks();
+
+        // The decisions for the second read all come from the cache
+        read("bob", file);
+        Assert.assertTrue(store.getHits() > hits);
+        Assert.assertEquals(misses, store.getMisses());
+        // "/ user:bob r-x" grants EXECUTE on "/", so it isn't checked again for "/tmp" + "/tmp/tmpdir"
+        Assert.assertTrue(PolicyINodeAttributeProvider.getSkippedChecks() > skipped);
+    }
+
+    @org.junit.Test
+    public void testPolicyChange() throws Exception {
+        final Path file = new Path("/tmp/evedir/data-file");
+        writeFile(hdfsCluster.getFileSystem(), file);
+
+        HDFSPolicyStore store = HDFSPolicyStore.getStore(policyFile.getPath());
+        store.setCheckIntervalMillis(0L);
+        long generation = store.getGeneration();
+        try {
+            try {
+                read("eve", file);
+                Assert.fail("Failure expected on an incorrect permission");
+            } catch (AccessControlException ex) {
+                // expected
+            }
+
+            // Now allow "eve" to read the directory
+            writePolicies(policyFile, POLICIES[0], POLICIES[1], "/tmp/evedir user:eve r-x");
+            Assert.assertTrue(read("eve", file).startsWith("data0"));
+            Assert.assertTrue(store.getGeneration() > generation);
+        } finally {
+            writePolicies(policyFile, POLICIES);
+            store.getSnapshot();
+            store.setCheckIntervalMillis(1000L);
+        }
+    }
+
+    @org.junit.Test
+    public void testRecursiveDelete() throws Exception {
+        writeFile(hdfsCluster.getFileSystem(), new Path("/data/dir/public/data-file"));
+        writeFile(hdfsCluster.getFileSystem(), new Path("/data/dir/secret/data-file"));
+
+        HDFSPolicyStore store = HDFSPolicyStore.getStore(policyFile.getPath());
+        store.setCheckIntervalMillis(0L);
+        try {
+            // "bob" can write to "/data", the parent of the directory that is deleted
+            writePolicies(policyFile, POLICIES[0], POLICIES[1], "/data user:bob rwx",
+                          "/data/dir/secret user:bob r--");
+
+            // "/data/dir/secret" has its own policy, which doesn't allow "bob" to delete it
+            try {
+                delete("bob", new Path("/data/dir"));
+                Assert.fail("Failure expected on an incorrect permission");
+            } catch (AccessControlException ex) {
+                // expected
+            }
+            Assert.assertTrue(hdfsCluster.getFileSystem().exists(new Path("/data/dir/secret/data-file")));
+
+            // Without the policy for "/data/dir/secret", the same delete is allowed
+            writePolicies(policyFile, POLICIES[0], POLICIES[1], "/data user:bob rwx");
+            Assert.assertTrue(delete("bob", new Path("/data/dir")));
+            Assert.assertFalse(hdfsCluster.getFileSystem().exists(new Path("/data/dir")));
+        } finally {
+            writePolicies(policyFile, POLICIES);
+            store.getSnapshot();
+            store.setCheckIntervalMillis(1000L);
+        }
+    }
+
+    /**
+     * Compare the throughput of the namenode with the default enforcer against the PolicyINodeAttributeProvider,
+     * for "create", "open" and "listStatus" calls by a (non-super) user in a deep directory tree.
+     */
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testNamenodeBenchmark() throws Exception {
+        File benchmarkPolicies = new File("./target/hdfs-benchmark-policies.txt").getAbsoluteFile();
+        writePolicies(benchmarkPolicies, "/ * --x", "/bench user:bob rwx");
+
+        Configuration conf = new Configuration();
+        runBenchmark("default", conf, new File("./target/hdfs-bench-default/").getAbsoluteFile());
+
+        conf = new Configuration();
+        conf.set("dfs.namenode.inode.attributes.provider.class", PolicyINodeAttributeProvider.class.getName());
+        conf.set(PolicyINodeAttributeProvider.POLICY_FILE, benchmarkPolicies.getPath());
+        runBenchmark("policy", conf, new File("./target/hdfs-bench-policy/").getAbsoluteFile());
+
+        HDFSPolicyStore store = HDFSPolicyStore.getStore(benchmarkPolicies.getPath());
+        System.out.println("Cache hits: " + store.getHits() + ", misses: " + store.getMisses()
+            + ", skipped checks: " + PolicyINodeAttributeProvider.getSkippedChecks()
+            + ", fallbacks: " + PolicyINodeAttributeProvider.getFallbacks());
+    }
+
+    private void runBenchmark(String label, Configuration conf, File clusterDir) throws Exception {
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, clusterDir.getAbsolutePath());
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        try {
+            // Create the directory tree as the superuser, and open it up for the default enforcer
+            FileSystem fileSystem = cluster.getFileSystem();
+            Path dir = new Path("/bench");
+            for (int i = 0; i < BENCHMARK_DEPTH; i++) {
+                dir = new Path(dir, "level" + i);
+            }
+            fileSystem.mkdirs(dir);
+            for (Path p = dir; !p.isRoot(); p = p.getParent()) {
+                fileSystem.setPermission(p, new FsPermission((short) 0777));
+            }
+
+            final String fsUri = conf.get("fs.defaultFS");
+            final Path leaf = dir;
+            runPhase(label, "create", fsUri, new Operation() {
+                public void run(FileSystem fs, int thread, int i) throws Exception {
+                    fs.create(new Path(leaf, "file-" + thread + "-" + i)).close();
+                }
+            });
+            runPhase(label, "open", fsUri, new Operation() {
+                public void run(FileSystem fs, int thread, int i) throws Exception {
+                    fs.open(new Path(leaf, "file-" + thread + "-" + i)).close();
+                }
+            });
+            runPhase(label, "listStatus", fsUri, new Operation() {
+                public void run(FileSystem fs, int thread, int i) throws Exception {
+                    fs.listStatus(leaf);
+                }
+            });
+        } finally {
+            cluster.shutdown();
+            FileUtil.fullyDelete(clusterDir);
+        }
+    }
+
+    private void runPhase(String label, String phase, final String fsUri, final Operation operation)
+        throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(BENCHMARK_THREADS);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < BENCHMARK_THREADS; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        UserGroupInformation ugi = UserGroupInformation.createRemoteUser("bob");
+                        return ugi.doAs(new PrivilegedExceptionAction<Void>() {
+                            public Void run() throws Exception {
+                                Configuration conf = new Configuration();
+                                conf.set("fs.defaultFS", fsUri);
+                                try (FileSystem fs = FileSystem.newInstance(conf)) {
+                                    for (int i = 0; i < BENCHMARK_FILES; i++) {
+                                        operation.run(fs, thread, i);
+                                    }
+                                }
+                                return null;
+                            }
+                        });
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            long ops = (long) BENCHMARK_THREADS * BENCHMARK_FILES;
+            System.out.println(label + " " + phase + ": " + ops * 1000000000L / elapsed + " ops/sec");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private interface Operation {
+        void run(FileSystem fs, int thread, int i) throws Exception;
+    }
+
+    private static String read(String user, final Path file) throws Exception {
+        UserGroupInformation ugi = UserGroupInformation.createRemoteUser(user);
+        return ugi.doAs(new PrivilegedExceptionAction<String>() {
+
+            public String run() throws Exception {
+                Configuration conf = new Configuration();
+                conf.set("fs.defaultFS", defaultFs);
+
+                FileSystem fs = FileSystem.newInstance(conf);
+                try {
+                    FSDataInputStream in = fs.open(file);
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    IOUtils.copy(in, output);
+                    in.close();
+                    return new String(output.toByteArray());
+                } finally {
+                    fs.close();
+                }
+            }
+        });
+    }
+
+    private static boolean delete(String user, final Path path) throws Exception {
+        UserGroupInformation ugi = UserGroupInformation.createRemoteUser(user);
+        return ugi.doAs(new PrivilegedExceptionAction<Boolean>() {
+
+            public Boolean run() throws Exception {
+                Configuration conf = new Configuration();
+                conf.set("fs.defaultFS", defaultFs);
+
+                FileSystem fs = FileSystem.newInstance(conf);
+                try {
+                    return fs.delete(path, true);
+                } finally {
+                    fs.close();
+                }
+            }
+        });
+    }
+
+    private static void writeFile(FileSystem fileSystem, Path file) throws Exception {
+        FSDataOutputStream out = fileSystem.create(file);
+        for (int i = 0; i < 1024; ++i) {
+            out.write(("data" + i + "\n").getBytes("UTF-8"));
+            out.flush();
+        }
+        out.close();
+    }
+
+    private static void writePolicies(File file, String... policies) throws Exception {
+        long lastModified = file.lastModified();
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            for (String policy : policies) {
+                writer.println(policy);
+            }
+        }
+        // Make sure that the change is noticed, even if the file system only has a resolution of seconds
+        if (lastModified != 0L) {
+            file.setLastModified(Math.max(System.currentTimeMillis(), lastModified + 2000L));
+        }
+    }
+
+}
@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hdfs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The authorization policies of the PolicyINodeAttributeProvider, which are loaded from a file. Each line of the
+ * file grants access to a path (and everything below it) of the form:
+ *
+ * <path> user:<name>|group:<name>|* <rwx>
+ *
+ * e.g. "/tmp/tmpdir user:bob r-x". The policies are held in a trie of path components. The policy that applies
+ * to a path is the one on the longest prefix of the path that has a policy.
+ *
+ * Decisions are cached per (user, policy path, access), together with the generation of the policies that they
+ * were made against. The generation is incremented when the policy file changes (which is checked at most once
+ * every "checkIntervalMillis"), so that the cached decisions of an older generation are ignored.
+ */
+public class HDFSPolicyStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HDFSPolicyStore.class);
+    private static final Map<String, HDFSPolicyStore> STORES = new ConcurrentHashMap<>();
+
+    private final File policyFile;
+    private final Map<DecisionKey, Decision> cache = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile Snapshot snapshot;
+    private volatile long lastChecked;
+    private volatile long failedLastModified;
+    private volatile long checkIntervalMillis = 1000L;
+    private volatile int maxCacheSize = 100000;
+
+    public HDFSPolicyStore(File policyFile) throws IOException {
+        this.policyFile = policyFile;
+        this.snapshot = load(1L);
+    }
+
+    /**
+     * @return the (shared) policies that are loaded from the given file
+     */
+    public static HDFSPolicyStore getStore(String policyFile) throws IOException {
+        String path = new File(policyFile).getAbsolutePath();
+        HDFSPolicyStore store = STORES.get(path);
+        if (store == null) {
+            synchronized (STORES) {
+                store = STORES.get(path);
+                if (store == null) {
+                    store = new HDFSPolicyStore(new File(path));
+                    STORES.put(path, store);
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return the current policies, which the decisions of a single permission check must all be made against
+     */
+    public Snapshot getSnapshot() {
+        long now = System.currentTimeMillis();
+        if (now - lastChecked >= checkIntervalMillis) {
+            synchronized (this) {
+                if (now - lastChecked >= checkIntervalMillis) {
+                    lastChecked = now;
+                    long lastModified = policyFile.lastModified();
+                    if (lastModified != snapshot.lastModified) {
+                        try {
+                            snapshot = load(snapshot.generation + 1);
+                            // Old decisions are ignored anyway, this just frees up the memory
+                            cache.clear();
+                        } catch (IOException ex) {
+                            // Keep the current policies, and only log the error once for each change to the file
+                            if (lastModified != failedLastModified) {
+                                failedLastModified = lastModified;
+                                LOG.error("Error loading the HDFS policies from " + policyFile
+                                    + ", the previous policies are still enforced", ex);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return whether the policy of the given node grants the access to the user
+     */
+    public boolean isGranted(Snapshot policies, UserGroupInformation ugi, Node node, FsAction access) {
+        DecisionKey key = null;
+        if (maxCacheSize > 0) {
+            key = new DecisionKey(ugi.getShortUserName(), node.path, access);
+            Decision decision = cache.get(key);
+            if (decision != null && decision.generation == policies.generation) {
+                hits.incrementAndGet();
+                return decision.granted;
+            }
+        }
+        misses.incrementAndGet();
+
+        boolean granted = node.grants(ugi, access);
+        if (key != null) {
+            if (cache.size() >= maxCacheSize) {
+                cache.clear();
+            }
+            cache.put(key, new Decision(policies.generation, granted));
+        }
+        return granted;
+    }
+
+    private Snapshot load(long generation) throws IOException {
+        long lastModified = policyFile.lastModified();
+        Node root = new Node("/");
+        try (BufferedReader reader = Files.newBufferedReader(policyFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                if (tokens.length != 3 || !tokens[0].startsWith("/") || FsAction.getFsAction(tokens[2]) == null) {
+                    throw new IOException("Invalid policy on line " + lineNumber + " of " + policyFile + ": " + line);
+                }
+                Node node = root;
+                StringBuilder path = new StringBuilder();
+                for (String component : tokens[0].split("/")) {
+                    if (component.isEmpty()) {
+                        continue;
+                    }
+                    path.append('/').append(component);
+                    String nodePath = path.toString();
+                    node = node.children.computeIfAbsent(component, c -> new Node(nodePath));
+                }
+                node.addEntry(new Entry(tokens[1], FsAction.getFsAction(tokens[2])));
+            }
+        }
+        return new Snapshot(generation, lastModified, root);
+    }
+
+    public long getGeneration() {
+        return snapshot.generation;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * The maximum number of cached decisions, 100000 by default. The cache is cleared when it is full. 0 disables
+     * the cache.
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        cache.clear();
+    }
+
+    /**
+     * An immutable generation of the policies
+     */
+    public static final class Snapshot {
+        private final long generation;
+        private final long lastModified;
+        private final Node root;
+
+        Snapshot(long generation, long lastModified, Node root) {
+            this.generation = generation;
+            this.lastModified = lastModified;
+            this.root = root;
+        }
+
+        /**
+         * Walk down the trie once for all of the components of a path.
+         * @return the node of the policy that applies to each component (or null if there isn't one)
+         */
+        public Node[] getPolicyNodes(byte[][] components) {
+            Node[] result = new Node[components.length];
+            Node node = root;
+            Node policy = root.entries.isEmpty() ? null : root;
+            for (int i = 0; i < components.length; i++) {
+                // The first component is the (empty) name of the root directory
+                if (i > 0 && node != null) {
+                    node = node.children.isEmpty() ? null
+                        : node.children.get(new String(components[i], StandardCharsets.UTF_8));
+                    if (node != null && !node.entries.isEmpty()) {
+                        policy = node;
+                    }
+                }
+                result[i] = policy;
+            }
+            return result;
+        }
+
+        /**
+         * @return the nodes of the policies on the paths strictly below the given path, which apply to parts of
+         *         its sub-tree instead of the policy of the path itself
+         */
+        public List<Node> getSubTreePolicyNodes(byte[][] components) {
+            Node node = root;
+            for (int i = 1; i < components.length && node != null; i++) {
+                node = node.children.get(new String(components[i], StandardCharsets.UTF_8));
+            }
+            if (node == null || node.children.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<Node> result = new ArrayList<>();
+            addSubTreePolicyNodes(node, result);
+            return result;
+        }
+
+        private static void addSubTreePolicyNodes(Node node, List<Node> result) {
+            for (Node child : node.children.values()) {
+                if (!child.entries.isEmpty()) {
+                    result.add(child);
+                }
+                addSubTreePolicyNodes(child, result);
+            }
+        }
+    }
+
+    /**
+     * A node of the trie, i.e. a path component, and the policy entries on that path
+     */
+    public static final class Node {
+        private final String path;
+        private final Map<String, Node> children = new HashMap<>();
+        private List<Entry> entries = Collections.emptyList();
+        private boolean hasGroups;
+
+        Node(String path) {
+            this.path = path;
+        }
+
+        void addEntry(Entry entry) {
+            if (entries.isEmpty()) {
+                entries = new ArrayList<>();
+            }
+            entries.add(entry);
+            hasGroups |= entry.group != null;
+        }
+
+        boolean grants(UserGroupInformation ugi, FsAction access) {
+            FsAction allowed = FsAction.NONE;
+            String user = ugi.getShortUserName();
+            // Only look up the groups of the user if they are needed
+            List<String> groups = null;
+            if (hasGroups) {
+                groups = new ArrayList<>();
+                Collections.addAll(groups, ugi.getGroupNames());
+            }
+            for (Entry entry : entries) {
+                if (entry.user == null && entry.group == null
+                    || user.equals(entry.user)
+                    || groups != null && entry.group != null && groups.contains(entry.group)) {
+                    allowed = allowed.or(entry.action);
+                }
+            }
+            return allowed.implies(access);
+        }
+
+        public String getPath() {
+            return path;
+        }
+    }
+
+    private static final class Entry {
+        private final String user;
+        private final String group;
+        private final FsAction action;
+
+        Entry(String principal, FsAction action) {
+            if (principal.startsWith("user:")) {
+                this.user = principal.substring("user:".length());
+                this.group = null;
+            } else if (principal.startsWith("group:")) {
+                this.user = null;
+                this.group = principal.substring("group:".length());
+            } else if ("*".equals(principal)) {
+                this.user = null;
+                this.group = null;
+            } else {
+                throw new IllegalArgumentException("Unknown principal " + principal);
+            }
+            this.action = action;
+        }
+    }
+
+    private static final class DecisionKey {
+        private final String user;
+        private final String path;
+        private final FsAction access;
+        private final int hash;
+
+        DecisionKey(String user, String path, FsAction access) {
+            this.user = user;
+            this.path = path;
+            this.access = access;
+            this.hash = (user.hashCode() * 31 + path.hashCode()) * 31 + access.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return hash == other.hash && access == other.access && user.equals(other.user)
+                && path.equals(other.path);
+        }
+    }
+
+    private static final class Decision {
+        private final long generation;
+        private final boolean granted;
+
+        Decision(long generation, boolean granted) {
+            this.generation = generation;
+            this.granted = granted;
+        }
+    }
+
+}
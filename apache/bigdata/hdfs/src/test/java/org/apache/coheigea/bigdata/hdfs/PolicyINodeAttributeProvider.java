@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hdfs;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeAttributeProvider;
+import org.apache.hadoop.hdfs.server.namenode.INodeAttributes;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UserGroupInformation;
+
+/**
+ * An INodeAttributeProvider that authorizes access to HDFS using the policies of a HDFSPolicyStore, which are
+ * loaded from the file configured via "custom.hdfs.policy.file". If the policies don't grant the access, the
+ * default enforcer (i.e. the HDFS permissions + ACLs) is used instead, unless "custom.hdfs.policy.fallback" is
+ * "false", in which case the access is denied.
+ *
+ * The namenode calls the enforcer with every component of the path. The policy for each component is found in a
+ * single walk down the trie, and once a policy has granted an access it isn't checked again for the components
+ * below it in the same call. The decisions themselves are cached by the HDFSPolicyStore.
+ */
+public class PolicyINodeAttributeProvider extends INodeAttributeProvider implements Configurable {
+
+    public static final String POLICY_FILE = "custom.hdfs.policy.file";
+    public static final String FALLBACK = "custom.hdfs.policy.fallback";
+
+    private static final AtomicLong SKIPPED_CHECKS = new AtomicLong();
+    private static final AtomicLong FALLBACKS = new AtomicLong();
+
+    private Configuration conf;
+    private HDFSPolicyStore store;
+    private boolean fallback;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public INodeAttributes getAttributes(String[] pathElements, INodeAttributes inode) {
+        return inode;
+    }
+
+    @Override
+    public void start() {
+        String policyFile = conf.get(POLICY_FILE);
+        if (policyFile == null) {
+            throw new IllegalStateException("No policy file is configured via " + POLICY_FILE);
+        }
+        try {
+            store = HDFSPolicyStore.getStore(policyFile);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error loading the policies from " + policyFile, ex);
+        }
+        fallback = conf.getBoolean(FALLBACK, true);
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public AccessControlEnforcer getExternalAccessControlEnforcer(AccessControlEnforcer defaultEnforcer) {
+        return new PolicyAccessControlEnforcer(defaultEnforcer);
+    }
+
+    /**
+     * The number of checks of a path component that were skipped, as a policy above it had already granted the
+     * access in the same call
+     */
+    public static long getSkippedChecks() {
+        return SKIPPED_CHECKS.get();
+    }
+
+    /**
+     * The number of calls that were passed to the default enforcer
+     */
+    public static long getFallbacks() {
+        return FALLBACKS.get();
+    }
+
+    private class PolicyAccessControlEnforcer implements AccessControlEnforcer {
+
+        private final AccessControlEnforcer defaultEnforcer;
+
+        PolicyAccessControlEnforcer(AccessControlEnforcer defaultEnforcer) {
+            this.defaultEnforcer = defaultEnforcer;
+        }
+
+        @Override
+        public void checkPermission(String fsOwner, String superGroup, UserGroupInformation ugi,
+                                    INodeAttributes[] inodeAttrs, INode[] inodes, byte[][] pathByNameArr,
+                                    int snapshotId, String path, int ancestorIndex, boolean doCheckOwner,
+                                    FsAction ancestorAccess, FsAction parentAccess, FsAction access,
+                                    FsAction subAccess, boolean ignoreEmptyDir) throws AccessControlException {
+            // The policies can't grant ownership
+            if (!doCheckOwner && isGranted(ugi, inodes, pathByNameArr, ancestorIndex, ancestorAccess,
+                                           parentAccess, access, subAccess)) {
+                return;
+            }
+
+            if (!fallback) {
+                throw new AccessControlException("Permission denied: user=" + ugi.getShortUserName()
+                    + ", path=\"" + path + "\"");
+            }
+            FALLBACKS.incrementAndGet();
+            defaultEnforcer.checkPermission(fsOwner, superGroup, ugi, inodeAttrs, inodes, pathByNameArr,
+                                            snapshotId, path, ancestorIndex, doCheckOwner, ancestorAccess,
+                                            parentAccess, access, subAccess, ignoreEmptyDir);
+        }
+
+        /**
+         * Make the same checks as the default enforcer, i.e. EXECUTE on the directories up to the ancestor,
+         * "ancestorAccess" on the ancestor, "parentAccess" on the parent and "access" + "subAccess" on the path
+         * itself, but against the policies.
+         */
+        private boolean isGranted(UserGroupInformation ugi, INode[] inodes, byte[][] pathByNameArr,
+                                  int ancestorIndex, FsAction ancestorAccess, FsAction parentAccess,
+                                  FsAction access, FsAction subAccess) {
+            HDFSPolicyStore.Snapshot policies = store.getSnapshot();
+            Approval approval = new Approval(policies, ugi, policies.getPolicyNodes(pathByNameArr));
+            int last = inodes.length - 1;
+
+            for (int i = 0; i < ancestorIndex; i++) {
+                if (inodes[i] != null && !approval.check(i, FsAction.EXECUTE)) {
+                    return false;
+                }
+            }
+            if (ancestorAccess != null && ancestorIndex >= 0 && inodes[ancestorIndex] != null
+                && !approval.check(ancestorIndex, ancestorAccess)) {
+                return false;
+            }
+            if (parentAccess != null && last > 0 && inodes[last - 1] != null
+                && !approval.check(last - 1, parentAccess)) {
+                return false;
+            }
+            if (inodes[last] != null) {
+                if (access != null && !approval.check(last, access)
+                    || subAccess != null && !approval.check(last, subAccess)) {
+                    return false;
+                }
+                // The sub-tree (e.g. of a recursive delete) is covered by the policy of the path, except for the
+                // parts of it that have their own policies, which must grant "subAccess" as well
+                if (subAccess != null) {
+                    for (HDFSPolicyStore.Node node : policies.getSubTreePolicyNodes(pathByNameArr)) {
+                        if (!store.isGranted(policies, ugi, node, subAccess)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+    }
+
+    /**
+     * The policy that has granted access in the current call, and what it has granted so far
+     */
+    private final class Approval {
+        private final HDFSPolicyStore.Snapshot policies;
+        private final UserGroupInformation ugi;
+        private final HDFSPolicyStore.Node[] nodes;
+        private HDFSPolicyStore.Node approvedNode;
+        private FsAction approvedAccess = FsAction.NONE;
+
+        Approval(HDFSPolicyStore.Snapshot policies, UserGroupInformation ugi, HDFSPolicyStore.Node[] nodes) {
+            this.policies = policies;
+            this.ugi = ugi;
+            this.nodes = nodes;
+        }
+
+        boolean check(int index, FsAction access) {
+            HDFSPolicyStore.Node node = nodes[index];
+            if (node == null) {
+                return false;
+            }
+            if (node == approvedNode && approvedAccess.implies(access)) {
+                SKIPPED_CHECKS.incrementAndGet();
+                return true;
+            }
+            if (!store.isGranted(policies, ugi, node, access)) {
+                return false;
+            }
+            if (node != approvedNode) {
+                approvedNode = node;
+                approvedAccess = FsAction.NONE;
+            }
+            approvedAccess = approvedAccess.or(access);
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,392 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hive;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hive.service.server.HiveServer2;
+import org.junit.Assert;
+
+/**
+ * Here we plug the PolicyHiveAuthorizerFactory into HIVE, with a policy file that enforces the following rules:
+ *   a) The logged in user can do anything
+ *   b) "bob" can do a select on all of the tables
+ *   c) "alice" can do a select only on the "count" column of the "words" table
+ *   d) "carol" can do a select on the "words" table, but can't see the "secrets" table
+ */
+public class HIVEPolicyAuthorizerTest {
+
+    private static final File hdfsBaseDir = new File("./target/hdfs/").getAbsoluteFile();
+    private static final File policyFile = new File("./target/hive-policies.txt").getAbsoluteFile();
+    private static final int BENCHMARK_TABLES = 10000;
+    private static HiveServer2 hiveServer;
+    private static int port;
+
+    @org.junit.BeforeClass
+    public static void setup() throws Exception {
+        // Get a random port
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        List<String> rules = new ArrayList<>(Arrays.asList(
+            "bob select authz.*",
+            "alice select authz.words.count",
+            "carol select authz.words",
+            "bob select bench"));
+        // carol can see every tenth table of the benchmark database
+        for (int i = 0; i < BENCHMARK_TABLES; i += 10) {
+            rules.add("carol select bench.t" + i);
+        }
+        writePolicies(rules);
+
+        HiveConf conf = new HiveConf();
+
+        // Warehouse
+        File warehouseDir = new File("./target/hdfs/warehouse").getAbsoluteFile();
+        conf.set(HiveConf.ConfVars.METASTOREWAREHOUSE.varname, warehouseDir.getPath());
+
+        // Scratchdir
+        File scratchDir = new File("./target/hdfs/scratchdir").getAbsoluteFile();
+        conf.set("hive.exec.scratchdir", scratchDir.getPath());
+
+        // Create a temporary directory for the Hive metastore
+        File metastoreDir = new File("./target/policymetastore/").getAbsoluteFile();
+        conf.set(HiveConf.ConfVars.METASTORECONNECTURLKEY.varname,
+                 String.format("jdbc:derby:;databaseName=%s;create=true",  metastoreDir.getPath()));
+
+        conf.set(HiveConf.ConfVars.METASTORE_AUTO_CREATE_ALL.varname, "true");
+        conf.set(HiveConf.ConfVars.HIVE_SERVER2_THRIFT_PORT.varname, "" + port);
+
+        // Enable authorization
+        conf.set(HiveConf.ConfVars.HIVE_AUTHORIZATION_ENABLED.varname, "true");
+        conf.set(HiveConf.ConfVars.HIVE_SERVER2_ENABLE_DOAS.varname, "true");
+        conf.set(HiveConf.ConfVars.HIVE_AUTHORIZATION_MANAGER.varname,
+                 "org.apache.coheigea.bigdata.hive.PolicyHiveAuthorizerFactory");
+        conf.set(PolicyHiveAuthorizerFactory.POLICY_FILE, policyFile.getPath());
+        // Filter the results of "SHOW TABLES" etc. using the authorizer
+        conf.set(HiveConf.ConfVars.METASTORE_FILTER_HOOK.varname,
+                 "org.apache.hadoop.hive.ql.security.authorization.plugin.AuthorizationMetaStoreFilterHook");
+        conf.set(HiveConf.ConfVars.HIVE_SERVER2_WEBUI_PORT.varname, "0");
+        conf.set("hive.metastore.schema.verification", "false");
+
+        hiveServer = new HiveServer2();
+        hiveServer.init(conf);
+        hiveServer.start();
+
+        Class.forName("org.apache.hive.jdbc.HiveDriver");
+
+        String processOwner = System.getProperty("user.name");
+
+        // Create database
+        String initialUrl = "jdbc:hive2://localhost:" + port;
+        Connection connection = DriverManager.getConnection(initialUrl, processOwner, processOwner);
+        Statement statement = connection.createStatement();
+
+        statement.execute("CREATE DATABASE authz");
+
+        statement.close();
+        connection.close();
+
+        // Load data into HIVE
+        String url = "jdbc:hive2://localhost:" + port + "/authz";
+        connection = DriverManager.getConnection(url, processOwner, processOwner);
+        statement = connection.createStatement();
+        statement.execute("create table words (word STRING, count INT) row format delimited fields terminated by '\t'");
+        statement.execute("create table secrets (secret STRING)");
+
+        // Copy "wordcount.txt" to "target" to avoid overwriting it during load
+        java.io.File inputFile = new java.io.File(HIVEPolicyAuthorizerTest.class.getResource("../../../../../wordcount.txt").toURI());
+        Path outputPath = Paths.get(inputFile.toPath().getParent().getParent().toString() + java.io.File.separator + "wordcountout.txt");
+        if (!outputPath.toFile().exists()) {
+            Files.copy(inputFile.toPath(), outputPath);
+        }
+
+        statement.execute("LOAD DATA INPATH '" + outputPath + "' OVERWRITE INTO TABLE words");
+
+        // Just test to make sure it's working
+        ResultSet resultSet = statement.executeQuery("SELECT * FROM words where count == '100'");
+        resultSet.next();
+        Assert.assertEquals("Mr.", resultSet.getString(1));
+
+        statement.close();
+        connection.close();
+    }
+
+    @org.junit.AfterClass
+    public static void cleanup() throws Exception {
+        hiveServer.stop();
+        FileUtil.fullyDelete(hdfsBaseDir);
+        File metastoreDir = new File("./target/policymetastore/").getAbsoluteFile();
+        FileUtil.fullyDelete(metastoreDir);
+    }
+
+    @org.junit.Test
+    public void testHiveSelectAllAsProcessOwner() throws Exception {
+
+        String url = "jdbc:hive2://localhost:" + port + "/authz";
+        String user = System.getProperty("user.name");
+        Connection connection = DriverManager.getConnection(url, user, user);
+        Statement statement = connection.createStatement();
+
+        ResultSet resultSet = statement.executeQuery("SELECT * FROM words where count == '100'");
+        resultSet.next();
+        Assert.assertEquals("Mr.", resultSet.getString(1));
+        Assert.assertEquals(100, resultSet.getInt(2));
+
+        statement.close();
+        connection.close();
+    }
+
+    @org.junit.Test
+    public void testHiveSelectAllAsBob() throws Exception {
+
+        String url = "jdbc:hive2://localhost:" + port + "/authz";
+        Connection connection = DriverManager.getConnection(url, "bob", "bob");
+        Statement statement = connection.createStatement();
+
+        ResultSet resultSet = statement.executeQuery("SELECT * FROM words where count == '100'");
+        resultSet.next();
+        Assert.assertEquals("Mr.", resultSet.getString(1));
+        Assert.assertEquals(100, resultSet.getInt(2));
+
+        statement.close();
+        connection.close();
+    }
+
+    @org.junit.Test
+    public void testHiveSelectAllAsAlice() throws Exception {
+
+        String url = "jdbc:hive2://localhost:" + port + "/authz";
+        Connection connection = DriverManager.getConnection(url, "alice", "alice");
+        Statement statement = connection.createStatement();
+
+        try {
+            statement.executeQuery("SELECT * FROM words where count == '100'");
+            Assert.fail("Failure expected on an unauthorized call");
+        } catch (SQLException ex) {
+            // expected
+        }
+
+        statement.close();
+        connection.close();
+    }
+
+    @org.junit.Test
+    public void testHiveSelectSpecificColumnAsAlice() throws Exception {
+
+        String url = "jdbc:hive2://localhost:" + port + "/authz";
+        Connection connection = DriverManager.getConnection(url, "alice", "alice");
+        Statement statement = connection.createStatement();
+
+        ResultSet resultSet = statement.executeQuery("SELECT count FROM words where count == '100'");
+        resultSet.next();
+        Assert.assertEquals(100, resultSet.getInt(1));
+
+        statement.close();
+        connection.close();
+    }
+
+    @org.junit.Test
+    public void testHiveSelectSpecificColumnAsEve() throws Exception {
+
+        String url = "jdbc:hive2://localhost:" + port + "/authz";
+        try {
+            Connection connection = DriverManager.getConnection(url, "eve", "eve");
+            Statement statement = connection.createStatement();
+            try {
+                statement.executeQuery("SELECT count FROM words where count == '100'");
+                Assert.fail("Failure expected on an unauthorized call");
+            } finally {
+                statement.close();
+                connection.close();
+            }
+        } catch (SQLException ex) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void testShowTablesAsCarol() throws Exception {
+
+        String url = "jdbc:hive2://localhost:" + port + "/authz";
+        Connection connection = DriverManager.getConnection(url, "carol", "carol");
+        Statement statement = connection.createStatement();
+
+        // "secrets" is filtered out
+        ResultSet resultSet = statement.executeQuery("SHOW TABLES");
+        List<String> tables = new ArrayList<>();
+        while (resultSet.next()) {
+            tables.add(resultSet.getString(1));
+        }
+        Assert.assertEquals(Arrays.asList("words"), tables);
+
+        try {
+            statement.executeQuery("SELECT * FROM secrets");
+            Assert.fail("Failure expected on an unauthorized call");
+        } catch (SQLException ex) {
+            // expected
+        }
+
+        statement.close();
+        connection.close();
+    }
+
+    // The second time that a query is compiled, the decision comes from the cache
+    @org.junit.Test
+    public void testCachedDecision() throws Exception {
+        HivePolicyStore store = PolicyHiveAuthorizerFactory.getStore(policyFile.getPath());
+
+        String url = "jdbc:hive2://localhost:" + port + "/authz";
+        Connection connection = DriverManager.getConnection(url, "bob", "bob");
+        Statement statement = connection.createStatement();
+
+        statement.executeQuery("SELECT word FROM words where count == '200'").close();
+        long hits = store.getHits();
+        long misses = store.getMisses();
+        statement.executeQuery("SELECT word FROM words where count == '200'").close();
+        Assert.assertEquals(hits + 1, store.getHits());
+        Assert.assertEquals(misses, store.getMisses());
+
+        statement.close();
+        connection.close();
+    }
+
+    // A change to the policy file is picked up without restarting HiveServer2
+    @org.junit.Test
+    public void testPolicyChange() throws Exception {
+        HivePolicyStore store = PolicyHiveAuthorizerFactory.getStore(policyFile.getPath());
+        store.setCheckIntervalMillis(0L);
+
+        String url = "jdbc:hive2://localhost:" + port + "/authz";
+        Connection connection = DriverManager.getConnection(url, "dave", "dave");
+        Statement statement = connection.createStatement();
+
+        try {
+            statement.executeQuery("SELECT count FROM words where count == '100'");
+            Assert.fail("Failure expected on an unauthorized call");
+        } catch (SQLException ex) {
+            // expected
+        }
+
+        List<String> rules = new ArrayList<>(Files.readAllLines(policyFile.toPath(), StandardCharsets.UTF_8));
+        rules.add("dave select authz.words");
+        long lastModified = policyFile.lastModified();
+        writePolicies(rules);
+        // Make sure that the change is seen, even if the file system only has a resolution of seconds
+        policyFile.setLastModified(lastModified + 2000L);
+
+        ResultSet resultSet = statement.executeQuery("SELECT count FROM words where count == '100'");
+        resultSet.next();
+        Assert.assertEquals(100, resultSet.getInt(1));
+
+        statement.close();
+        connection.close();
+        store.setCheckIntervalMillis(1000L);
+    }
+
+    // Measure the query compilation time with 10k tables, with and without the cache, and the time to list them
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testCompilationBenchmark() throws Exception {
+        String processOwner = System.getProperty("user.name");
+        String url = "jdbc:hive2://localhost:" + port;
+        Connection connection = DriverManager.getConnection(url, processOwner, processOwner);
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE DATABASE IF NOT EXISTS bench");
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < BENCHMARK_TABLES; i++) {
+            statement.execute("CREATE TABLE IF NOT EXISTS bench.t" + i + " (a INT, b STRING, c STRING)");
+        }
+        System.out.println("Created " + BENCHMARK_TABLES + " tables in " + (System.currentTimeMillis() - start) + " ms");
+        statement.close();
+        connection.close();
+
+        HivePolicyStore store = PolicyHiveAuthorizerFactory.getStore(policyFile.getPath());
+        connection = DriverManager.getConnection(url + "/bench", "bob", "bob");
+        statement = connection.createStatement();
+
+        // EXPLAIN compiles + authorizes the query, without running it
+        int queries = 2000;
+        Random random = new Random(42);
+        String[] sql = new String[queries];
+        for (int i = 0; i < queries; i++) {
+            sql[i] = "EXPLAIN SELECT a, b FROM t" + random.nextInt(200) + " WHERE c = 'x'";
+        }
+        for (int cacheSize : new int[] {0, 10000}) {
+            store.setMaxCacheSize(cacheSize);
+            for (int i = 0; i < 200; i++) {
+                statement.executeQuery(sql[i]).close();
+            }
+            start = System.nanoTime();
+            for (String query : sql) {
+                statement.executeQuery(query).close();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println("Cache size " + cacheSize + ": " + elapsed / queries / 1000 + " us per query");
+        }
+        System.out.println("Cache hits: " + store.getHits() + ", misses: " + store.getMisses());
+        statement.close();
+        connection.close();
+
+        // List the tables that carol is allowed to see
+        connection = DriverManager.getConnection(url + "/bench", "carol", "carol");
+        statement = connection.createStatement();
+        for (int i = 0; i < 5; i++) {
+            start = System.nanoTime();
+            ResultSet resultSet = statement.executeQuery("SHOW TABLES");
+            int count = 0;
+            while (resultSet.next()) {
+                count++;
+            }
+            resultSet.close();
+            System.out.println("Listed " + count + " of " + BENCHMARK_TABLES + " tables in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+            Assert.assertEquals(BENCHMARK_TABLES / 10, count);
+        }
+        statement.close();
+        connection.close();
+    }
+
+    private static void writePolicies(List<String> rules) throws Exception {
+        policyFile.getParentFile().mkdirs();
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(policyFile.toPath(), StandardCharsets.UTF_8))) {
+            for (String rule : rules) {
+                writer.println(rule);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,470 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hive;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveOperationType;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HivePrivilegeObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The policies of the PolicyHiveAuthorizer, which are loaded from a file. Each line of the file is a rule of the form:
+ *
+ * <user> <action>[,<action>] <database>[.<table>[.<column>]]
+ *
+ * where the actions are "select", "update", "create", "drop", "alter" or "all", and "*" matches any user, database,
+ * table or column (a missing table or column is the same as "*"). e.g. "alice select authz.words.count".
+ *
+ * The rules are indexed by user, then database, then table, then column, so that the privileges of all of the
+ * objects of a query are checked in one pass, with a few map lookups per object. The result of a check is cached
+ * per (user, operation, objects). The file is reloaded if it changes (which is checked at most once every
+ * "checkIntervalMillis"), and the cache is replaced along with the rules.
+ */
+public class HivePolicyStore {
+
+    public enum Action {
+        SELECT,
+        UPDATE,
+        CREATE,
+        DROP,
+        ALTER,
+        ALL
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(HivePolicyStore.class);
+    private static final String WILDCARD = "*";
+    private static final String ALLOWED = "";
+
+    private final File policyFile;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile Policies policies;
+    private volatile long lastChecked;
+    private volatile long failedLastModified;
+    private volatile int maxCacheSize = 10000;
+    private volatile long checkIntervalMillis = 1000L;
+
+    public HivePolicyStore(File policyFile) throws IOException {
+        this.policyFile = policyFile;
+        this.policies = load();
+    }
+
+    /**
+     * Check the privileges of all of the input and output objects of an operation.
+     * @return null if the user is allowed to perform the operation, otherwise a description of the first object
+     * that the user doesn't have the required privilege on
+     */
+    public String checkPrivileges(String user, HiveOperationType operationType, List<HivePrivilegeObject> inputs,
+                                  List<HivePrivilegeObject> outputs) {
+        Policies current = currentPolicies();
+
+        String key = null;
+        if (maxCacheSize > 0) {
+            StringBuilder sb = new StringBuilder(128).append(user).append('\u0000').append(operationType.name());
+            appendObjects(sb.append('\u0000'), inputs);
+            appendObjects(sb.append('\u0000'), outputs);
+            key = sb.toString();
+            String result = current.cache.get(key);
+            if (result != null) {
+                hits.incrementAndGet();
+                return result.isEmpty() ? null : result;
+            }
+        }
+        misses.incrementAndGet();
+
+        UserRules rules = current.rulesFor(user);
+        String result = checkObjects(rules, inputs, Action.SELECT);
+        if (result == null) {
+            result = checkObjects(rules, outputs, outputAction(operationType));
+        }
+
+        if (key != null) {
+            if (current.cache.size() >= maxCacheSize) {
+                current.cache.clear();
+            }
+            current.cache.put(key, result == null ? ALLOWED : result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the databases and tables that the user has any privilege on, e.g. for "SHOW TABLES". Other objects
+     * are returned as they are.
+     */
+    public List<HivePrivilegeObject> filter(String user, List<HivePrivilegeObject> objects) {
+        if (objects == null || objects.isEmpty()) {
+            return objects;
+        }
+        UserRules rules = currentPolicies().rulesFor(user);
+        List<HivePrivilegeObject> filtered = new ArrayList<>(objects.size());
+        // The objects are usually all in the same database, so only look it up when it changes
+        String lastDb = null;
+        DbRules namedDb = null;
+        for (HivePrivilegeObject object : objects) {
+            String db = lowerCase(object.getDbname());
+            if (db != null && !db.equals(lastDb)) {
+                namedDb = rules.databases.get(db);
+                lastDb = db;
+            }
+            switch (object.getType()) {
+            case DATABASE:
+                if (namedDb != null || rules.anyDatabase != null) {
+                    filtered.add(object);
+                }
+                break;
+            case TABLE_OR_VIEW:
+                String table = lowerCase(object.getObjectName());
+                if (hasTable(namedDb, table) || hasTable(rules.anyDatabase, table)) {
+                    filtered.add(object);
+                }
+                break;
+            default:
+                filtered.add(object);
+            }
+        }
+        return filtered;
+    }
+
+    private static boolean hasTable(DbRules db, String table) {
+        return db != null && (db.anyTable != null || db.tables.containsKey(table));
+    }
+
+    private static String checkObjects(UserRules rules, List<HivePrivilegeObject> objects, Action action) {
+        if (objects == null) {
+            return null;
+        }
+        List<TableRules> tables = new ArrayList<>(4);
+        for (HivePrivilegeObject object : objects) {
+            switch (object.getType()) {
+            case DATABASE:
+                String db = lowerCase(object.getDbname());
+                if (action == Action.SELECT) {
+                    // Any rule on the database allows it to be used, e.g. via "USE <db>"
+                    if (rules.databases.get(db) == null && rules.anyDatabase == null) {
+                        return describe(object, action, null);
+                    }
+                } else if (!grants(tableRules(rules, db, WILDCARD, tables), null, action)) {
+                    return describe(object, action, null);
+                }
+                break;
+            case TABLE_OR_VIEW:
+            case PARTITION:
+            case COLUMN:
+                tableRules(rules, lowerCase(object.getDbname()), lowerCase(object.getObjectName()), tables);
+                List<String> columns = object.getColumns();
+                if (columns == null || columns.isEmpty()) {
+                    if (!grants(tables, null, action)) {
+                        return describe(object, action, null);
+                    }
+                } else {
+                    for (String column : columns) {
+                        if (!grants(tables, lowerCase(column), action)) {
+                            return describe(object, action, column);
+                        }
+                    }
+                }
+                break;
+            default:
+                // URIs, functions etc. need a rule on all databases and tables
+                if (!grants(tableRules(rules, WILDCARD, WILDCARD, tables), null, action)) {
+                    return describe(object, action, null);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collect the (up to four) sets of table rules that apply to a table, i.e. those of the named table and of
+     * any table, in the named database and in any database
+     */
+    private static List<TableRules> tableRules(UserRules rules, String db, String table, List<TableRules> result) {
+        result.clear();
+        addTableRules(rules.databases.get(db), table, result);
+        addTableRules(rules.anyDatabase, table, result);
+        return result;
+    }
+
+    private static void addTableRules(DbRules db, String table, List<TableRules> result) {
+        if (db == null) {
+            return;
+        }
+        TableRules named = db.tables.get(table);
+        if (named != null) {
+            result.add(named);
+        }
+        if (db.anyTable != null) {
+            result.add(db.anyTable);
+        }
+    }
+
+    /**
+     * @param column the column, or null if all of the columns are required
+     */
+    private static boolean grants(List<TableRules> tables, String column, Action action) {
+        for (TableRules table : tables) {
+            if (grants(table.allColumns, action) || column != null && grants(table.columns.get(column), action)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean grants(EnumSet<Action> actions, Action action) {
+        return actions != null && (actions.contains(action) || actions.contains(Action.ALL));
+    }
+
+    static Action outputAction(HiveOperationType operationType) {
+        String name = operationType.name();
+        if (name.startsWith("CREATE")) {
+            return Action.CREATE;
+        } else if (name.startsWith("DROP")) {
+            return Action.DROP;
+        } else if (name.startsWith("ALTER")) {
+            return Action.ALTER;
+        } else if ("QUERY".equals(name) || "LOAD".equals(name) || "TRUNCATETABLE".equals(name)) {
+            return Action.UPDATE;
+        }
+        return Action.ALL;
+    }
+
+    private static String describe(HivePrivilegeObject object, Action action, String column) {
+        StringBuilder sb = new StringBuilder().append(action.name()).append(" privilege on ");
+        if (object.getDbname() != null) {
+            sb.append(object.getDbname());
+            if (object.getObjectName() != null) {
+                sb.append('/');
+            }
+        }
+        if (object.getObjectName() != null) {
+            sb.append(object.getObjectName());
+        }
+        if (column != null) {
+            sb.append('/').append(column);
+        }
+        return sb.toString();
+    }
+
+    private static void appendObjects(StringBuilder sb, List<HivePrivilegeObject> objects) {
+        if (objects == null) {
+            return;
+        }
+        for (HivePrivilegeObject object : objects) {
+            sb.append(object.getType()).append(':').append(object.getDbname()).append('.')
+                .append(object.getObjectName()).append(':').append(object.getActionType());
+            if (object.getColumns() != null) {
+                sb.append(object.getColumns());
+            }
+            sb.append(';');
+        }
+    }
+
+    private static String lowerCase(String s) {
+        return s == null ? null : s.toLowerCase(Locale.ROOT);
+    }
+
+    private Policies currentPolicies() {
+        long now = System.currentTimeMillis();
+        if (now - lastChecked >= checkIntervalMillis) {
+            synchronized (this) {
+                if (now - lastChecked >= checkIntervalMillis) {
+                    lastChecked = now;
+                    long lastModified = policyFile.lastModified();
+                    if (lastModified != policies.lastModified) {
+                        try {
+                            policies = load();
+                        } catch (IOException ex) {
+                            // Keep the current rules, and don't log the same broken file on every check
+                            if (lastModified != failedLastModified) {
+                                failedLastModified = lastModified;
+                                LOG.error("Failed to reload the Hive policies from " + policyFile
+                                    + ", the current rules still apply", ex);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return policies;
+    }
+
+    private Policies load() throws IOException {
+        long lastModified = policyFile.lastModified();
+        Map<String, UserRules> users = new HashMap<>();
+        List<String[]> wildcardRules = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(policyFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                if (tokens.length != 3) {
+                    throw new IOException("Invalid rule on line " + lineNumber + " of " + policyFile + ": " + line);
+                }
+                if (WILDCARD.equals(tokens[0])) {
+                    wildcardRules.add(tokens);
+                } else {
+                    users.computeIfAbsent(tokens[0], u -> new UserRules()).add(tokens[1], tokens[2]);
+                }
+            }
+        }
+
+        // The rules for any user are added to the rules of every user, so that only one user is looked up
+        UserRules anyUser = new UserRules();
+        for (String[] tokens : wildcardRules) {
+            anyUser.add(tokens[1], tokens[2]);
+            for (UserRules rules : users.values()) {
+                rules.add(tokens[1], tokens[2]);
+            }
+        }
+        return new Policies(lastModified, users, anyUser);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * The maximum number of cached results, 10000 by default. The cache is cleared when it is full. 0 disables
+     * the cache.
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        policies.cache.clear();
+    }
+
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    private static final class Policies {
+        private final long lastModified;
+        private final Map<String, UserRules> users;
+        private final UserRules anyUser;
+        private final Map<String, String> cache = new ConcurrentHashMap<>();
+
+        Policies(long lastModified, Map<String, UserRules> users, UserRules anyUser) {
+            this.lastModified = lastModified;
+            this.users = users;
+            this.anyUser = anyUser;
+        }
+
+        UserRules rulesFor(String user) {
+            UserRules rules = users.get(user);
+            return rules == null ? anyUser : rules;
+        }
+    }
+
+    private static final class UserRules {
+        private final Map<String, DbRules> databases = new HashMap<>();
+        private DbRules anyDatabase;
+
+        void add(String actions, String resource) {
+            String[] names = resource.toLowerCase(Locale.ROOT).split("\\.", 3);
+            DbRules db;
+            if (WILDCARD.equals(names[0])) {
+                if (anyDatabase == null) {
+                    anyDatabase = new DbRules();
+                }
+                db = anyDatabase;
+            } else {
+                db = databases.computeIfAbsent(names[0], d -> new DbRules());
+            }
+            String table = names.length > 1 ? names[1] : WILDCARD;
+            String column = names.length > 2 ? names[2] : WILDCARD;
+            db.add(table, column, parseActions(actions));
+        }
+
+        private static EnumSet<Action> parseActions(String actions) {
+            EnumSet<Action> result = EnumSet.noneOf(Action.class);
+            for (String action : actions.split(",")) {
+                result.add(Action.valueOf(action.trim().toUpperCase(Locale.ROOT)));
+            }
+            return result;
+        }
+    }
+
+    private static final class DbRules {
+        private final Map<String, TableRules> tables = new HashMap<>();
+        private TableRules anyTable;
+
+        void add(String table, String column, EnumSet<Action> actions) {
+            TableRules rules;
+            if (WILDCARD.equals(table)) {
+                if (anyTable == null) {
+                    anyTable = new TableRules();
+                }
+                rules = anyTable;
+            } else {
+                rules = tables.computeIfAbsent(table, t -> new TableRules());
+            }
+            rules.add(column, actions);
+        }
+    }
+
+    private static final class TableRules {
+        private Map<String, EnumSet<Action>> columns = Collections.emptyMap();
+        private EnumSet<Action> allColumns;
+
+        void add(String column, EnumSet<Action> actions) {
+            if (WILDCARD.equals(column)) {
+                if (allColumns == null) {
+                    allColumns = EnumSet.noneOf(Action.class);
+                }
+                allColumns.addAll(actions);
+            } else {
+                if (columns.isEmpty()) {
+                    columns = new HashMap<>();
+                }
+                columns.computeIfAbsent(column, c -> EnumSet.noneOf(Action.class)).addAll(actions);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.hive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.hive.conf.HiveConf;
+import org.apache.hadoop.hive.ql.parse.SemanticException;
+import org.apache.hadoop.hive.ql.security.HiveAuthenticationProvider;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveAccessControlException;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveAuthorizer;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveAuthorizerFactory;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveAuthzContext;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveAuthzPluginException;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveAuthzSessionContext;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveMetastoreClientFactory;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveOperationType;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HivePrincipal;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HivePrivilege;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HivePrivilegeInfo;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HivePrivilegeObject;
+import org.apache.hadoop.hive.ql.security.authorization.plugin.HiveRoleGrant;
+
+/**
+ * A HiveAuthorizerFactory that enforces the rules in a policy file (see HivePolicyStore), which is configured via
+ * "custom.hive.authorizer.policy.file". Hive creates a new factory + authorizer for each session, so the policies
+ * (and the cache of decisions) are shared by all of the sessions that use the same policy file.
+ */
+public class PolicyHiveAuthorizerFactory implements HiveAuthorizerFactory {
+
+    public static final String POLICY_FILE = "custom.hive.authorizer.policy.file";
+
+    private static final Map<String, HivePolicyStore> STORES = new ConcurrentHashMap<>();
+
+    @Override
+    public HiveAuthorizer createHiveAuthorizer(HiveMetastoreClientFactory metastoreClientFactory,
+                                               HiveConf conf,
+                                               HiveAuthenticationProvider hiveAuthenticator,
+                                               HiveAuthzSessionContext sessionContext)
+        throws HiveAuthzPluginException {
+        String policyFile = conf.get(POLICY_FILE);
+        if (policyFile == null) {
+            throw new HiveAuthzPluginException("No policy file is configured via " + POLICY_FILE);
+        }
+        return new PolicyHiveAuthorizer(hiveAuthenticator, getStore(policyFile));
+    }
+
+    /**
+     * @return the (shared) policies that are loaded from the given file
+     */
+    public static HivePolicyStore getStore(String policyFile) throws HiveAuthzPluginException {
+        String path = new File(policyFile).getAbsolutePath();
+        HivePolicyStore store = STORES.get(path);
+        if (store == null) {
+            synchronized (STORES) {
+                store = STORES.get(path);
+                if (store == null) {
+                    try {
+                        store = new HivePolicyStore(new File(path));
+                    } catch (IOException ex) {
+                        throw new HiveAuthzPluginException("Error loading the policies from " + path, ex);
+                    }
+                    STORES.put(path, store);
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * A HiveAuthorizer that allows the logged in user to do anything, and checks the privileges of everyone else
+     * against the policies.
+     */
+    protected static class PolicyHiveAuthorizer implements HiveAuthorizer {
+
+        private final String remoteUser;
+        private final HivePolicyStore store;
+
+        PolicyHiveAuthorizer(HiveAuthenticationProvider hiveAuthenticator, HivePolicyStore store) {
+            this.remoteUser = hiveAuthenticator.getUserName();
+            this.store = store;
+        }
+
+        @Override
+        public void applyAuthorizationConfigPolicy(HiveConf arg0) throws HiveAuthzPluginException {
+
+        }
+
+        public List<HivePrivilegeObject> applyRowFilterAndColumnMasking(HiveAuthzContext arg0,
+                                                                        List<HivePrivilegeObject> arg1)
+            throws SemanticException {
+            return null;
+        }
+
+        @Override
+        public void checkPrivileges(HiveOperationType hiveOpType, List<HivePrivilegeObject> inputHObjs,
+                                    List<HivePrivilegeObject> outputHObjs, HiveAuthzContext context)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            // Allow the user running the test to do anything
+            if (isLoggedInUser(remoteUser)) {
+                return;
+            }
+
+            String failure = store.checkPrivileges(remoteUser, hiveOpType, inputHObjs, outputHObjs);
+            if (failure != null) {
+                throw new HiveAccessControlException("Permission denied: user [" + remoteUser
+                    + "] does not have " + failure);
+            }
+        }
+
+        @Override
+        public List<HivePrivilegeObject> filterListCmdObjects(List<HivePrivilegeObject> listObjs,
+                                                              HiveAuthzContext context)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            if (isLoggedInUser(remoteUser)) {
+                return listObjs;
+            }
+            return store.filter(remoteUser, listObjs);
+        }
+
+        @Override
+        public void createRole(String arg0, HivePrincipal arg1)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            throw new RuntimeException("Not implemented");
+        }
+
+        @Override
+        public void dropRole(String arg0) throws HiveAuthzPluginException, HiveAccessControlException {
+            throw new RuntimeException("Not implemented");
+        }
+
+        @Override
+        public List<String> getAllRoles() throws HiveAuthzPluginException, HiveAccessControlException {
+            return null;
+        }
+
+        @Override
+        public List<String> getCurrentRoleNames() throws HiveAuthzPluginException {
+            return null;
+        }
+
+        @Override
+        public Object getHiveAuthorizationTranslator() throws HiveAuthzPluginException {
+            return null;
+        }
+
+        @Override
+        public List<HiveRoleGrant> getPrincipalGrantInfoForRole(String arg0)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            return null;
+        }
+
+        @Override
+        public List<HiveRoleGrant> getRoleGrantInfoForPrincipal(HivePrincipal arg0)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            return null;
+        }
+
+        @Override
+        public VERSION getVersion() {
+            return VERSION.V1;
+        }
+
+        @Override
+        public void grantPrivileges(List<HivePrincipal> arg0, List<HivePrivilege> arg1,
+                                    HivePrivilegeObject arg2, HivePrincipal arg3, boolean arg4)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            throw new RuntimeException("Not implemented");
+        }
+
+        @Override
+        public void grantRole(List<HivePrincipal> arg0, List<String> arg1, boolean arg2, HivePrincipal arg3)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            throw new RuntimeException("Not implemented");
+        }
+
+        public boolean needTransform() {
+            return false;
+        }
+
+        @Override
+        public void revokePrivileges(List<HivePrincipal> arg0, List<HivePrivilege> arg1,
+                                     HivePrivilegeObject arg2, HivePrincipal arg3, boolean arg4)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            throw new RuntimeException("Not implemented");
+        }
+
+        @Override
+        public void revokeRole(List<HivePrincipal> arg0, List<String> arg1, boolean arg2, HivePrincipal arg3)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            throw new RuntimeException("Not implemented");
+        }
+
+        @Override
+        public void setCurrentRole(String arg0) throws HiveAccessControlException, HiveAuthzPluginException {
+            throw new RuntimeException("Not implemented");
+        }
+
+        @Override
+        public List<HivePrivilegeInfo> showPrivileges(HivePrincipal arg0, HivePrivilegeObject arg1)
+            throws HiveAuthzPluginException, HiveAccessControlException {
+            return null;
+        }
+
+        private boolean isLoggedInUser(String remoteUser) {
+            return remoteUser != null && remoteUser.equals(System.getProperty("user.name"));
+        }
+
+    }
+
+}
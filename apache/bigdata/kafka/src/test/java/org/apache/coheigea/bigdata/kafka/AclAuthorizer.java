@@ -0,0 +1,566 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.kafka;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+
+import kafka.network.RequestChannel.Session;
+import kafka.security.auth.Acl;
+import kafka.security.auth.All$;
+import kafka.security.auth.Alter$;
+import kafka.security.auth.Authorizer;
+import kafka.security.auth.Delete$;
+import kafka.security.auth.Deny$;
+import kafka.security.auth.Describe$;
+import kafka.security.auth.Operation;
+import kafka.security.auth.Operation$;
+import kafka.security.auth.PermissionType$;
+import kafka.security.auth.Read$;
+import kafka.security.auth.Resource;
+import kafka.security.auth.ResourceType;
+import kafka.security.auth.ResourceType$;
+import kafka.security.auth.Write$;
+import scala.Predef;
+import scala.Tuple2;
+import scala.collection.JavaConverters;
+import scala.collection.immutable.Set;
+
+/**
+ * A Kafka Authorizer that enforces ACLs which are loaded from a file (configured via "acl.file"). Each line of the
+ * file is an ACL of the form:
+ *
+ * Allow|Deny <Operation> <host> <ResourceType>:<resource name> <principal>
+ *
+ * e.g. "Allow Read * Topic:test* User:CN=Client,O=Apache,L=Dublin,ST=Leinster,C=IE". A resource name that ends
+ * with "*" matches all of the resources that start with the rest of the name, and "*" on its own matches every
+ * resource of that type. The principal "User:*" matches every principal. A Deny ACL overrides any Allow ACL, and
+ * an ACL that allows Read, Write, Delete or Alter also allows Describe.
+ *
+ * The ACLs are compiled into a prefix trie per resource type, so that authorize() only looks at the ACLs on the
+ * path to the resource name, and not at all of them. The compiled ACLs are immutable and are replaced as a whole
+ * when the ACLs change, so authorize() doesn't need to lock. Decisions are cached together with the version of
+ * the ACLs that they were made against, and a decision made against an older version is ignored. ACLs that are
+ * added or removed via the Authorizer API are written back to the file.
+ *
+ * The principals in "super.users" (separated by ";") can do anything. The metrics are available in JMX via
+ * AclAuthorizerMBean.
+ */
+public class AclAuthorizer implements Authorizer, AclAuthorizerMBean {
+
+    private static final KafkaPrincipal WILDCARD_PRINCIPAL = new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "*");
+    private static final String WILDCARD = "*";
+    private static final int NO_MATCH = 0;
+    private static final int ALLOW = 1;
+    private static final int DENY = 2;
+
+    private final Map<Resource, java.util.Set<Acl>> acls = new HashMap<>();
+    private final Map<DecisionKey, Decision> cache = new ConcurrentHashMap<>();
+    private final LongAdder authorizations = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder denials = new LongAdder();
+    private volatile Snapshot snapshot = new Snapshot(0L, Collections.emptyMap(), 0);
+    private java.util.Set<KafkaPrincipal> superUsers = Collections.emptySet();
+    private File aclFile;
+    private int maxCacheSize = 100000;
+    private ObjectName objectName;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object superUsersConfig = configs.get("super.users");
+        if (superUsersConfig != null) {
+            java.util.Set<KafkaPrincipal> principals = new HashSet<>();
+            for (String principal : superUsersConfig.toString().split(";")) {
+                if (!principal.trim().isEmpty()) {
+                    principals.add(KafkaPrincipal.fromString(principal.trim()));
+                }
+            }
+            superUsers = principals;
+        }
+        Object cacheSizeConfig = configs.get("acl.cache.size");
+        if (cacheSizeConfig != null) {
+            maxCacheSize = Integer.parseInt(cacheSizeConfig.toString());
+        }
+
+        Object aclFileConfig = configs.get("acl.file");
+        if (aclFileConfig != null) {
+            aclFile = new File(aclFileConfig.toString());
+            try {
+                load();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Error loading the ACLs from " + aclFile, ex);
+            }
+        }
+
+        Object brokerId = configs.get("broker.id");
+        try {
+            objectName = new ObjectName("org.apache.coheigea.bigdata.kafka:type=AclAuthorizer,brokerId="
+                + (brokerId == null ? "none" : brokerId));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException ex) {
+            throw new IllegalStateException("Error registering the AclAuthorizer metrics", ex);
+        }
+    }
+
+    @Override
+    public boolean authorize(Session session, Operation operation, Resource resource) {
+        authorizations.increment();
+        KafkaPrincipal principal = session.principal();
+        if (principal == null) {
+            denials.increment();
+            return false;
+        }
+        if (superUsers.contains(principal)) {
+            return true;
+        }
+        String host = session.clientAddress() == null ? WILDCARD : session.clientAddress().getHostAddress();
+
+        // Read the ACLs once, so that the decision and its version match
+        Snapshot current = snapshot;
+        DecisionKey key = null;
+        if (maxCacheSize > 0) {
+            key = new DecisionKey(principal, host, operation, resource);
+            Decision decision = cache.get(key);
+            if (decision != null && decision.version == current.version) {
+                cacheHits.increment();
+                return record(decision.allowed);
+            }
+        }
+
+        boolean allowed = current.authorize(principal, host, operation, resource);
+        if (key != null) {
+            if (cache.size() >= maxCacheSize) {
+                cache.clear();
+            }
+            cache.put(key, new Decision(current.version, allowed));
+        }
+        return record(allowed);
+    }
+
+    private boolean record(boolean allowed) {
+        if (!allowed) {
+            denials.increment();
+        }
+        return allowed;
+    }
+
+    @Override
+    public void addAcls(Set<Acl> newAcls, Resource resource) {
+        synchronized (acls) {
+            java.util.Set<Acl> previous = copy(acls.get(resource));
+            acls.computeIfAbsent(resource, r -> new HashSet<>())
+                .addAll(JavaConverters.setAsJavaSetConverter(newAcls).asJava());
+            publish(resource, previous);
+        }
+    }
+
+    @Override
+    public boolean removeAcls(Set<Acl> aclsToRemove, Resource resource) {
+        synchronized (acls) {
+            java.util.Set<Acl> existing = acls.get(resource);
+            java.util.Set<Acl> previous = copy(existing);
+            if (existing == null || !existing.removeAll(JavaConverters.setAsJavaSetConverter(aclsToRemove).asJava())) {
+                return false;
+            }
+            if (existing.isEmpty()) {
+                acls.remove(resource);
+            }
+            publish(resource, previous);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean removeAcls(Resource resource) {
+        synchronized (acls) {
+            java.util.Set<Acl> previous = acls.remove(resource);
+            if (previous == null) {
+                return false;
+            }
+            publish(resource, previous);
+            return true;
+        }
+    }
+
+    @Override
+    public Set<Acl> getAcls(Resource resource) {
+        synchronized (acls) {
+            java.util.Set<Acl> existing = acls.get(resource);
+            return toScala(existing == null ? Collections.<Acl>emptySet() : new HashSet<>(existing));
+        }
+    }
+
+    @Override
+    public scala.collection.immutable.Map<Resource, Set<Acl>> getAcls(KafkaPrincipal principal) {
+        Map<Resource, Set<Acl>> result = new HashMap<>();
+        synchronized (acls) {
+            for (Map.Entry<Resource, java.util.Set<Acl>> entry : acls.entrySet()) {
+                java.util.Set<Acl> matching = new HashSet<>();
+                for (Acl acl : entry.getValue()) {
+                    if (acl.principal().equals(principal)) {
+                        matching.add(acl);
+                    }
+                }
+                if (!matching.isEmpty()) {
+                    result.put(entry.getKey(), toScala(matching));
+                }
+            }
+        }
+        return toScala(result);
+    }
+
+    @Override
+    public scala.collection.immutable.Map<Resource, Set<Acl>> getAcls() {
+        Map<Resource, Set<Acl>> result = new HashMap<>();
+        synchronized (acls) {
+            for (Map.Entry<Resource, java.util.Set<Acl>> entry : acls.entrySet()) {
+                result.put(entry.getKey(), toScala(new HashSet<>(entry.getValue())));
+            }
+        }
+        return toScala(result);
+    }
+
+    @Override
+    public void close() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ex) {
+                // Already unregistered
+            }
+            objectName = null;
+        }
+        cache.clear();
+    }
+
+    private void load() throws IOException {
+        Map<Resource, java.util.Set<Acl>> loaded = new HashMap<>();
+        if (aclFile.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(aclFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] tokens = line.split("\\s+", 5);
+                    int separator = tokens.length == 5 ? tokens[3].indexOf(':') : -1;
+                    if (separator <= 0) {
+                        throw new IOException("Invalid ACL on line " + lineNumber + " of " + aclFile + ": " + line);
+                    }
+                    Resource resource = new Resource(ResourceType$.MODULE$.fromString(tokens[3].substring(0, separator)),
+                                                     tokens[3].substring(separator + 1));
+                    Acl acl = new Acl(KafkaPrincipal.fromString(tokens[4]),
+                                      PermissionType$.MODULE$.fromString(tokens[0]),
+                                      tokens[2],
+                                      Operation$.MODULE$.fromString(tokens[1]));
+                    loaded.computeIfAbsent(resource, r -> new HashSet<>()).add(acl);
+                }
+            }
+        }
+
+        synchronized (acls) {
+            acls.clear();
+            acls.putAll(loaded);
+            publish();
+        }
+    }
+
+    /**
+     * Persist the ACLs, and then publish them. If they can't be persisted, the ACLs of the changed resource are
+     * rolled back to "previous", so that a change is never enforced unless it survives a restart. Must be called
+     * with the lock on "acls" held.
+     */
+    private void publish(Resource resource, java.util.Set<Acl> previous) {
+        if (aclFile != null) {
+            try {
+                persist();
+            } catch (IOException ex) {
+                if (previous == null) {
+                    acls.remove(resource);
+                } else {
+                    acls.put(resource, previous);
+                }
+                throw new IllegalStateException("Error writing the ACLs to " + aclFile, ex);
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Compile the current ACLs, and replace the snapshot that is used by authorize(). Must be called with the lock
+     * on "acls" held.
+     */
+    private void publish() {
+        Map<ResourceType, Node> tries = new HashMap<>();
+        int count = 0;
+        for (Map.Entry<Resource, java.util.Set<Acl>> entry : acls.entrySet()) {
+            Node root = tries.computeIfAbsent(entry.getKey().resourceType(), t -> new Node());
+            root.add(entry.getKey().name(), entry.getValue());
+            count += entry.getValue().size();
+        }
+        for (Node root : tries.values()) {
+            root.compile();
+        }
+
+        snapshot = new Snapshot(snapshot.version + 1, tries, count);
+        // Old decisions are ignored anyway, this just frees up the memory
+        cache.clear();
+    }
+
+    private void persist() throws IOException {
+        File tmpFile = new File(aclFile.getAbsoluteFile().getParentFile(), "." + aclFile.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<Resource, java.util.Set<Acl>> entry : acls.entrySet()) {
+                for (Acl acl : entry.getValue()) {
+                    writer.write(acl.permissionType().name() + " " + acl.operation().name() + " " + acl.host() + " "
+                        + entry.getKey().resourceType().name() + ":" + entry.getKey().name() + " " + acl.principal());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(tmpFile.toPath(), aclFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static java.util.Set<Acl> copy(java.util.Set<Acl> set) {
+        return set == null ? null : new HashSet<>(set);
+    }
+
+    private static Set<Acl> toScala(java.util.Set<Acl> set) {
+        return JavaConverters.asScalaSetConverter(set).asScala().<Acl>toSet();
+    }
+
+    private static scala.collection.immutable.Map<Resource, Set<Acl>> toScala(Map<Resource, Set<Acl>> map) {
+        return JavaConverters.mapAsScalaMapConverter(map).asScala()
+            .toMap(Predef.<Tuple2<Resource, Set<Acl>>>$conforms());
+    }
+
+    @Override
+    public long getAuthorizations() {
+        return authorizations.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getDenials() {
+        return denials.sum();
+    }
+
+    @Override
+    public long getAclVersion() {
+        return snapshot.version;
+    }
+
+    @Override
+    public int getAclCount() {
+        return snapshot.aclCount;
+    }
+
+    @Override
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public void clearCache() {
+        cache.clear();
+    }
+
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * The maximum number of cached decisions, 100000 by default (configured via "acl.cache.size"). The cache is
+     * cleared when it is full. 0 disables the cache.
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * The compiled ACLs at a given version
+     */
+    private static final class Snapshot {
+        private final long version;
+        private final Map<ResourceType, Node> tries;
+        private final int aclCount;
+
+        Snapshot(long version, Map<ResourceType, Node> tries, int aclCount) {
+            this.version = version;
+            this.tries = tries;
+            this.aclCount = aclCount;
+        }
+
+        boolean authorize(KafkaPrincipal principal, String host, Operation operation, Resource resource) {
+            Node node = tries.get(resource.resourceType());
+            String name = resource.name();
+            boolean allowed = false;
+            int index = 0;
+            // The ACLs on the prefixes of the name are on the path to the node of the name
+            while (node != null) {
+                int result = match(node.prefixed, principal, host, operation);
+                if (index == name.length()) {
+                    result = Math.max(result, match(node.exact, principal, host, operation));
+                }
+                if (result == DENY) {
+                    return false;
+                }
+                allowed |= result == ALLOW;
+                if (index == name.length()) {
+                    break;
+                }
+                node = node.children.get(name.charAt(index++));
+            }
+            return allowed;
+        }
+
+        private static int match(Acl[] acls, KafkaPrincipal principal, String host, Operation operation) {
+            int result = NO_MATCH;
+            for (Acl acl : acls) {
+                if (!(acl.principal().equals(principal) || acl.principal().equals(WILDCARD_PRINCIPAL))
+                    || !(WILDCARD.equals(acl.host()) || acl.host().equals(host))) {
+                    continue;
+                }
+                Operation aclOperation = acl.operation();
+                boolean sameOperation = aclOperation == operation || aclOperation == All$.MODULE$;
+                if (acl.permissionType() == Deny$.MODULE$) {
+                    if (sameOperation) {
+                        return DENY;
+                    }
+                } else if (sameOperation || operation == Describe$.MODULE$ && impliesDescribe(aclOperation)) {
+                    result = ALLOW;
+                }
+            }
+            return result;
+        }
+
+        private static boolean impliesDescribe(Operation operation) {
+            return operation == Read$.MODULE$ || operation == Write$.MODULE$
+                || operation == Delete$.MODULE$ || operation == Alter$.MODULE$;
+        }
+    }
+
+    /**
+     * A node of the prefix trie of a resource type. "exact" holds the ACLs on the resource name that ends at this
+     * node, and "prefixed" holds the ACLs on all of the resource names that start with it.
+     */
+    private static final class Node {
+        private static final Acl[] NO_ACLS = new Acl[0];
+
+        private final Map<Character, Node> children = new HashMap<>();
+        private List<Acl> exactList = new ArrayList<>();
+        private List<Acl> prefixedList = new ArrayList<>();
+        private Acl[] exact = NO_ACLS;
+        private Acl[] prefixed = NO_ACLS;
+
+        void add(String name, java.util.Set<Acl> acls) {
+            boolean prefix = name.endsWith(WILDCARD);
+            int length = prefix ? name.length() - 1 : name.length();
+            Node node = this;
+            for (int i = 0; i < length; i++) {
+                node = node.children.computeIfAbsent(name.charAt(i), c -> new Node());
+            }
+            (prefix ? node.prefixedList : node.exactList).addAll(acls);
+        }
+
+        void compile() {
+            exact = exactList.toArray(NO_ACLS);
+            prefixed = prefixedList.toArray(NO_ACLS);
+            exactList = null;
+            prefixedList = null;
+            for (Node child : children.values()) {
+                child.compile();
+            }
+        }
+    }
+
+    private static final class DecisionKey {
+        private final KafkaPrincipal principal;
+        private final String host;
+        private final Operation operation;
+        private final Resource resource;
+        private final int hash;
+
+        DecisionKey(KafkaPrincipal principal, String host, Operation operation, Resource resource) {
+            this.principal = principal;
+            this.host = host;
+            this.operation = operation;
+            this.resource = resource;
+            this.hash = ((principal.hashCode() * 31 + host.hashCode()) * 31 + operation.hashCode()) * 31
+                + resource.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return hash == other.hash && operation == other.operation && principal.equals(other.principal)
+                && host.equals(other.host) && resource.equals(other.resource);
+        }
+    }
+
+    private static final class Decision {
+        private final long version;
+        private final boolean allowed;
+
+        Decision(long version, boolean allowed) {
+            this.version = version;
+            this.allowed = allowed;
+        }
+    }
+
+}
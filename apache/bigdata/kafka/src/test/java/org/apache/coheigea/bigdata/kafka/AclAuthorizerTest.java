@@ -0,0 +1,462 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.kafka;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.I0Itec.zkclient.ZkClient;
+import org.I0Itec.zkclient.ZkConnection;
+import org.apache.curator.test.TestingServer;
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.config.SslConfigs;
+import org.apache.kafka.common.security.auth.KafkaPrincipal;
+import org.junit.Assert;
+
+import kafka.admin.AdminUtils;
+import kafka.admin.RackAwareMode;
+import kafka.network.RequestChannel.Session;
+import kafka.security.auth.Acl;
+import kafka.security.auth.Allow$;
+import kafka.security.auth.Deny$;
+import kafka.security.auth.Describe$;
+import kafka.security.auth.Operation;
+import kafka.security.auth.Read$;
+import kafka.security.auth.Resource;
+import kafka.security.auth.Topic$;
+import kafka.security.auth.Write$;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServerStartable;
+import kafka.utils.ZKStringSerializer$;
+import kafka.utils.ZkUtils;
+import scala.collection.JavaConverters;
+
+/**
+ * The same as the KafkaAuthorizerTest, except that the authorization rules are ACLs in a file which are enforced by
+ * the AclAuthorizer. The ACLs are the same as the rules of the CustomAuthorizer:
+ *
+ * The principal "CN=Broker" is a super user.
+ * The principal "CN=Service" can read/describe/write on all topics.
+ * The principal "CN=Client" can only read/describe on the "test*" topics.
+ */
+public class AclAuthorizerTest {
+
+    private static final String BROKER = "User:CN=Broker,O=Apache,L=Dublin,ST=Leinster,C=IE";
+    private static final String SERVICE = "User:CN=Service,O=Apache,L=Dublin,ST=Leinster,C=IE";
+    private static final String CLIENT = "User:CN=Client,O=Apache,L=Dublin,ST=Leinster,C=IE";
+
+    private static KafkaServerStartable kafkaServer;
+    private static TestingServer zkServer;
+    private static int port;
+
+    @org.junit.BeforeClass
+    public static void setup() throws Exception {
+        zkServer = new TestingServer();
+
+        // Get a random port
+        ServerSocket serverSocket = new ServerSocket(0);
+        port = serverSocket.getLocalPort();
+        serverSocket.close();
+
+        File aclFile = new File("target/kafka-acls.txt");
+        writeAcls(aclFile, Arrays.asList(
+            "# Everyone can describe all of the topics",
+            "Allow Describe * Topic:* User:*",
+            "Allow Read * Topic:test* " + CLIENT,
+            "Allow Read * Group:* " + CLIENT,
+            "Allow Read * Topic:* " + SERVICE,
+            "Allow Write * Topic:* " + SERVICE,
+            "Allow Create * Cluster:kafka-cluster " + SERVICE));
+
+        final Properties props = new Properties();
+        props.put("broker.id", 1);
+        props.put("host.name", "localhost");
+        props.put("port", port);
+        props.put("log.dir", "/tmp/kafka");
+        props.put("zookeeper.connect", zkServer.getConnectString());
+        props.put("replica.socket.timeout.ms", "1500");
+        props.put("controlled.shutdown.enable", Boolean.TRUE.toString());
+        // Enable SSL
+        props.put("listeners", "SSL://localhost:" + port);
+        props.put("ssl.keystore.location", AclAuthorizerTest.class.getResource("/brokerstore.jks").getPath());
+        props.put("ssl.keystore.password", "bspass");
+        props.put("ssl.key.password", "bkpass");
+        props.put("ssl.truststore.location", AclAuthorizerTest.class.getResource("/truststore.jks").getPath());
+        props.put("ssl.truststore.password", "security");
+        props.put("security.inter.broker.protocol", "SSL");
+        props.put("ssl.client.auth", "required");
+
+        // Plug in the ACL authorizer
+        props.put("authorizer.class.name", "org.apache.coheigea.bigdata.kafka.AclAuthorizer");
+        props.put("acl.file", aclFile.getPath());
+        props.put("super.users", BROKER);
+
+        KafkaConfig config = new KafkaConfig(props);
+        kafkaServer = new KafkaServerStartable(config);
+        kafkaServer.startup();
+
+        // Create some topics
+        ZkClient zkClient = new ZkClient(zkServer.getConnectString(), 30000, 30000, ZKStringSerializer$.MODULE$);
+
+        final ZkUtils zkUtils = new ZkUtils(zkClient, new ZkConnection(zkServer.getConnectString()), false);
+        AdminUtils.createTopic(zkUtils, "test", 1, 1, new Properties(), RackAwareMode.Enforced$.MODULE$);
+        AdminUtils.createTopic(zkUtils, "dev", 1, 1, new Properties(), RackAwareMode.Enforced$.MODULE$);
+    }
+
+    @org.junit.AfterClass
+    public static void cleanup() throws Exception {
+        if (kafkaServer != null) {
+            kafkaServer.shutdown();
+        }
+        if (zkServer != null) {
+            zkServer.stop();
+        }
+    }
+
+    // clientstore can read from "test"
+    @org.junit.Test
+    public void testAuthorizedRead() throws Exception {
+        final Producer<String, String> producer = new KafkaProducer<>(getProducerProperties("/servicestore.jks", "sspass", "skpass"));
+
+        // Create the Consumer
+        Properties consumerProps = new Properties();
+        consumerProps.put("bootstrap.servers", "localhost:" + port);
+        consumerProps.put("group.id", "test");
+        consumerProps.put("enable.auto.commit", "true");
+        consumerProps.put("auto.commit.interval.ms", "1000");
+        consumerProps.put("session.timeout.ms", "30000");
+        consumerProps.put("auto.offset.reset", "earliest");
+        consumerProps.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
+        consumerProps.put("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
+        consumerProps.put(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "SSL");
+        consumerProps.put(SslConfigs.SSL_KEYSTORE_TYPE_CONFIG, "JKS");
+        consumerProps.put(SslConfigs.SSL_KEYSTORE_LOCATION_CONFIG, this.getClass().getResource("/clientstore.jks").getPath());
+        consumerProps.put(SslConfigs.SSL_KEYSTORE_PASSWORD_CONFIG, "cspass");
+        consumerProps.put(SslConfigs.SSL_KEY_PASSWORD_CONFIG, "ckpass");
+        consumerProps.put(SslConfigs.SSL_TRUSTSTORE_LOCATION_CONFIG, this.getClass().getResource("/truststore.jks").getPath());
+        consumerProps.put(SslConfigs.SSL_TRUSTSTORE_PASSWORD_CONFIG, "security");
+
+        final KafkaConsumer<String, String> consumer = new KafkaConsumer<>(consumerProps);
+        consumer.subscribe(Arrays.asList("test"));
+
+        // Send a message
+        producer.send(new ProducerRecord<String, String>("test", "somekey", "somevalue"));
+        producer.flush();
+
+        // Poll until we consume it
+
+        ConsumerRecord<String, String> record = null;
+        for (int i = 0; i < 1000; i++) {
+            ConsumerRecords<String, String> records = consumer.poll(1000);
+            if (records.count() > 0) {
+                record = records.iterator().next();
+                break;
+            }
+        }
+
+        Assert.assertNotNull(record);
+        Assert.assertEquals("somevalue", record.value());
+
+        producer.close();
+        consumer.close();
+    }
+
+    // servicestore can "write" to any topic
+    @org.junit.Test
+    public void testAuthorizedWrite() throws Exception {
+        final Producer<String, String> producer = new KafkaProducer<>(getProducerProperties("/servicestore.jks", "sspass", "skpass"));
+
+        // Send a message
+        Future<RecordMetadata> record =
+            producer.send(new ProducerRecord<String, String>("dev", "somekey", "somevalue"));
+        producer.flush();
+        record.get();
+
+        producer.close();
+    }
+
+    // clientstore is not authorized to write to "test" or "dev"
+    @org.junit.Test
+    public void testUnauthorizedWrite() throws Exception {
+        final Producer<String, String> producer = new KafkaProducer<>(getProducerProperties("/clientstore.jks", "cspass", "ckpass"));
+
+        // Send a message
+        try {
+            Future<RecordMetadata> record =
+                producer.send(new ProducerRecord<String, String>("test", "somekey", "somevalue"));
+            producer.flush();
+            record.get();
+            Assert.fail("Authorization failure expected");
+        } catch (Exception ex) {
+            Assert.assertTrue(ex.getMessage().contains("Not authorized to access topics"));
+        }
+
+        try {
+            Future<RecordMetadata> record =
+                producer.send(new ProducerRecord<String, String>("dev", "somekey", "somevalue"));
+            producer.flush();
+            record.get();
+            Assert.fail("Authorization failure expected");
+        } catch (Exception ex) {
+            Assert.assertTrue(ex.getMessage().contains("Not authorized to access topics"));
+        }
+
+        producer.close();
+    }
+
+    // Add + remove ACLs, and check that they are written to the ACL file
+    @org.junit.Test
+    public void testAclCrud() throws Exception {
+        File aclFile = new File("target/kafka-acls-crud.txt");
+        writeAcls(aclFile, Collections.<String>emptyList());
+        AclAuthorizer authorizer = newAuthorizer(aclFile, "crud");
+
+        Session client = new Session(KafkaPrincipal.fromString(CLIENT), InetAddress.getLoopbackAddress());
+        Resource topic = new Resource(Topic$.MODULE$, "dev");
+        Assert.assertFalse(authorizer.authorize(client, Read$.MODULE$, topic));
+
+        Acl readAcl = new Acl(KafkaPrincipal.fromString(CLIENT), Allow$.MODULE$, "*", Read$.MODULE$);
+        authorizer.addAcls(toScala(readAcl), topic);
+        Assert.assertTrue(authorizer.authorize(client, Read$.MODULE$, topic));
+        // Read implies Describe
+        Assert.assertTrue(authorizer.authorize(client, Describe$.MODULE$, topic));
+        Assert.assertFalse(authorizer.authorize(client, Write$.MODULE$, topic));
+        Assert.assertTrue(authorizer.getAcls(topic).contains(readAcl));
+        Assert.assertEquals(1, authorizer.getAcls(KafkaPrincipal.fromString(CLIENT)).size());
+        Assert.assertTrue(authorizer.getAcls(KafkaPrincipal.fromString(SERVICE)).isEmpty());
+
+        // The ACLs are written to the file, so a new authorizer picks them up
+        AclAuthorizer reloaded = newAuthorizer(aclFile, "crud-reloaded");
+        Assert.assertTrue(reloaded.authorize(client, Read$.MODULE$, topic));
+        Assert.assertEquals(1, reloaded.getAclCount());
+        reloaded.close();
+
+        Assert.assertTrue(authorizer.removeAcls(toScala(readAcl), topic));
+        Assert.assertFalse(authorizer.authorize(client, Read$.MODULE$, topic));
+        Assert.assertFalse(authorizer.removeAcls(topic));
+        Assert.assertTrue(authorizer.getAcls().isEmpty());
+
+        authorizer.close();
+    }
+
+    // A change that can't be written to the file isn't enforced either
+    @org.junit.Test
+    public void testAclPersistFailure() throws Exception {
+        File aclFile = new File("target/kafka-acls-persist/kafka-acls.txt");
+        writeAcls(aclFile, Collections.<String>emptyList());
+        AclAuthorizer authorizer = newAuthorizer(aclFile, "persist");
+
+        // Remove the directory, so that the ACLs can't be written
+        Assert.assertTrue(aclFile.delete());
+        Assert.assertTrue(aclFile.getParentFile().delete());
+
+        Session client = new Session(KafkaPrincipal.fromString(CLIENT), InetAddress.getLoopbackAddress());
+        Resource topic = new Resource(Topic$.MODULE$, "dev");
+        long version = authorizer.getAclVersion();
+        Acl readAcl = new Acl(KafkaPrincipal.fromString(CLIENT), Allow$.MODULE$, "*", Read$.MODULE$);
+        try {
+            authorizer.addAcls(toScala(readAcl), topic);
+            Assert.fail("Failure expected on writing the ACLs");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        Assert.assertEquals(version, authorizer.getAclVersion());
+        Assert.assertTrue(authorizer.getAcls(topic).isEmpty());
+        Assert.assertFalse(authorizer.authorize(client, Read$.MODULE$, topic));
+
+        authorizer.close();
+    }
+
+    // Decisions are cached until the ACLs change
+    @org.junit.Test
+    public void testCacheInvalidation() throws Exception {
+        File aclFile = new File("target/kafka-acls-cache.txt");
+        writeAcls(aclFile, Arrays.asList("Allow Read * Topic:app-* User:*"));
+        AclAuthorizer authorizer = newAuthorizer(aclFile, "cache");
+
+        Session client = new Session(KafkaPrincipal.fromString(CLIENT), InetAddress.getLoopbackAddress());
+        Resource topic = new Resource(Topic$.MODULE$, "app-orders");
+        Assert.assertTrue(authorizer.authorize(client, Read$.MODULE$, topic));
+        Assert.assertTrue(authorizer.authorize(client, Read$.MODULE$, topic));
+        Assert.assertEquals(2, authorizer.getAuthorizations());
+        Assert.assertEquals(1, authorizer.getCacheHits());
+        long version = authorizer.getAclVersion();
+
+        // A Deny ACL on the topic overrides the Allow ACL on the prefix
+        Acl denyAcl = new Acl(KafkaPrincipal.fromString(CLIENT), Deny$.MODULE$, "*", Read$.MODULE$);
+        authorizer.addAcls(toScala(denyAcl), topic);
+        Assert.assertEquals(version + 1, authorizer.getAclVersion());
+        Assert.assertFalse(authorizer.authorize(client, Read$.MODULE$, topic));
+        Assert.assertEquals(1, authorizer.getCacheHits());
+        Assert.assertEquals(1, authorizer.getDenials());
+
+        // Other topics with the prefix are still allowed
+        Assert.assertTrue(authorizer.authorize(client, Read$.MODULE$, new Resource(Topic$.MODULE$, "app-users")));
+        Assert.assertFalse(authorizer.authorize(client, Read$.MODULE$, new Resource(Topic$.MODULE$, "ap")));
+
+        authorizer.close();
+    }
+
+    // Measure the producer throughput + latency over SSL with the AclAuthorizer, see KafkaBenchmark
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testThroughputBenchmark() throws Exception {
+        Properties producerProps = getProducerProperties("/servicestore.jks", "sspass", "skpass");
+        Properties consumerProps = getProducerProperties("/clientstore.jks", "cspass", "ckpass");
+        KafkaBenchmark.run("SSL, AclAuthorizer", producerProps, consumerProps, "test");
+    }
+
+    // Measure authorize() with 100k ACLs, with and without the decision cache, while the broker is running
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testAuthorizeBenchmark() throws Exception {
+        int users = 1000;
+        int topics = 100000;
+        List<String> lines = new ArrayList<>(topics + users);
+        for (int i = 0; i < topics; i++) {
+            lines.add("Allow Read * Topic:topic-" + i + " User:user-" + (i % users));
+        }
+        for (int i = 0; i < users; i++) {
+            lines.add("Allow Write * Topic:app-" + i + "-* User:user-" + i);
+        }
+        File aclFile = new File("target/kafka-acls-benchmark.txt");
+        writeAcls(aclFile, lines);
+
+        long start = System.nanoTime();
+        AclAuthorizer authorizer = newAuthorizer(aclFile, "benchmark");
+        System.out.println("Loaded " + authorizer.getAclCount() + " ACLs in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+
+        // The requests are repeated, like the requests of the clients of a broker
+        Random random = new Random(42);
+        Session[] sessions = new Session[10000];
+        Resource[] resources = new Resource[sessions.length];
+        Operation[] operations = new Operation[sessions.length];
+        for (int i = 0; i < sessions.length; i++) {
+            int user = random.nextInt(users);
+            sessions[i] = new Session(new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "user-" + user),
+                                      InetAddress.getLoopbackAddress());
+            if (random.nextBoolean()) {
+                resources[i] = new Resource(Topic$.MODULE$, "topic-" + random.nextInt(topics));
+                operations[i] = Read$.MODULE$;
+            } else {
+                resources[i] = new Resource(Topic$.MODULE$, "app-" + user + "-events");
+                operations[i] = Write$.MODULE$;
+            }
+        }
+
+        int threads = 8;
+        int iterations = 2000000;
+        for (int cacheSize : new int[] {0, 100000}) {
+            authorizer.setMaxCacheSize(cacheSize);
+            authorizer.clearCache();
+            // Warm up
+            runAuthorize(authorizer, sessions, operations, resources, threads, iterations / 10);
+
+            start = System.nanoTime();
+            runAuthorize(authorizer, sessions, operations, resources, threads, iterations);
+            long elapsed = System.nanoTime() - start;
+            System.out.println("Cache size " + cacheSize + ": " + (long) iterations * threads * 1000000000L / elapsed
+                + " authorize() ops/sec with " + threads + " threads");
+        }
+        System.out.println("Authorizations: " + authorizer.getAuthorizations() + ", cache hits: "
+            + authorizer.getCacheHits() + ", denials: " + authorizer.getDenials());
+
+        authorizer.close();
+    }
+
+    private static void runAuthorize(AclAuthorizer authorizer, Session[] sessions, Operation[] operations,
+                                     Resource[] resources, int threads, int iterations) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * 997;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < iterations; i++) {
+                    int index = (offset + i) % sessions.length;
+                    authorizer.authorize(sessions[index], operations[index], resources[index]);
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+    }
+
+    private static AclAuthorizer newAuthorizer(File aclFile, String id) {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put("acl.file", aclFile.getPath());
+        configs.put("broker.id", id);
+        AclAuthorizer authorizer = new AclAuthorizer();
+        authorizer.configure(configs);
+        return authorizer;
+    }
+
+    private static void writeAcls(File aclFile, List<String> lines) throws Exception {
+        aclFile.getAbsoluteFile().getParentFile().mkdirs();
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(aclFile.toPath(), StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                writer.println(line);
+            }
+        }
+    }
+
+    private static scala.collection.immutable.Set<Acl> toScala(Acl acl) {
+        return JavaConverters.asScalaSetConverter(Collections.singleton(acl)).asScala().<Acl>toSet();
+    }
+
+    private Properties getProducerProperties(String keystore, String keystorePassword, String keyPassword) {
+        Properties producerProps = new Properties();
+        producerProps.put("bootstrap.servers", "localhost:" + port);
+        producerProps.put("acks", "all");
+        producerProps.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+        producerProps.put("value.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+        producerProps.put(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "SSL");
+        producerProps.put(SslConfigs.SSL_KEYSTORE_TYPE_CONFIG, "JKS");
+        producerProps.put(SslConfigs.SSL_KEYSTORE_LOCATION_CONFIG, this.getClass().getResource(keystore).getPath());
+        producerProps.put(SslConfigs.SSL_KEYSTORE_PASSWORD_CONFIG, keystorePassword);
+        producerProps.put(SslConfigs.SSL_KEY_PASSWORD_CONFIG, keyPassword);
+        producerProps.put(SslConfigs.SSL_TRUSTSTORE_LOCATION_CONFIG, this.getClass().getResource("/truststore.jks").getPath());
+        producerProps.put(SslConfigs.SSL_TRUSTSTORE_PASSWORD_CONFIG, "security");
+        return producerProps;
+    }
+}
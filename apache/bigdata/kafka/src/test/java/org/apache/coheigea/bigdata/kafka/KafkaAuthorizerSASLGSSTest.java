@@ -263,4 +263,24 @@ public class KafkaAuthorizerSASLGSSTest {
         
         producer.close();
     }
+    
+    // Measure the throughput + latency over SASL_PLAINTEXT (GSSAPI) with the CustomSASLGSSAuthorizer
+    // See KafkaBenchmark for the settings that are measured
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testThroughputBenchmark() throws Exception {
+        Properties producerProps = new Properties();
+        producerProps.put("bootstrap.servers", "localhost:" + port);
+        producerProps.put(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "SASL_PLAINTEXT");
+        producerProps.put("sasl.mechanism", "GSSAPI");
+        producerProps.put("sasl.kerberos.service.name", "kafka");
+
+        Properties consumerProps = new Properties();
+        consumerProps.put("bootstrap.servers", "localhost:" + port);
+        consumerProps.put(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "SASL_PLAINTEXT");
+        consumerProps.put("sasl.mechanism", "GSSAPI");
+        consumerProps.put("sasl.kerberos.service.name", "kafka");
+
+        KafkaBenchmark.run("SASL_PLAINTEXT (GSSAPI), CustomSASLGSSAuthorizer", producerProps, consumerProps, "test");
+    }
 }
@@ -218,4 +218,26 @@ public class KafkaAuthorizerSASLSSLTest {
         
         producer.close();
     }
+    
+    // Measure the throughput + latency over SASL_SSL (PLAIN) with the CustomSASLSSLAuthorizer
+    // See KafkaBenchmark for the settings that are measured
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testThroughputBenchmark() throws Exception {
+        Properties producerProps = new Properties();
+        producerProps.put("bootstrap.servers", "localhost:" + port);
+        producerProps.put(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "SASL_SSL");
+        producerProps.put("sasl.mechanism", "PLAIN");
+        producerProps.put(SslConfigs.SSL_TRUSTSTORE_LOCATION_CONFIG, this.getClass().getResource("/truststore.jks").getPath());
+        producerProps.put(SslConfigs.SSL_TRUSTSTORE_PASSWORD_CONFIG, "security");
+
+        Properties consumerProps = new Properties();
+        consumerProps.put("bootstrap.servers", "localhost:" + port);
+        consumerProps.put(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "SASL_SSL");
+        consumerProps.put("sasl.mechanism", "PLAIN");
+        consumerProps.put(SslConfigs.SSL_TRUSTSTORE_LOCATION_CONFIG, this.getClass().getResource("/truststore.jks").getPath());
+        consumerProps.put(SslConfigs.SSL_TRUSTSTORE_PASSWORD_CONFIG, "security");
+
+        KafkaBenchmark.run("SASL_SSL (PLAIN), CustomSASLSSLAuthorizer", producerProps, consumerProps, "test");
+    }
 }
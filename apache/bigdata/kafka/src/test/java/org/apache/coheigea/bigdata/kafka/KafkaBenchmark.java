@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.kafka;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+
+/**
+ * Measures the producer throughput and end-to-end latency of a broker that is started by one of the tests, for
+ * every combination of the "acks", "compression.type", "batch.size" and "linger.ms" settings. The tests pass in the
+ * connection + security properties of a producer that can write to the topic, and of a consumer that can read from
+ * it, so the same benchmark can be run over each security protocol and with each authorizer.
+ *
+ * Each record carries the time at which it was sent, and the end-to-end latency is the time at which a consumer
+ * (in the same JVM) receives it. The results are printed, and appended to "target/kafka-benchmark.csv" so that the
+ * runs of the different tests can be compared. The settings can be changed via system properties, e.g.
+ * -Dkafka.benchmark.records=100000 -Dkafka.benchmark.compression=none,lz4
+ */
+public final class KafkaBenchmark {
+
+    private static final String RESULTS_FILE = "target/kafka-benchmark.csv";
+
+    private KafkaBenchmark() {
+    }
+
+    public static void run(String label, Properties producerProps, Properties consumerProps, String topic) throws Exception {
+        int records = Integer.getInteger("kafka.benchmark.records", 50000);
+        int recordSize = Integer.getInteger("kafka.benchmark.recordSize", 512);
+        String[] acksList = System.getProperty("kafka.benchmark.acks", "1,all").split(",");
+        String[] compressionList = System.getProperty("kafka.benchmark.compression", "none,snappy,lz4,gzip").split(",");
+        String[] batchSizeList = System.getProperty("kafka.benchmark.batchSize", "16384,131072").split(",");
+        String[] lingerList = System.getProperty("kafka.benchmark.lingerMs", "0,10").split(",");
+
+        // Random lower-case text, so that it can be compressed a bit (as real data can), but not to nothing
+        byte[] payload = new byte[recordSize];
+        Random random = new Random(42);
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) ('a' + random.nextInt(16));
+        }
+
+        System.out.println(String.format("%-45s %-4s %-7s %8s %6s %12s %8s %8s %8s %8s", "Test", "acks",
+            "codec", "batch", "linger", "records/s", "MB/s", "p50 ms", "p99 ms", "max ms"));
+        for (String acks : acksList) {
+            for (String compression : compressionList) {
+                for (String batchSize : batchSizeList) {
+                    for (String lingerMs : lingerList) {
+                        Properties props = new Properties();
+                        props.putAll(producerProps);
+                        props.put("acks", acks);
+                        props.put("compression.type", compression);
+                        props.put("batch.size", batchSize);
+                        props.put("linger.ms", lingerMs);
+
+                        Result result = runOnce(props, consumerProps, topic, records, payload);
+                        String line = String.format("%-45s %-4s %-7s %8s %6s %12d %8.1f %8.1f %8.1f %8.1f", label,
+                            acks, compression, batchSize, lingerMs, result.recordsPerSecond, result.megabytesPerSecond,
+                            result.percentile(50), result.percentile(99), result.percentile(100));
+                        System.out.println(line);
+                        writeResult(label, acks, compression, batchSize, lingerMs, records, recordSize, result);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Result runOnce(Properties producerProps, Properties consumerProps, String topic,
+                                  int records, byte[] payload) throws Exception {
+        producerProps.put("key.serializer", ByteArraySerializer.class.getName());
+        producerProps.put("value.serializer", ByteArraySerializer.class.getName());
+
+        Properties props = new Properties();
+        props.putAll(consumerProps);
+        props.put("enable.auto.commit", "false");
+        props.put("key.deserializer", ByteArrayDeserializer.class.getName());
+        props.put("value.deserializer", ByteArrayDeserializer.class.getName());
+
+        try (KafkaProducer<byte[], byte[]> producer = new KafkaProducer<>(producerProps);
+            KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(props)) {
+            // Send one record first, so that the connection setup, authentication and metadata lookups aren't timed
+            producer.send(new ProducerRecord<byte[], byte[]>(topic, timestamped(payload))).get();
+
+            TopicPartition partition = new TopicPartition(topic, 0);
+            consumer.assign(Collections.singletonList(partition));
+            consumer.seekToEnd(Collections.singletonList(partition));
+            consumer.position(partition);
+
+            long[] latencies = new long[records];
+            AtomicInteger received = new AtomicInteger();
+            AtomicReference<Exception> error = new AtomicReference<>();
+            Thread consumerThread = new Thread(() -> {
+                long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+                while (received.get() < records && System.nanoTime() < deadline) {
+                    for (ConsumerRecord<byte[], byte[]> record : consumer.poll(100)) {
+                        long sent = ByteBuffer.wrap(record.value()).getLong();
+                        int index = received.getAndIncrement();
+                        if (index < records) {
+                            latencies[index] = System.nanoTime() - sent;
+                        }
+                    }
+                }
+            });
+            consumerThread.start();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                producer.send(new ProducerRecord<byte[], byte[]>(topic, timestamped(payload)), (metadata, ex) -> {
+                    if (ex != null) {
+                        error.compareAndSet(null, ex);
+                    }
+                });
+            }
+            producer.flush();
+            long elapsed = System.nanoTime() - start;
+
+            consumerThread.join();
+            if (error.get() != null) {
+                throw error.get();
+            }
+            if (received.get() < records) {
+                throw new IllegalStateException("Only received " + received.get() + " of " + records + " records");
+            }
+            return new Result(records, (long) records * payload.length, elapsed, latencies);
+        }
+    }
+
+    private static byte[] timestamped(byte[] payload) {
+        byte[] value = Arrays.copyOf(payload, payload.length);
+        ByteBuffer.wrap(value).putLong(System.nanoTime());
+        return value;
+    }
+
+    private static synchronized void writeResult(String label, String acks, String compression, String batchSize,
+                                                 String lingerMs, int records, int recordSize, Result result)
+        throws Exception {
+        File file = new File(RESULTS_FILE);
+        boolean header = !file.exists();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (header) {
+                writer.println("test,acks,compression,batchSize,lingerMs,records,recordSize,recordsPerSec,mbPerSec,"
+                    + "p50Ms,p99Ms,maxMs");
+            }
+            writer.println(String.format("%s,%s,%s,%s,%s,%d,%d,%d,%.1f,%.1f,%.1f,%.1f", label, acks, compression,
+                batchSize, lingerMs, records, recordSize, result.recordsPerSecond, result.megabytesPerSecond,
+                result.percentile(50), result.percentile(99), result.percentile(100)));
+        }
+    }
+
+    private static final class Result {
+        private final long recordsPerSecond;
+        private final double megabytesPerSecond;
+        private final long[] latencies;
+
+        Result(int records, long bytes, long elapsedNanos, long[] latencies) {
+            this.recordsPerSecond = records * 1000000000L / elapsedNanos;
+            this.megabytesPerSecond = bytes * 1000000000.0 / elapsedNanos / (1024 * 1024);
+            this.latencies = latencies;
+            Arrays.sort(latencies);
+        }
+
+        /**
+         * @return the given percentile of the end-to-end latency in milliseconds
+         */
+        double percentile(int percentile) {
+            int index = Math.min(latencies.length - 1, (int) Math.ceil(latencies.length * percentile / 100.0) - 1);
+            return latencies[Math.max(0, index)] / 1000000.0;
+        }
+    }
+
+}
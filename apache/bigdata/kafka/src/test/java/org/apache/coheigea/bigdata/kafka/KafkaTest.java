@@ -134,4 +134,21 @@ public class KafkaTest {
         consumer.close();
     }
     
+    // Measure the throughput + latency over PLAINTEXT without an authorizer, as a baseline for the other tests
+    // See KafkaBenchmark for the settings that are measured
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testThroughputBenchmark() throws Exception {
+        ZkClient zkClient = new ZkClient(zkServer.getConnectString(), 30000, 30000, ZKStringSerializer$.MODULE$);
+        final ZkUtils zkUtils = new ZkUtils(zkClient, new ZkConnection(zkServer.getConnectString()), false);
+        AdminUtils.createTopic(zkUtils, "benchmark", 1, 1, new Properties(), RackAwareMode.Enforced$.MODULE$);
+
+        Properties producerProps = new Properties();
+        producerProps.put("bootstrap.servers", "localhost:" + port);
+
+        Properties consumerProps = new Properties();
+        consumerProps.put("bootstrap.servers", "localhost:" + port);
+
+        KafkaBenchmark.run("PLAINTEXT, no authorizer", producerProps, consumerProps, "benchmark");
+    }
 }
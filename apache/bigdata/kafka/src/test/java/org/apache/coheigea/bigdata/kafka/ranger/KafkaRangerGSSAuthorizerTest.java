@@ -31,6 +31,7 @@ import java.util.concurrent.Future;
 
 import org.I0Itec.zkclient.ZkClient;
 import org.I0Itec.zkclient.ZkConnection;
+import org.apache.coheigea.bigdata.kafka.KafkaBenchmark;
 import org.apache.curator.test.InstanceSpec;
 import org.apache.curator.test.TestingServer;
 import org.apache.hadoop.security.UserGroupInformation;
@@ -329,4 +330,23 @@ public class KafkaRangerGSSAuthorizerTest {
         consumer.close();
     }
     
+    // Measure the throughput + latency over SASL_PLAINTEXT (GSSAPI) with the RangerKafkaAuthorizer
+    // See KafkaBenchmark for the settings that are measured
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testThroughputBenchmark() throws Exception {
+        Properties producerProps = new Properties();
+        producerProps.put("bootstrap.servers", "localhost:" + port);
+        producerProps.put(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "SASL_PLAINTEXT");
+        producerProps.put("sasl.mechanism", "GSSAPI");
+        producerProps.put("sasl.kerberos.service.name", "kafka");
+
+        Properties consumerProps = new Properties();
+        consumerProps.put("bootstrap.servers", "localhost:" + port);
+        consumerProps.put(CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "SASL_PLAINTEXT");
+        consumerProps.put("sasl.mechanism", "GSSAPI");
+        consumerProps.put("sasl.kerberos.service.name", "kafka");
+
+        KafkaBenchmark.run("SASL_PLAINTEXT (GSSAPI), RangerKafkaAuthorizer", producerProps, consumerProps, "test");
+    }
 }
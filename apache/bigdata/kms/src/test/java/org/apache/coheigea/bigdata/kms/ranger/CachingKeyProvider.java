@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.kms.ranger;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.apache.hadoop.crypto.key.KeyProvider;
+
+/**
+ * A KeyProvider that caches the key versions of another KeyProvider (e.g. the RangerKeyStoreProvider, which
+ * reads them from the database), for "ttlMillis". The key material is only held in memory encrypted, with an
+ * AES key that is generated when the provider is created and never leaves it.
+ *
+ * Changes to the keys go straight through to the other KeyProvider, and update the cache. A flush is only passed
+ * on to the other KeyProvider if a key has changed since the last flush, so that a burst of changes is written in
+ * one go, and a periodic flush is free when nothing has changed.
+ */
+public class CachingKeyProvider extends KeyProvider {
+
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+
+    private final KeyProvider keyProvider;
+    private final long ttlNanos;
+    private final SecretKey cacheKey;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    };
+    private final Map<String, CachedVersion> versions = new ConcurrentHashMap<>();
+    private final Map<String, CachedVersion> currentVersions = new ConcurrentHashMap<>();
+    private final List<KeyChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong modifications = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong skippedFlushes = new AtomicLong();
+    private long flushedModifications;
+
+    public CachingKeyProvider(KeyProvider keyProvider, long ttlMillis) throws NoSuchAlgorithmException {
+        super(keyProvider.getConf());
+        this.keyProvider = keyProvider;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(128);
+        this.cacheKey = keyGenerator.generateKey();
+    }
+
+    /**
+     * Notified when a key is created, rolled or deleted
+     */
+    public interface KeyChangeListener {
+        void keyChanged(String name);
+    }
+
+    public void addKeyChangeListener(KeyChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public KeyVersion getKeyVersion(String versionName) throws IOException {
+        KeyVersion keyVersion = get(versions, versionName);
+        if (keyVersion == null) {
+            keyVersion = keyProvider.getKeyVersion(versionName);
+            put(versions, versionName, keyVersion);
+        }
+        return keyVersion;
+    }
+
+    @Override
+    public KeyVersion getCurrentKey(String name) throws IOException {
+        KeyVersion keyVersion = get(currentVersions, name);
+        if (keyVersion == null) {
+            keyVersion = keyProvider.getCurrentKey(name);
+            cache(name, keyVersion);
+        }
+        return keyVersion;
+    }
+
+    /**
+     * @return the version name of the current version of the key, if it is cached, without decrypting the material
+     */
+    public String getCachedCurrentVersionName(String name) {
+        CachedVersion cached = currentVersions.get(name);
+        return cached == null || cached.isExpired() ? null : cached.versionName;
+    }
+
+    @Override
+    public List<String> getKeys() throws IOException {
+        return keyProvider.getKeys();
+    }
+
+    @Override
+    public List<KeyVersion> getKeyVersions(String name) throws IOException {
+        return keyProvider.getKeyVersions(name);
+    }
+
+    @Override
+    public Metadata getMetadata(String name) throws IOException {
+        return keyProvider.getMetadata(name);
+    }
+
+    @Override
+    public Metadata[] getKeysMetadata(String... names) throws IOException {
+        return keyProvider.getKeysMetadata(names);
+    }
+
+    @Override
+    public KeyVersion createKey(String name, byte[] material, Options options) throws IOException {
+        return changed(name, keyProvider.createKey(name, material, options));
+    }
+
+    @Override
+    public KeyVersion createKey(String name, Options options) throws NoSuchAlgorithmException, IOException {
+        return changed(name, keyProvider.createKey(name, options));
+    }
+
+    @Override
+    public KeyVersion rollNewVersion(String name, byte[] material) throws IOException {
+        return changed(name, keyProvider.rollNewVersion(name, material));
+    }
+
+    @Override
+    public KeyVersion rollNewVersion(String name) throws NoSuchAlgorithmException, IOException {
+        return changed(name, keyProvider.rollNewVersion(name));
+    }
+
+    @Override
+    public void deleteKey(String name) throws IOException {
+        keyProvider.deleteKey(name);
+        currentVersions.remove(name);
+        // The version names are "<name>@<version>"
+        for (String versionName : versions.keySet()) {
+            if (versionName.startsWith(name + "@")) {
+                versions.remove(versionName);
+            }
+        }
+        changed(name, null);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        long current = modifications.get();
+        if (current == flushedModifications) {
+            skippedFlushes.incrementAndGet();
+            return;
+        }
+        keyProvider.flush();
+        flushedModifications = current;
+        flushes.incrementAndGet();
+    }
+
+    @Override
+    public void close() throws IOException {
+        versions.clear();
+        currentVersions.clear();
+        keyProvider.close();
+    }
+
+    @Override
+    public boolean isTransient() {
+        return keyProvider.isTransient();
+    }
+
+    private KeyVersion changed(String name, KeyVersion keyVersion) throws IOException {
+        modifications.incrementAndGet();
+        if (keyVersion != null) {
+            cache(name, keyVersion);
+        }
+        for (KeyChangeListener listener : listeners) {
+            listener.keyChanged(name);
+        }
+        return keyVersion;
+    }
+
+    private void cache(String name, KeyVersion keyVersion) throws IOException {
+        put(currentVersions, name, keyVersion);
+        if (keyVersion != null) {
+            put(versions, keyVersion.getVersionName(), keyVersion);
+        }
+    }
+
+    private KeyVersion get(Map<String, CachedVersion> cache, String key) throws IOException {
+        CachedVersion cached = cache.get(key);
+        if (cached == null || cached.isExpired()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new KeyVersion(cached.name, cached.versionName, crypt(Cipher.DECRYPT_MODE, cached.iv,
+                                                                     cached.material)) {
+        };
+    }
+
+    private void put(Map<String, CachedVersion> cache, String key, KeyVersion keyVersion) throws IOException {
+        if (keyVersion == null || keyVersion.getMaterial() == null) {
+            cache.remove(key);
+            return;
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        byte[] material = crypt(Cipher.ENCRYPT_MODE, iv, keyVersion.getMaterial());
+        cache.put(key, new CachedVersion(keyVersion.getName(), keyVersion.getVersionName(), iv, material,
+                                         System.nanoTime() + ttlNanos));
+    }
+
+    private byte[] crypt(int mode, byte[] iv, byte[] input) throws IOException {
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(mode, cacheKey, new GCMParameterSpec(TAG_LENGTH, iv));
+            return cipher.doFinal(input);
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Error processing cached key material", ex);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getSkippedFlushes() {
+        return skippedFlushes.get();
+    }
+
+    private static final class CachedVersion {
+        private final String name;
+        private final String versionName;
+        private final byte[] iv;
+        private final byte[] material;
+        private final long expiry;
+
+        CachedVersion(String name, String versionName, byte[] iv, byte[] material, long expiry) {
+            this.name = name;
+            this.versionName = versionName;
+            this.iv = iv;
+            this.material = material;
+            this.expiry = expiry;
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - expiry > 0;
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.kms.ranger;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.crypto.key.KeyProvider;
+import org.apache.hadoop.crypto.key.KeyProvider.KeyVersion;
+import org.apache.hadoop.crypto.key.KeyProvider.Options;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension.CryptoExtension;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension.EncryptedKeyVersion;
+import org.apache.hadoop.crypto.key.RangerKeyStoreProvider;
+import org.apache.hadoop.crypto.key.kms.server.KMSConfiguration;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+
+/**
+ * A test for the CachingKeyProvider + EncryptedKeyPool, on top of the RangerKeyStoreProvider (with the keys stored
+ * in Apache Derby).
+ */
+public class CachingKeyProviderTest {
+
+    @BeforeClass
+    public static void startServers() throws Exception {
+        DerbyTestUtils.startDerby();
+
+        Path configDir = Paths.get("src/test/resources/kms");
+        System.setProperty(KMSConfiguration.KMS_CONFIG_DIR, configDir.toFile().getAbsolutePath());
+    }
+
+    @AfterClass
+    public static void stopServers() throws Exception {
+        DerbyTestUtils.stopDerby();
+    }
+
+    @org.junit.Test
+    public void testCachedKeyVersions() throws Throwable {
+        Configuration conf = new Configuration();
+        RangerKeyStoreProvider rangerKeyProvider = new RangerKeyStoreProvider(conf);
+        CachingKeyProvider keyProvider = new CachingKeyProvider(rangerKeyProvider, 60000L);
+
+        KeyVersion keyVersion = keyProvider.createKey("cachedkey", createOptions(conf));
+        keyProvider.flush();
+
+        // The current version is cached by createKey
+        long misses = keyProvider.getMisses();
+        KeyVersion currentKey = keyProvider.getCurrentKey("cachedkey");
+        Assert.assertEquals("cachedkey@0", currentKey.getVersionName());
+        Assert.assertTrue(Arrays.equals(keyVersion.getMaterial(), currentKey.getMaterial()));
+        Assert.assertEquals(misses, keyProvider.getMisses());
+        Assert.assertTrue(Arrays.equals(keyVersion.getMaterial(),
+                                        keyProvider.getKeyVersion("cachedkey@0").getMaterial()));
+        Assert.assertTrue(keyProvider.getHits() >= 2);
+
+        // Rolling the key updates the current version
+        KeyVersion newKeyVersion = keyProvider.rollNewVersion("cachedkey");
+        currentKey = keyProvider.getCurrentKey("cachedkey");
+        Assert.assertEquals("cachedkey@1", currentKey.getVersionName());
+        Assert.assertTrue(Arrays.equals(newKeyVersion.getMaterial(), currentKey.getMaterial()));
+        Assert.assertTrue(Arrays.equals(rangerKeyProvider.getCurrentKey("cachedkey").getMaterial(),
+                                        currentKey.getMaterial()));
+
+        keyProvider.deleteKey("cachedkey");
+        keyProvider.flush();
+        Assert.assertNull(keyProvider.getCachedCurrentVersionName("cachedkey"));
+        Assert.assertFalse(keyProvider.getKeys().contains("cachedkey"));
+    }
+
+    @org.junit.Test
+    public void testExpiry() throws Throwable {
+        Configuration conf = new Configuration();
+        CachingKeyProvider keyProvider = new CachingKeyProvider(new RangerKeyStoreProvider(conf), 100L);
+
+        keyProvider.createKey("expiringkey", createOptions(conf));
+        keyProvider.flush();
+        Assert.assertEquals("expiringkey@0", keyProvider.getCachedCurrentVersionName("expiringkey"));
+
+        Thread.sleep(200L);
+        Assert.assertNull(keyProvider.getCachedCurrentVersionName("expiringkey"));
+        long misses = keyProvider.getMisses();
+        Assert.assertEquals("expiringkey@0", keyProvider.getCurrentKey("expiringkey").getVersionName());
+        Assert.assertEquals(misses + 1, keyProvider.getMisses());
+
+        keyProvider.deleteKey("expiringkey");
+        keyProvider.flush();
+    }
+
+    @org.junit.Test
+    public void testFlushOnlyChanges() throws Throwable {
+        Configuration conf = new Configuration();
+        CachingKeyProvider keyProvider = new CachingKeyProvider(new RangerKeyStoreProvider(conf), 60000L);
+
+        // Nothing has changed
+        keyProvider.flush();
+        Assert.assertEquals(0, keyProvider.getFlushes());
+        Assert.assertEquals(1, keyProvider.getSkippedFlushes());
+
+        // Two changes are written by a single flush
+        keyProvider.createKey("flushkey1", createOptions(conf));
+        keyProvider.createKey("flushkey2", createOptions(conf));
+        keyProvider.flush();
+        keyProvider.flush();
+        Assert.assertEquals(1, keyProvider.getFlushes());
+        Assert.assertEquals(2, keyProvider.getSkippedFlushes());
+
+        // Check that they were written
+        List<String> storedKeys = new RangerKeyStoreProvider(conf).getKeys();
+        Assert.assertTrue(storedKeys.contains("flushkey1"));
+        Assert.assertTrue(storedKeys.contains("flushkey2"));
+
+        keyProvider.deleteKey("flushkey1");
+        keyProvider.deleteKey("flushkey2");
+        keyProvider.flush();
+        Assert.assertEquals(2, keyProvider.getFlushes());
+    }
+
+    @org.junit.Test
+    public void testEncryptedKeyPool() throws Throwable {
+        Configuration conf = new Configuration();
+        RangerKeyStoreProvider rangerKeyProvider = new RangerKeyStoreProvider(conf);
+        CachingKeyProvider keyProvider = new CachingKeyProvider(rangerKeyProvider, 60000L);
+        EncryptedKeyPool pool = new EncryptedKeyPool(keyProvider, 100, 0.3f, 60000L, 2);
+        try {
+            keyProvider.createKey("poolkey", createOptions(conf));
+            keyProvider.flush();
+            pool.warmUpEncryptedKeys("poolkey");
+
+            // The EDEK can be decrypted without the pool
+            EncryptedKeyVersion edek = pool.generateEncryptedKey("poolkey");
+            Assert.assertEquals("poolkey@0", edek.getEncryptionKeyVersionName());
+            KeyVersion dek = KeyProviderCryptoExtension.createKeyProviderCryptoExtension(rangerKeyProvider)
+                .decryptEncryptedKey(edek);
+            Assert.assertTrue(Arrays.equals(dek.getMaterial(), pool.decryptEncryptedKey(edek).getMaterial()));
+
+            // No EDEKs of the old version are handed out once the key is rolled
+            keyProvider.rollNewVersion("poolkey");
+            for (int i = 0; i < 200; i++) {
+                Assert.assertEquals("poolkey@1", pool.generateEncryptedKey("poolkey").getEncryptionKeyVersionName());
+            }
+
+            keyProvider.deleteKey("poolkey");
+            keyProvider.flush();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compare getCurrentKey + generateEncryptedKey directly on the RangerKeyStoreProvider, with the
+     * CachingKeyProvider + EncryptedKeyPool, from a number of threads.
+     */
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testBenchmark() throws Throwable {
+        final int threads = Integer.getInteger("kms.benchmark.threads", 8);
+        final int operations = Integer.getInteger("kms.benchmark.operations", 20000);
+        final int keys = 10;
+
+        Configuration conf = new Configuration();
+        RangerKeyStoreProvider rangerKeyProvider = new RangerKeyStoreProvider(conf);
+        final String[] keyNames = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            keyNames[i] = "benchkey" + i;
+            rangerKeyProvider.createKey(keyNames[i], createOptions(conf));
+        }
+        rangerKeyProvider.flush();
+
+        KeyProviderCryptoExtension direct = KeyProviderCryptoExtension.createKeyProviderCryptoExtension(rangerKeyProvider);
+        runBenchmark("direct", rangerKeyProvider, direct, keyNames, threads, operations);
+
+        CachingKeyProvider keyProvider = new CachingKeyProvider(rangerKeyProvider, 600000L);
+        EncryptedKeyPool pool = new EncryptedKeyPool(keyProvider, 500, 0.3f, 600000L, 4);
+        try {
+            pool.warmUpEncryptedKeys(keyNames);
+            runBenchmark("cached + pooled", keyProvider, pool, keyNames, threads, operations);
+            System.out.println("Cache hits: " + keyProvider.getHits() + ", misses: " + keyProvider.getMisses()
+                + ", EDEKs generated in the background: " + pool.getGenerated());
+        } finally {
+            pool.shutdown();
+        }
+
+        // Periodic flushes with a single change in between
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            rangerKeyProvider.flush();
+        }
+        System.out.println("direct flush: " + (System.nanoTime() - start) / 100 / 1000 + " us");
+        start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            if (i == 50) {
+                keyProvider.rollNewVersion(keyNames[0]);
+            }
+            keyProvider.flush();
+        }
+        System.out.println("cached flush: " + (System.nanoTime() - start) / 100 / 1000 + " us");
+
+        for (String keyName : keyNames) {
+            rangerKeyProvider.deleteKey(keyName);
+        }
+        rangerKeyProvider.flush();
+    }
+
+    private void runBenchmark(String label, final KeyProvider keyProvider, final CryptoExtension cryptoExtension,
+                              final String[] keyNames, int threads, final int operations) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int i = 0; i < operations; i++) {
+                            String keyName = keyNames[(thread + i) % keyNames.length];
+                            keyProvider.getCurrentKey(keyName);
+                            cryptoExtension.generateEncryptedKey(keyName);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(label + ": " + (long) threads * operations * 1000000000L / elapsed
+                + " getCurrentKey + generateEncryptedKey/sec");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Options createOptions(Configuration conf) {
+        Options options = new Options(conf);
+        options.setBitLength(128);
+        options.setCipher("AES");
+        return options;
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.kms.ranger;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.crypto.key.KeyProvider;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension;
+import org.apache.hadoop.crypto.key.KeyProviderCryptoExtension.EncryptedKeyVersion;
+import org.apache.hadoop.crypto.key.kms.ValueQueue;
+import org.apache.hadoop.crypto.key.kms.ValueQueue.SyncGenerationPolicy;
+
+/**
+ * A CryptoExtension that hands out pre-generated encrypted data encryption keys (EDEKs) for each key. The EDEKs
+ * are held in a Hadoop ValueQueue per key, which is refilled in the background when it drops below the low
+ * watermark, so that a caller only has to wait for an EDEK to be generated if the pool for the key is empty.
+ *
+ * If the KeyProvider is a CachingKeyProvider, the pool for a key is drained when the key is rolled or deleted, and
+ * any EDEK of an older key version that was still being generated at the time is discarded.
+ */
+public class EncryptedKeyPool implements KeyProviderCryptoExtension.CryptoExtension {
+
+    private final KeyProviderCryptoExtension generator;
+    private final CachingKeyProvider cachingKeyProvider;
+    private final ValueQueue<EncryptedKeyVersion> pool;
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    /**
+     * @param keyProvider the provider of the keys to generate the EDEKs with
+     * @param size the number of EDEKs to hold for each key
+     * @param lowWatermark the fraction of "size" below which the pool for a key is refilled
+     * @param expiryMillis how long the pool for a key is kept, after it was last used
+     * @param fillerThreads the number of threads that refill the pools
+     */
+    public EncryptedKeyPool(KeyProvider keyProvider, int size, float lowWatermark, long expiryMillis,
+                            int fillerThreads) {
+        this.generator = KeyProviderCryptoExtension.createKeyProviderCryptoExtension(keyProvider);
+        this.cachingKeyProvider = keyProvider instanceof CachingKeyProvider ? (CachingKeyProvider) keyProvider : null;
+        this.pool = new ValueQueue<EncryptedKeyVersion>(size, lowWatermark, expiryMillis, fillerThreads,
+            SyncGenerationPolicy.ATLEAST_ONE, new ValueQueue.QueueRefiller<EncryptedKeyVersion>() {
+                @Override
+                public void fillQueueForKey(String keyName, Queue<EncryptedKeyVersion> keyQueue, int numValues)
+                    throws IOException {
+                    for (int i = 0; i < numValues; i++) {
+                        try {
+                            keyQueue.add(generator.generateEncryptedKey(keyName));
+                        } catch (GeneralSecurityException ex) {
+                            throw new IOException(ex);
+                        }
+                    }
+                    generated.addAndGet(numValues);
+                }
+            });
+
+        if (cachingKeyProvider != null) {
+            cachingKeyProvider.addKeyChangeListener(new CachingKeyProvider.KeyChangeListener() {
+                @Override
+                public void keyChanged(String name) {
+                    drain(name);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void warmUpEncryptedKeys(String... keyNames) throws IOException {
+        try {
+            pool.initializeQueuesForKeys(keyNames);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    @Override
+    public EncryptedKeyVersion generateEncryptedKey(String encryptionKeyName)
+        throws IOException, GeneralSecurityException {
+        while (true) {
+            EncryptedKeyVersion edek;
+            try {
+                edek = pool.getNext(encryptionKeyName);
+            } catch (ExecutionException ex) {
+                throw new IOException(ex);
+            }
+            if (cachingKeyProvider == null) {
+                return edek;
+            }
+            String currentVersionName = cachingKeyProvider.getCachedCurrentVersionName(encryptionKeyName);
+            if (currentVersionName == null || currentVersionName.equals(edek.getEncryptionKeyVersionName())) {
+                return edek;
+            }
+            // Generated from a version of the key that has since been rolled
+            discarded.incrementAndGet();
+        }
+    }
+
+    @Override
+    public KeyProvider.KeyVersion decryptEncryptedKey(EncryptedKeyVersion encryptedKeyVersion)
+        throws IOException, GeneralSecurityException {
+        return generator.decryptEncryptedKey(encryptedKeyVersion);
+    }
+
+    /**
+     * Discard the EDEKs of the given key
+     */
+    public void drain(String keyName) {
+        pool.drain(keyName);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * @return the number of EDEKs that have been generated to fill the pools
+     */
+    public long getGenerated() {
+        return generated.get();
+    }
+
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+}
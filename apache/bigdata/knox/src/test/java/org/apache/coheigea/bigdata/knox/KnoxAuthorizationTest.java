@@ -40,10 +40,12 @@ import io.restassured.http.ContentType;
 import io.restassured.response.ValidatableResponse;
 
 /**
- * Some mock ACL authorization tests for Apache Knox.
+ * Some mock ACL authorization tests for Apache Knox. The LDAP authentications are cached, and the dispatch to each
+ * service uses a pool of connections.
  */
 public class KnoxAuthorizationTest {
 
+    private static final int DISPATCH_MAX_CONNECTIONS = 64;
     private static GatewayTestDriver driver = new GatewayTestDriver();
 
     @BeforeClass
@@ -71,6 +73,18 @@ public class KnoxAuthorizationTest {
      * @return A populated XML structure for a topology file.
      */
     private static XMLTag createTopology() {
+        return createTopology(driver, true, DISPATCH_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Creates the topology for the services of the given driver.
+     * @param cacheAuthentication whether to cache the successful LDAP authentications. The credentials are cached
+     *        as a hash, and a request with the same username + password is authenticated without going to LDAP.
+     * @param maxConnections the number of pooled connections that the dispatch to each service can use, or 0 for
+     *        the default
+     * @return A populated XML structure for a topology file.
+     */
+    static XMLTag createTopology(GatewayTestDriver driver, boolean cacheAuthentication, int maxConnections) {
         XMLTag xml = XMLDoc.newDocument( true )
             .addRoot( "topology" )
             .addTag( "gateway" )
@@ -96,8 +110,20 @@ public class KnoxAuthorizationTest {
             .addTag( "value" ).addText(driver.getLdapUrl() ).gotoParent()
             .addTag( "param" )
             .addTag( "name" ).addText( "main.ldapRealm.contextFactory.authenticationMechanism" )
-            .addTag( "value" ).addText( "simple" ).gotoParent()
-            .addTag( "param" )
+            .addTag( "value" ).addText( "simple" ).gotoParent();
+        if (cacheAuthentication) {
+            // An in-memory cache, as an EhCacheManager can't be created by more than one gateway in the same JVM
+            xml.addTag( "param" )
+                .addTag( "name" ).addText( "main.cacheManager" )
+                .addTag( "value" ).addText( "org.apache.shiro.cache.MemoryConstrainedCacheManager" ).gotoParent()
+                .addTag( "param" )
+                .addTag( "name" ).addText( "main.securityManager.cacheManager" )
+                .addTag( "value" ).addText( "$cacheManager" ).gotoParent()
+                .addTag( "param" )
+                .addTag( "name" ).addText( "main.ldapRealm.authenticationCachingEnabled" )
+                .addTag( "value" ).addText( "true" ).gotoParent();
+        }
+        xml.addTag( "param" )
             .addTag( "name" ).addText( "urls./**" )
             .addTag( "value" ).addText( "authcBasic" ).gotoParent().gotoParent()
             .addTag("provider")
@@ -123,27 +149,56 @@ public class KnoxAuthorizationTest {
             .addTag( "param" )
             .addTag( "name" ).addText( "SOLR.acl" )
             .addTag( "value" ).addText( "alice;*;*" ).gotoParent()
-            .gotoRoot()
-            .addTag("service")
-            .addTag("role").addText("WEBHDFS")
-            .addTag("url").addText(driver.getRealUrl("WEBHDFS")).gotoParent()
-            .addTag("service")
-            .addTag("role").addText("STORM")
-            .addTag("url").addText(driver.getRealUrl("STORM")).gotoParent()
-            .addTag("service")
-            .addTag("role").addText("WEBHBASE")
-            .addTag("url").addText(driver.getRealUrl("WEBHBASE")).gotoParent()
-            .addTag("service")
-            .addTag("role").addText("KAFKA")
-            .addTag("url").addText(driver.getRealUrl("KAFKA")).gotoParent()
-            .addTag("service")
-            .addTag("role").addText("SOLR")
-            .addTag("url").addText(driver.getRealUrl("SOLR")).gotoParent()
             .gotoRoot();
+        for (String role : new String[] {"WEBHDFS", "STORM", "WEBHBASE", "KAFKA", "SOLR"}) {
+            xml.addTag("service")
+                .addTag("role").addText(role)
+                .addTag("url").addText(driver.getRealUrl(role));
+            if (maxConnections > 0) {
+                xml.addTag( "param" )
+                    .addTag( "name" ).addText( "httpclient.maxConnections" )
+                    .addTag( "value" ).addText( Integer.toString(maxConnections) ).gotoParent();
+            }
+            xml.gotoRoot();
+        }
         System.out.println( "GATEWAY=" + xml.toString() );
         return xml;
     }
 
+    /**
+     * Make the requests of the tests below from a number of threads against stub backends, with the default
+     * topology, and with the authentication cache + dispatch connection pools, as well as directly against the
+     * backends.
+     */
+    @Test
+    @org.junit.Ignore
+    public void testLoad() throws Exception {
+        KnoxBenchmark benchmark = new KnoxBenchmark();
+        try {
+            benchmark.runDirect();
+            runLoad(benchmark, "no auth cache", false, 0);
+            runLoad(benchmark, "auth cache", true, 0);
+            runLoad(benchmark, "auth cache + dispatch pool", true, DISPATCH_MAX_CONNECTIONS);
+        } finally {
+            benchmark.shutdown();
+        }
+    }
+
+    private static void runLoad(KnoxBenchmark benchmark, String label, boolean cacheAuthentication,
+                                int maxConnections) throws Exception {
+        GatewayTestDriver loadDriver = new GatewayTestDriver();
+        loadDriver.setResourceBase(KnoxAuthorizationTest.class);
+        loadDriver.setupLdap(0);
+        benchmark.setupServices(loadDriver);
+        loadDriver.setupGateway(new GatewayTestConfig(), "cluster",
+                                createTopology(loadDriver, cacheAuthentication, maxConnections), true);
+        try {
+            benchmark.run(label, loadDriver);
+        } finally {
+            loadDriver.cleanup();
+        }
+    }
+
     @Test
     public void testHDFSAllowed() throws IOException {
         makeWebHDFSInvocation(HttpStatus.SC_OK, "alice", "password");
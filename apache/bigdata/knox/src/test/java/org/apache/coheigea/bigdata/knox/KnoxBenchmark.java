@@ -0,0 +1,298 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coheigea.bigdata.knox;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.knox.gateway.GatewayTestDriver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Makes the same requests as the KnoxAuthorizationTest, for each of the services, from a number of concurrent
+ * clients, and prints the requests/sec + the latency percentiles. The results are also appended to
+ * "target/knox-benchmark.csv".
+ *
+ * The mock services of the GatewayTestDriver expect each request to be queued up in advance, and aren't meant to
+ * be called concurrently, so the backends here are stubs that return the same canned responses as the tests for
+ * every request. The requests are also made directly against the stubs, to get the latency that the gateway adds.
+ *
+ * The settings can be changed via system properties, e.g. -Dknox.benchmark.threads=32
+ */
+public final class KnoxBenchmark {
+
+    private static final String RESULTS_FILE = "target/knox-benchmark.csv";
+
+    private static final ServiceRequest[] SERVICES = {
+        new ServiceRequest("WEBHDFS", "/webhdfs", "/cluster/webhdfs", "/v1/hdfstest?op=LISTSTATUS", "alice",
+                           null, "webhdfs-liststatus-test.json", "application/json"),
+        new ServiceRequest("STORM", "", "/cluster/storm", "/api/v1/cluster/configuration", "bob",
+                           "application/json", "cluster-configuration.json", "application/json"),
+        new ServiceRequest("WEBHBASE", "", "/cluster/hbase", "", "alice",
+                           "text/xml", "webhbase-table-list.xml", "text/xml"),
+        new ServiceRequest("KAFKA", "", "/cluster/kafka", "/topics", "alice",
+                           null, null, null),
+        new ServiceRequest("SOLR", "", "/cluster/solr", "/gettingstarted/select?q=author_s:William+Shakespeare",
+                           "alice", "application/json", "query_response.xml", "application/json"),
+    };
+
+    private final Map<String, HttpServer> backends = new HashMap<>();
+    private final Map<String, double[]> directLatencies = new HashMap<>();
+    private final ExecutorService backendExecutor;
+    private final int threads = Integer.getInteger("knox.benchmark.threads", 16);
+    private final int requests = Integer.getInteger("knox.benchmark.requests", 20000);
+
+    /**
+     * Start a stub backend for each of the services
+     */
+    public KnoxBenchmark() throws IOException {
+        String basedir = System.getProperty("basedir");
+        if (basedir == null) {
+            basedir = new File(".").getCanonicalPath();
+        }
+
+        backendExecutor = Executors.newFixedThreadPool(threads);
+        for (ServiceRequest service : SERVICES) {
+            byte[] content = service.resource == null ? new byte[0]
+                : Files.readAllBytes(Paths.get(basedir, "src/test/resources", service.resource));
+            HttpServer backend = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            backend.createContext("/", new StubHandler(content, service.contentType));
+            backend.setExecutor(backendExecutor);
+            backend.start();
+            backends.put(service.role, backend);
+        }
+    }
+
+    /**
+     * Add the stub backends as the (non-mock) services of the driver, before the gateway is set up
+     */
+    public void setupServices(GatewayTestDriver driver) throws Exception {
+        for (ServiceRequest service : SERVICES) {
+            driver.setupService(service.role, getBackendUrl(service) + service.realPath, service.gatewayPath, false);
+        }
+    }
+
+    /**
+     * Make the requests directly against the stub backends
+     */
+    public void runDirect() throws Exception {
+        for (ServiceRequest service : SERVICES) {
+            String url = getBackendUrl(service) + service.realPath + service.requestPath;
+            directLatencies.put(service.role, run("direct", service, url));
+        }
+    }
+
+    /**
+     * Make the requests via the gateway of the driver
+     */
+    public void run(String label, GatewayTestDriver driver) throws Exception {
+        for (ServiceRequest service : SERVICES) {
+            run(label, service, driver.getUrl(service.role) + service.requestPath);
+        }
+    }
+
+    public void shutdown() {
+        for (HttpServer backend : backends.values()) {
+            backend.stop(0);
+        }
+        backendExecutor.shutdown();
+    }
+
+    private double[] run(String label, final ServiceRequest service, final String url) throws Exception {
+        final int requestsPerThread = requests / threads;
+        final String authorization = "Basic " + Base64.getEncoder().encodeToString(
+            (service.user + ":password").getBytes(StandardCharsets.UTF_8));
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(threads);
+        connectionManager.setDefaultMaxPerRoute(threads);
+        // Cookies are disabled, so that each request is authenticated again with the credentials
+        try (final CloseableHttpClient client = HttpClients.custom().setConnectionManager(connectionManager)
+            .disableCookieManagement().build()) {
+            // Warm up the connections + the gateway
+            for (int i = 0; i < threads; i++) {
+                get(client, service, url, authorization);
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<long[]>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    futures.add(executor.submit(new Callable<long[]>() {
+                        public long[] call() throws Exception {
+                            long[] latencies = new long[requestsPerThread];
+                            for (int i = 0; i < requestsPerThread; i++) {
+                                long requestStart = System.nanoTime();
+                                get(client, service, url, authorization);
+                                latencies[i] = System.nanoTime() - requestStart;
+                            }
+                            return latencies;
+                        }
+                    }));
+                }
+                long[] latencies = new long[0];
+                for (Future<long[]> future : futures) {
+                    long[] threadLatencies = future.get();
+                    int length = latencies.length;
+                    latencies = Arrays.copyOf(latencies, length + threadLatencies.length);
+                    System.arraycopy(threadLatencies, 0, latencies, length, threadLatencies.length);
+                }
+                long elapsed = System.nanoTime() - start;
+
+                Arrays.sort(latencies);
+                long requestsPerSecond = latencies.length * 1000000000L / elapsed;
+                double[] percentiles = {percentile(latencies, 50), percentile(latencies, 95),
+                                        percentile(latencies, 99), percentile(latencies, 100)};
+                double[] direct = directLatencies.get(service.role);
+                double added = direct == null ? 0 : percentiles[0] - direct[0];
+                System.out.println(String.format("%-30s %-10s %10d req/s, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, "
+                    + "max %.2f ms, added p50 %.2f ms", label, service.role, requestsPerSecond, percentiles[0],
+                    percentiles[1], percentiles[2], percentiles[3], added));
+                writeResult(label, service.role, requestsPerSecond, percentiles, added);
+                return percentiles;
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static void get(CloseableHttpClient client, ServiceRequest service, String url, String authorization)
+        throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.setHeader("Authorization", authorization);
+        get.setHeader("X-XSRF-Header", "jksdhfkhdsf");
+        if (service.accept != null) {
+            get.setHeader("Accept", service.accept);
+        }
+        try (CloseableHttpResponse response = client.execute(get)) {
+            // Read the whole response, so that the connection can be reused
+            EntityUtils.consume(response.getEntity());
+            int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK) {
+                throw new IOException("Unexpected status " + status + " for " + url);
+            }
+        }
+    }
+
+    private String getBackendUrl(ServiceRequest service) {
+        return "http://localhost:" + backends.get(service.role).getAddress().getPort();
+    }
+
+    private static double percentile(long[] sortedLatencies, int percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1000000.0;
+    }
+
+    private static void writeResult(String label, String service, long requestsPerSecond, double[] percentiles,
+                                    double added) throws IOException {
+        File file = new File(RESULTS_FILE);
+        boolean exists = file.exists();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (!exists) {
+                writer.println("test,service,requestsPerSecond,p50Ms,p95Ms,p99Ms,maxMs,addedP50Ms");
+            }
+            writer.println(String.format("%s,%s,%d,%.2f,%.2f,%.2f,%.2f,%.2f", label, service, requestsPerSecond,
+                percentiles[0], percentiles[1], percentiles[2], percentiles[3], added));
+        }
+    }
+
+    private static final class ServiceRequest {
+        private final String role;
+        private final String realPath;
+        private final String gatewayPath;
+        private final String requestPath;
+        private final String user;
+        private final String accept;
+        private final String resource;
+        private final String contentType;
+
+        ServiceRequest(String role, String realPath, String gatewayPath, String requestPath, String user,
+                       String accept, String resource, String contentType) {
+            this.role = role;
+            this.realPath = realPath;
+            this.gatewayPath = gatewayPath;
+            this.requestPath = requestPath;
+            this.user = user;
+            this.accept = accept;
+            this.resource = resource;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * Returns the same response to every request
+     */
+    private static final class StubHandler implements HttpHandler {
+        private final byte[] content;
+        private final String contentType;
+
+        StubHandler(byte[] content, String contentType) {
+            this.content = content;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try (InputStream in = exchange.getRequestBody()) {
+                while (in.read() != -1) {
+                    // drain the request
+                }
+            }
+            if (contentType != null) {
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+            }
+            exchange.sendResponseHeaders(HttpStatus.SC_OK, content.length == 0 ? -1 : content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        }
+    }
+
+}
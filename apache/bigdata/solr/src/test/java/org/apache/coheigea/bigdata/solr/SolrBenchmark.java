@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.solr;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.ModifiableSolrParams;
+
+/**
+ * Bulk-indexes generated documents into a collection of a cluster that is started by one of the tests, and then
+ * runs a mix of queries against it. The documents are indexed in batches by a number of concurrent update
+ * clients, and the queries are run by a number of concurrent query clients. The indexing rate, query rate and
+ * the query latency percentiles are printed, and appended to "target/solr-benchmark.csv" so that the runs of the
+ * different tests can be compared.
+ *
+ * The requests are made as the given user (via basic authentication), if there is one. The settings can be
+ * changed via system properties, e.g. -Dsolr.benchmark.documents=5000000 -Dsolr.benchmark.queryThreads=16
+ */
+public final class SolrBenchmark {
+
+    private static final String RESULTS_FILE = "target/solr-benchmark.csv";
+    private static final int CATEGORIES = 100;
+    private static final String[] QUERY_TYPES = {"all", "term", "prefix", "range", "facet"};
+
+    private SolrBenchmark() {
+    }
+
+    /**
+     * Index the documents, and then run the queries.
+     */
+    public static void run(String label, SolrClient client, String collection, String user, String password)
+        throws Exception {
+        index(label, client, collection, user, password);
+        query(label, client, collection, user, password);
+    }
+
+    public static void index(String label, final SolrClient client, final String collection, final String user,
+                             final String password) throws Exception {
+        final int documents = Integer.getInteger("solr.benchmark.documents", 1000000);
+        final int batchSize = Integer.getInteger("solr.benchmark.batchSize", 1000);
+        final int threads = Integer.getInteger("solr.benchmark.updateThreads", 4);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        Random random = new Random(thread);
+                        List<SolrInputDocument> batch = new ArrayList<>(batchSize);
+                        // Each thread indexes every "threads"th document
+                        for (int i = thread; i < documents; i += threads) {
+                            batch.add(createDocument(i, random));
+                            if (batch.size() == batchSize) {
+                                add(client, collection, batch, user, password);
+                                batch = new ArrayList<>(batchSize);
+                            }
+                        }
+                        if (!batch.isEmpty()) {
+                            add(client, collection, batch, user, password);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+
+            UpdateRequest commit = new UpdateRequest();
+            commit.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true);
+            request(client, collection, commit, user, password);
+
+            long elapsed = System.nanoTime() - start;
+            long documentsPerSecond = documents * 1000000000L / elapsed;
+            System.out.println(String.format("%-40s indexed %d documents: %d docs/s", label, documents,
+                documentsPerSecond));
+            writeResult(label, "index", documents, documentsPerSecond, null);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static void query(String label, final SolrClient client, final String collection, final String user,
+                             final String password) throws Exception {
+        final int queries = Integer.getInteger("solr.benchmark.queries", 20000);
+        final int threads = Integer.getInteger("solr.benchmark.queryThreads", 8);
+        final int queriesPerThread = queries / threads;
+
+        // Warm up the caches + connections, so that they aren't timed
+        for (int type = 0; type < QUERY_TYPES.length; type++) {
+            request(client, collection, new QueryRequest(createQuery(type, new Random(type))), user, password);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[][]>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<long[][]>() {
+                    public long[][] call() throws Exception {
+                        Random random = new Random(thread);
+                        // The latencies by query type, with the number of queries of that type in [type][0]
+                        long[][] latencies = new long[QUERY_TYPES.length][queriesPerThread + 1];
+                        for (int i = 0; i < queriesPerThread; i++) {
+                            int type = i % QUERY_TYPES.length;
+                            QueryRequest request = new QueryRequest(createQuery(type, random));
+                            long queryStart = System.nanoTime();
+                            request(client, collection, request, user, password);
+                            latencies[type][(int) ++latencies[type][0]] = System.nanoTime() - queryStart;
+                        }
+                        return latencies;
+                    }
+                }));
+            }
+            List<long[][]> results = new ArrayList<>();
+            for (Future<long[][]> future : futures) {
+                results.add(future.get());
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println(String.format("%-40s %-8s %10s %8s %8s %8s %8s", "Test", "Query", "QPS", "p50 ms",
+                "p95 ms", "p99 ms", "max ms"));
+            long[] all = new long[0];
+            for (int type = 0; type < QUERY_TYPES.length; type++) {
+                long[] typeLatencies = new long[0];
+                for (long[][] result : results) {
+                    int count = (int) result[type][0];
+                    typeLatencies = concat(typeLatencies, Arrays.copyOfRange(result[type], 1, count + 1));
+                }
+                report(label, QUERY_TYPES[type], typeLatencies, elapsed);
+                all = concat(all, typeLatencies);
+            }
+            report(label, "total", all, elapsed);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static SolrInputDocument createDocument(int i, Random random) {
+        SolrInputDocument document = new SolrInputDocument();
+        document.addField("id", "doc" + i);
+        document.addField("title", "doc" + i);
+        document.addField("category", "cat" + random.nextInt(CATEGORIES));
+        document.addField("number", String.format("%07d", random.nextInt(10000000)));
+        document.addField("content", "Generated content for document " + i + " in the benchmark");
+        return document;
+    }
+
+    private static ModifiableSolrParams createQuery(int type, Random random) {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        switch (QUERY_TYPES[type]) {
+        case "term":
+            params.set("q", "category:cat" + random.nextInt(CATEGORIES));
+            break;
+        case "prefix":
+            params.set("q", "title:doc" + (1 + random.nextInt(999)) + "*");
+            break;
+        case "range":
+            int from = random.nextInt(9990000);
+            params.set("q", String.format("number:[%07d TO %07d]", from, from + 10000));
+            break;
+        case "facet":
+            params.set("q", "*:*");
+            params.set("rows", 0);
+            params.set("facet", true);
+            params.set("facet.field", "category");
+            break;
+        default:
+            params.set("q", "*:*");
+            break;
+        }
+        return params;
+    }
+
+    private static void add(SolrClient client, String collection, List<SolrInputDocument> batch, String user,
+                            String password) throws Exception {
+        UpdateRequest request = new UpdateRequest();
+        request.add(batch);
+        request(client, collection, request, user, password);
+    }
+
+    private static void request(SolrClient client, String collection, SolrRequest<?> request, String user,
+                                String password) throws Exception {
+        if (user != null) {
+            request.setBasicAuthCredentials(user, password);
+        }
+        client.request(request, collection);
+    }
+
+    private static void report(String label, String queryType, long[] latencies, long elapsedNanos)
+        throws Exception {
+        Arrays.sort(latencies);
+        long qps = latencies.length * 1000000000L / elapsedNanos;
+        double[] percentiles = {percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+                                percentile(latencies, 100)};
+        System.out.println(String.format("%-40s %-8s %10d %8.2f %8.2f %8.2f %8.2f", label, queryType, qps,
+            percentiles[0], percentiles[1], percentiles[2], percentiles[3]));
+        writeResult(label, queryType, latencies.length, qps, percentiles);
+    }
+
+    private static double percentile(long[] sortedLatencies, int percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1000000.0;
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static void writeResult(String label, String operation, int count, long perSecond,
+                                    double[] percentiles) throws Exception {
+        File file = new File(RESULTS_FILE);
+        boolean exists = file.exists();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (!exists) {
+                writer.println("test,operation,count,perSecond,p50Ms,p95Ms,p99Ms,maxMs");
+            }
+            if (percentiles == null) {
+                writer.println(String.format("%s,%s,%d,%d,,,,", label, operation, count, perSecond));
+            } else {
+                writer.println(String.format("%s,%s,%d,%d,%.2f,%.2f,%.2f,%.2f", label, operation, count, perSecond,
+                    percentiles[0], percentiles[1], percentiles[2], percentiles[3]));
+            }
+        }
+    }
+
+}
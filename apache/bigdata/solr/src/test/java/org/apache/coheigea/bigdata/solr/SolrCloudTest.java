@@ -104,6 +104,21 @@ public class SolrCloudTest extends org.junit.Assert {
         SolrDocument foundDoc = foundDocs.get(0);
         Assert.assertEquals("Title of Doc", foundDoc.getFieldValue("title"));
     }
+
+    /**
+     * Bulk-index documents into a separate collection with two shards, and then run a mix of queries against it.
+     */
+    @Test
+    @org.junit.Ignore
+    public void testBenchmark() throws Exception {
+        Map<String, String> collectionProperties = new HashMap<>();
+        collectionProperties.put("config", "solrconfig.xml");
+        collectionProperties.put("schema", "schema.xml");
+
+        server.createCollection("benchmark", 2, 1, "core1Config", collectionProperties);
+
+        SolrBenchmark.run("SolrCloud", server.getSolrClient(), "benchmark", null, null);
+    }
     
 
 }
@@ -26,6 +26,7 @@ import java.security.PrivilegedExceptionAction;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.coheigea.bigdata.solr.SolrBenchmark;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.solr.client.solrj.embedded.JettyConfig;
 import org.apache.solr.client.solrj.embedded.JettySolrRunner;
@@ -104,6 +105,52 @@ public class RangerSolrCloudTest extends org.junit.Assert {
         performQuery("helen", "finance", true);
     }
     
+    /**
+     * Bulk-index documents as "bob" and run a mix of queries, with the RangerSolrAuthorizer enabled, and then
+     * again with only the BasicAuthPlugin enabled, to see the overhead of the authorization checks.
+     */
+    @Test
+    @org.junit.Ignore
+    public void testBenchmark() throws Exception {
+        CloudSolrClient cloudSolrClient = server.getSolrClient();
+        SolrBenchmark.run("SolrCloud + Ranger", cloudSolrClient, "docs", "bob", "SolrRocks");
+
+        String securityJson = new String(Files.readAllBytes(Paths.get("src/test/resources/security.json")), Charset.defaultCharset());
+        try {
+            // Remove the RangerSolrAuthorizer, and wait until "eve" is allowed to query
+            setSecurityJson(securityJson.replaceAll(",\\s*\"authorization\"\\s*:\\s*\\{[^}]*\\}", ""));
+            waitForQuery("eve", false);
+            SolrBenchmark.run("SolrCloud + BasicAuth", cloudSolrClient, "docs", "bob", "SolrRocks");
+        } finally {
+            setSecurityJson(securityJson);
+            waitForQuery("eve", true);
+        }
+    }
+
+    private static void setSecurityJson(String securityJson) throws Exception {
+        try (ZkStateReader zkStateReader = new ZkStateReader( server.getZkServer().getZkAddress(),
+                                                              10000, 10000)) {
+            zkStateReader.getZkClient().setData(ZkStateReader.SOLR_SECURITY_CONF_PATH,
+                                                securityJson.getBytes(Charset.defaultCharset()), true);
+        }
+    }
+
+    private void waitForQuery(String user, boolean exceptionExpected) throws Exception {
+        long timeout = System.currentTimeMillis() + 30000L;
+        while (true) {
+            try {
+                performQuery(user, null, exceptionExpected);
+                return;
+            } catch (Throwable t) {
+                // The security configuration is reloaded asynchronously
+                if (System.currentTimeMillis() > timeout) {
+                    throw t;
+                }
+                Thread.sleep(500L);
+            }
+        }
+    }
+
     private void performQuery(String user, String group, boolean exceptionExpected) throws Exception {
         final CloudSolrClient cloudSolrClient = server.getSolrClient();
         cloudSolrClient.setDefaultCollection("docs");
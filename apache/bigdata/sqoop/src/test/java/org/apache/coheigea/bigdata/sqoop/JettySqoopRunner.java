@@ -25,6 +25,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.sqoop.client.SqoopClient;
 import org.apache.sqoop.common.test.db.DatabaseProvider;
 import org.apache.sqoop.common.test.db.DatabaseProviderFactory;
@@ -50,8 +51,16 @@ public class JettySqoopRunner {
 
     public JettySqoopRunner(String temporaryPath, String serverName, String sentrySite, boolean ranger)
         throws Exception {
+        this(temporaryPath, serverName, sentrySite, ranger, new Configuration());
+    }
+
+    /**
+     * @param hadoopConfiguration the configuration of the (local) Hadoop cluster that the jobs are submitted to
+     */
+    public JettySqoopRunner(String temporaryPath, String serverName, String sentrySite, boolean ranger,
+                            Configuration hadoopConfiguration) throws Exception {
         this.temporaryPath = temporaryPath;
-        this.server = new SqoopServerEnableSentry(temporaryPath, serverName, sentrySite, ranger);
+        this.server = new SqoopServerEnableSentry(temporaryPath, serverName, sentrySite, ranger, hadoopConfiguration);
         this.provider = DatabaseProviderFactory.getProvider(System.getProperties());
     }
 
@@ -129,12 +138,30 @@ public class JettySqoopRunner {
         fromConfig.getStringInput("fromJobConfig.inputDirectory").setValue(temporaryPath + "/output");
     }
 
+    /**
+     * Read the given table, split on the given column
+     */
+    public void fillRdbmsFromConfig(MJob job, String tableName, String partitionColumn) {
+        MConfigList fromConfig = job.getFromJobConfig();
+        fromConfig.getStringInput("fromJobConfig.tableName").setValue(tableName);
+        fromConfig.getStringInput("fromJobConfig.partitionColumn").setValue(partitionColumn);
+    }
+
+    public void fillHdfsToConfig(MJob job, String outputDirectory) {
+        MConfigList toConfig = job.getToJobConfig();
+        toConfig.getStringInput("toJobConfig.outputDirectory").setValue(outputDirectory);
+    }
+
     public void fillRdbmsToConfig(MJob job) {
         MConfigList toConfig = job.getToJobConfig();
         toConfig.getStringInput("toJobConfig.tableName").setValue(provider.
                                                                   escapeTableName(new TableName(getClass().getSimpleName()).getTableName()));
     }
 
+    public DatabaseProvider getDatabaseProvider() {
+        return provider;
+    }
+
     /**
      * get a sqoopClient for specific user
      * @param user
@@ -159,9 +186,9 @@ public class JettySqoopRunner {
         private SqoopJettyServer sqoopJettyServer;
         private boolean ranger;
 
-        SqoopServerEnableSentry(String temporaryPath, String serverName, String sentrySite, boolean ranger)
-            throws Exception {
-            super(temporaryPath);
+        SqoopServerEnableSentry(String temporaryPath, String serverName, String sentrySite, boolean ranger,
+                                Configuration hadoopConfiguration) throws Exception {
+            super(temporaryPath, hadoopConfiguration);
             this.serverName = serverName;
             this.sentrySite = sentrySite;
             // Random port
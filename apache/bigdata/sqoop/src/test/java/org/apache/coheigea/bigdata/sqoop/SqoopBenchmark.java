@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.sqoop;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.sqoop.client.SqoopClient;
+import org.apache.sqoop.common.test.db.DatabaseProvider;
+import org.apache.sqoop.model.MJob;
+import org.apache.sqoop.model.MLink;
+import org.apache.sqoop.model.MSubmission;
+import org.apache.sqoop.submission.SubmissionStatus;
+
+/**
+ * Transfers a generated table from the (Derby) database of the JettySqoopRunner to HDFS (the local file system) with
+ * the generic JDBC connector, for an increasing number of extractors, and prints the rows/sec + the speedup compared
+ * to the first run. The results are also appended to "target/sqoop-benchmark.csv".
+ *
+ * The generic JDBC connector splits the range of the partition column into equal intervals, one per extractor.
+ * The rows in each interval are counted before each run, and the run is flagged as skewed if the largest partition
+ * is much bigger than the average, as the job then takes as long as the extractor of the largest partition. The
+ * table has a uniform "ID" column, and a "SKEWED" column where most of the rows have low values.
+ *
+ * The settings can be changed via system properties, e.g. -Dsqoop.benchmark.rows=5000000
+ * -Dsqoop.benchmark.extractors=1,2,4,8 -Dsqoop.benchmark.loaders=2 -Dsqoop.benchmark.partitionColumn=SKEWED
+ * -Dsqoop.benchmark.fetchSize=1000
+ */
+public final class SqoopBenchmark {
+
+    public static final String TABLE_NAME = "SQOOP_BENCHMARK";
+    private static final String RESULTS_FILE = "target/sqoop-benchmark.csv";
+
+    private SqoopBenchmark() {
+    }
+
+    public static void run(JettySqoopRunner runner, SqoopClient client, String temporaryPath) throws Exception {
+        int rows = Integer.getInteger("sqoop.benchmark.rows", 1000000);
+        String[] extractorCounts = System.getProperty("sqoop.benchmark.extractors", "1,2,4,8").split(",");
+        int loaders = Integer.getInteger("sqoop.benchmark.loaders", 0);
+        String partitionColumn = System.getProperty("sqoop.benchmark.partitionColumn", "ID");
+        int fetchSize = Integer.getInteger("sqoop.benchmark.fetchSize", 1000);
+        double skewThreshold = Double.parseDouble(System.getProperty("sqoop.benchmark.skewThreshold", "1.5"));
+
+        DatabaseProvider provider = runner.getDatabaseProvider();
+        try (Connection connection = DriverManager.getConnection(provider.getConnectionUrl(),
+            provider.getConnectionUsername(), provider.getConnectionPassword())) {
+            createTable(connection, rows);
+
+            MLink rdbmsLink = client.createLink("generic-jdbc-connector");
+            runner.fillRdbmsLinkConfig(rdbmsLink);
+            rdbmsLink.getConnectorLinkConfig().getIntegerInput("linkConfig.fetchSize").setValue(fetchSize);
+            rdbmsLink.setName("benchmark_jdbc_link");
+            runner.saveLink(client, rdbmsLink);
+
+            MLink hdfsLink = client.createLink("hdfs-connector");
+            runner.fillHdfsLink(hdfsLink);
+            hdfsLink.setName("benchmark_hdfs_link");
+            runner.saveLink(client, hdfsLink);
+
+            System.out.println(String.format("%-10s %-8s %10s %10s %8s %12s %s", "Extractors", "Loaders",
+                "Rows", "Rows/s", "Speedup", "Max/avg part", "Partitions"));
+            double baseline = 0;
+            for (String extractorCount : extractorCounts) {
+                int extractors = Integer.parseInt(extractorCount.trim());
+                long[] partitions = countPartitions(connection, partitionColumn, extractors);
+                double skew = getSkew(partitions);
+
+                MJob job = client.createJob(rdbmsLink.getName(), hdfsLink.getName());
+                runner.fillRdbmsFromConfig(job, TABLE_NAME, partitionColumn);
+                String outputDirectory = temporaryPath + "/benchmark-output-" + extractors;
+                runner.fillHdfsToConfig(job, outputDirectory);
+                job.getDriverConfig().getIntegerInput("throttlingConfig.numExtractors").setValue(extractors);
+                if (loaders > 0) {
+                    job.getDriverConfig().getIntegerInput("throttlingConfig.numLoaders").setValue(loaders);
+                }
+                job.setName("benchmark_job_" + extractors);
+                runner.saveJob(client, job);
+
+                long start = System.nanoTime();
+                MSubmission submission = client.startJob(job.getName());
+                while (submission.getStatus().isRunning()) {
+                    Thread.sleep(100L);
+                    submission = client.getJobStatus(job.getName());
+                }
+                long elapsed = System.nanoTime() - start;
+                if (submission.getStatus() != SubmissionStatus.SUCCEEDED) {
+                    throw new IllegalStateException("Job " + job.getName() + " finished with status "
+                        + submission.getStatus() + ": " + submission.getError());
+                }
+
+                long transferred = countLines(new File(outputDirectory));
+                if (transferred != rows) {
+                    throw new IllegalStateException("Expected " + rows + " rows in " + outputDirectory + ", but got "
+                        + transferred);
+                }
+                double rowsPerSecond = transferred * 1000000000.0 / elapsed;
+                if (baseline == 0) {
+                    baseline = rowsPerSecond;
+                }
+                StringBuilder partitionRows = new StringBuilder();
+                for (long partition : partitions) {
+                    partitionRows.append(partitionRows.length() == 0 ? "" : "/").append(partition);
+                }
+                System.out.println(String.format("%-10d %-8d %10d %10d %8.2f %12.2f %s%s", extractors, loaders,
+                    transferred, (long) rowsPerSecond, rowsPerSecond / baseline, skew, partitionRows,
+                    skew > skewThreshold ? " SKEWED" : ""));
+                writeResult(extractors, loaders, partitionColumn, fetchSize, transferred, (long) rowsPerSecond,
+                    rowsPerSecond / baseline, skew, skew > skewThreshold);
+            }
+        }
+    }
+
+    private static void createTable(Connection connection, int rows) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            try {
+                statement.executeUpdate("DROP TABLE " + TABLE_NAME);
+            } catch (SQLException ex) {
+                // the table doesn't exist yet
+            }
+            statement.executeUpdate("CREATE TABLE " + TABLE_NAME + " (ID INTEGER NOT NULL PRIMARY KEY, "
+                + "SKEWED INTEGER NOT NULL, NAME VARCHAR(64), AMOUNT DOUBLE)");
+        }
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert =
+            connection.prepareStatement("INSERT INTO " + TABLE_NAME + " VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+                insert.setInt(1, i);
+                // Most of the values are at the bottom of the range
+                insert.setInt(2, (int) (rows * Math.pow((double) i / rows, 4)));
+                insert.setString(3, "name" + i);
+                insert.setDouble(4, i * 1.5);
+                insert.addBatch();
+                if (i % 1000 == 999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Count the rows in each of the partitions that the generic JDBC connector splits an integer column into
+     */
+    private static long[] countPartitions(Connection connection, String partitionColumn, int extractors)
+        throws SQLException {
+        long min;
+        long max;
+        try (Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery("SELECT MIN(" + partitionColumn + "), MAX("
+                + partitionColumn + ") FROM " + TABLE_NAME)) {
+            resultSet.next();
+            min = resultSet.getLong(1);
+            max = resultSet.getLong(2);
+        }
+
+        int partitions = extractors;
+        long interval = (max - min) / partitions;
+        long remainder = (max - min) % partitions;
+        if (interval == 0) {
+            partitions = (int) Math.max(remainder, 1);
+        }
+
+        long[] counts = new long[partitions];
+        try (PreparedStatement count = connection.prepareStatement("SELECT COUNT(*) FROM " + TABLE_NAME
+                + " WHERE " + partitionColumn + " >= ? AND " + partitionColumn + " < ?");
+            PreparedStatement countLast = connection.prepareStatement("SELECT COUNT(*) FROM " + TABLE_NAME
+                + " WHERE " + partitionColumn + " >= ? AND " + partitionColumn + " <= ?")) {
+            long upper = min;
+            for (int i = 1; i <= partitions; i++) {
+                long lower = upper;
+                upper = i == partitions ? max : lower + interval + (i <= remainder ? 1 : 0);
+                PreparedStatement statement = i == partitions ? countLast : count;
+                statement.setLong(1, lower);
+                statement.setLong(2, upper);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    counts[i - 1] = resultSet.getLong(1);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the size of the largest partition, compared to the average
+     */
+    private static double getSkew(long[] partitions) {
+        long total = 0;
+        long largest = 0;
+        for (long partition : partitions) {
+            total += partition;
+            largest = Math.max(largest, partition);
+        }
+        return total == 0 ? 0 : largest * (double) partitions.length / total;
+    }
+
+    private static long countLines(File directory) throws IOException {
+        long lines = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                // Skip the checksums + the _SUCCESS marker
+                if (file.isFile() && !file.getName().startsWith(".") && !file.getName().startsWith("_")) {
+                    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                        while (reader.readLine() != null) {
+                            lines++;
+                        }
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static void writeResult(int extractors, int loaders, String partitionColumn, int fetchSize, long rows,
+                                    long rowsPerSecond, double speedup, double skew, boolean skewed)
+        throws IOException {
+        File file = new File(RESULTS_FILE);
+        boolean exists = file.exists();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (!exists) {
+                writer.println("extractors,loaders,partitionColumn,fetchSize,rows,rowsPerSecond,speedup,skew,skewed");
+            }
+            writer.println(String.format("%d,%d,%s,%d,%d,%d,%.2f,%.2f,%b", extractors, loaders, partitionColumn,
+                fetchSize, rows, rowsPerSecond, speedup, skew, skewed));
+        }
+    }
+
+}
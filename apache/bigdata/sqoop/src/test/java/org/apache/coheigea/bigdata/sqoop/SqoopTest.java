@@ -22,6 +22,7 @@ import static org.junit.Assert.assertFalse;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.sqoop.client.SqoopClient;
 import org.apache.sqoop.model.MJob;
 import org.apache.sqoop.model.MLink;
@@ -37,7 +38,11 @@ public class SqoopTest {
     @org.junit.BeforeClass
     public static void setup() throws Exception {
         tempDir = Files.createTempDirectory("sqoop");
-        jettySqoopRunner = new JettySqoopRunner(tempDir.toString(), "sqoopServer1", null, false);
+        // Let the local job runner run the extractors + loaders of a job in parallel
+        Configuration hadoopConfiguration = new Configuration();
+        hadoopConfiguration.setInt("mapreduce.local.map.tasks.maximum", 8);
+        hadoopConfiguration.setInt("mapreduce.local.reduce.tasks.maximum", 8);
+        jettySqoopRunner = new JettySqoopRunner(tempDir.toString(), "sqoopServer1", null, false, hadoopConfiguration);
         jettySqoopRunner.start();
     }
 
@@ -71,4 +76,15 @@ public class SqoopTest {
         jettySqoopRunner.saveJob(client, job1);
     }
 
+    /**
+     * Transfer a generated table from Derby to HDFS with an increasing number of extractors - see SqoopBenchmark
+     * for the settings.
+     */
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testTransferBenchmark() throws Exception {
+        SqoopClient client = jettySqoopRunner.getSqoopClient("admin");
+        SqoopBenchmark.run(jettySqoopRunner, client, tempDir.toString());
+    }
+
 }
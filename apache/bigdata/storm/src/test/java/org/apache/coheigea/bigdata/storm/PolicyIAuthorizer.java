@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.storm;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.storm.security.auth.IAuthorizer;
+import org.apache.storm.security.auth.ReqContext;
+
+/**
+ * An IAuthorizer that checks each operation against the ACLs of the policy file configured via
+ * "custom.storm.authorizer.policy.file", and of the configuration of the topology (see StormPolicyStore).
+ * The size of the decision cache can be set via "custom.storm.authorizer.cache.size".
+ */
+public class PolicyIAuthorizer implements IAuthorizer {
+
+    public static final String POLICY_FILE = "custom.storm.authorizer.policy.file";
+    public static final String CACHE_SIZE = "custom.storm.authorizer.cache.size";
+
+    private volatile StormPolicyStore store;
+
+    @Override
+    public void prepare(Map storm_conf) {
+        Object policyFile = storm_conf.get(POLICY_FILE);
+        if (policyFile == null) {
+            throw new IllegalStateException("No policy file is configured via " + POLICY_FILE);
+        }
+        try {
+            StormPolicyStore policyStore = StormPolicyStore.getStore(policyFile.toString());
+            Object cacheSize = storm_conf.get(CACHE_SIZE);
+            if (cacheSize != null) {
+                policyStore.setMaxCacheSize(Integer.parseInt(cacheSize.toString()));
+            }
+            store = policyStore;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Error loading the policies from " + policyFile, ex);
+        }
+    }
+
+    @Override
+    public boolean permit(ReqContext context, String operation, Map topology_conf) {
+        if (context.principal() == null) {
+            return false;
+        }
+        return store.isPermitted(context.principal().getName(), operation, topology_conf);
+    }
+
+}
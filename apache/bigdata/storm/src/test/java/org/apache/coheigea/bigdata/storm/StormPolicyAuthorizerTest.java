@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.storm;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.security.auth.Subject;
+
+import org.apache.storm.Config;
+import org.apache.storm.LocalCluster;
+import org.apache.storm.generated.StormTopology;
+import org.apache.storm.generated.TopologySummary;
+import org.apache.storm.security.auth.ReqContext;
+import org.apache.storm.topology.TopologyBuilder;
+import org.junit.Assert;
+
+/**
+ * Here we plug in the PolicyIAuthorizer, which checks operations against the ACLs in a policy file + the
+ * configuration of the topology. "alice" can do anything, "bob" can submit topologies (and so operate on his own
+ * topologies), and no-one else has any permissions in the policy file.
+ */
+public class StormPolicyAuthorizerTest {
+
+    private static final File policyFile = new File("./target/storm-policies.txt").getAbsoluteFile();
+    private static final String[] POLICIES = {"alice * *", "bob submitTopology,getClusterInfo *"};
+    private static LocalCluster cluster;
+
+    @org.junit.BeforeClass
+    public static void setup() throws Exception {
+        writePolicies(POLICIES);
+        System.setProperty("storm.conf.file", "storm_policyauth.yaml");
+        cluster = new LocalCluster();
+    }
+
+    @org.junit.AfterClass
+    public static void cleanup() throws Exception {
+        cluster.shutdown();
+        System.clearProperty("storm.conf.file");
+    }
+
+    @org.junit.Test
+    public void testCreateTopologyAlice() throws Exception {
+        final StormTopology topology = createTopology();
+        doAs("alice", new Callable<Void>() {
+            public Void call() throws Exception {
+                cluster.submitTopology("word-count", new Config(), topology);
+                cluster.killTopology("word-count");
+                return null;
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testCreateTopologyBob() throws Exception {
+        final StormTopology topology = createTopology();
+        // Bob can kill his own topology, as he submitted it
+        doAs("bob", new Callable<Void>() {
+            public Void call() throws Exception {
+                cluster.submitTopology("bob-word-count", new Config(), topology);
+                cluster.killTopology("bob-word-count");
+                return null;
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testCreateTopologyDave() throws Exception {
+        final StormTopology topology = createTopology();
+        doAs("dave", new Callable<Void>() {
+            public Void call() throws Exception {
+                try {
+                    cluster.submitTopology("dave-word-count", new Config(), topology);
+                    Assert.fail("Authorization failure expected");
+                } catch (Exception ex) {
+                    // expected
+                }
+                return null;
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testTopologyUsers() throws Exception {
+        final StormTopology topology = createTopology();
+        final Config conf = new Config();
+        conf.put(Config.TOPOLOGY_USERS, Collections.singletonList("carol"));
+
+        doAs("alice", new Callable<Void>() {
+            public Void call() throws Exception {
+                cluster.submitTopology("shared-word-count", conf, topology);
+                return null;
+            }
+        });
+
+        // Dave isn't one of the topology users
+        doAs("dave", new Callable<Void>() {
+            public Void call() throws Exception {
+                try {
+                    cluster.killTopology("shared-word-count");
+                    Assert.fail("Authorization failure expected");
+                } catch (Exception ex) {
+                    // expected
+                }
+                return null;
+            }
+        });
+
+        doAs("carol", new Callable<Void>() {
+            public Void call() throws Exception {
+                cluster.killTopology("shared-word-count");
+                return null;
+            }
+        });
+    }
+
+    @org.junit.Test
+    public void testCachedDecisions() throws Exception {
+        StormPolicyStore store = StormPolicyStore.getStore(policyFile.getPath());
+        PolicyIAuthorizer authorizer = createAuthorizer();
+        Map<String, Object> topologyConf = new HashMap<>();
+        topologyConf.put(Config.TOPOLOGY_NAME, "cached-topology");
+        topologyConf.put(Config.TOPOLOGY_USERS, Collections.singletonList("carol"));
+
+        ReqContext context = createContext("carol");
+        Assert.assertTrue(authorizer.permit(context, "getTopologyInfo", topologyConf));
+        long hits = store.getHits();
+        long misses = store.getMisses();
+        Assert.assertTrue(authorizer.permit(context, "getTopologyInfo", topologyConf));
+        Assert.assertEquals(hits + 1, store.getHits());
+        Assert.assertEquals(misses, store.getMisses());
+
+        // A change to the topology configuration invalidates the cached decision
+        topologyConf.put(Config.TOPOLOGY_USERS, Collections.singletonList("erin"));
+        Assert.assertFalse(authorizer.permit(context, "getTopologyInfo", topologyConf));
+        Assert.assertEquals(misses + 1, store.getMisses());
+    }
+
+    @org.junit.Test
+    public void testPolicyChange() throws Exception {
+        StormPolicyStore store = StormPolicyStore.getStore(policyFile.getPath());
+        PolicyIAuthorizer authorizer = createAuthorizer();
+        ReqContext context = createContext("dave");
+
+        store.setCheckIntervalMillis(0L);
+        long generation = store.getGeneration();
+        try {
+            Assert.assertFalse(authorizer.permit(context, "getClusterInfo", null));
+
+            writePolicies(POLICIES[0], POLICIES[1], "dave getClusterInfo *");
+            Assert.assertTrue(authorizer.permit(context, "getClusterInfo", null));
+            Assert.assertTrue(store.getGeneration() > generation);
+        } finally {
+            writePolicies(POLICIES);
+            authorizer.permit(context, "getClusterInfo", null);
+            store.setCheckIntervalMillis(1000L);
+        }
+    }
+
+    /**
+     * Submit a lot of topologies, and then poll the cluster + topology information for each of them (as the UI
+     * does) from a number of threads, with and without the cache of decisions.
+     */
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testLoad() throws Exception {
+        int topologies = Integer.getInteger("storm.benchmark.topologies", 50);
+        final int threads = Integer.getInteger("storm.benchmark.threads", 8);
+        final int iterations = Integer.getInteger("storm.benchmark.iterations", 20);
+
+        final StormTopology topology = createTopology();
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < topologies; i++) {
+            names.add("load-" + i);
+        }
+        doAs("alice", new Callable<Void>() {
+            public Void call() throws Exception {
+                for (String name : names) {
+                    cluster.submitTopology(name, new Config(), topology);
+                }
+                return null;
+            }
+        });
+
+        StormPolicyStore store = StormPolicyStore.getStore(policyFile.getPath());
+        try {
+            for (int cacheSize : new int[] {0, 10000}) {
+                store.setMaxCacheSize(cacheSize);
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                List<Future<Integer>> futures = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int t = 0; t < threads; t++) {
+                    futures.add(executor.submit(new Callable<Integer>() {
+                        public Integer call() throws Exception {
+                            return doAs("alice", new Callable<Integer>() {
+                                public Integer call() throws Exception {
+                                    int operations = 0;
+                                    for (int i = 0; i < iterations; i++) {
+                                        for (TopologySummary summary : cluster.getClusterInfo().get_topologies()) {
+                                            cluster.getTopologyInfo(summary.get_id());
+                                            operations++;
+                                        }
+                                        operations++;
+                                    }
+                                    return operations;
+                                }
+                            });
+                        }
+                    }));
+                }
+                int operations = 0;
+                for (Future<Integer> future : futures) {
+                    operations += future.get();
+                }
+                long elapsed = System.nanoTime() - start;
+                executor.shutdown();
+                System.out.println("Cache size " + cacheSize + ": " + operations * 1000000000L / elapsed
+                    + " operations/sec over " + topologies + " topologies");
+            }
+            System.out.println("Cache hits: " + store.getHits() + ", misses: " + store.getMisses());
+        } finally {
+            doAs("alice", new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (String name : names) {
+                        cluster.killTopology(name);
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static StormTopology createTopology() throws Exception {
+        final TopologyBuilder builder = new TopologyBuilder();
+        URI fileName = StormPolicyAuthorizerTest.class.getResource("../../../../../words.txt").toURI();
+        builder.setSpout("words", new WordSpout(fileName));
+        builder.setBolt("counter", new WordCounterBolt()).shuffleGrouping("words");
+        return builder.createTopology();
+    }
+
+    private static PolicyIAuthorizer createAuthorizer() {
+        Map<String, Object> stormConf = new HashMap<>();
+        stormConf.put(PolicyIAuthorizer.POLICY_FILE, policyFile.getPath());
+        PolicyIAuthorizer authorizer = new PolicyIAuthorizer();
+        authorizer.prepare(stormConf);
+        return authorizer;
+    }
+
+    private static ReqContext createContext(String user) {
+        Subject subject = new Subject();
+        subject.getPrincipals().add(new SimplePrincipal(user));
+        ReqContext context = ReqContext.context();
+        context.setSubject(subject);
+        return context;
+    }
+
+    /**
+     * The request context is cached per thread by Storm, so set the subject on it explicitly, as well as running
+     * the action as the subject.
+     */
+    private static <T> T doAs(String user, final Callable<T> action) throws Exception {
+        Subject subject = new Subject();
+        subject.getPrincipals().add(new SimplePrincipal(user));
+        ReqContext.context().setSubject(subject);
+        return Subject.doAs(subject, new PrivilegedExceptionAction<T>() {
+            public T run() throws Exception {
+                return action.call();
+            }
+        });
+    }
+
+    private static void writePolicies(String... policies) throws Exception {
+        long lastModified = policyFile.lastModified();
+        try (PrintWriter writer = new PrintWriter(policyFile, "UTF-8")) {
+            for (String policy : policies) {
+                writer.println(policy);
+            }
+        }
+        // Make sure that the change is noticed, even if the file system only has a resolution of seconds
+        if (lastModified != 0L) {
+            policyFile.setLastModified(Math.max(System.currentTimeMillis(), lastModified + 2000L));
+        }
+    }
+
+}
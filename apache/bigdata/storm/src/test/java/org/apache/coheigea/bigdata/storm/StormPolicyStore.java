@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.coheigea.bigdata.storm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.storm.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ACLs of the PolicyIAuthorizer. There are two sources of ACLs:
+ *
+ *  - A policy file, each line of which is of the form "<principal|*> <operation[,operation]|*> <topology|*>", e.g.
+ *    "bob submitTopology,getClusterInfo *". Operations that aren't on a topology (e.g. "getClusterInfo") are only
+ *    matched by the "*" topology.
+ *  - The configuration of each topology. The users in "topology.users", and the user who submitted the topology,
+ *    can perform any operation on it.
+ *
+ * Both are compiled into immutable objects, which are swapped atomically when the policy file or the topology
+ * configuration changes. Decisions are cached per (principal, operation, topology), together with the objects
+ * they were made against, so that a cached decision is ignored once either has been swapped. None of this blocks
+ * the threads that are checking permissions: a change to the policy file is picked up by the first thread that
+ * notices it (at most once every "checkIntervalMillis"), while the others keep using the current ACLs.
+ */
+public class StormPolicyStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StormPolicyStore.class);
+    private static final Map<String, StormPolicyStore> STORES = new ConcurrentHashMap<>();
+
+    private final File policyFile;
+    private final Map<String, TopologyAcl> topologyAcls = new ConcurrentHashMap<>();
+    private final Map<DecisionKey, Decision> cache = new ConcurrentHashMap<>();
+    private final AtomicLong lastChecked = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile Policies policies;
+    private volatile long failedLastModified;
+    private volatile long checkIntervalMillis = 1000L;
+    private volatile int maxCacheSize = 10000;
+
+    public StormPolicyStore(File policyFile) throws IOException {
+        this.policyFile = policyFile;
+        this.policies = load(1L);
+    }
+
+    /**
+     * @return the (shared) ACLs that are loaded from the given file
+     */
+    public static StormPolicyStore getStore(String policyFile) throws IOException {
+        String path = new File(policyFile).getAbsolutePath();
+        StormPolicyStore store = STORES.get(path);
+        if (store == null) {
+            synchronized (STORES) {
+                store = STORES.get(path);
+                if (store == null) {
+                    store = new StormPolicyStore(new File(path));
+                    STORES.put(path, store);
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return whether the principal can perform the operation, on the topology with the given configuration (which
+     * is null for operations that aren't on a topology)
+     */
+    public boolean isPermitted(String principal, String operation, Map<?, ?> topologyConf) {
+        Policies current = getPolicies();
+        String topology = topologyConf == null ? null : (String) topologyConf.get(Config.TOPOLOGY_NAME);
+        TopologyAcl acl = topology == null ? null : getTopologyAcl(topology, topologyConf);
+
+        DecisionKey key = null;
+        if (maxCacheSize > 0) {
+            key = new DecisionKey(principal, operation, topology);
+            Decision decision = cache.get(key);
+            if (decision != null && decision.policies == current && decision.acl == acl) {
+                hits.incrementAndGet();
+                return decision.permitted;
+            }
+        }
+        misses.incrementAndGet();
+
+        // The topology configuration can't be used to grant the permission to submit it
+        boolean permitted = current.permits(principal, operation, topology)
+            || acl != null && !"submitTopology".equals(operation) && acl.users.contains(principal);
+        if (key != null) {
+            if (cache.size() >= maxCacheSize) {
+                cache.clear();
+            }
+            cache.put(key, new Decision(current, acl, permitted));
+        }
+        return permitted;
+    }
+
+    private Policies getPolicies() {
+        long now = System.currentTimeMillis();
+        long checked = lastChecked.get();
+        // Only the thread that wins the race checks the file, the others carry on with the current policies
+        if (now - checked >= checkIntervalMillis && lastChecked.compareAndSet(checked, now)) {
+            Policies current = policies;
+            long lastModified = policyFile.lastModified();
+            if (lastModified != current.lastModified) {
+                try {
+                    policies = load(current.generation + 1);
+                    // Old decisions are ignored anyway, this just frees up the memory
+                    cache.clear();
+                } catch (IOException ex) {
+                    // Keep the current ACLs. A broken file is retried on every check, so only log it once
+                    if (lastModified != failedLastModified) {
+                        failedLastModified = lastModified;
+                        LOG.error("Error reading the Storm ACLs from {}, the current ACLs are still in use",
+                                  policyFile, ex);
+                    }
+                }
+            }
+        }
+        return policies;
+    }
+
+    private TopologyAcl getTopologyAcl(String topology, Map<?, ?> topologyConf) {
+        Object users = topologyConf.get(Config.TOPOLOGY_USERS);
+        Object submitterPrincipal = topologyConf.get(Config.TOPOLOGY_SUBMITTER_PRINCIPAL);
+        Object submitterUser = topologyConf.get(Config.TOPOLOGY_SUBMITTER_USER);
+
+        TopologyAcl acl = topologyAcls.get(topology);
+        if (acl == null || !acl.isCompiledFrom(users, submitterPrincipal, submitterUser)) {
+            acl = new TopologyAcl(users, submitterPrincipal, submitterUser);
+            topologyAcls.put(topology, acl);
+        }
+        return acl;
+    }
+
+    private Policies load(long generation) throws IOException {
+        long lastModified = policyFile.lastModified();
+        Map<String, Map<String, Set<String>>> topologies = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(policyFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\\s+");
+                if (tokens.length != 3) {
+                    throw new IOException("Invalid policy on line " + lineNumber + " of " + policyFile + ": " + line);
+                }
+                Map<String, Set<String>> operations = topologies.get(tokens[2]);
+                if (operations == null) {
+                    operations = new HashMap<>();
+                    topologies.put(tokens[2], operations);
+                }
+                for (String operation : tokens[1].split(",")) {
+                    Set<String> principals = operations.get(operation);
+                    if (principals == null) {
+                        principals = new HashSet<>();
+                        operations.put(operation, principals);
+                    }
+                    principals.add(tokens[0]);
+                }
+            }
+        }
+        return new Policies(generation, lastModified, topologies);
+    }
+
+    public long getGeneration() {
+        return policies.generation;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCheckIntervalMillis() {
+        return checkIntervalMillis;
+    }
+
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * The maximum number of cached decisions, 10000 by default. The cache is cleared when it is full. 0 disables
+     * the cache.
+     */
+    public void setMaxCacheSize(int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        cache.clear();
+    }
+
+    /**
+     * An immutable generation of the policy file, i.e. topology -> operation -> principals
+     */
+    private static final class Policies {
+        private final long generation;
+        private final long lastModified;
+        private final Map<String, Map<String, Set<String>>> topologies;
+
+        Policies(long generation, long lastModified, Map<String, Map<String, Set<String>>> topologies) {
+            this.generation = generation;
+            this.lastModified = lastModified;
+            this.topologies = topologies;
+        }
+
+        boolean permits(String principal, String operation, String topology) {
+            return topology != null && permits(topologies.get(topology), principal, operation)
+                || permits(topologies.get("*"), principal, operation);
+        }
+
+        private static boolean permits(Map<String, Set<String>> operations, String principal, String operation) {
+            return operations != null
+                && (contains(operations.get(operation), principal) || contains(operations.get("*"), principal));
+        }
+
+        private static boolean contains(Set<String> principals, String principal) {
+            return principals != null && (principals.contains(principal) || principals.contains("*"));
+        }
+    }
+
+    /**
+     * The users that the configuration of a topology allows to operate on it
+     */
+    private static final class TopologyAcl {
+        private final Object topologyUsers;
+        private final Object submitterPrincipal;
+        private final Object submitterUser;
+        private final Set<String> users;
+
+        TopologyAcl(Object topologyUsers, Object submitterPrincipal, Object submitterUser) {
+            this.topologyUsers = topologyUsers;
+            this.submitterPrincipal = submitterPrincipal;
+            this.submitterUser = submitterUser;
+
+            Set<String> users = new HashSet<>();
+            if (topologyUsers instanceof Iterable) {
+                for (Object user : (Iterable<?>) topologyUsers) {
+                    users.add(String.valueOf(user));
+                }
+            }
+            if (submitterPrincipal != null) {
+                users.add(submitterPrincipal.toString());
+            }
+            if (submitterUser != null) {
+                users.add(submitterUser.toString());
+            }
+            this.users = Collections.unmodifiableSet(users);
+        }
+
+        boolean isCompiledFrom(Object topologyUsers, Object submitterPrincipal, Object submitterUser) {
+            return equal(this.topologyUsers, topologyUsers) && equal(this.submitterPrincipal, submitterPrincipal)
+                && equal(this.submitterUser, submitterUser);
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static final class DecisionKey {
+        private final String principal;
+        private final String operation;
+        private final String topology;
+        private final int hash;
+
+        DecisionKey(String principal, String operation, String topology) {
+            this.principal = principal;
+            this.operation = operation;
+            this.topology = topology;
+            this.hash = (principal.hashCode() * 31 + operation.hashCode()) * 31
+                + (topology == null ? 0 : topology.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return hash == other.hash && principal.equals(other.principal) && operation.equals(other.operation)
+                && (topology == null ? other.topology == null : topology.equals(other.topology));
+        }
+    }
+
+    private static final class Decision {
+        private final Policies policies;
+        private final TopologyAcl acl;
+        private final boolean permitted;
+
+        Decision(Policies policies, TopologyAcl acl, boolean permitted) {
+            this.policies = policies;
+            this.acl = acl;
+            this.permitted = permitted;
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.hbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.spring.Main;
+import org.apache.camel.util.FileUtil;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Retrieve a large number of rows from HBase, using a route that splits a query file into groups of row keys
+ * and retrieves each group using multi-gets, in parallel. An (ignored) benchmark compares it with a route that
+ * issues one Get per row key.
+ */
+public class HBaseBatchTest extends org.junit.Assert {
+
+    private static final int ROWS = 20000;
+    // Every 10th key in the query file doesn't exist in the table
+    private static final int QUERIES = 10000;
+
+    private static HBaseTestingUtility utility;
+
+    @org.junit.BeforeClass
+    public static void setup() throws Exception {
+
+        utility = new HBaseTestingUtility();
+        int port = Integer.parseInt(System.getProperty("hbase.port"));
+        utility.getConfiguration().set("test.hbase.zookeeper.property.clientPort", "" + port);
+        utility.getConfiguration().set("hbase.master.port", "" + getFreePort());
+        utility.getConfiguration().set("hbase.master.info.port", "" + getFreePort());
+        utility.getConfiguration().set("hbase.regionserver.port", "" + getFreePort());
+        utility.getConfiguration().set("hbase.regionserver.info.port", "" + getFreePort());
+        utility.getConfiguration().set("zookeeper.znode.parent", "/hbase-unsecure");
+        utility.startMiniCluster();
+
+        final Configuration conf = HBaseConfiguration.create();
+        conf.set("hbase.zookeeper.quorum", "localhost");
+        conf.set("hbase.zookeeper.property.clientPort", "" + port);
+        conf.set("zookeeper.znode.parent", "/hbase-unsecure");
+
+        try (Connection conn = ConnectionFactory.createConnection(conf)) {
+            Admin admin = conn.getAdmin();
+
+            // Create a table that is pre-split into a few regions
+            HTableDescriptor tableDescriptor = new HTableDescriptor(TableName.valueOf("bulk"));
+            tableDescriptor.addFamily(new HColumnDescriptor("colfam1"));
+            byte[][] splitKeys = {Bytes.toBytes(rowKey(4000)), Bytes.toBytes(rowKey(8000)),
+                                  Bytes.toBytes(rowKey(12000)), Bytes.toBytes(rowKey(16000))};
+            admin.createTable(tableDescriptor, splitKeys);
+
+            // Load the rows in bulk
+            try (BufferedMutator mutator = conn.getBufferedMutator(TableName.valueOf("bulk"))) {
+                for (int i = 0; i < ROWS; i++) {
+                    Put put = new Put(Bytes.toBytes(rowKey(i)));
+                    put.addColumn(Bytes.toBytes("colfam1"), Bytes.toBytes("col1"), Bytes.toBytes("val" + i));
+                    mutator.mutate(put);
+                }
+            }
+        }
+    }
+
+    @org.junit.AfterClass
+    public static void cleanup() throws Exception {
+        utility.shutdownMiniCluster();
+    }
+
+    @org.junit.Test
+    public void testBatchedGets() throws Exception {
+        writeQueries(QUERIES);
+
+        Main main = new Main();
+        main.setApplicationContextUri("camel-hbase-batch.xml");
+        main.start();
+
+        try {
+            File results = new File("target/bulk-results/queries.txt.results");
+            long elapsed = run(main, "batched", results, QUERIES);
+            checkResults(results);
+            System.out.println("Batched multi-gets: " + (QUERIES * 1000L / Math.max(1L, elapsed)) + " rows/sec");
+        } finally {
+            main.stop();
+        }
+    }
+
+    // Compare the rows/sec for one Get per exchange with batched multi-gets
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testBenchmark() throws Exception {
+        int queries = 100000;
+        writeQueries(queries);
+
+        Main main = new Main();
+        main.setApplicationContextUri("camel-hbase-batch.xml");
+        main.start();
+
+        try {
+            File singleResults = new File("target/single-results/queries.txt.results");
+            long singleTime = run(main, "single", singleResults, queries);
+            System.out.println("Single gets: " + (queries * 1000L / Math.max(1L, singleTime)) + " rows/sec");
+
+            File batchedResults = new File("target/bulk-results/queries.txt.results");
+            long batchedTime = run(main, "batched", batchedResults, queries);
+            System.out.println("Batched multi-gets: " + (queries * 1000L / Math.max(1L, batchedTime))
+                + " rows/sec");
+        } finally {
+            main.stop();
+        }
+    }
+
+    /**
+     * Start the route and wait until all of the results have been written
+     * @return the time taken in ms
+     */
+    private static long run(Main main, String routeId, File results, int expected) throws Exception {
+        FileUtil.removeDir(results.getParentFile());
+
+        CamelContext camelContext = main.getCamelContexts().get(0);
+        long start = System.currentTimeMillis();
+        camelContext.getRouteController().startRoute(routeId);
+
+        long end = start + 10 * 60 * 1000L;
+        while (countLines(results) < expected && System.currentTimeMillis() < end) {
+            Thread.sleep(100L);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        camelContext.getRouteController().stopRoute(routeId);
+
+        assertEquals(expected, countLines(results));
+        return elapsed;
+    }
+
+    private static void checkResults(File results) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        for (String line : Files.readAllLines(results.toPath(), StandardCharsets.UTF_8)) {
+            int separator = line.indexOf(',');
+            assertNull(values.put(line.substring(0, separator), line.substring(separator + 1)));
+        }
+        assertEquals(QUERIES, values.size());
+
+        for (int i = 0; i < QUERIES; i++) {
+            if (i % 10 == 9) {
+                assertEquals("", values.get("missing" + i));
+            } else {
+                int row = i * (ROWS / QUERIES);
+                assertEquals("val" + row, values.get(rowKey(row)));
+            }
+        }
+    }
+
+    private static void writeQueries(int count) throws IOException {
+        File directory = new File("target/bulk-queries");
+        FileUtil.removeDir(directory);
+        directory.mkdirs();
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(i % 10 == 9 ? "missing" + i : rowKey((int) ((long) i * ROWS / count)));
+        }
+        Files.write(new File(directory, "queries.txt").toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String rowKey(int i) {
+        return "row" + String.format("%05d", i);
+    }
+
+    private static int countLines(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        return lines.size();
+    }
+
+    private static int getFreePort() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        serverSocket.close();
+        return port;
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A Camel processor that takes a batch of row keys (one per line) and retrieves the value of a single column for
+ * each of them using multi-gets, instead of one Get per exchange. The keys are grouped by the region server that
+ * hosts them, and the number of concurrent multi-gets to a single region server is limited, so that a number of
+ * exchanges processed in parallel don't all hit the same server at once.
+ *
+ * The output is one "key,value" line per row key, in the same order as the batch, with an empty value if the row
+ * does not exist. The Connection is shared by all of the exchanges (it is thread-safe), but a Table is created
+ * per exchange.
+ */
+public class HBaseMultiGetProcessor implements Processor {
+
+    private final ConcurrentMap<ServerName, Semaphore> serverPermits = new ConcurrentHashMap<>();
+    private Connection connection;
+    private TableName tableName;
+    private byte[] family;
+    private byte[] qualifier;
+    private int parallelismPerServer = 4;
+
+    public void start() throws IOException {
+        connection = ConnectionFactory.createConnection(HBaseConfiguration.create());
+    }
+
+    public void stop() throws IOException {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        String body = exchange.getIn().getMandatoryBody(String.class);
+        List<String> keys = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            String key = line.trim();
+            if (!key.isEmpty()) {
+                keys.add(key);
+            }
+        }
+
+        Map<String, byte[]> values = new LinkedHashMap<>();
+        try (Table table = connection.getTable(tableName);
+            RegionLocator regionLocator = connection.getRegionLocator(tableName)) {
+            for (Map.Entry<ServerName, List<Get>> entry : groupByServer(regionLocator, keys).entrySet()) {
+                Semaphore permits =
+                    serverPermits.computeIfAbsent(entry.getKey(), server -> new Semaphore(parallelismPerServer));
+                Result[] results;
+                permits.acquire();
+                try {
+                    results = table.get(entry.getValue());
+                } finally {
+                    permits.release();
+                }
+                for (int i = 0; i < results.length; i++) {
+                    values.put(Bytes.toString(entry.getValue().get(i).getRow()),
+                               results[i].getValue(family, qualifier));
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(keys.size() * 32);
+        for (String key : keys) {
+            byte[] value = values.get(key);
+            sb.append(key).append(',');
+            if (value != null) {
+                sb.append(Bytes.toString(value));
+            }
+            sb.append('\n');
+        }
+        exchange.getIn().setBody(sb.toString());
+        exchange.getIn().setHeader("CamelHBaseRows", keys.size());
+    }
+
+    /**
+     * The region locations are cached by the Connection, so this doesn't normally go to the server.
+     */
+    private Map<ServerName, List<Get>> groupByServer(RegionLocator regionLocator, List<String> keys)
+        throws IOException {
+        Map<ServerName, List<Get>> gets = new LinkedHashMap<>();
+        for (String key : keys) {
+            byte[] row = Bytes.toBytes(key);
+            ServerName server = regionLocator.getRegionLocation(row).getServerName();
+            Get get = new Get(row);
+            get.addColumn(family, qualifier);
+            gets.computeIfAbsent(server, s -> new ArrayList<>()).add(get);
+        }
+        return gets;
+    }
+
+    public String getTableName() {
+        return tableName.getNameAsString();
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = TableName.valueOf(tableName);
+    }
+
+    public String getFamily() {
+        return Bytes.toString(family);
+    }
+
+    public void setFamily(String family) {
+        this.family = Bytes.toBytes(family);
+    }
+
+    public String getQualifier() {
+        return Bytes.toString(qualifier);
+    }
+
+    public void setQualifier(String qualifier) {
+        this.qualifier = Bytes.toBytes(qualifier);
+    }
+
+    public int getParallelismPerServer() {
+        return parallelismPerServer;
+    }
+
+    /**
+     * The maximum number of concurrent multi-gets to a single region server, 4 by default
+     */
+    public void setParallelismPerServer(int parallelismPerServer) {
+        this.parallelismPerServer = parallelismPerServer;
+    }
+
+}
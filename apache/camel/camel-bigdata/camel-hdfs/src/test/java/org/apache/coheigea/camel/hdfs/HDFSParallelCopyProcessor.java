@@ -0,0 +1,365 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.hdfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Camel processor that copies all of the files in an HDFS directory (given in the message body) to a local
+ * directory. Each file is split into ranges (by default one per HDFS block), and the ranges of all of the files
+ * are copied concurrently, each with its own input stream and a positional write to the local file. A file is
+ * written to a hidden temporary file, and is only moved to its final name once all of its ranges are copied. If
+ * a range fails, the other ranges are cancelled and the temporary files are deleted.
+ *
+ * By default the data is moved into the local file with FileChannel.transferFrom. With "zeroCopy" the HDFS
+ * enhanced byte buffer read is used instead, which can memory-map the block when the data is read using
+ * short-circuit local reads. Short-circuit reads need the native Hadoop library and a domain socket path - the
+ * client falls back to reads over TCP if they are not available. HDFS only memory-maps a block if the checksums
+ * are skipped (or the block is cached by the datanode), so the zero-copy reads don't verify the checksums. The
+ * number of bytes that were actually read via a memory-mapped block is available from getZeroCopyBytes().
+ */
+public class HDFSParallelCopyProcessor implements Processor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HDFSParallelCopyProcessor.class);
+
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong copiedFiles = new AtomicLong();
+    private final AtomicLong zeroCopyBytes = new AtomicLong();
+    private final AtomicLong copyTimeMillis = new AtomicLong();
+    private final ByteBufferPool bufferPool = new ElasticByteBufferPool();
+    private ExecutorService executorService;
+    private FileSystem fileSystem;
+
+    private String fileSystemUri;
+    private String targetDirectory = "target/results";
+    private long rangeSize;
+    private int bufferSize = 8 * 1024 * 1024;
+    private int parallelism = 8;
+    private boolean zeroCopy;
+    private boolean shortCircuit;
+    private String domainSocketPath;
+
+    public void start() throws IOException {
+        Configuration conf = new Configuration();
+        if (shortCircuit) {
+            conf.setBoolean("dfs.client.read.shortcircuit", true);
+            if (domainSocketPath != null) {
+                conf.set("dfs.domain.socket.path", domainSocketPath);
+            }
+        }
+        fileSystem = FileSystem.newInstance(URI.create(fileSystemUri), conf);
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "HDFSParallelCopy-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void stop() throws IOException {
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+        if (fileSystem != null) {
+            fileSystem.close();
+            fileSystem = null;
+        }
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        Path sourceDirectory = new Path(exchange.getIn().getMandatoryBody(String.class).trim());
+        File dir = new File(targetDirectory);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create the directory " + dir);
+        }
+
+        long start = System.currentTimeMillis();
+        long totalBytes = 0;
+        // The bytes copied by this call, as copiedBytes is the total of all of the calls
+        AtomicLong progress = new AtomicLong();
+
+        // Submit the ranges of all of the files first, so that several files are copied at the same time
+        Map<FileStatus, List<Future<?>>> files = new LinkedHashMap<>();
+        boolean completed = false;
+        try {
+            for (FileStatus status : fileSystem.listStatus(sourceDirectory)) {
+                if (!status.isFile()) {
+                    continue;
+                }
+                List<Future<?>> ranges = new ArrayList<>();
+                files.put(status, ranges);
+                File tmpFile = getTmpFile(dir, status);
+                try (RandomAccessFile file = new RandomAccessFile(tmpFile, "rw")) {
+                    file.setLength(status.getLen());
+                }
+
+                long size = rangeSize > 0 ? rangeSize : status.getBlockSize();
+                for (long offset = 0; offset < status.getLen(); offset += size) {
+                    long position = offset;
+                    long length = Math.min(size, status.getLen() - offset);
+                    ranges.add(executorService.submit(() -> {
+                        copyRange(status.getPath(), tmpFile, position, length, progress);
+                        return null;
+                    }));
+                }
+                totalBytes += status.getLen();
+            }
+
+            for (Map.Entry<FileStatus, List<Future<?>>> entry : files.entrySet()) {
+                for (Future<?> range : entry.getValue()) {
+                    try {
+                        range.get();
+                    } catch (ExecutionException ex) {
+                        throw new IOException("Error copying " + entry.getKey().getPath(), ex.getCause());
+                    }
+                }
+                String name = entry.getKey().getPath().getName();
+                Files.move(getTmpFile(dir, entry.getKey()).toPath(), new File(dir, name).toPath(),
+                           StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                copiedFiles.incrementAndGet();
+                LOG.info("Copied {} ({} of {} MB copied)", entry.getKey().getPath(),
+                         progress.get() / (1024 * 1024), totalBytes / (1024 * 1024));
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                abort(dir, files);
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        copyTimeMillis.addAndGet(elapsed);
+        LOG.info("Copied {} files ({} MB) from {} in {} ms, {} MB/s", files.size(), totalBytes / (1024 * 1024),
+                 sourceDirectory, elapsed, totalBytes * 1000L / (1024 * 1024) / Math.max(1L, elapsed));
+
+        exchange.getIn().setHeader("CamelHdfsCopiedFiles", files.size());
+        exchange.getIn().setHeader("CamelHdfsCopiedBytes", totalBytes);
+    }
+
+    /**
+     * Cancel the ranges that are still being copied, and delete the temporary files of the files that weren't
+     * moved to their final name.
+     */
+    private static void abort(File dir, Map<FileStatus, List<Future<?>>> files) {
+        for (List<Future<?>> ranges : files.values()) {
+            for (Future<?> range : ranges) {
+                range.cancel(true);
+            }
+        }
+        for (FileStatus status : files.keySet()) {
+            File tmpFile = getTmpFile(dir, status);
+            try {
+                Files.deleteIfExists(tmpFile.toPath());
+            } catch (IOException ex) {
+                LOG.warn("Can't delete {}", tmpFile, ex);
+            }
+        }
+    }
+
+    private static File getTmpFile(File dir, FileStatus status) {
+        return new File(dir, "." + status.getPath().getName() + ".inprogress");
+    }
+
+    private void copyRange(Path source, File target, long position, long length, AtomicLong progress)
+        throws IOException {
+        try (FSDataInputStream inputStream = fileSystem.open(source, bufferSize);
+            FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.WRITE)) {
+            inputStream.seek(position);
+            long copied = 0;
+            if (zeroCopy) {
+                // HDFS never memory-maps a block that has to be checksummed
+                EnumSet<ReadOption> readOptions = EnumSet.of(ReadOption.SKIP_CHECKSUMS);
+                while (copied < length) {
+                    int max = (int) Math.min(bufferSize, length - copied);
+                    ByteBuffer buffer = inputStream.read(bufferPool, max, readOptions);
+                    if (buffer == null) {
+                        break;
+                    }
+                    int count = buffer.remaining();
+                    try {
+                        while (buffer.hasRemaining()) {
+                            copied += channel.write(buffer, position + copied);
+                        }
+                    } finally {
+                        inputStream.releaseBuffer(buffer);
+                    }
+                    copiedBytes.addAndGet(count);
+                    progress.addAndGet(count);
+                }
+                if (inputStream instanceof HdfsDataInputStream) {
+                    zeroCopyBytes.addAndGet(
+                        ((HdfsDataInputStream) inputStream).getReadStatistics().getTotalZeroCopyBytesRead());
+                }
+            } else {
+                // Don't close the channel, as it would close the input stream
+                ReadableByteChannel source = Channels.newChannel(inputStream);
+                while (copied < length) {
+                    long count = channel.transferFrom(source, position + copied,
+                                                      Math.min(bufferSize, length - copied));
+                    if (count <= 0) {
+                        break;
+                    }
+                    copied += count;
+                    copiedBytes.addAndGet(count);
+                    progress.addAndGet(count);
+                }
+            }
+            if (copied != length) {
+                throw new IOException("Expected " + length + " bytes at offset " + position + " of " + source
+                    + ", but only read " + copied);
+            }
+        }
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    public long getCopiedFiles() {
+        return copiedFiles.get();
+    }
+
+    /**
+     * The number of bytes that were read via a memory-mapped block, rather than being copied by the client
+     */
+    public long getZeroCopyBytes() {
+        return zeroCopyBytes.get();
+    }
+
+    /**
+     * The throughput of all of the copies so far, in MB/s
+     */
+    public long getThroughput() {
+        return copiedBytes.get() * 1000L / (1024 * 1024) / Math.max(1L, copyTimeMillis.get());
+    }
+
+    public String getFileSystemUri() {
+        return fileSystemUri;
+    }
+
+    /**
+     * The URI of the HDFS file system, e.g. "hdfs://localhost:8020"
+     */
+    public void setFileSystemUri(String fileSystemUri) {
+        this.fileSystemUri = fileSystemUri;
+    }
+
+    public String getTargetDirectory() {
+        return targetDirectory;
+    }
+
+    public void setTargetDirectory(String targetDirectory) {
+        this.targetDirectory = targetDirectory;
+    }
+
+    public long getRangeSize() {
+        return rangeSize;
+    }
+
+    /**
+     * The size of the range of a file that is copied by a single task. The default (0) is the block size of the file.
+     */
+    public void setRangeSize(long rangeSize) {
+        this.rangeSize = rangeSize;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * The maximum number of bytes that are read in one go, 8MB by default
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * The number of ranges that are copied at the same time, 8 by default
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isZeroCopy() {
+        return zeroCopy;
+    }
+
+    public void setZeroCopy(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+
+    public boolean isShortCircuit() {
+        return shortCircuit;
+    }
+
+    public void setShortCircuit(boolean shortCircuit) {
+        this.shortCircuit = shortCircuit;
+    }
+
+    public String getDomainSocketPath() {
+        return domainSocketPath;
+    }
+
+    public void setDomainSocketPath(String domainSocketPath) {
+        this.domainSocketPath = domainSocketPath;
+    }
+
+}
@@ -19,7 +19,16 @@
 package org.apache.coheigea.camel.hdfs;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
 
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
 import org.apache.camel.spring.Main;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -27,6 +36,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.net.unix.DomainSocket;
 
 public class HDFSTest extends org.junit.Assert {
     
@@ -81,5 +91,214 @@ public class HDFSTest extends org.junit.Assert {
         main.stop();
     }
     
+    @org.junit.Test
+    public void testParallelCopy() throws Exception {
+        // 3 files of 8MB, with a block size of 1MB
+        long fileSize = 8L * 1024 * 1024;
+        writeFiles(hdfsCluster.getFileSystem(), 3, fileSize, 1024 * 1024);
+        
+        File results = new File("target/parallel-results");
+        FileUtil.fullyDelete(results);
+        
+        Main main = new Main();
+        main.setApplicationContextUri("camel-hdfs-parallel.xml");
+        main.start();
+        
+        try {
+            HDFSParallelCopyProcessor processor = 
+                main.getApplicationContext().getBean("parallelCopy", HDFSParallelCopyProcessor.class);
+            run(main, "parallel", () -> processor.getCopiedFiles() == 3);
+            
+            for (int i = 0; i < 3; i++) {
+                File file = new File(results, "file" + i + ".dat");
+                assertEquals(fileSize, file.length());
+                checkContent(file, i);
+            }
+            System.out.println("Parallel copy: " + processor.getThroughput() + " MB/s");
+        } finally {
+            main.stop();
+        }
+    }
+    
+    // If a file can't be copied, none of the temporary files should be left behind
+    @org.junit.Test
+    public void testParallelCopyFailure() throws Exception {
+        writeFiles(hdfsCluster.getFileSystem(), 3, 4L * 1024 * 1024, 1024 * 1024);
+        
+        File results = new File("target/failed-results");
+        FileUtil.fullyDelete(results);
+        // The temporary file of the last file can't be created, as there's a directory in the way
+        assertTrue(new File(results, ".file2.dat.inprogress").mkdirs());
+        
+        HDFSParallelCopyProcessor processor = new HDFSParallelCopyProcessor();
+        processor.setFileSystemUri(defaultFs);
+        processor.setTargetDirectory(results.getPath());
+        processor.start();
+        try {
+            Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+            exchange.getIn().setBody("/tmp/bigdir");
+            try {
+                processor.process(exchange);
+                fail("Failure expected on a temporary file that can't be created");
+            } catch (IOException ex) {
+                // expected
+            }
+            
+            String[] remaining = results.list((dir, name) -> name.endsWith(".inprogress"));
+            assertEquals(0, remaining.length);
+        } finally {
+            processor.stop();
+        }
+    }
+    
+    // Compare the parallel copy with the hdfs2 consumer, using GB-scale files
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testCopyBenchmark() throws Exception {
+        int files = 4;
+        long fileSize = 1024L * 1024 * 1024;
+        writeFiles(hdfsCluster.getFileSystem(), files, fileSize, 128L * 1024 * 1024);
+        
+        FileUtil.fullyDelete(new File("target/parallel-results"));
+        File defaultResults = new File("target/default-results");
+        FileUtil.fullyDelete(defaultResults);
+        
+        Main main = new Main();
+        main.setApplicationContextUri("camel-hdfs-parallel.xml");
+        main.start();
+        
+        long totalMB = files * fileSize / (1024 * 1024);
+        try {
+            // The hdfs2 consumer renames the files once it has read them, so run the parallel copy first
+            HDFSParallelCopyProcessor processor = 
+                main.getApplicationContext().getBean("parallelCopy", HDFSParallelCopyProcessor.class);
+            long parallelTime = run(main, "parallel", () -> processor.getCopiedFiles() == files);
+            System.out.println("Parallel copy: " + (totalMB * 1000L / Math.max(1L, parallelTime)) + " MB/s");
+            
+            long defaultTime = run(main, "default", () -> {
+                long size = 0;
+                File[] copied = defaultResults.listFiles();
+                if (copied != null) {
+                    for (File file : copied) {
+                        size += file.length();
+                    }
+                }
+                return size == files * fileSize;
+            });
+            System.out.println("hdfs2 consumer: " + (totalMB * 1000L / Math.max(1L, defaultTime)) + " MB/s");
+        } finally {
+            main.stop();
+        }
+    }
+    
+    // Copy the files with memory-mapped short-circuit reads. This needs the native Hadoop library.
+    @org.junit.Test
+    public void testZeroCopy() throws Exception {
+        org.junit.Assume.assumeTrue(DomainSocket.getLoadingFailureReason() == null);
+        DomainSocket.disableBindPathValidation();
+        
+        // The path of a domain socket can't be very long, so it isn't under "target"
+        File socketDir = Files.createTempDirectory("hdfs-sockets").toFile();
+        Configuration conf = new Configuration();
+        conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, new File(baseDir, "zerocopy").getAbsolutePath());
+        conf.setBoolean("dfs.client.read.shortcircuit", true);
+        conf.set("dfs.domain.socket.path", new File(socketDir, "dn._PORT").getAbsolutePath());
+        MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+        
+        HDFSParallelCopyProcessor processor = new HDFSParallelCopyProcessor();
+        try {
+            long fileSize = 4L * 1024 * 1024;
+            writeFiles(cluster.getFileSystem(), 2, fileSize, 1024 * 1024);
+            
+            File results = new File("target/zerocopy-results");
+            FileUtil.fullyDelete(results);
+            
+            processor.setFileSystemUri(cluster.getFileSystem().getUri().toString());
+            processor.setTargetDirectory(results.getPath());
+            processor.setShortCircuit(true);
+            processor.setDomainSocketPath(conf.get("dfs.domain.socket.path"));
+            processor.setZeroCopy(true);
+            processor.start();
+            
+            CamelContext camelContext = new DefaultCamelContext();
+            Exchange exchange = new DefaultExchange(camelContext);
+            exchange.getIn().setBody("/tmp/bigdir");
+            processor.process(exchange);
+            
+            for (int i = 0; i < 2; i++) {
+                File file = new File(results, "file" + i + ".dat");
+                assertEquals(fileSize, file.length());
+                checkContent(file, i);
+            }
+            // All of the data was read from the memory-mapped blocks
+            assertEquals(2 * fileSize, processor.getZeroCopyBytes());
+        } finally {
+            processor.stop();
+            cluster.shutdown();
+            FileUtil.fullyDelete(socketDir);
+        }
+    }
+    
+    /**
+     * Start the route and wait until it's done
+     * @return the time taken in ms
+     */
+    private static long run(Main main, String routeId, Done done) throws Exception {
+        CamelContext camelContext = main.getCamelContexts().get(0);
+        long start = System.currentTimeMillis();
+        camelContext.getRouteController().startRoute(routeId);
+        
+        long end = start + 30 * 60 * 1000L;
+        while (!done.get() && System.currentTimeMillis() < end) {
+            Thread.sleep(100L);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        camelContext.getRouteController().stopRoute(routeId);
+        
+        assertTrue(done.get());
+        return elapsed;
+    }
+    
+    private static void writeFiles(FileSystem fileSystem, int count, long size, long blockSize) throws Exception {
+        Path dir = new Path("/tmp/bigdir");
+        fileSystem.delete(dir, true);
+        
+        byte[] buffer = new byte[1024 * 1024];
+        for (int i = 0; i < count; i++) {
+            Random random = new Random(i);
+            try (FSDataOutputStream out = 
+                fileSystem.create(new Path(dir, "file" + i + ".dat"), true, 64 * 1024, (short) 1, blockSize)) {
+                for (long written = 0; written < size; written += buffer.length) {
+                    random.nextBytes(buffer);
+                    out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+                }
+            }
+        }
+    }
+    
+    private static void checkContent(File file, int seed) throws Exception {
+        Random random = new Random(seed);
+        byte[] expected = new byte[1024 * 1024];
+        byte[] actual = new byte[expected.length];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            long remaining = file.length();
+            while (remaining > 0) {
+                random.nextBytes(expected);
+                int length = (int) Math.min(expected.length, remaining);
+                int read = 0;
+                while (read < length) {
+                    read += inputStream.read(actual, read, length - read);
+                }
+                for (int i = 0; i < length; i++) {
+                    assertEquals(expected[i], actual[i]);
+                }
+                remaining -= length;
+            }
+        }
+    }
+    
+    private interface Done {
+        boolean get();
+    }
 
 }
@@ -18,13 +18,20 @@
  */
 package org.apache.coheigea.camel.hive;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.camel.spring.Main;
 import org.apache.hadoop.fs.FileUtil;
@@ -102,4 +109,124 @@ public class HIVETest extends org.junit.Assert {
         main.stop();
     }
     
+    @org.junit.Test
+    public void testStreamingExport() throws Exception {
+        FileUtil.fullyDelete(new File("target/export-results"));
+        writeQuery("csv", "words", "select * from words");
+        writeQuery("jsonl", "words", "select * from words");
+        
+        // The data file was moved into the warehouse by "LOAD DATA", so count the rows of the table
+        long rows;
+        try (Connection connection = DriverManager.getConnection("jdbc:hive2://localhost:10000/default", "admin", "admin");
+            Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery("select count(*) from words")) {
+            resultSet.next();
+            rows = resultSet.getLong(1);
+        }
+        
+        // Start up the Camel route
+        Main main = new Main();
+        main.setApplicationContextUri("camel-hive-export.xml");
+        
+        main.start();
+        
+        try {
+            // The CSV file has a header line
+            assertEquals(rows + 1, waitForLines(new File("target/export-results/words.csv"), rows + 1));
+            assertEquals(rows, waitForLines(new File("target/export-results/words.jsonl"), rows));
+        } finally {
+            main.stop();
+        }
+    }
+    
+    // Export a table with millions of rows, and check that the heap use doesn't depend on the size of the result
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testLargeExport() throws Exception {
+        int rows = 5000000;
+        
+        // Create a large table
+        Path dataPath = Paths.get("target/bigwords.txt").toAbsolutePath();
+        try (BufferedWriter writer = Files.newBufferedWriter(dataPath, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                writer.write("word" + i + "\t" + (i % 1000) + "\n");
+            }
+        }
+        
+        Connection connection = DriverManager.getConnection("jdbc:hive2://localhost:10000/default", "admin", "admin");
+        Statement statement = connection.createStatement();
+        statement.execute("create table bigwords (word STRING, count INT) row format delimited fields terminated by '\t' stored as textfile");
+        statement.execute("LOAD DATA INPATH '" + dataPath + "' OVERWRITE INTO TABLE bigwords");
+        statement.close();
+        connection.close();
+        
+        FileUtil.fullyDelete(new File("target/export-results"));
+        writeQuery("csv", "bigwords", "select * from bigwords");
+        FileUtil.fullyDelete(new File("target/export-queries/jsonl"));
+        
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long baseline = memoryBean.getHeapMemoryUsage().getUsed();
+        AtomicLong peak = new AtomicLong(baseline);
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peak.accumulateAndGet(memoryBean.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(50L);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        });
+        sampler.setDaemon(true);
+        sampler.start();
+        
+        Main main = new Main();
+        main.setApplicationContextUri("camel-hive-export.xml");
+        long start = System.currentTimeMillis();
+        main.start();
+        
+        try {
+            assertEquals(rows + 1, waitForLines(new File("target/export-results/bigwords.csv"), rows + 1));
+            long elapsed = System.currentTimeMillis() - start;
+            sampler.interrupt();
+            
+            long heapGrowthMB = (peak.get() - baseline) / (1024L * 1024L);
+            System.out.println("Exported " + rows + " rows in " + elapsed + " ms (" 
+                + (rows * 1000L / Math.max(1L, elapsed)) + " rows/sec), peak heap growth " + heapGrowthMB + " MB");
+            // The String body of camel-hive.xml would need several times the size of the table
+            assertTrue(heapGrowthMB < 256L);
+        } finally {
+            sampler.interrupt();
+            main.stop();
+        }
+    }
+    
+    private static void writeQuery(String format, String name, String query) throws Exception {
+        File directory = new File("target/export-queries/" + format);
+        FileUtil.fullyDelete(directory);
+        directory.mkdirs();
+        Files.write(new File(directory, name + ".sql").toPath(), query.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Wait until the file has the expected number of lines (or a timeout)
+     */
+    private static long waitForLines(File file, long expected) throws Exception {
+        long lines = 0;
+        long end = System.currentTimeMillis() + 10 * 60 * 1000L;
+        while (System.currentTimeMillis() < end) {
+            if (file.exists()) {
+                try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    lines = reader.lines().count();
+                }
+                if (lines >= expected) {
+                    break;
+                }
+            }
+            Thread.sleep(500L);
+        }
+        return lines;
+    }
+    
 }
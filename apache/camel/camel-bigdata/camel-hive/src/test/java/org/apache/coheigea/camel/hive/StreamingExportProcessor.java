@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.hive;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+
+/**
+ * A Camel processor that turns the result of a "jdbc" endpoint with "outputType=StreamList" into an InputStream,
+ * which renders the rows as CSV or JSON Lines as it is read. The rows are pulled from the ResultSet iterator
+ * on demand, so a file producer writes the result straight to disk, and only the current row is ever held in
+ * memory (plus whatever the JDBC driver fetches, which is controlled by "statement.fetchSize").
+ */
+public class StreamingExportProcessor implements Processor {
+
+    public enum Format {
+        CSV,
+        JSONL
+    }
+
+    private Format format = Format.CSV;
+
+    @SuppressWarnings("unchecked")
+    public void process(Exchange exchange) throws Exception {
+        Iterator<Map<String, Object>> rows = exchange.getIn().getMandatoryBody(Iterator.class);
+        exchange.getIn().setBody(new RowInputStream(rows, format));
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Renders one row at a time into a buffer
+     */
+    private static final class RowInputStream extends InputStream {
+        private final Iterator<Map<String, Object>> rows;
+        private final Format format;
+        private final StringBuilder sb = new StringBuilder(256);
+        private byte[] buffer = new byte[0];
+        private int position;
+        private boolean headerWritten;
+
+        RowInputStream(Iterator<Map<String, Object>> rows, Format format) {
+            this.rows = rows;
+            this.format = format;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int total = 0;
+            while (total < len && fill()) {
+                int count = Math.min(len - total, buffer.length - position);
+                System.arraycopy(buffer, position, b, off + total, count);
+                position += count;
+                total += count;
+            }
+            return total == 0 ? -1 : total;
+        }
+
+        /**
+         * @return false if there are no more rows
+         */
+        private boolean fill() {
+            if (position < buffer.length) {
+                return true;
+            }
+            if (!rows.hasNext()) {
+                return false;
+            }
+
+            Map<String, Object> row = rows.next();
+            sb.setLength(0);
+            if (format == Format.CSV) {
+                if (!headerWritten) {
+                    appendCsvRow(row.keySet());
+                    headerWritten = true;
+                }
+                appendCsvRow(row.values());
+            } else {
+                appendJsonRow(row);
+            }
+            buffer = sb.toString().getBytes(StandardCharsets.UTF_8);
+            position = 0;
+            return true;
+        }
+
+        private void appendCsvRow(Iterable<?> values) {
+            boolean first = true;
+            for (Object value : values) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                if (value == null) {
+                    continue;
+                }
+                String s = value.toString();
+                if (s.indexOf(',') >= 0 || s.indexOf('"') >= 0 || s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0) {
+                    sb.append('"').append(s.replace("\"", "\"\"")).append('"');
+                } else {
+                    sb.append(s);
+                }
+            }
+            sb.append('\n');
+        }
+
+        private void appendJsonRow(Map<String, Object> row) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : row.entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                appendJsonString(entry.getKey());
+                sb.append(':');
+                Object value = entry.getValue();
+                if (value == null) {
+                    sb.append("null");
+                } else if (value instanceof Number || value instanceof Boolean) {
+                    sb.append(value);
+                } else {
+                    appendJsonString(value.toString());
+                }
+            }
+            sb.append("}\n");
+        }
+
+        private void appendJsonString(String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+            sb.append('"');
+        }
+    }
+
+}
@@ -0,0 +1,311 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.component.kafka.DefaultKafkaManualCommit;
+import org.apache.camel.component.kafka.KafkaConfiguration;
+import org.apache.camel.component.kafka.KafkaConstants;
+import org.apache.camel.component.kafka.KafkaEndpoint;
+import org.apache.camel.component.kafka.KafkaManualCommit;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Camel processor that appends Kafka records to a batch, and writes the batch to a single file once it holds
+ * a number of records or bytes, or once the oldest record in it is older than a given time. The file is forced
+ * to disk, and only then are the offsets of the records in the batch committed, so a record is never lost if
+ * the route fails (but it can be delivered again).
+ *
+ * The Kafka consumer must be configured with "autoCommitEnable=false&allowManualCommit=true". A KafkaConsumer
+ * can only be used by the thread that polls it, so each consumer thread has its own batch, and the offsets are
+ * always committed on the consumer thread. Camel doesn't call the processor when a poll returns no records, so
+ * at the last record of a poll the consumer checks whether it has caught up with the end of its partitions. If
+ * it has, it waits until the batch is old enough, and then writes the batch and commits the offsets, rather
+ * than leaving the tail of a burst in memory until the next record arrives. This can delay the records of the
+ * other partitions of the same poll by up to the maximum age of a batch.
+ *
+ * On stop, after the route has stopped, the remaining batches are written, and their offsets are committed with
+ * a separate KafkaConsumer in the same consumer group.
+ */
+public class BatchingFileProcessor implements Processor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingFileProcessor.class);
+
+    private final Set<Batch> allBatches = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Batch> batches = ThreadLocal.withInitial(() -> {
+        Batch batch = new Batch();
+        allBatches.add(batch);
+        return batch;
+    });
+    private final AtomicLong fileCounter = new AtomicLong();
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong writtenFiles = new AtomicLong();
+    private volatile String brokers;
+    private volatile String groupId;
+
+    private String directory = "target/batch-results";
+    private int maxRecords = 1000;
+    private long maxBytes = 4 * 1024 * 1024;
+    private long maxAgeMillis = 1000L;
+    private boolean compress;
+
+    /**
+     * Write the batches that are still in memory, and commit their offsets. The route must be stopped first,
+     * as the offsets are committed with a separate KafkaConsumer, which the group only accepts once it's empty.
+     */
+    public void stop() {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (Batch batch : allBatches) {
+            synchronized (batch) {
+                if (batch.records > 0) {
+                    try {
+                        write(batch);
+                    } catch (IOException ex) {
+                        LOG.warn("Error writing a batch of records", ex);
+                        continue;
+                    }
+                }
+                offsets.putAll(batch.pendingOffsets);
+                batch.pendingOffsets.clear();
+            }
+        }
+        if (!offsets.isEmpty()) {
+            Properties props = new Properties();
+            props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, brokers);
+            props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+            props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+            try (KafkaConsumer<byte[], byte[]> consumer =
+                new KafkaConsumer<>(props, new ByteArrayDeserializer(), new ByteArrayDeserializer())) {
+                consumer.commitSync(offsets);
+            } catch (RuntimeException ex) {
+                // e.g. other members of the group are still running. The records will be delivered again
+                LOG.warn("Error committing the offsets of the remaining batches", ex);
+            }
+        }
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        String topic = exchange.getIn().getHeader(KafkaConstants.TOPIC, String.class);
+        Integer partition = exchange.getIn().getHeader(KafkaConstants.PARTITION, Integer.class);
+        Long offset = exchange.getIn().getHeader(KafkaConstants.OFFSET, Long.class);
+        KafkaManualCommit manualCommit =
+            exchange.getIn().getHeader(KafkaConstants.MANUAL_COMMIT, KafkaManualCommit.class);
+        if (manualCommit == null) {
+            throw new IllegalStateException("The Kafka consumer must be configured with allowManualCommit=true");
+        }
+        if (groupId == null) {
+            KafkaConfiguration configuration = ((KafkaEndpoint) exchange.getFromEndpoint()).getConfiguration();
+            brokers = configuration.getBrokers();
+            groupId = configuration.getGroupId();
+        }
+        byte[] value = exchange.getIn().getMandatoryBody(byte[].class);
+        boolean lastRecord =
+            exchange.getIn().getHeader(KafkaConstants.LAST_RECORD_BEFORE_COMMIT, Boolean.FALSE, Boolean.class);
+
+        Batch batch = batches.get();
+        synchronized (batch) {
+            batch.add(value);
+            // Only the latest commit for each partition is needed, as it covers all of the earlier records
+            batch.commits.put(partition, manualCommit);
+            batch.offsets.put(new TopicPartition(topic, partition), new OffsetAndMetadata(offset + 1));
+
+            if (batch.records >= maxRecords || batch.data.size() >= maxBytes
+                || System.currentTimeMillis() - batch.created >= maxAgeMillis) {
+                write(batch);
+                commitPending(batch);
+            } else if (lastRecord && isCaughtUp(manualCommit)) {
+                // No more records are coming for now, so nothing else would flush the batch
+                long wait = batch.created + maxAgeMillis - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+                write(batch);
+                commitPending(batch);
+            }
+        }
+    }
+
+    /**
+     * @return whether the consumer has fetched all of the records of its partitions. This must be called on the
+     * consumer thread.
+     */
+    private static boolean isCaughtUp(KafkaManualCommit manualCommit) {
+        if (!(manualCommit instanceof DefaultKafkaManualCommit)) {
+            return true;
+        }
+        KafkaConsumer<?, ?> consumer = ((DefaultKafkaManualCommit) manualCommit).getConsumer();
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(consumer.assignment());
+        for (Map.Entry<TopicPartition, Long> endOffset : endOffsets.entrySet()) {
+            if (consumer.position(endOffset.getKey()) < endOffset.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Commit the offsets of the batches that have been written. This must be called on the consumer thread.
+     */
+    private static void commitPending(Batch batch) {
+        for (KafkaManualCommit manualCommit : batch.pendingCommits.values()) {
+            try {
+                manualCommit.commitSync();
+            } catch (RuntimeException ex) {
+                // e.g. the partition was revoked. The records are on disk, and will be delivered again
+                LOG.warn("Error committing the offsets of a batch", ex);
+            }
+        }
+        batch.pendingCommits.clear();
+        batch.pendingOffsets.clear();
+    }
+
+    private void write(Batch batch) throws IOException {
+        File dir = new File(directory);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create the directory " + dir);
+        }
+
+        String name = "batch-" + System.currentTimeMillis() + "-" + fileCounter.incrementAndGet()
+            + (compress ? ".txt.gz" : ".txt");
+        File tmpFile = new File(dir, "." + name + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tmpFile)) {
+            OutputStream outputStream =
+                compress ? new GZIPOutputStream(fileOutputStream, 64 * 1024) : fileOutputStream;
+            batch.data.writeTo(outputStream);
+            if (outputStream instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) outputStream).finish();
+            }
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), new File(dir, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        // The batch is on disk, so now the offsets can be committed
+        batch.pendingCommits.putAll(batch.commits);
+        batch.pendingOffsets.putAll(batch.offsets);
+
+        writtenRecords.addAndGet(batch.records);
+        writtenFiles.incrementAndGet();
+        batch.reset();
+    }
+
+    public long getWrittenRecords() {
+        return writtenRecords.get();
+    }
+
+    public long getWrittenFiles() {
+        return writtenFiles.get();
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    public void setMaxRecords(int maxRecords) {
+        this.maxRecords = maxRecords;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * Whether to gzip the batch files, false by default
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * The records received by a single consumer thread, one per line
+     */
+    private static final class Batch {
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream(64 * 1024);
+        private final Map<Integer, KafkaManualCommit> commits = new LinkedHashMap<>();
+        private final Map<Integer, KafkaManualCommit> pendingCommits = new LinkedHashMap<>();
+        private final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        private final Map<TopicPartition, OffsetAndMetadata> pendingOffsets = new HashMap<>();
+        private int records;
+        private long created = System.currentTimeMillis();
+
+        void add(byte[] value) {
+            if (records == 0) {
+                created = System.currentTimeMillis();
+            }
+            data.write(value, 0, value.length);
+            data.write('\n');
+            records++;
+        }
+
+        void reset() {
+            data.reset();
+            commits.clear();
+            offsets.clear();
+            records = 0;
+        }
+    }
+
+}
@@ -0,0 +1,268 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.kafka;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.spring.Main;
+import org.apache.camel.util.FileUtil;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServerStartable;
+
+/**
+ * Start an embedded Kafka broker with a "batch" topic with 4 partitions, and consume the records from it using
+ * the batching route in camel-kafka-batching.xml, which writes batches of records to (compressed) files and
+ * only commits the offsets once the files are on disk.
+ */
+public class KafkaBatchingTest extends org.junit.Assert {
+
+    private static final int PARTITIONS = 4;
+
+    private static ServerCnxnFactory zkFactory;
+    private static KafkaServerStartable kafkaServer;
+    private static String bootstrapServers;
+    private static int producedRecords;
+
+    @org.junit.BeforeClass
+    public static void setup() throws Exception {
+        File zkDirectory = new File("target/kafka-batching-zk");
+        FileUtil.removeDir(zkDirectory);
+        ZooKeeperServer zkServer = new ZooKeeperServer(zkDirectory, zkDirectory, 2000);
+        zkFactory = ServerCnxnFactory.createFactory(new InetSocketAddress("localhost", 0), 100);
+        zkFactory.startup(zkServer);
+
+        File logDirectory = new File("target/kafka-batching-logs");
+        FileUtil.removeDir(logDirectory);
+
+        // The port is reserved by Maven, and is also used by the Camel routes
+        int port = Integer.getInteger("kafka.port");
+        bootstrapServers = "localhost:" + port;
+
+        Properties props = new Properties();
+        props.put("broker.id", 1);
+        props.put("listeners", "PLAINTEXT://" + bootstrapServers);
+        props.put("log.dir", logDirectory.getAbsolutePath());
+        props.put("zookeeper.connect", "localhost:" + zkFactory.getLocalPort());
+        props.put("offsets.topic.replication.factor", "1");
+        // Wait for all of the consumer threads to join, before assigning the partitions
+        props.put("group.initial.rebalance.delay.ms", "3000");
+        props.put("controlled.shutdown.enable", Boolean.TRUE.toString());
+
+        kafkaServer = new KafkaServerStartable(new KafkaConfig(props));
+        kafkaServer.startup();
+
+        Properties adminProps = new Properties();
+        adminProps.put("bootstrap.servers", bootstrapServers);
+        try (AdminClient adminClient = AdminClient.create(adminProps)) {
+            adminClient.createTopics(Collections.singletonList(new NewTopic("batch", PARTITIONS, (short) 1)))
+                .all().get();
+        }
+
+        produce(20000);
+    }
+
+    @org.junit.AfterClass
+    public static void cleanup() throws Exception {
+        if (kafkaServer != null) {
+            kafkaServer.shutdown();
+        }
+        if (zkFactory != null) {
+            zkFactory.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testBatching() throws Exception {
+        File resultsDirectory = new File("target/batch-results");
+        FileUtil.removeDir(resultsDirectory);
+
+        Main main = new Main();
+        main.setApplicationContextUri("camel-kafka-batching.xml");
+        main.start();
+
+        try {
+            BatchingFileProcessor processor =
+                main.getApplicationContext().getBean("batchingProcessor", BatchingFileProcessor.class);
+            long elapsed = consume(main, "batching", () -> processor.getWrittenRecords());
+
+            Set<String> values = readBatches(resultsDirectory);
+            assertEquals(producedRecords, values.size());
+            // Far fewer files than records
+            assertTrue(processor.getWrittenFiles() < producedRecords / 100);
+
+            System.out.println("Batching route: " + producedRecords + " records in " + processor.getWrittenFiles()
+                + " files, " + (producedRecords * 1000L / Math.max(1L, elapsed)) + " records/sec");
+        } finally {
+            main.stop();
+        }
+
+        // The offsets of all of the records were committed, including those of the last batches
+        assertEquals(producedRecords, getCommittedOffsets("batching-group"));
+    }
+
+    // Compare the per-record route (one file per record, auto-commit) with the batching route
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testThroughput() throws Exception {
+        produce(200000);
+
+        // Both routes should consume all of the records from the start
+        Properties adminProps = new Properties();
+        adminProps.put("bootstrap.servers", bootstrapServers);
+        try (AdminClient adminClient = AdminClient.create(adminProps)) {
+            for (String groupId : new String[] {"batching-group", "per-record-group"}) {
+                try {
+                    adminClient.deleteConsumerGroups(Collections.singletonList(groupId)).all().get();
+                } catch (ExecutionException ex) {
+                    // The group doesn't exist yet
+                }
+            }
+        }
+
+        FileUtil.removeDir(new File("target/batch-results"));
+        File perRecordDirectory = new File("target/per-record-results");
+        FileUtil.removeDir(perRecordDirectory);
+
+        Main main = new Main();
+        main.setApplicationContextUri("camel-kafka-batching.xml");
+        main.start();
+
+        try {
+            long perRecordTime = consume(main, "per-record", () -> countFiles(perRecordDirectory));
+            System.out.println("Per-record route: " + (producedRecords * 1000L / Math.max(1L, perRecordTime))
+                + " records/sec, " + countFiles(perRecordDirectory) + " files");
+
+            BatchingFileProcessor processor =
+                main.getApplicationContext().getBean("batchingProcessor", BatchingFileProcessor.class);
+            long batchingTime = consume(main, "batching", () -> processor.getWrittenRecords());
+            System.out.println("Batching route: " + (producedRecords * 1000L / Math.max(1L, batchingTime))
+                + " records/sec, " + processor.getWrittenFiles() + " files");
+        } finally {
+            main.stop();
+        }
+    }
+
+    /**
+     * Start the route and wait until it has consumed all of the records
+     * @return the time taken in ms
+     */
+    private static long consume(Main main, String routeId, Progress progress) throws Exception {
+        CamelContext camelContext = main.getCamelContexts().get(0);
+        long start = System.currentTimeMillis();
+        camelContext.getRouteController().startRoute(routeId);
+
+        long end = start + 5 * 60 * 1000L;
+        while (progress.get() < producedRecords && System.currentTimeMillis() < end) {
+            Thread.sleep(100L);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        camelContext.getRouteController().stopRoute(routeId);
+
+        assertEquals(producedRecords, progress.get());
+        return elapsed;
+    }
+
+    private static void produce(int count) {
+        Properties producerProps = new Properties();
+        producerProps.put("bootstrap.servers", bootstrapServers);
+        producerProps.put("acks", "all");
+        producerProps.put("linger.ms", "5");
+        producerProps.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+        producerProps.put("value.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+
+        try (Producer<String, String> producer = new KafkaProducer<>(producerProps)) {
+            for (int i = 0; i < count; i++) {
+                int id = producedRecords + i;
+                producer.send(new ProducerRecord<String, String>("batch", "key" + id, "record-" + id));
+            }
+            producer.flush();
+        }
+        producedRecords += count;
+    }
+
+    private static Set<String> readBatches(File directory) throws Exception {
+        Set<String> values = new HashSet<>();
+        for (File file : directory.listFiles(file -> !file.getName().startsWith("."))) {
+            InputStream inputStream = new FileInputStream(file);
+            if (file.getName().endsWith(".gz")) {
+                inputStream = new GZIPInputStream(inputStream);
+            }
+            try (BufferedReader reader =
+                new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Each record must only be written once
+                    assertTrue(values.add(line));
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the sum of the committed offsets of all of the partitions, i.e. the number of committed records
+     */
+    private static long getCommittedOffsets(String groupId) throws Exception {
+        Properties adminProps = new Properties();
+        adminProps.put("bootstrap.servers", bootstrapServers);
+        try (AdminClient adminClient = AdminClient.create(adminProps)) {
+            Map<TopicPartition, OffsetAndMetadata> offsets =
+                adminClient.listConsumerGroupOffsets(groupId).partitionsToOffsetAndMetadata().get();
+            long committed = 0;
+            for (OffsetAndMetadata offset : offsets.values()) {
+                committed += offset.offset();
+            }
+            return committed;
+        }
+    }
+
+    private static long countFiles(File directory) {
+        String[] files = directory.list();
+        return files == null ? 0 : files.length;
+    }
+
+    private interface Progress {
+        long get();
+    }
+
+}
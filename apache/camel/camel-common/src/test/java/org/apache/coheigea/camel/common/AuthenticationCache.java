@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A short-lived, bounded cache of authentication + authorization decisions, which is used by the Shiro and
+ * Spring Security proxies to avoid authenticating the same user on every exchange. Decisions are keyed by the
+ * principal, a (salted) hash of the credential, and the resource that is accessed, so the credential itself is
+ * never stored, and a changed password doesn't match an old entry. Both successful and failed decisions are
+ * cached.
+ *
+ * The entries expire after "ttlMillis", and the least recently used entries are evicted once there are
+ * "maxEntries" of them. The cache must be invalidated when the realm changes.
+ */
+public class AuthenticationCache {
+
+    private final byte[] salt = new byte[16];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private int maxEntries = 1000;
+    private long ttlMillis = 60000L;
+
+    public AuthenticationCache() {
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * @return the cached decision, or null if there isn't one
+     */
+    public Boolean get(String principal, String credential, String resource) {
+        String key = key(principal, credential, resource);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expires > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return entry.allowed;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String principal, String credential, String resource, boolean allowed) {
+        String key = key(principal, credential, resource);
+        synchronized (entries) {
+            entries.put(key, new Entry(principal, allowed, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * Remove all of the decisions for the given principal
+     */
+    public void invalidate(String principal) {
+        synchronized (entries) {
+            for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+                if (iterator.next().principal.equals(principal)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The percentage of lookups that found a decision
+     */
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : hits.get() * 100.0 / total;
+    }
+
+    private String key(String principal, String credential, String resource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            byte[] hash = digest.digest(credential == null ? new byte[0] : credential.getBytes(StandardCharsets.UTF_8));
+            return principal + '\u0000' + Base64.getEncoder().encodeToString(hash) + '\u0000' + resource;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * How long a decision is cached for, 60 seconds by default
+     */
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    private static final class Entry {
+        private final String principal;
+        private final boolean allowed;
+        private final long expires;
+
+        Entry(String principal, boolean allowed, long expires) {
+            this.principal = principal;
+            this.allowed = allowed;
+            this.expires = expires;
+        }
+    }
+
+}
@@ -0,0 +1,336 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.CamelContextAware;
+import org.apache.camel.Exchange;
+import org.apache.camel.converter.stream.CachedOutputStream;
+import org.apache.camel.spi.DataFormat;
+import org.apache.camel.spi.DataFormatName;
+import org.apache.camel.support.ExchangeHelper;
+import org.apache.camel.support.service.ServiceSupport;
+
+/**
+ * A data format that encrypts the message body using AES-GCM over fixed-size segments, each with its own nonce
+ * and authentication tag. The format is:
+ *
+ * header: "CGCM" | version (1 byte) | segment size (4 bytes) | salt (16 bytes)
+ * segments: ciphertext (segment size bytes, the last segment can be shorter) | tag (16 bytes)
+ *
+ * Each message is encrypted with its own AES key, derived from the configured key and the random salt with
+ * HMAC-SHA256. The nonce of each segment is 7 zero bytes, followed by the segment index (4 bytes) and a byte that
+ * is 1 for the last segment and 0 otherwise, so the nonces are unique within a message, and a (key, nonce) pair is
+ * only reused if two messages get the same 128-bit salt - i.e. with a probability of about n^2 / 2^129 for n
+ * messages, rather than depending on a random nonce prefix per message. The header is authenticated as additional
+ * data for each segment, so segments can't be reordered, dropped, or moved between messages, and a truncated
+ * message is detected.
+ *
+ * As the segments are independent, they are encrypted + decrypted in parallel, with a bounded number of
+ * segments in flight, so memory use doesn't depend on the size of the message. A single segment can also be
+ * decrypted on its own via decryptSegment. The Cipher instances are cached per thread.
+ */
+public class ChunkedAESGCMDataFormat extends ServiceSupport implements DataFormat, DataFormatName, CamelContextAware {
+
+    private static final byte[] MAGIC = {'C', 'G', 'C', 'M'};
+    private static final byte VERSION = 2;
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_LENGTH = 12;
+    static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + SALT_LENGTH;
+    static final int TAG_LENGTH = 16;
+    // The segment size is read from the header before anything is authenticated, so it must be bounded
+    static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private CamelContext camelContext;
+    private Key key;
+    private int segmentSize = 1024 * 1024;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executorService;
+
+    @Override
+    public String getDataFormatName() {
+        return "chunked-aes-gcm";
+    }
+
+    @Override
+    public void marshal(Exchange exchange, Object graph, OutputStream stream) throws Exception {
+        InputStream plaintext = ExchangeHelper.convertToMandatoryType(exchange, InputStream.class, graph);
+
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        byte[] header = createHeader(segmentSize, salt);
+        stream.write(header);
+
+        process(Cipher.ENCRYPT_MODE, deriveKey(key, header), plaintext, stream, header, segmentSize);
+        stream.flush();
+    }
+
+    @Override
+    public Object unmarshal(Exchange exchange, InputStream stream) throws Exception {
+        byte[] header = new byte[HEADER_LENGTH];
+        if (readFully(stream, header) != HEADER_LENGTH) {
+            throw new IOException("The message is too short to be a chunked AES-GCM message");
+        }
+        int messageSegmentSize = parseHeader(header);
+
+        CachedOutputStream plaintext = new CachedOutputStream(exchange);
+        process(Cipher.DECRYPT_MODE, deriveKey(key, header), stream, plaintext, header,
+                messageSegmentSize + TAG_LENGTH);
+        return plaintext.newStreamCache();
+    }
+
+    /**
+     * Read the input in chunks, and encrypt/decrypt them on the executor while keeping the output in order.
+     */
+    private void process(int mode, Key messageKey, InputStream in, OutputStream out, byte[] header, int chunkSize)
+        throws Exception {
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        int maxInFlight = 2 * parallelism;
+
+        byte[] current = new byte[chunkSize];
+        int currentLength = readFully(in, current);
+        int index = 0;
+        while (true) {
+            // Read ahead, as we need to know whether the current chunk is the last one
+            byte[] next = null;
+            int nextLength = 0;
+            if (currentLength == chunkSize) {
+                next = new byte[chunkSize];
+                nextLength = readFully(in, next);
+            }
+            boolean last = nextLength == 0;
+
+            byte[] chunk = current;
+            int chunkLength = currentLength;
+            int chunkIndex = index;
+            inFlight.add(executorService.submit(
+                () -> doFinal(mode, messageKey, header, chunkIndex, last, chunk, 0, chunkLength)));
+            while (inFlight.size() >= maxInFlight) {
+                writeResult(inFlight.poll(), out);
+            }
+
+            if (last) {
+                break;
+            }
+            current = next;
+            currentLength = nextLength;
+            index++;
+        }
+
+        while (!inFlight.isEmpty()) {
+            writeResult(inFlight.poll(), out);
+        }
+    }
+
+    private static void writeResult(Future<byte[]> future, OutputStream out) throws Exception {
+        try {
+            out.write(future.get());
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Decrypt a single segment of an encrypted message, without reading the rest of the message.
+     */
+    public static byte[] decryptSegment(Key key, SeekableByteChannel channel, int index)
+        throws IOException, GeneralSecurityException {
+        ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_LENGTH);
+        channel.position(0);
+        readFully(channel, headerBuffer);
+        byte[] header = headerBuffer.array();
+        int messageSegmentSize = parseHeader(header);
+
+        long encryptedSegmentSize = messageSegmentSize + TAG_LENGTH;
+        long segmentCount = (channel.size() - HEADER_LENGTH + encryptedSegmentSize - 1) / encryptedSegmentSize;
+        if (index < 0 || index >= segmentCount) {
+            throw new IllegalArgumentException("Segment " + index + " is out of range");
+        }
+        long offset = HEADER_LENGTH + index * encryptedSegmentSize;
+        int length = (int) Math.min(encryptedSegmentSize, channel.size() - offset);
+
+        ByteBuffer segment = ByteBuffer.allocate(length);
+        channel.position(offset);
+        readFully(channel, segment);
+        return doFinal(Cipher.DECRYPT_MODE, deriveKey(key, header), header, index, index == segmentCount - 1,
+                       segment.array(), 0, length);
+    }
+
+    private static byte[] doFinal(int mode, Key key, byte[] header, int index, boolean last,
+                                  byte[] data, int offset, int length) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        ByteBuffer.wrap(nonce, NONCE_LENGTH - 5, 5).putInt(index).put(last ? (byte) 1 : (byte) 0);
+
+        Cipher cipher = CIPHERS.get();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(header);
+        return cipher.doFinal(data, offset, length);
+    }
+
+    private static byte[] createHeader(int segmentSize, byte[] salt) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC).put(VERSION).putInt(segmentSize).put(salt);
+        return header.array();
+    }
+
+    /**
+     * Derive the key of a message from the configured key + the header (which contains the salt of the message)
+     */
+    private static Key deriveKey(Key key, byte[] header) throws GeneralSecurityException {
+        byte[] encodedKey = key.getEncoded();
+        if (encodedKey == null) {
+            throw new GeneralSecurityException("The key must be exportable to derive the message keys");
+        }
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(encodedKey, "HmacSHA256"));
+        byte[] derived = mac.doFinal(header);
+        return new SecretKeySpec(derived, 0, Math.min(encodedKey.length, derived.length), "AES");
+    }
+
+    /**
+     * @return the segment size
+     */
+    private static int parseHeader(byte[] header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(MAGIC, magic) || buffer.get() != VERSION) {
+            throw new IOException("The message is not a chunked AES-GCM message");
+        }
+        int segmentSize = buffer.getInt();
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IOException("Invalid segment size: " + segmentSize);
+        }
+        return segmentSize;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static void readFully(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                throw new IOException("Unexpected end of the message");
+            }
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (key == null) {
+            throw new IllegalArgumentException("A key must be configured");
+        }
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("The segment size must be between 1 and " + MAX_SEGMENT_SIZE);
+        }
+        executorService =
+            camelContext.getExecutorServiceManager().newFixedThreadPool(this, "ChunkedAESGCM", parallelism);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        if (executorService != null) {
+            camelContext.getExecutorServiceManager().shutdown(executorService);
+            executorService = null;
+        }
+    }
+
+    @Override
+    public CamelContext getCamelContext() {
+        return camelContext;
+    }
+
+    @Override
+    public void setCamelContext(CamelContext camelContext) {
+        this.camelContext = camelContext;
+    }
+
+    public Key getKey() {
+        return key;
+    }
+
+    public void setKey(Key key) {
+        this.key = key;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * The size of the plaintext segments, 1MB by default and at most 64MB
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * The number of threads used to encrypt/decrypt the segments, the number of processors by default
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+}
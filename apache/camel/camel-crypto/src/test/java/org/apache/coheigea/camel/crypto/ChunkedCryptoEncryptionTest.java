@@ -0,0 +1,284 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.AEADBadTagException;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.spring.Main;
+import org.apache.camel.support.DefaultExchange;
+
+/**
+ * Some tests for the ChunkedAESGCMDataFormat, which encrypts large messages as a sequence of independently
+ * authenticated AES-GCM segments.
+ */
+public class ChunkedCryptoEncryptionTest extends org.junit.Assert {
+
+    @org.junit.Test
+    public void testEncryption() throws Exception {
+        // Start up the Camel route
+        Main main = new Main();
+        main.setApplicationContextUri("camel-chunked-encryption.xml");
+
+        main.start();
+
+        // Sleep to allow time to copy the files etc.
+        Thread.sleep(10 * 1000);
+
+        main.stop();
+
+        for (File sourceFile : new File("src/test/resources/data").listFiles()) {
+            File decryptedFile = new File("target/chunked-decrypted-data", sourceFile.getName() + ".decrypted");
+            assertArrayEquals(Files.readAllBytes(sourceFile.toPath()), Files.readAllBytes(decryptedFile.toPath()));
+        }
+    }
+
+    @org.junit.Test
+    public void testRoundTrip() throws Exception {
+        CamelContext context = new DefaultCamelContext();
+        context.start();
+        ChunkedAESGCMDataFormat dataFormat = createDataFormat(context, 1024, 4);
+
+        try {
+            // Empty, smaller than a segment, exactly a number of segments, and a partial last segment
+            for (int size : new int[] {0, 100, 1024, 4096, 10000}) {
+                byte[] plaintext = randomBytes(size);
+                byte[] encrypted = marshal(context, dataFormat, plaintext);
+                assertFalse(size > 0 && Arrays.equals(plaintext, encrypted));
+                assertArrayEquals(plaintext, unmarshal(context, dataFormat, encrypted));
+            }
+        } finally {
+            dataFormat.stop();
+            context.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void testTamperedMessage() throws Exception {
+        CamelContext context = new DefaultCamelContext();
+        context.start();
+        ChunkedAESGCMDataFormat dataFormat = createDataFormat(context, 1024, 4);
+
+        try {
+            byte[] encrypted = marshal(context, dataFormat, randomBytes(10000));
+
+            // Modify a byte of a segment
+            byte[] modified = encrypted.clone();
+            modified[ChunkedAESGCMDataFormat.HEADER_LENGTH + 2000] ^= 1;
+            assertDecryptionFails(context, dataFormat, modified);
+
+            // Drop the last segment - the previous segment wasn't encrypted as the last one
+            int encryptedSegmentSize = 1024 + ChunkedAESGCMDataFormat.TAG_LENGTH;
+            byte[] truncated =
+                Arrays.copyOf(encrypted, ChunkedAESGCMDataFormat.HEADER_LENGTH + 9 * encryptedSegmentSize);
+            assertDecryptionFails(context, dataFormat, truncated);
+
+            // Swap two segments
+            byte[] swapped = encrypted.clone();
+            int first = ChunkedAESGCMDataFormat.HEADER_LENGTH;
+            System.arraycopy(encrypted, first + encryptedSegmentSize, swapped, first, encryptedSegmentSize);
+            System.arraycopy(encrypted, first, swapped, first + encryptedSegmentSize, encryptedSegmentSize);
+            assertDecryptionFails(context, dataFormat, swapped);
+        } finally {
+            dataFormat.stop();
+            context.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void testTamperedHeader() throws Exception {
+        CamelContext context = new DefaultCamelContext();
+        context.start();
+        ChunkedAESGCMDataFormat dataFormat = createDataFormat(context, 1024, 4);
+
+        try {
+            byte[] encrypted = marshal(context, dataFormat, randomBytes(10000));
+
+            // The segment size is rejected before any buffers are allocated for it
+            for (int segmentSize : new int[] {Integer.MAX_VALUE, ChunkedAESGCMDataFormat.MAX_SEGMENT_SIZE + 1, 0}) {
+                byte[] modified = encrypted.clone();
+                ByteBuffer.wrap(modified, 5, 4).putInt(segmentSize);
+                try {
+                    unmarshal(context, dataFormat, modified);
+                    fail("Failure expected on a segment size of " + segmentSize);
+                } catch (IOException ex) {
+                    assertTrue(ex.getMessage().contains("Invalid segment size"));
+                }
+            }
+
+            // A smaller segment size is rejected when the header is authenticated
+            byte[] modified = encrypted.clone();
+            ByteBuffer.wrap(modified, 5, 4).putInt(512);
+            assertDecryptionFails(context, dataFormat, modified);
+        } finally {
+            dataFormat.stop();
+            context.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void testRandomAccess() throws Exception {
+        CamelContext context = new DefaultCamelContext();
+        context.start();
+        ChunkedAESGCMDataFormat dataFormat = createDataFormat(context, 1024, 4);
+
+        try {
+            byte[] plaintext = randomBytes(10000);
+            File file = new File("target/chunked-random-access.encrypted");
+            Files.write(file.toPath(), marshal(context, dataFormat, plaintext));
+
+            try (SeekableByteChannel channel = Files.newByteChannel(file.toPath(), StandardOpenOption.READ)) {
+                byte[] segment = ChunkedAESGCMDataFormat.decryptSegment(CryptoEncryptionTest.getKey(), channel, 3);
+                assertArrayEquals(Arrays.copyOfRange(plaintext, 3072, 4096), segment);
+
+                // The last segment
+                segment = ChunkedAESGCMDataFormat.decryptSegment(CryptoEncryptionTest.getKey(), channel, 9);
+                assertArrayEquals(Arrays.copyOfRange(plaintext, 9216, 10000), segment);
+            }
+        } finally {
+            dataFormat.stop();
+            context.stop();
+        }
+    }
+
+    // Compare the throughput of one thread with one thread per core for a large message
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testThroughput() throws Exception {
+        CamelContext context = new DefaultCamelContext();
+        context.start();
+
+        long size = 1024L * 1024L * 1024L;
+        for (int parallelism : new int[] {1, Runtime.getRuntime().availableProcessors()}) {
+            ChunkedAESGCMDataFormat dataFormat = createDataFormat(context, 1024 * 1024, parallelism);
+
+            try {
+                Exchange exchange = new DefaultExchange(context);
+                long start = System.nanoTime();
+                dataFormat.marshal(exchange, new RepeatingInputStream(size), new NullOutputStream());
+                long elapsed = System.nanoTime() - start;
+                System.out.println("Encrypted " + (size / (1024 * 1024)) + " MB with " + parallelism
+                    + " thread(s): " + (size / (1024 * 1024) * 1000000000L / elapsed) + " MB/s");
+            } finally {
+                dataFormat.stop();
+            }
+        }
+        context.stop();
+    }
+
+    private static ChunkedAESGCMDataFormat createDataFormat(CamelContext context, int segmentSize,
+                                                            int parallelism) throws Exception {
+        ChunkedAESGCMDataFormat dataFormat = new ChunkedAESGCMDataFormat();
+        dataFormat.setCamelContext(context);
+        dataFormat.setKey(CryptoEncryptionTest.getKey());
+        dataFormat.setSegmentSize(segmentSize);
+        dataFormat.setParallelism(parallelism);
+        dataFormat.start();
+        return dataFormat;
+    }
+
+    private static byte[] marshal(CamelContext context, ChunkedAESGCMDataFormat dataFormat, byte[] plaintext)
+        throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        dataFormat.marshal(new DefaultExchange(context), plaintext, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] unmarshal(CamelContext context, ChunkedAESGCMDataFormat dataFormat, byte[] encrypted)
+        throws Exception {
+        Exchange exchange = new DefaultExchange(context);
+        Object result = dataFormat.unmarshal(exchange, new ByteArrayInputStream(encrypted));
+        return exchange.getContext().getTypeConverter().mandatoryConvertTo(byte[].class, exchange, result);
+    }
+
+    private static void assertDecryptionFails(CamelContext context, ChunkedAESGCMDataFormat dataFormat,
+                                              byte[] encrypted) throws Exception {
+        try {
+            unmarshal(context, dataFormat, encrypted);
+            fail("Failure expected on a modified message");
+        } catch (AEADBadTagException ex) {
+            // expected
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Generates "size" bytes without holding them in memory
+     */
+    private static final class RepeatingInputStream extends InputStream {
+        private long remaining;
+
+        RepeatingInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return (int) (remaining & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = (int) Math.min(len, remaining);
+            for (int i = 0; i < read; i++) {
+                b[off + i] = (byte) (remaining - i);
+            }
+            remaining -= read;
+            return read;
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+}
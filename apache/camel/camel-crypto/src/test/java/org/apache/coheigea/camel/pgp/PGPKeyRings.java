@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.pgp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Security;
+
+import org.apache.camel.converter.crypto.DefaultPGPPublicKeyAccessor;
+import org.apache.camel.converter.crypto.DefaultPGPSecretKeyAccessor;
+import org.apache.camel.converter.crypto.PGPPublicKeyAccessor;
+import org.apache.camel.converter.crypto.PGPSecretKeyAccessor;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+
+/**
+ * Factory methods that load + parse a PGP key ring from the classpath once. The resulting key accessors can be
+ * shared by all of the exchanges, unlike the "keyFileName" configuration of the PGP data format, which reads
+ * and parses the key ring for every exchange.
+ */
+public final class PGPKeyRings {
+
+    static {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    private PGPKeyRings() {
+    }
+
+    public static PGPPublicKeyAccessor publicKeyAccessor(String keyRing) throws IOException, PGPException {
+        return new DefaultPGPPublicKeyAccessor(load(keyRing));
+    }
+
+    /**
+     * The private keys are extracted (decrypted) with the given password once, when the accessor is created.
+     */
+    public static PGPSecretKeyAccessor secretKeyAccessor(String keyRing, String password)
+        throws IOException, PGPException {
+        return new DefaultPGPSecretKeyAccessor(load(keyRing), password, BouncyCastleProvider.PROVIDER_NAME);
+    }
+
+    private static byte[] load(String keyRing) throws IOException {
+        try (InputStream inputStream = PGPKeyRings.class.getClassLoader().getResourceAsStream(keyRing)) {
+            if (inputStream == null) {
+                throw new IOException("Can't find the key ring " + keyRing + " on the classpath");
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.pgp;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.spring.Main;
+import org.apache.camel.util.FileUtil;
+
+/**
+ * Encrypt + decrypt files using the PGP data format with stream caching enabled, and with key rings that are
+ * parsed once and shared by all of the exchanges.
+ */
+public class PGPStreamingTest extends org.junit.Assert {
+
+    private static final File DATA_DIRECTORY = new File("target/pgp-streaming-data");
+    private static final File DECRYPTED_DIRECTORY = new File("target/decrypted-pgp-streaming-data");
+
+    @org.junit.Test
+    public void testStreamingEncryption() throws Exception {
+        cleanDirectories();
+        DATA_DIRECTORY.mkdirs();
+        File[] sourceFiles = new File("src/test/resources/data").listFiles();
+        for (File sourceFile : sourceFiles) {
+            Files.copy(sourceFile.toPath(), new File(DATA_DIRECTORY, sourceFile.getName()).toPath());
+        }
+
+        // Start up the Camel route
+        Main main = new Main();
+        main.setApplicationContextUri("camel-pgp-streaming.xml");
+        main.start();
+
+        try {
+            waitForFiles(sourceFiles.length, 30 * 1000L);
+
+            for (File sourceFile : sourceFiles) {
+                File decryptedFile = new File(DECRYPTED_DIRECTORY, sourceFile.getName() + ".decrypted");
+                assertArrayEquals(Files.readAllBytes(sourceFile.toPath()), Files.readAllBytes(decryptedFile.toPath()));
+            }
+        } finally {
+            main.stop();
+        }
+    }
+
+    // Encrypt + decrypt some multi-GB files in parallel, and check that the heap use doesn't grow with the
+    // size of the files. The size of each file in MB can be set via "pgp.file.size"
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testLargeFiles() throws Exception {
+        long fileSize = Long.getLong("pgp.file.size", 2048L) * 1024L * 1024L;
+        int fileCount = 2;
+
+        cleanDirectories();
+        DATA_DIRECTORY.mkdirs();
+        for (int i = 0; i < fileCount; i++) {
+            writeRandomFile(new File(DATA_DIRECTORY, "large-" + i + ".bin"), fileSize, i);
+        }
+
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long baseline = memoryBean.getHeapMemoryUsage().getUsed();
+
+        // Sample the heap in the background while the files are processed
+        AtomicLong peak = new AtomicLong(baseline);
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peak.accumulateAndGet(memoryBean.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(50L);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        });
+        sampler.setDaemon(true);
+        sampler.start();
+
+        Main main = new Main();
+        main.setApplicationContextUri("camel-pgp-streaming.xml");
+        long start = System.nanoTime();
+        main.start();
+
+        try {
+            waitForFiles(fileCount, 60 * 60 * 1000L);
+            long elapsed = System.nanoTime() - start;
+            sampler.interrupt();
+
+            for (int i = 0; i < fileCount; i++) {
+                assertEquals(fileSize, new File(DECRYPTED_DIRECTORY, "large-" + i + ".bin.decrypted").length());
+            }
+
+            long totalMB = fileCount * fileSize / (1024L * 1024L);
+            long heapGrowthMB = (peak.get() - baseline) / (1024L * 1024L);
+            System.out.println("Encrypted + decrypted " + totalMB + " MB in " + (elapsed / 1000000L) + " ms: "
+                + (totalMB * 1000000000L / elapsed) + " MB/s, peak heap growth " + heapGrowthMB + " MB");
+
+            // The heap use must be bounded by the buffers, and not by the size of the files
+            assertTrue(heapGrowthMB < 256L);
+        } finally {
+            sampler.interrupt();
+            main.stop();
+        }
+    }
+
+    private static void cleanDirectories() {
+        FileUtil.removeDir(DATA_DIRECTORY);
+        FileUtil.removeDir(new File("target/encrypted-pgp-streaming-data"));
+        FileUtil.removeDir(DECRYPTED_DIRECTORY);
+    }
+
+    private static void waitForFiles(int expected, long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (countFiles(DECRYPTED_DIRECTORY) < expected && System.currentTimeMillis() < end) {
+            Thread.sleep(200L);
+        }
+        assertEquals(expected, countFiles(DECRYPTED_DIRECTORY));
+    }
+
+    private static int countFiles(File directory) {
+        // The files are written under a hidden name, and renamed when they are complete
+        File[] files = directory.listFiles(file -> file.isFile() && !file.getName().startsWith("."));
+        return files == null ? 0 : files.length;
+    }
+
+    private static void writeRandomFile(File file, long size, long seed) throws Exception {
+        Random random = new Random(seed);
+        byte[] buffer = new byte[1024 * 1024];
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                outputStream.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+
+}
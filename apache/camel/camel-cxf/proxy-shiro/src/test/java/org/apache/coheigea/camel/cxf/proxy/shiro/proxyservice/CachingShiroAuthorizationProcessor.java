@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.cxf.proxy.shiro.proxyservice;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.camel.CamelAuthorizationException;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.coheigea.camel.common.AuthenticationCache;
+import org.apache.shiro.authc.AuthenticationException;
+import org.apache.shiro.authc.UsernamePasswordToken;
+import org.apache.shiro.config.IniSecurityManagerFactory;
+import org.apache.shiro.mgt.SecurityManager;
+import org.apache.shiro.subject.Subject;
+
+/**
+ * A Camel processor that authenticates (and optionally authorizes) the username + password in the
+ * SHIRO_SECURITY_USERNAME/SHIRO_SECURITY_PASSWORD headers using Apache Shiro, the same as the ShiroSecurityPolicy,
+ * except that the decision is stored in an AuthenticationCache, so that Shiro is only called again once the
+ * decision expires.
+ *
+ * The realm is read from an ini file. If the file is modified, the realm is reloaded and the cache is invalidated.
+ */
+public class CachingShiroAuthorizationProcessor implements Processor {
+
+    private volatile SecurityManager securityManager;
+    private volatile long realmLastModified;
+    private volatile long realmLastChecked;
+
+    private AuthenticationCache cache;
+    private String iniResourcePath;
+    private List<String> rolesList = Collections.emptyList();
+    private boolean allRolesRequired;
+    private long realmCheckIntervalMillis = 1000L;
+
+    public void start() {
+        loadRealm();
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        String username = exchange.getIn().getHeader("SHIRO_SECURITY_USERNAME", String.class);
+        String password = exchange.getIn().getHeader("SHIRO_SECURITY_PASSWORD", String.class);
+        // The password is not needed after this point
+        exchange.getIn().removeHeader("SHIRO_SECURITY_PASSWORD");
+        if (username == null) {
+            throw new CamelAuthorizationException("No credentials were received", exchange);
+        }
+
+        checkRealm();
+
+        String resource = rolesList.toString();
+        Boolean allowed = cache.get(username, password, resource);
+        if (allowed == null) {
+            SecurityManager manager = securityManager;
+            allowed = authenticate(manager, username, password);
+            synchronized (this) {
+                // Don't cache the decision of a realm that was reloaded in the meantime, as the cache has
+                // already been invalidated
+                if (manager == securityManager) {
+                    cache.put(username, password, resource, allowed);
+                }
+            }
+        }
+
+        if (!allowed) {
+            throw new CamelAuthorizationException("Authentication or authorization failed for " + username,
+                                                  exchange);
+        }
+    }
+
+    private boolean authenticate(SecurityManager manager, String username, String password) {
+        Subject subject = new Subject.Builder(manager).buildSubject();
+        try {
+            subject.login(new UsernamePasswordToken(username, password));
+            if (rolesList.isEmpty()) {
+                return true;
+            }
+            if (allRolesRequired) {
+                return subject.hasAllRoles(rolesList);
+            }
+            for (String role : rolesList) {
+                if (subject.hasRole(role)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (AuthenticationException ex) {
+            return false;
+        } finally {
+            subject.logout();
+        }
+    }
+
+    /**
+     * Reload the realm if the ini file has changed. This is checked at most once every "realmCheckIntervalMillis"
+     */
+    private void checkRealm() {
+        long now = System.currentTimeMillis();
+        if (now - realmLastChecked < realmCheckIntervalMillis) {
+            return;
+        }
+        synchronized (this) {
+            if (now - realmLastChecked < realmCheckIntervalMillis) {
+                return;
+            }
+            realmLastChecked = now;
+            if (new File(iniResourcePath).lastModified() != realmLastModified) {
+                loadRealm();
+                cache.invalidateAll();
+            }
+        }
+    }
+
+    private synchronized void loadRealm() {
+        realmLastModified = new File(iniResourcePath).lastModified();
+        securityManager = new IniSecurityManagerFactory(iniResourcePath).getInstance();
+        realmLastChecked = System.currentTimeMillis();
+    }
+
+    public AuthenticationCache getCache() {
+        return cache;
+    }
+
+    public void setCache(AuthenticationCache cache) {
+        this.cache = cache;
+    }
+
+    public String getIniResourcePath() {
+        return iniResourcePath;
+    }
+
+    /**
+     * The location of the Shiro ini file on the filesystem
+     */
+    public void setIniResourcePath(String iniResourcePath) {
+        this.iniResourcePath = iniResourcePath;
+    }
+
+    public List<String> getRolesList() {
+        return rolesList;
+    }
+
+    public void setRolesList(List<String> rolesList) {
+        this.rolesList = rolesList;
+    }
+
+    public boolean isAllRolesRequired() {
+        return allRolesRequired;
+    }
+
+    public void setAllRolesRequired(boolean allRolesRequired) {
+        this.allRolesRequired = allRolesRequired;
+    }
+
+    public long getRealmCheckIntervalMillis() {
+        return realmCheckIntervalMillis;
+    }
+
+    public void setRealmCheckIntervalMillis(long realmCheckIntervalMillis) {
+        this.realmCheckIntervalMillis = realmCheckIntervalMillis;
+    }
+
+}
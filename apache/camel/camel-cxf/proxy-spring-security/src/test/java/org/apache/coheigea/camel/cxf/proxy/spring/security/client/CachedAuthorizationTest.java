@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.cxf.proxy.spring.security.client;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.Service;
+
+import org.apache.camel.spring.Main;
+import org.apache.coheigea.camel.common.AuthenticationCache;
+import org.apache.coheigea.camel.cxf.proxy.spring.security.proxyservice.InvalidatingUserDetailsManager;
+import org.apache.coheigea.camel.cxf.proxy.spring.security.service.Server;
+import org.apache.cxf.Bus;
+import org.apache.cxf.bus.spring.SpringBusFactory;
+import org.apache.cxf.testutil.common.AbstractBusClientServerTestBase;
+import org.apache.cxf.ws.security.SecurityConstants;
+import org.example.contract.doubleit.DoubleItPortType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.springframework.security.core.userdetails.User;
+
+import static org.junit.Assert.*;
+
+/**
+ * The same as the AuthorizationTest, except that the proxy in cxf-proxy-spring-security-cached.xml caches
+ * the authentication + authorization decisions, so that a user is only authenticated to Spring Security again
+ * once the decision expires, or the user is changed. An (ignored) benchmark compares it with the proxy in 
+ * cxf-proxy-spring-security-authz.xml.
+ */
+public class CachedAuthorizationTest extends AbstractBusClientServerTestBase {
+    
+    static final String PORT = allocatePort(Server.class);
+    
+    private static final String NAMESPACE = "http://www.example.org/contract/DoubleIt";
+    private static final QName SERVICE_QNAME = new QName(NAMESPACE, "DoubleItService");
+    
+    private static final String PROXY_PORT = allocatePort(Server.class, 2);
+    private static final String CACHED_PROXY_PORT = allocatePort(Server.class, 3);
+    
+    private static Main main;
+    private static Bus clientBus;
+    
+    @BeforeClass
+    public static void startServers() throws Exception {
+        assertTrue(
+                   "Server failed to launch",
+                   // run the server in the same process
+                   // set this to false to fork
+                   launchServer(Server.class, true)
+        );
+        
+        // Start up the Camel route
+        main = new Main();
+        main.setApplicationContextUri("cxf-proxy-spring-security-cached.xml");
+        main.start();
+        
+        URL busFile = CachedAuthorizationTest.class.getResource("cxf-client.xml");
+        clientBus = new SpringBusFactory().createBus(busFile.toString());
+    }
+    
+    @AfterClass
+    public static void stopServers() throws Exception {
+        main.stop();
+        clientBus.shutdown(true);
+    }
+   
+    @org.junit.Test
+    public void testCachedAuthorization() throws Exception {
+        AuthenticationCache cache = 
+            main.getApplicationContext().getBean("authenticationCache", AuthenticationCache.class);
+        cache.invalidateAll();
+        long hits = cache.getHits();
+        
+        DoubleItPortType alicePort = createPort(CACHED_PROXY_PORT, "alice", "security");
+        for (int i = 0; i < 10; i++) {
+            doubleIt(alicePort, i);
+        }
+        assertEquals(9, cache.getHits() - hits);
+        
+        // "bob" authenticates, but doesn't have the required role. The failure is cached as well
+        DoubleItPortType bobPort = createPort(CACHED_PROXY_PORT, "bob", "security");
+        for (int i = 0; i < 2; i++) {
+            try {
+                doubleIt(bobPort, 25);
+                fail("Failure expected on an unauthorized user");
+            } catch (Exception ex) {
+                // expected
+            }
+        }
+        assertEquals(10, cache.getHits() - hits);
+        
+        // A different password doesn't match the cached decision
+        DoubleItPortType wrongPasswordPort = createPort(CACHED_PROXY_PORT, "alice", "bad-security");
+        try {
+            doubleIt(wrongPasswordPort, 25);
+            fail("Failure expected on a bad password");
+        } catch (Exception ex) {
+            // expected
+        }
+        assertEquals(10, cache.getHits() - hits);
+    }
+    
+    @org.junit.Test
+    public void testUserChange() throws Exception {
+        DoubleItPortType alicePort = createPort(CACHED_PROXY_PORT, "alice", "security");
+        doubleIt(alicePort, 25);
+        
+        InvalidatingUserDetailsManager userManager = 
+            main.getApplicationContext().getBean("userManager", InvalidatingUserDetailsManager.class);
+        try {
+            // Remove the "boss" role from alice
+            userManager.updateUser(
+                User.withUsername("alice").password("{noop}security").authorities("ROLE_EMPLOYEE").build());
+            
+            try {
+                doubleIt(alicePort, 25);
+                fail("Failure expected on an unauthorized user");
+            } catch (Exception ex) {
+                // expected
+            }
+        } finally {
+            userManager.updateUser(User.withUsername("alice").password("{noop}security")
+                                   .authorities("ROLE_BOSS", "ROLE_EMPLOYEE").build());
+        }
+        
+        doubleIt(alicePort, 25);
+    }
+    
+    // Compare the calls/sec of the proxy in cxf-proxy-spring-security-authz.xml with the cached proxy
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testCachedAuthorizationBenchmark() throws Exception {
+        int threads = 20;
+        int callsPerThread = 500;
+        
+        Main uncachedMain = new Main();
+        uncachedMain.setApplicationContextUri("cxf-proxy-spring-security-authz.xml");
+        uncachedMain.start();
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (String port : new String[] {PROXY_PORT, CACHED_PROXY_PORT}) {
+                List<DoubleItPortType> ports = new ArrayList<>(threads);
+                for (int i = 0; i < threads; i++) {
+                    DoubleItPortType transportPort = createPort(port, "alice", "security");
+                    // Warm up
+                    doubleIt(transportPort, 25);
+                    ports.add(transportPort);
+                }
+                
+                long start = System.currentTimeMillis();
+                List<Future<?>> futures = new ArrayList<>(threads);
+                for (DoubleItPortType transportPort : ports) {
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < callsPerThread; i++) {
+                            doubleIt(transportPort, i);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                long elapsed = System.currentTimeMillis() - start;
+                
+                String name = PROXY_PORT.equals(port) ? "authorizationPolicy" : "Cached";
+                System.out.println(name + ": " + (threads * callsPerThread * 1000L / Math.max(1L, elapsed)) 
+                    + " calls/sec");
+            }
+            
+            AuthenticationCache cache = 
+                main.getApplicationContext().getBean("authenticationCache", AuthenticationCache.class);
+            System.out.println("Cache hit rate: " + cache.getHitRate() + "%");
+        } finally {
+            executor.shutdownNow();
+            uncachedMain.stop();
+        }
+    }
+    
+    private static DoubleItPortType createPort(String port, String username, String password) throws Exception {
+        SpringBusFactory.setDefaultBus(clientBus);
+        SpringBusFactory.setThreadDefaultBus(clientBus);
+        
+        URL wsdl = CachedAuthorizationTest.class.getResource("../proxyservice/DoubleItProxy.wsdl");
+        Service service = Service.create(wsdl, SERVICE_QNAME);
+        QName portQName = new QName(NAMESPACE, "DoubleItPort");
+        DoubleItPortType transportPort = 
+            service.getPort(portQName, DoubleItPortType.class);
+        updateAddressPort(transportPort, port);
+        
+        ((BindingProvider)transportPort).getRequestContext().put(
+            SecurityConstants.USERNAME, username);
+        ((BindingProvider)transportPort).getRequestContext().put(
+            SecurityConstants.PASSWORD, password);
+        return transportPort;
+    }
+    
+    private static void doubleIt(DoubleItPortType port, int numToDouble) {
+        int resp = port.doubleIt(numToDouble);
+        assertEquals(numToDouble * 2 , resp);
+    }
+    
+}
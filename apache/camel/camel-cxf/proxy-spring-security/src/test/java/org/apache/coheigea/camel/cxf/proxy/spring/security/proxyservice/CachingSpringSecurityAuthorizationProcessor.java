@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.cxf.proxy.spring.security.proxyservice;
+
+import java.security.Principal;
+import java.util.List;
+
+import javax.security.auth.Subject;
+
+import org.apache.camel.CamelAuthorizationException;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.coheigea.camel.common.AuthenticationCache;
+import org.springframework.security.access.AccessDecisionManager;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.access.ConfigAttribute;
+import org.springframework.security.access.SecurityConfig;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * A Camel processor that authenticates (and optionally authorizes) the UsernamePasswordAuthenticationToken that
+ * the SpringSecurityHeaderProcessor stores on the Subject, the same as the Spring Security authorizationPolicy,
+ * except that the decision is stored in an AuthenticationCache, so that Spring Security is only called again once
+ * the decision expires. Use the InvalidatingUserDetailsManager to change the users, so that the cache is
+ * invalidated.
+ */
+public class CachingSpringSecurityAuthorizationProcessor implements Processor {
+
+    private AuthenticationCache cache;
+    private AuthenticationManager authenticationManager;
+    private AccessDecisionManager accessDecisionManager;
+    private String access;
+
+    public void process(Exchange exchange) throws Exception {
+        Subject subject = exchange.getIn().getHeader(Exchange.AUTHENTICATION, Subject.class);
+        UsernamePasswordAuthenticationToken token = null;
+        if (subject != null) {
+            for (Principal principal : subject.getPrincipals()) {
+                if (principal instanceof UsernamePasswordAuthenticationToken) {
+                    token = (UsernamePasswordAuthenticationToken)principal;
+                    break;
+                }
+            }
+        }
+        if (token == null) {
+            throw new CamelAuthorizationException("No credentials were received", exchange);
+        }
+
+        String username = token.getName();
+        String password = token.getCredentials() == null ? null : token.getCredentials().toString();
+        String resource = String.valueOf(access);
+        Boolean allowed = cache.get(username, password, resource);
+        if (allowed == null) {
+            allowed = authenticate(username, password, exchange);
+            cache.put(username, password, resource, allowed);
+        }
+
+        if (!allowed) {
+            throw new CamelAuthorizationException("Authentication or authorization failed for " + username,
+                                                  exchange);
+        }
+    }
+
+    private boolean authenticate(String username, String password, Exchange exchange) {
+        try {
+            Authentication authentication =
+                authenticationManager.authenticate(new UsernamePasswordAuthenticationToken(username, password));
+            if (access != null && accessDecisionManager != null) {
+                List<ConfigAttribute> attributes = SecurityConfig.createList(access.split(","));
+                accessDecisionManager.decide(authentication, exchange, attributes);
+            }
+            return authentication.isAuthenticated();
+        } catch (AuthenticationException | AccessDeniedException ex) {
+            return false;
+        }
+    }
+
+    public AuthenticationCache getCache() {
+        return cache;
+    }
+
+    public void setCache(AuthenticationCache cache) {
+        this.cache = cache;
+    }
+
+    public AuthenticationManager getAuthenticationManager() {
+        return authenticationManager;
+    }
+
+    public void setAuthenticationManager(AuthenticationManager authenticationManager) {
+        this.authenticationManager = authenticationManager;
+    }
+
+    public AccessDecisionManager getAccessDecisionManager() {
+        return accessDecisionManager;
+    }
+
+    public void setAccessDecisionManager(AccessDecisionManager accessDecisionManager) {
+        this.accessDecisionManager = accessDecisionManager;
+    }
+
+    public String getAccess() {
+        return access;
+    }
+
+    /**
+     * The required access attributes (e.g. roles), separated by commas
+     */
+    public void setAccess(String access) {
+        this.access = access;
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.cxf.proxy.spring.security.proxyservice;
+
+import org.apache.coheigea.camel.common.AuthenticationCache;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.provisioning.UserDetailsManager;
+
+/**
+ * A UserDetailsManager that delegates to another UserDetailsManager, and invalidates the cached decisions for a
+ * user in the AuthenticationCache when the user is changed.
+ */
+public class InvalidatingUserDetailsManager implements UserDetailsManager {
+
+    private final UserDetailsManager delegate;
+    private final AuthenticationCache cache;
+
+    public InvalidatingUserDetailsManager(UserDetailsManager delegate, AuthenticationCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        return delegate.loadUserByUsername(username);
+    }
+
+    public void createUser(UserDetails user) {
+        delegate.createUser(user);
+        cache.invalidate(user.getUsername());
+    }
+
+    public void updateUser(UserDetails user) {
+        delegate.updateUser(user);
+        cache.invalidate(user.getUsername());
+    }
+
+    public void deleteUser(String username) {
+        delegate.deleteUser(username);
+        cache.invalidate(username);
+    }
+
+    public void changePassword(String oldPassword, String newPassword) {
+        delegate.changePassword(oldPassword, newPassword);
+        // The user is taken from the security context
+        cache.invalidateAll();
+    }
+
+    public boolean userExists(String username) {
+        return delegate.userExists(username);
+    }
+
+}
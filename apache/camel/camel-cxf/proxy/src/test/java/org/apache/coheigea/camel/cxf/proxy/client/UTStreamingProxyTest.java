@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.cxf.proxy.client;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.Service;
+
+import org.apache.camel.spring.Main;
+import org.apache.coheigea.camel.cxf.proxy.service.Server;
+import org.apache.cxf.Bus;
+import org.apache.cxf.bus.spring.SpringBusFactory;
+import org.apache.cxf.testutil.common.AbstractBusClientServerTestBase;
+import org.apache.cxf.ws.security.SecurityConstants;
+import org.example.contract.doubleit.DoubleItPortType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+import static org.junit.Assert.*;
+
+/**
+ * The same as UTSecureProxyTest, except that the proxy in cxf-proxy-streaming.xml processes the UsernameToken
+ * using the streaming (StAX) WS-Security interceptors, relays the payload without parsing it into DOM, and pools
+ * the connections to the backend service. An (ignored) benchmark compares the throughput + heap use of both
+ * proxies with a large number of concurrent clients.
+ */
+public class UTStreamingProxyTest extends AbstractBusClientServerTestBase {
+    
+    static final String PORT = allocatePort(Server.class);
+    
+    private static final String NAMESPACE = "http://www.example.org/contract/DoubleIt";
+    private static final QName SERVICE_QNAME = new QName(NAMESPACE, "DoubleItService");
+    
+    private static final String PROXY_PORT = allocatePort(Server.class, 2);
+    private static final String STREAMING_PROXY_PORT = allocatePort(Server.class, 3);
+    
+    private static Main main;
+    private static Bus clientBus;
+    
+    @BeforeClass
+    public static void startServers() throws Exception {
+        assertTrue(
+                   "Server failed to launch",
+                   // run the server in the same process
+                   // set this to false to fork
+                   launchServer(Server.class, true)
+        );
+        
+        // Start up the Camel route
+        main = new Main();
+        main.setApplicationContextUri("cxf-proxy-streaming.xml");
+        main.start();
+        
+        URL busFile = UTStreamingProxyTest.class.getResource("cxf-client.xml");
+        clientBus = new SpringBusFactory().createBus(busFile.toString());
+    }
+    
+    @AfterClass
+    public static void stopServers() throws Exception {
+        main.stop();
+        clientBus.shutdown(true);
+    }
+   
+    @org.junit.Test
+    public void testUTStreamingProxy() throws Exception {
+        DoubleItPortType transportPort = createPort(STREAMING_PROXY_PORT, "security");
+        doubleIt(transportPort, 25);
+    }
+    
+    @org.junit.Test
+    public void testUTStreamingProxyWrongPassword() throws Exception {
+        DoubleItPortType transportPort = createPort(STREAMING_PROXY_PORT, "bad-security");
+        
+        try {
+            doubleIt(transportPort, 25);
+            fail("Failure expected on a bad password");
+        } catch (Exception ex) {
+            // expected
+        }
+    }
+    
+    // Compare the throughput + peak heap of the PAYLOAD proxy in cxf-proxy.xml with the streaming proxy
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testProxyBenchmark() throws Exception {
+        int threads = 100;
+        int callsPerThread = 200;
+        
+        Main payloadMain = new Main();
+        payloadMain.setApplicationContextUri("cxf-proxy.xml");
+        payloadMain.start();
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (String port : new String[] {PROXY_PORT, STREAMING_PROXY_PORT}) {
+                List<DoubleItPortType> ports = new ArrayList<>(threads);
+                for (int i = 0; i < threads; i++) {
+                    DoubleItPortType transportPort = createPort(port, "security");
+                    // Warm up
+                    doubleIt(transportPort, 25);
+                    ports.add(transportPort);
+                }
+                
+                resetPeakHeap();
+                long heapBefore = peakHeap();
+                long start = System.currentTimeMillis();
+                
+                List<Future<?>> futures = new ArrayList<>(threads);
+                for (DoubleItPortType transportPort : ports) {
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < callsPerThread; i++) {
+                            doubleIt(transportPort, i);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                
+                long elapsed = System.currentTimeMillis() - start;
+                String name = PROXY_PORT.equals(port) ? "PAYLOAD proxy" : "Streaming proxy";
+                // The heap includes the clients + the backend service, which are the same for both proxies
+                System.out.println(name + ": " + (threads * callsPerThread * 1000L / Math.max(1L, elapsed)) 
+                    + " calls/sec, peak heap growth " + ((peakHeap() - heapBefore) / (1024 * 1024)) + "MB");
+            }
+        } finally {
+            executor.shutdownNow();
+            payloadMain.stop();
+        }
+    }
+    
+    private static DoubleItPortType createPort(String port, String password) throws Exception {
+        SpringBusFactory.setDefaultBus(clientBus);
+        SpringBusFactory.setThreadDefaultBus(clientBus);
+        
+        URL wsdl = UTStreamingProxyTest.class.getResource("../proxyservice/DoubleItProxy.wsdl");
+        Service service = Service.create(wsdl, SERVICE_QNAME);
+        QName portQName = new QName(NAMESPACE, "DoubleItPort");
+        DoubleItPortType transportPort = 
+            service.getPort(portQName, DoubleItPortType.class);
+        updateAddressPort(transportPort, port);
+        
+        ((BindingProvider)transportPort).getRequestContext().put(
+            SecurityConstants.USERNAME, "alice");
+        ((BindingProvider)transportPort).getRequestContext().put(
+            SecurityConstants.PASSWORD, password);
+        return transportPort;
+    }
+    
+    private static void doubleIt(DoubleItPortType port, int numToDouble) {
+        int resp = port.doubleIt(numToDouble);
+        assertEquals(numToDouble * 2 , resp);
+    }
+    
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+    
+}
@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.xmlsecurity;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.converter.stream.CachedOutputStream;
+import org.apache.camel.support.jsse.KeyStoreParameters;
+import org.apache.xml.security.stax.ext.OutboundXMLSec;
+import org.apache.xml.security.stax.ext.SecurePart;
+import org.apache.xml.security.stax.ext.XMLSec;
+import org.apache.xml.security.stax.ext.XMLSecurityConstants;
+import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.securityToken.SecurityTokenConstants;
+
+/**
+ * A Camel processor that signs an element of the message body using the streaming (StAX) API of Apache
+ * Santuario, instead of parsing the whole document into a DOM tree. The signed document is written to a
+ * CachedOutputStream, which spools to disk for large documents. The signing key is loaded once, and the
+ * OutboundXMLSec instance is shared across exchanges.
+ */
+public class StreamingXMLSignatureProcessor implements Processor {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private KeyStoreParameters keyStoreParameters;
+    private String alias;
+    private String password;
+    private String parentLocalName;
+    private String parentNamespace;
+    private String signatureAlgorithm = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+
+    private volatile OutboundXMLSec outboundXMLSec;
+
+    public void process(Exchange exchange) throws Exception {
+        OutboundXMLSec xmlSec = getOutboundXMLSec();
+
+        CachedOutputStream outputStream = new CachedOutputStream(exchange);
+        try (InputStream inputStream = exchange.getIn().getMandatoryBody(InputStream.class)) {
+            XMLStreamWriter writer = xmlSec.processOutMessage(outputStream, "UTF-8");
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+            copy(reader, writer);
+            writer.close();
+            reader.close();
+        }
+        exchange.getIn().setBody(outputStream.newStreamCache());
+    }
+
+    private OutboundXMLSec getOutboundXMLSec() throws Exception {
+        OutboundXMLSec xmlSec = outboundXMLSec;
+        if (xmlSec == null) {
+            synchronized (this) {
+                xmlSec = outboundXMLSec;
+                if (xmlSec == null) {
+                    xmlSec = createOutboundXMLSec();
+                    outboundXMLSec = xmlSec;
+                }
+            }
+        }
+        return xmlSec;
+    }
+
+    private OutboundXMLSec createOutboundXMLSec() throws Exception {
+        KeyStore keyStore = keyStoreParameters.createKeyStore();
+        PrivateKey privateKey = (PrivateKey) keyStore.getKey(alias, password.toCharArray());
+        X509Certificate certificate = (X509Certificate) keyStore.getCertificate(alias);
+
+        XMLSecurityProperties properties = new XMLSecurityProperties();
+        properties.setActions(Collections.singletonList(XMLSecurityConstants.SIGNATURE));
+        properties.setSignatureAlgorithm(signatureAlgorithm);
+        properties.setSignatureKey(privateKey);
+        properties.setSignatureCerts(new X509Certificate[] {certificate});
+        properties.setSignatureKeyIdentifier(SecurityTokenConstants.KeyIdentifier_X509KeyIdentifier);
+
+        SecurePart securePart =
+            new SecurePart(new QName(parentNamespace, parentLocalName), SecurePart.Modifier.Element);
+        properties.addSignaturePart(securePart);
+
+        return XMLSec.getOutboundXMLSec(properties);
+    }
+
+    /**
+     * Copy the events from the reader to the writer, without building up a tree in memory
+     */
+    static void copy(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartDocument("UTF-8", "1.0");
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                writer.writeStartElement(nonNull(reader.getPrefix()), reader.getLocalName(),
+                                         nonNull(reader.getNamespaceURI()));
+                for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                    writer.writeNamespace(nonNull(reader.getNamespacePrefix(i)), reader.getNamespaceURI(i));
+                }
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    String namespace = reader.getAttributeNamespace(i);
+                    if (namespace == null || namespace.isEmpty()) {
+                        writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    } else {
+                        writer.writeAttribute(nonNull(reader.getAttributePrefix(i)), namespace,
+                                              reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    }
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                writer.writeEndElement();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                break;
+            case XMLStreamConstants.CDATA:
+                writer.writeCData(reader.getText());
+                break;
+            case XMLStreamConstants.COMMENT:
+                writer.writeComment(reader.getText());
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                break;
+            case XMLStreamConstants.END_DOCUMENT:
+                writer.writeEndDocument();
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    public KeyStoreParameters getKeyStoreParameters() {
+        return keyStoreParameters;
+    }
+
+    public void setKeyStoreParameters(KeyStoreParameters keyStoreParameters) {
+        this.keyStoreParameters = keyStoreParameters;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public String getParentLocalName() {
+        return parentLocalName;
+    }
+
+    public void setParentLocalName(String parentLocalName) {
+        this.parentLocalName = parentLocalName;
+    }
+
+    public String getParentNamespace() {
+        return parentNamespace;
+    }
+
+    public void setParentNamespace(String parentNamespace) {
+        this.parentNamespace = parentNamespace;
+    }
+
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    public void setSignatureAlgorithm(String signatureAlgorithm) {
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.xmlsecurity;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.converter.stream.CachedOutputStream;
+import org.apache.camel.support.jsse.KeyStoreParameters;
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.InboundXMLSec;
+import org.apache.xml.security.stax.ext.XMLSec;
+import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.securityEvent.SecurityEvent;
+import org.apache.xml.security.stax.securityEvent.SecurityEventConstants;
+import org.apache.xml.security.stax.securityEvent.SecurityEventListener;
+import org.apache.xml.security.stax.securityEvent.SignedElementSecurityEvent;
+
+/**
+ * A Camel processor that verifies a signature created by the StreamingXMLSignatureProcessor, using the streaming
+ * (StAX) API of Apache Santuario. The signature is verified with the trusted public key from the keystore,
+ * rather than with whatever certificate is included in the document, and the processor checks that the
+ * expected element was actually signed.
+ */
+public class StreamingXMLVerificationProcessor implements Processor {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private KeyStoreParameters keyStoreParameters;
+    private String alias;
+    private String parentLocalName;
+    private String parentNamespace;
+
+    private volatile InboundXMLSec inboundXMLSec;
+
+    public void process(Exchange exchange) throws Exception {
+        InboundXMLSec xmlSec = getInboundXMLSec();
+        QName signedElement = new QName(parentNamespace, parentLocalName);
+
+        // The listener is called on this thread while the document is being read
+        SignedElementListener listener = new SignedElementListener(signedElement);
+
+        CachedOutputStream outputStream = new CachedOutputStream(exchange);
+        try (InputStream inputStream = exchange.getIn().getMandatoryBody(InputStream.class)) {
+            XMLStreamReader reader =
+                xmlSec.processInMessage(XML_INPUT_FACTORY.createXMLStreamReader(inputStream),
+                                        new ArrayList<SecurityEvent>(), listener);
+            XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(outputStream, "UTF-8");
+            StreamingXMLSignatureProcessor.copy(reader, writer);
+            writer.close();
+            reader.close();
+        }
+
+        if (!listener.isSigned()) {
+            throw new XMLSecurityException("empty", new Object[] {"The element " + signedElement + " is not signed"});
+        }
+        exchange.getIn().setBody(outputStream.newStreamCache());
+    }
+
+    private InboundXMLSec getInboundXMLSec() throws Exception {
+        InboundXMLSec xmlSec = inboundXMLSec;
+        if (xmlSec == null) {
+            synchronized (this) {
+                xmlSec = inboundXMLSec;
+                if (xmlSec == null) {
+                    KeyStore keyStore = keyStoreParameters.createKeyStore();
+                    PublicKey publicKey = keyStore.getCertificate(alias).getPublicKey();
+
+                    XMLSecurityProperties properties = new XMLSecurityProperties();
+                    properties.setSignatureVerificationKey(publicKey);
+                    xmlSec = XMLSec.getInboundWSSec(properties);
+                    inboundXMLSec = xmlSec;
+                }
+            }
+        }
+        return xmlSec;
+    }
+
+    private static final class SignedElementListener implements SecurityEventListener {
+
+        private final QName signedElement;
+        private boolean signed;
+
+        SignedElementListener(QName signedElement) {
+            this.signedElement = signedElement;
+        }
+
+        @Override
+        public void registerSecurityEvent(SecurityEvent securityEvent) throws XMLSecurityException {
+            if (SecurityEventConstants.SignedElement == securityEvent.getSecurityEventType()) {
+                List<QName> elementPath = ((SignedElementSecurityEvent) securityEvent).getElementPath();
+                if (!elementPath.isEmpty() && signedElement.equals(elementPath.get(elementPath.size() - 1))) {
+                    signed = true;
+                }
+            }
+        }
+
+        boolean isSigned() {
+            return signed;
+        }
+    }
+
+    public KeyStoreParameters getKeyStoreParameters() {
+        return keyStoreParameters;
+    }
+
+    public void setKeyStoreParameters(KeyStoreParameters keyStoreParameters) {
+        this.keyStoreParameters = keyStoreParameters;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public void setAlias(String alias) {
+        this.alias = alias;
+    }
+
+    public String getParentLocalName() {
+        return parentLocalName;
+    }
+
+    public void setParentLocalName(String parentLocalName) {
+        this.parentLocalName = parentLocalName;
+    }
+
+    public String getParentNamespace() {
+        return parentNamespace;
+    }
+
+    public void setParentNamespace(String parentNamespace) {
+        this.parentNamespace = parentNamespace;
+    }
+
+}
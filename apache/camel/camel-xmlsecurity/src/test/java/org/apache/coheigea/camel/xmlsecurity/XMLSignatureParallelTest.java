@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.xmlsecurity;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.spring.Main;
+import org.apache.camel.util.FileUtil;
+
+/**
+ * Sign a mix of small and large documents using the parallel route. The small documents are signed using DOM,
+ * and the large documents are signed using the streaming API. All of the signed documents are then verified.
+ */
+public class XMLSignatureParallelTest extends org.junit.Assert {
+
+    private static final int SMALL_DOCUMENTS = 100;
+    private static final int LARGE_DOCUMENTS = 2;
+
+    @org.junit.Test
+    public void testParallelXMLSignature() throws Exception {
+        File dataDirectory = new File("target/parallel-data");
+        FileUtil.removeDir(dataDirectory);
+        FileUtil.removeDir(new File("target/parallel-signed-data"));
+        File verifiedDirectory = new File("target/parallel-verified-data");
+        FileUtil.removeDir(verifiedDirectory);
+
+        dataDirectory.mkdirs();
+        for (int i = 0; i < SMALL_DOCUMENTS; i++) {
+            Files.write(new File(dataDirectory, "small-" + i + ".xml").toPath(), createDocument(1));
+        }
+        // ~4MB each
+        for (int i = 0; i < LARGE_DOCUMENTS; i++) {
+            Files.write(new File(dataDirectory, "large-" + i + ".xml").toPath(), createDocument(50000));
+        }
+
+        // Start up the Camel route
+        Main main = new Main();
+        main.setApplicationContextUri("camel-xmlsignature-parallel.xml");
+        main.start();
+
+        try {
+            // Wait for all of the files to be signed + verified
+            int expected = SMALL_DOCUMENTS + LARGE_DOCUMENTS;
+            long end = System.currentTimeMillis() + 30 * 1000L;
+            while (countFiles(verifiedDirectory) < expected && System.currentTimeMillis() < end) {
+                Thread.sleep(200L);
+            }
+
+            assertEquals(SMALL_DOCUMENTS, countFiles(new File("target/parallel-signed-data/dom")));
+            assertEquals(LARGE_DOCUMENTS, countFiles(new File("target/parallel-signed-data/streaming")));
+            assertEquals(expected, countFiles(verifiedDirectory));
+        } finally {
+            main.stop();
+        }
+    }
+
+    // Compare the throughput + heap use of DOM and streaming signing for different document sizes
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testSigningBenchmark() throws Exception {
+        Main main = new Main();
+        main.setApplicationContextUri("camel-xmlsignature-parallel.xml");
+        main.start();
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ProducerTemplate template = main.getCamelContext().createProducerTemplate();
+
+            // Roughly 1KB, 80KB, 800KB, 8MB
+            int[] itemCounts = {1, 1000, 10000, 100000};
+            for (int itemCount : itemCounts) {
+                byte[] document = createDocument(itemCount);
+                int count = Math.max(8, Math.min(2000, 20 * 1024 * 1024 / document.length));
+                for (String endpoint : new String[] {"direct:dom-sign", "direct:streaming-sign"}) {
+                    // Warm up
+                    run(template, executor, endpoint, document, threads, threads);
+
+                    resetPeakHeap();
+                    long heapBefore = peakHeap();
+                    long start = System.nanoTime();
+                    run(template, executor, endpoint, document, count, threads);
+                    long elapsed = System.nanoTime() - start;
+                    long heapPerDocument = (peakHeap() - heapBefore) / threads;
+
+                    System.out.println(endpoint + ", document size " + (document.length / 1024) + "KB: "
+                        + (count * 1000000000L / elapsed) + " docs/sec, peak heap per in-flight document "
+                        + (heapPerDocument / 1024) + "KB");
+                }
+            }
+            template.stop();
+        } finally {
+            executor.shutdownNow();
+            main.stop();
+        }
+    }
+
+    private static void run(ProducerTemplate template, ExecutorService executor, String endpoint,
+                            byte[] document, int count, int threads) throws Exception {
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int share = count / threads + (t < count % threads ? 1 : 0);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < share; i++) {
+                    template.requestBody(endpoint, document);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private static byte[] createDocument(int itemCount) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<PurchaseOrder xmlns=\"urn:example:po\">\n  <Items>\n");
+        for (int i = 0; i < itemCount; i++) {
+            sb.append("    <Item Code=\"001-001-").append(i).append("\" Quantity=\"1\">\n");
+            sb.append("      spade\n    </Item>\n");
+        }
+        sb.append("  </Items>\n");
+        sb.append("  <ShippingAddress>\n    Dig PLC, 1 First Ave, Dublin 1, Ireland\n  </ShippingAddress>\n");
+        sb.append("  <PaymentInfo>\n");
+        sb.append("    <BillingAddress>\n      Dig PLC, 1 First Ave, Dublin 1, Ireland\n    </BillingAddress>\n");
+        sb.append("    <CreditCard Type=\"Amex\">\n      <Name>Foo B Baz</Name>\n");
+        sb.append("      <Number>1234 567890 12345</Number>\n      <Expires Month=\"1\" Year=\"2005\" />\n");
+        sb.append("    </CreditCard>\n  </PaymentInfo>\n</PurchaseOrder>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int countFiles(File directory) {
+        File[] files = directory.listFiles(file -> file.isFile() && !file.getName().startsWith("."));
+        return files == null ? 0 : files.length;
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+}
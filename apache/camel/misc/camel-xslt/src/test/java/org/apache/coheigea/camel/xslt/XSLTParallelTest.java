@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.xslt;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.spring.Main;
+import org.apache.camel.util.FileUtil;
+
+/**
+ * Transform a mix of small and large files using the parallel route in camel-xslt-parallel.xml, which uses a
+ * stylesheet that is compiled once, and a StAX source for the large files. An (ignored) benchmark compares it
+ * with the route in camel-xslt.xml.
+ */
+public class XSLTParallelTest extends org.junit.Assert {
+
+    private static final int SMALL_FILES = 200;
+    private static final int LARGE_FILES = 2;
+
+    @org.junit.Test
+    public void testParallelXSLT() throws Exception {
+        writeFiles(SMALL_FILES, LARGE_FILES);
+
+        Main main = new Main();
+        main.setApplicationContextUri("camel-xslt-parallel.xml");
+        main.start();
+
+        try {
+            File outputDirectory = new File("target/parallel-transformed-data");
+            File index = new File(outputDirectory, "index.txt");
+            int expected = SMALL_FILES + LARGE_FILES;
+            run(main, "parallel", () -> index.exists() ? Files.readAllLines(index.toPath()).size() : 0, expected);
+
+            // The index is in the order that the files were read in, i.e. sorted by name
+            List<String> names = Files.readAllLines(index.toPath(), StandardCharsets.UTF_8);
+            List<String> inputOrder = new ArrayList<>(Arrays.asList(new File("target/xslt-data").list()));
+            Collections.sort(inputOrder);
+            assertEquals(inputOrder, names);
+            for (String name : names) {
+                String transformed = new String(Files.readAllBytes(new File(outputDirectory, name).toPath()),
+                                                StandardCharsets.UTF_8);
+                assertTrue(transformed.contains("Dig PLC, 1 First Ave, Dublin 1, Ireland"));
+                assertFalse(transformed.contains("Item"));
+            }
+        } finally {
+            main.stop();
+        }
+    }
+
+    // Compare the files/sec + allocation per file of the camel-xslt.xml route and the parallel route
+    @org.junit.Test
+    @org.junit.Ignore
+    public void testXSLTBenchmark() throws Exception {
+        int files = 20000;
+        writeFiles(files, 0);
+
+        Main main = new Main();
+        main.setApplicationContextUri("camel-xslt-parallel.xml");
+        main.start();
+
+        try {
+            for (String routeId : new String[] {"default", "parallel"}) {
+                File outputDirectory = new File("default".equals(routeId)
+                    ? "target/default-transformed-data" : "target/parallel-transformed-data");
+                long allocatedBefore = allocatedBytes();
+                long elapsed = run(main, routeId, () -> countFiles(outputDirectory), files);
+                long allocatedPerFile = (allocatedBytes() - allocatedBefore) / files;
+
+                System.out.println(routeId + " route: " + (files * 1000L / Math.max(1L, elapsed))
+                    + " files/sec, " + (allocatedPerFile / 1024) + "KB allocated per file");
+            }
+        } finally {
+            main.stop();
+        }
+    }
+
+    /**
+     * Start the route and wait until it has written all of the files
+     * @return the time taken in ms
+     */
+    private static long run(Main main, String routeId, Progress progress, int expected) throws Exception {
+        CamelContext camelContext = main.getCamelContext();
+        long start = System.currentTimeMillis();
+        camelContext.getRouteController().startRoute(routeId);
+
+        long end = start + 10 * 60 * 1000L;
+        while (progress.get() < expected && System.currentTimeMillis() < end) {
+            Thread.sleep(100L);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        camelContext.getRouteController().stopRoute(routeId);
+
+        assertEquals(expected, progress.get());
+        return elapsed;
+    }
+
+    private static void writeFiles(int smallFiles, int largeFiles) throws Exception {
+        File dataDirectory = new File("target/xslt-data");
+        FileUtil.removeDir(dataDirectory);
+        FileUtil.removeDir(new File("target/parallel-transformed-data"));
+        FileUtil.removeDir(new File("target/default-transformed-data"));
+
+        dataDirectory.mkdirs();
+        byte[] smallFile = createDocument(2);
+        for (int i = 0; i < smallFiles; i++) {
+            Files.write(new File(dataDirectory, "small-" + i + ".xml").toPath(), smallFile);
+        }
+        // ~4MB each, so they are read using StAX
+        for (int i = 0; i < largeFiles; i++) {
+            Files.write(new File(dataDirectory, "large-" + i + ".xml").toPath(), createDocument(50000));
+        }
+    }
+
+    private static byte[] createDocument(int itemCount) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<PurchaseOrder xmlns=\"urn:example:po\">\n  <Items>\n");
+        for (int i = 0; i < itemCount; i++) {
+            sb.append("    <Item Code=\"001-001-").append(i).append("\" Quantity=\"1\">\n");
+            sb.append("      spade\n    </Item>\n");
+        }
+        sb.append("  </Items>\n");
+        sb.append("  <ShippingAddress>\n    Dig PLC, 1 First Ave, Dublin 1, Ireland\n  </ShippingAddress>\n");
+        sb.append("  <PaymentInfo>\n");
+        sb.append("    <BillingAddress>\n      Dig PLC, 1 First Ave, Dublin 1, Ireland\n    </BillingAddress>\n");
+        sb.append("  </PaymentInfo>\n</PurchaseOrder>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int countFiles(File directory) {
+        File[] files = directory.listFiles(file -> file.isFile() && !file.getName().startsWith(".")
+            && !"index.txt".equals(file.getName()));
+        return files == null ? 0 : files.length;
+    }
+
+    /**
+     * The number of bytes allocated by all of the live threads
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    private interface Progress {
+        int get() throws Exception;
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.coheigea.camel.xslt;
+
+import java.io.InputStream;
+import java.net.URL;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stax.StAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.converter.stream.CachedOutputStream;
+
+/**
+ * A Camel processor that transforms the message body using a stylesheet which is compiled once into a
+ * (thread-safe) Templates object when the processor is started. Each thread has its own Transformer, which is
+ * reset after every use, so that the processor can be called concurrently without a pool or any locking.
+ *
+ * The input is read as a stream. Files larger than the "streamingThreshold" are read with a StAX parser, and the
+ * output is written to a CachedOutputStream, which spools to disk if it gets large.
+ */
+public class XSLTTemplatesProcessor implements Processor {
+
+    private final ThreadLocal<Transformer> transformers = ThreadLocal.withInitial(this::newTransformer);
+    private XMLInputFactory inputFactory;
+    private Templates templates;
+
+    private String stylesheet;
+    private long streamingThreshold = 1024 * 1024;
+
+    public void start() throws Exception {
+        URL url = XSLTTemplatesProcessor.class.getClassLoader().getResource(stylesheet);
+        if (url == null) {
+            throw new IllegalArgumentException("Can't find the stylesheet " + stylesheet);
+        }
+
+        TransformerFactory transformerFactory = TransformerFactory.newInstance();
+        transformerFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        try (InputStream inputStream = url.openStream()) {
+            templates = transformerFactory.newTemplates(new StreamSource(inputStream, url.toExternalForm()));
+        }
+
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    public void process(Exchange exchange) throws Exception {
+        long length = exchange.getIn().getHeader(Exchange.FILE_LENGTH, -1L, Long.class);
+        Transformer transformer = transformers.get();
+
+        try (InputStream inputStream = exchange.getIn().getMandatoryBody(InputStream.class)) {
+            XMLStreamReader reader = null;
+            Source source;
+            if (length > streamingThreshold) {
+                reader = inputFactory.createXMLStreamReader(inputStream);
+                source = new StAXSource(reader);
+            } else {
+                source = new StreamSource(inputStream);
+            }
+
+            CachedOutputStream outputStream = new CachedOutputStream(exchange);
+            try {
+                transformer.transform(source, new StreamResult(outputStream));
+            } finally {
+                transformer.reset();
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            exchange.getIn().setBody(outputStream.newStreamCache());
+        }
+    }
+
+    private Transformer newTransformer() {
+        try {
+            return templates.newTransformer();
+        } catch (TransformerConfigurationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public String getStylesheet() {
+        return stylesheet;
+    }
+
+    /**
+     * The location of the stylesheet on the classpath
+     */
+    public void setStylesheet(String stylesheet) {
+        this.stylesheet = stylesheet;
+    }
+
+    public long getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    /**
+     * Files that are larger than this (in bytes) are read using StAX, 1MB by default
+     */
+    public void setStreamingThreshold(long streamingThreshold) {
+        this.streamingThreshold = streamingThreshold;
+    }
+
+}